@@ -0,0 +1,424 @@
+package org.systemsbiology.genomebrowser.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.metrics.Gauge;
+import org.systemsbiology.genomebrowser.metrics.Metrics;
+
+
+/**
+ * A memory-budgeted cache for blocks of track data. Rather than holding a
+ * fixed number of blocks, the cache holds as many blocks as fit in a budget
+ * of bytes, using the size reported by blocks implementing Sized.
+ *
+ * Eviction follows a segmented LRU policy. New blocks enter a probationary
+ * segment and are promoted to a protected segment when they are hit again.
+ * A burst of blocks touched only once (say, scrolling quickly across a
+ * chromosome) then pushes out other one-hit blocks rather than the blocks
+ * we keep coming back to.
+ *
+ * The cache is safe for concurrent use. Lookups take a short lock; loading
+ * happens outside the lock, and concurrent requests for the same missing
+ * block wait on a single load rather than each hitting the DB.
+ *
+ * Keys can be pinned, typically those of the blocks currently on screen.
+ * Pinned blocks are never evicted, and blocks loaded speculatively by
+ * prefetch() are only kept if they fit without displacing pinned blocks.
+ *
+ * @see Sized
+ */
+public class BlockCache<K, V> {
+	private static final Logger log = Logger.getLogger(BlockCache.class);
+
+	/**
+	 * System property giving the cache budget in bytes.
+	 */
+	public static final String BUDGET_PROPERTY = "genomebrowser.blockcache.bytes";
+
+	/**
+	 * System property giving the cache budget as a fraction of max heap,
+	 * used when no budget in bytes is specified.
+	 */
+	public static final String FRACTION_PROPERTY = "genomebrowser.blockcache.fraction";
+	public static final double DEFAULT_FRACTION = 0.25;
+
+	// portion of the budget reserved for blocks that have been hit more than once
+	private static final double PROTECTED_FRACTION = 0.8;
+
+	// size charged for values that don't implement Sized
+	private static final long DEFAULT_ENTRY_SIZE = 64 * 1024;
+
+	private static BlockCache<Object, Object> sharedInstance;
+
+	private final long maxBytes;
+	private final long maxProtectedBytes;
+
+	// both maps are kept in LRU order, eldest first
+	private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<K, Entry<V>>(64, 0.75f, false);
+	private final LinkedHashMap<K, Entry<V>> protectedSegment = new LinkedHashMap<K, Entry<V>>(64, 0.75f, true);
+	private long probationBytes;
+	private long protectedBytes;
+
+	// keys of blocks that must not be evicted
+	private Set<K> pinned = Collections.emptySet();
+
+	private final ConcurrentHashMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadFailures = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong loadNanos = new AtomicLong();
+	private final AtomicLong prefetches = new AtomicLong();
+
+
+	/**
+	 * Loads a value on a cache miss.
+	 */
+	public interface Loader<K, V> {
+		public V load(K key);
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long size;
+
+		Entry(V value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+
+
+	/**
+	 * Create a cache with the default budget.
+	 * @see #getDefaultBudget()
+	 */
+	public BlockCache() {
+		this(getDefaultBudget());
+	}
+
+	/**
+	 * @param maxBytes memory budget in bytes
+	 */
+	public BlockCache(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Cache budget must be positive: " + maxBytes);
+		this.maxBytes = maxBytes;
+		this.maxProtectedBytes = (long)(maxBytes * PROTECTED_FRACTION);
+	}
+
+	/**
+	 * A cache shared by all data sources, so the budget applies to the whole
+	 * application rather than to each open dataset. Its counters are
+	 * published as Metrics gauges.
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized <K, V> BlockCache<K, V> getSharedInstance() {
+		if (sharedInstance == null) {
+			sharedInstance = new BlockCache<Object, Object>();
+			log.info(String.format("block cache budget = %,d bytes", sharedInstance.getMaxBytes()));
+			sharedInstance.publishMetrics("blockcache");
+		}
+		return (BlockCache<K, V>)sharedInstance;
+	}
+
+	/**
+	 * The budget is taken from the system property genomebrowser.blockcache.bytes
+	 * if set, otherwise it's a fraction (genomebrowser.blockcache.fraction,
+	 * default 0.25) of the max heap size.
+	 */
+	public static long getDefaultBudget() {
+		String bytes = System.getProperty(BUDGET_PROPERTY);
+		if (bytes != null) {
+			try {
+				return Long.parseLong(bytes.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + BUDGET_PROPERTY + ": " + bytes);
+			}
+		}
+		double fraction = DEFAULT_FRACTION;
+		String f = System.getProperty(FRACTION_PROPERTY);
+		if (f != null) {
+			try {
+				fraction = Double.parseDouble(f.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + FRACTION_PROPERTY + ": " + f);
+			}
+		}
+		return (long)(Runtime.getRuntime().maxMemory() * fraction);
+	}
+
+	/**
+	 * Publish the cache's counters as gauges named with the given prefix.
+	 */
+	public void publishMetrics(String prefix) {
+		Metrics metrics = Metrics.getInstance();
+		metrics.gauge(prefix + ".hits", new Gauge() {
+			public long getValue() { return hits.get(); }
+		});
+		metrics.gauge(prefix + ".misses", new Gauge() {
+			public long getValue() { return misses.get(); }
+		});
+		metrics.gauge(prefix + ".loads", new Gauge() {
+			public long getValue() { return loads.get(); }
+		});
+		metrics.gauge(prefix + ".evictions", new Gauge() {
+			public long getValue() { return evictions.get(); }
+		});
+		metrics.gauge(prefix + ".bytes", new Gauge() {
+			public long getValue() { return getSizeInBytes(); }
+		});
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the cached value or null if the key is not in the cache
+	 */
+	public V get(K key) {
+		V value = lookup(key);
+		if (value == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Return the cached value for the given key, loading it with the given
+	 * loader if it's not in the cache.
+	 */
+	public V get(final K key, final Loader<K, V> loader) {
+		V value = get(key);
+		if (value != null)
+			return value;
+		return load(key, loader, false);
+	}
+
+	/**
+	 * Load the value for the given key in anticipation of it being needed,
+	 * unless it's already cached or being loaded. Unlike get(), this doesn't
+	 * count as a use of the block, so it won't promote a cached block or
+	 * skew the hit rate. The value is dropped if the cache can't hold it
+	 * without evicting pinned blocks.
+	 * @return true if a value was loaded
+	 */
+	public boolean prefetch(K key, Loader<K, V> loader) {
+		if (contains(key) || loading.containsKey(key))
+			return false;
+		load(key, loader, true);
+		return true;
+	}
+
+	private V load(final K key, final Loader<K, V> loader, boolean isPrefetch) {
+		V value;
+		FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+			public V call() throws Exception {
+				return loader.load(key);
+			}
+		});
+		FutureTask<V> pending = loading.putIfAbsent(key, task);
+		boolean loadedHere = (pending == null);
+		if (loadedHere) {
+			pending = task;
+			long t0 = System.nanoTime();
+			task.run();
+			loadNanos.addAndGet(System.nanoTime() - t0);
+			loads.incrementAndGet();
+			if (isPrefetch)
+				prefetches.incrementAndGet();
+		}
+
+		try {
+			value = pending.get();
+			if (loadedHere)
+				put(key, value, isPrefetch);
+			return value;
+		}
+		catch (ExecutionException e) {
+			if (loadedHere)
+				loadFailures.incrementAndGet();
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for block " + key, e);
+		}
+		finally {
+			if (loadedHere)
+				loading.remove(key, task);
+		}
+	}
+
+	/**
+	 * Add a value to the cache. Values larger than the entire budget are
+	 * not retained.
+	 */
+	public void put(K key, V value) {
+		put(key, value, false);
+	}
+
+	private void put(K key, V value, boolean isPrefetch) {
+		if (value == null) return;
+		long size = sizeOf(value);
+		if (size > maxBytes) {
+			log.warn(String.format("Not caching %s: size %,d exceeds cache budget %,d", key, size, maxBytes));
+			return;
+		}
+		synchronized (this) {
+			remove(key);
+			probation.put(key, new Entry<V>(value, size));
+			probationBytes += size;
+			evict();
+
+			// everything else is pinned, so rather than overrun the budget
+			// for a block nobody's asked for, drop it.
+			if (isPrefetch && probationBytes + protectedBytes > maxBytes)
+				remove(key);
+		}
+	}
+
+	/**
+	 * Replace the set of pinned keys. Pinned blocks are not evicted, even
+	 * if that means going over budget. Keys not yet in the cache may be
+	 * pinned, protecting the block once it's loaded.
+	 */
+	public synchronized void setPinned(Collection<? extends K> keys) {
+		pinned = new HashSet<K>(keys);
+	}
+
+	public synchronized boolean isPinned(K key) {
+		return pinned.contains(key);
+	}
+
+	public synchronized boolean contains(K key) {
+		return probation.containsKey(key) || protectedSegment.containsKey(key);
+	}
+
+	public synchronized void invalidate(K key) {
+		remove(key);
+	}
+
+	public synchronized void clear() {
+		probation.clear();
+		protectedSegment.clear();
+		probationBytes = 0;
+		protectedBytes = 0;
+		pinned = Collections.emptySet();
+	}
+
+	public synchronized int size() {
+		return probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * @return estimated number of bytes held by the cache
+	 */
+	public synchronized long getSizeInBytes() {
+		return probationBytes + protectedBytes;
+	}
+
+	public CacheStats getStats() {
+		int entries;
+		long bytes;
+		synchronized (this) {
+			entries = size();
+			bytes = getSizeInBytes();
+		}
+		return new CacheStats(hits.get(), misses.get(), loads.get(), loadFailures.get(),
+				evictions.get(), prefetches.get(), loadNanos.get(), entries, bytes, maxBytes);
+	}
+
+	private synchronized V lookup(K key) {
+		Entry<V> entry = protectedSegment.get(key);
+		if (entry != null)
+			return entry.value;
+		entry = probation.remove(key);
+		if (entry != null) {
+			// second hit, promote to the protected segment
+			probationBytes -= entry.size;
+			protectedSegment.put(key, entry);
+			protectedBytes += entry.size;
+			demote();
+			return entry.value;
+		}
+		return null;
+	}
+
+	private void remove(K key) {
+		Entry<V> entry = probation.remove(key);
+		if (entry != null)
+			probationBytes -= entry.size;
+		entry = protectedSegment.remove(key);
+		if (entry != null)
+			protectedBytes -= entry.size;
+	}
+
+	/**
+	 * Move the least recently used protected entries back to probation
+	 * when the protected segment outgrows its share of the budget.
+	 */
+	private void demote() {
+		Iterator<Map.Entry<K, Entry<V>>> iterator = protectedSegment.entrySet().iterator();
+		while (protectedBytes > maxProtectedBytes && iterator.hasNext()) {
+			Map.Entry<K, Entry<V>> eldest = iterator.next();
+			iterator.remove();
+			protectedBytes -= eldest.getValue().size;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationBytes += eldest.getValue().size;
+		}
+		evict();
+	}
+
+	/**
+	 * Drop unpinned entries, probationary ones first, until we're within budget.
+	 */
+	private void evict() {
+		evict(probation.entrySet().iterator(), true);
+		evict(protectedSegment.entrySet().iterator(), false);
+	}
+
+	private void evict(Iterator<Map.Entry<K, Entry<V>>> iterator, boolean isProbation) {
+		while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<K, Entry<V>> next = iterator.next();
+			if (pinned.contains(next.getKey()))
+				continue;
+			Entry<V> eldest = next.getValue();
+			iterator.remove();
+			if (isProbation)
+				probationBytes -= eldest.size;
+			else
+				protectedBytes -= eldest.size;
+			evictions.incrementAndGet();
+		}
+	}
+
+	private long sizeOf(V value) {
+		if (value instanceof Sized)
+			return ((Sized)value).getSizeInBytes();
+		return DEFAULT_ENTRY_SIZE;
+	}
+}
@@ -0,0 +1,48 @@
+package org.systemsbiology.genomebrowser.cache;
+
+/**
+ * A snapshot of a BlockCache's counters.
+ */
+public class CacheStats {
+	public final long hits;
+	public final long misses;
+	public final long loads;
+	public final long loadFailures;
+	public final long evictions;
+	public final long prefetches;
+	public final long totalLoadNanos;
+	public final int entries;
+	public final long bytes;
+	public final long maxBytes;
+
+	public CacheStats(long hits, long misses, long loads, long loadFailures, long evictions,
+			long prefetches, long totalLoadNanos, int entries, long bytes, long maxBytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.loads = loads;
+		this.loadFailures = loadFailures;
+		this.evictions = evictions;
+		this.prefetches = prefetches;
+		this.totalLoadNanos = totalLoadNanos;
+		this.entries = entries;
+		this.bytes = bytes;
+		this.maxBytes = maxBytes;
+	}
+
+	public double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0.0 : ((double)hits) / requests;
+	}
+
+	/**
+	 * @return mean time to load a block in milliseconds
+	 */
+	public double getAverageLoadMillis() {
+		return loads == 0 ? 0.0 : totalLoadNanos / 1e6 / loads;
+	}
+
+	public String toString() {
+		return String.format("(CacheStats hits=%d, misses=%d, hitRate=%.3f, loads=%d, failures=%d, evictions=%d, prefetches=%d, avgLoad=%.2fms, entries=%d, bytes=%,d/%,d)",
+				hits, misses, getHitRate(), loads, loadFailures, evictions, prefetches, getAverageLoadMillis(), entries, bytes, maxBytes);
+	}
+}
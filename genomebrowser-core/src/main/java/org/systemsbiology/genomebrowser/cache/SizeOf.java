@@ -0,0 +1,54 @@
+package org.systemsbiology.genomebrowser.cache;
+
+/**
+ * Rough estimates of the heap occupied by arrays, assuming a 64 bit VM with
+ * compressed references. Good enough for budgeting a cache, not for
+ * anything requiring precision.
+ */
+public class SizeOf {
+	public static final int OBJECT_HEADER = 16;
+	public static final int ARRAY_HEADER = 16;
+	public static final int REFERENCE = 4;
+
+	public static long array(int[] a) {
+		return a==null ? 0 : align(ARRAY_HEADER + 4L * a.length);
+	}
+
+	public static long array(double[] a) {
+		return a==null ? 0 : align(ARRAY_HEADER + 8L * a.length);
+	}
+
+	public static long array(float[] a) {
+		return a==null ? 0 : align(ARRAY_HEADER + 4L * a.length);
+	}
+
+	public static long array(double[][] a) {
+		if (a==null) return 0;
+		long size = align(ARRAY_HEADER + (long)REFERENCE * a.length);
+		for (double[] row : a) {
+			size += array(row);
+		}
+		return size;
+	}
+
+	/**
+	 * Strings are counted in full even though identical strings may be
+	 * shared, so this tends to overestimate.
+	 */
+	public static long array(String[] a) {
+		if (a==null) return 0;
+		long size = align(ARRAY_HEADER + (long)REFERENCE * a.length);
+		for (String s : a) {
+			size += string(s);
+		}
+		return size;
+	}
+
+	public static long string(String s) {
+		return s==null ? 0 : align(OBJECT_HEADER + 8) + align(ARRAY_HEADER + 2L * s.length());
+	}
+
+	public static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
@@ -0,0 +1,15 @@
+package org.systemsbiology.genomebrowser.cache;
+
+/**
+ * Implemented by objects, blocks in particular, that can estimate how much
+ * heap they occupy. The BlockCache uses the estimate to stay within its
+ * memory budget.
+ * @see BlockCache
+ */
+public interface Sized {
+
+	/**
+	 * @return approximate number of bytes of heap held by this object
+	 */
+	public long getSizeInBytes();
+}
@@ -0,0 +1,135 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+
+/**
+ * Reads lines the way BufferedReader.readLine does, ending them at \n, \r
+ * or \r\n, but without making a String of each one. The current line is a
+ * window on the reader's buffer, to be picked apart with a FieldTokenizer:
+ *
+ * <pre>
+ * while (reader.nextLine()) {
+ *     fields.reset(reader.getLine());
+ *     ...
+ * }
+ * </pre>
+ *
+ * The window is reused and its contents overwritten by the next call to
+ * nextLine(). Call toString() on it to keep a line.
+ */
+public class CharLineReader {
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private final Reader reader;
+	private char[] buffer;
+	private CharBuffer line;
+	private int position;
+	private int limit;
+	private int lineNumber = -1;
+	private boolean skipLineFeed;
+
+
+	public CharLineReader(Reader reader) {
+		this(reader, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CharLineReader(Reader reader, int bufferSize) {
+		this.reader = reader;
+		this.buffer = new char[Math.max(16, bufferSize)];
+		this.line = CharBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Move to the next line.
+	 * @return false at the end of the input
+	 */
+	public boolean nextLine() throws IOException {
+		// the \n of a \r\n that ended the last line
+		if (skipLineFeed) {
+			if (position == limit && !fill())
+				return false;
+			skipLineFeed = false;
+			if (buffer[position] == '\n')
+				position++;
+		}
+
+		int i = position;
+		while (true) {
+			if (i == limit) {
+				int scanned = i - position;
+				if (!fill()) {
+					if (position == limit)
+						return false;
+					return setLine(position, limit, limit);
+				}
+				i = position + scanned;
+			}
+			char c = buffer[i];
+			if (c == '\n' || c == '\r') {
+				skipLineFeed = (c == '\r');
+				return setLine(position, i, i + 1);
+			}
+			i++;
+		}
+	}
+
+	private boolean setLine(int start, int end, int next) {
+		line.clear();
+		line.limit(end);
+		line.position(start);
+		position = next;
+		lineNumber++;
+		return true;
+	}
+
+	/**
+	 * Move the unread part of the buffer to the front, growing the buffer
+	 * if a line fills it, and read more.
+	 * @return false if there's nothing more to read
+	 */
+	private boolean fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		else if (limit == buffer.length) {
+			char[] newBuffer = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, limit);
+			buffer = newBuffer;
+			line = CharBuffer.wrap(buffer);
+		}
+		int n = reader.read(buffer, limit, buffer.length - limit);
+		if (n <= 0)
+			return false;
+		limit += n;
+		return true;
+	}
+
+	/**
+	 * @return the current line, without its line terminator
+	 */
+	public CharSequence getLine() {
+		return line;
+	}
+
+	/**
+	 * @return true if the current line starts with the given character
+	 */
+	public boolean startsWith(char c) {
+		return line.remaining() > 0 && line.charAt(0) == c;
+	}
+
+	/**
+	 * @return number of the current line, counting from 0
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+}
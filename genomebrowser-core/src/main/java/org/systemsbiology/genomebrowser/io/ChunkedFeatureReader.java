@@ -0,0 +1,64 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.io.File;
+
+import org.systemsbiology.genomebrowser.io.ChunkedFileParser.Chunk;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.util.ProgressListener;
+
+
+/**
+ * Reads features from a tab delimited file with a ChunkedFileParser. Each
+ * chunk's lines are parsed on a worker thread into a FeatureBatch by a
+ * copy of the given LineFeatureFields, then the batches are fed to the
+ * FeatureProcessor in the order of the file.
+ */
+public class ChunkedFeatureReader {
+	private final ChunkedFileParser<FeatureBatch> parser = new ChunkedFileParser<FeatureBatch>();
+	private int headerLines;
+
+
+	/**
+	 * Skip the given number of lines at the top of the file.
+	 */
+	public void setHeaderLines(int headerLines) {
+		this.headerLines = headerLines;
+	}
+
+	public ChunkedFileParser<FeatureBatch> getParser() {
+		return parser;
+	}
+
+	public void addProgressListener(ProgressListener listener) {
+		parser.addProgressListener(listener);
+	}
+
+	public void removeProgressListener(ProgressListener listener) {
+		parser.removeProgressListener(listener);
+	}
+
+	public void processFeatures(File file, final LineFeatureFields prototype, final FeatureProcessor featureProcessor) throws Exception {
+		parser.parse(file,
+			new ChunkedFileParser.ChunkParser<FeatureBatch>() {
+				public FeatureBatch parse(Chunk chunk) throws Exception {
+					LineFeatureFields featureFields = prototype.copy();
+					FieldScanner scanner = new FieldScanner();
+					FeatureBatch batch = new FeatureBatch(chunk.countLines());
+					while (chunk.nextLine()) {
+						if (chunk.getIndex() == 0 && chunk.getLineNumber() < headerLines)
+							continue;
+						scanner.reset(chunk.getBytes(), chunk.getLineStart(), chunk.getLineEnd());
+						if (featureFields.scan(scanner))
+							batch.add(featureFields);
+					}
+					return batch;
+				}
+			},
+			new ChunkedFileParser.ChunkConsumer<FeatureBatch>() {
+				public boolean consume(FeatureBatch batch) throws Exception {
+					batch.processFeatures(featureProcessor);
+					return true;
+				}
+			});
+	}
+}
@@ -0,0 +1,414 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.util.ProgressListener;
+import org.systemsbiology.util.ProgressListenerSupport;
+
+
+/**
+ * Parses a big text file on several threads. The file is cut into chunks
+ * of about chunkBytes bytes, each ending at the end of a line, and the
+ * chunks are parsed on a pool of worker threads by a ChunkParser. Results
+ * are handed to a ChunkConsumer on the calling thread in the order of the
+ * chunks in the file, so whatever the consumer feeds them to sees the
+ * lines of the file in order, one thread at a time.
+ *
+ * Workers run at most a few chunks ahead of the consumer. Results of
+ * chunks that finish early wait for the chunks before them, which bounds
+ * the memory held by parsed chunks no matter how slow the consumer is.
+ *
+ * Lines end with \n or \r\n. The file's encoding has to leave '\n' bytes
+ * alone, as ASCII, Latin-1 and UTF-8 do.
+ */
+public class ChunkedFileParser<T> {
+	private static final Logger log = Logger.getLogger(ChunkedFileParser.class);
+
+	/**
+	 * System property setting the number of parsing threads.
+	 */
+	public static final String THREADS_PROPERTY = "genomebrowser.parse.threads";
+
+	/**
+	 * System property setting the size of chunks in bytes.
+	 */
+	public static final String CHUNK_BYTES_PROPERTY = "genomebrowser.parse.chunk.bytes";
+
+	public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+
+	// chunks that may be parsed or waiting to be consumed, per thread
+	private static final int CHUNKS_PER_THREAD = 2;
+
+	// bytes read at a time looking for the end of a line
+	private static final int PROBE_BYTES = 8 * 1024;
+
+	private int threads = getDefaultThreadCount();
+	private int chunkBytes = Integer.getInteger(CHUNK_BYTES_PROPERTY, DEFAULT_CHUNK_BYTES);
+	private ProgressListenerSupport progressListenerSupport = new ProgressListenerSupport();
+
+
+	/**
+	 * Parses a chunk of the file. Called on worker threads, possibly on
+	 * several chunks at once, so implementations must not share mutable
+	 * state between calls. The chunk's bytes are reused once parse returns,
+	 * so results must not refer to them.
+	 */
+	public static interface ChunkParser<T> {
+		public T parse(Chunk chunk) throws Exception;
+	}
+
+	/**
+	 * Takes the results of parsing each chunk, in order, on the thread that
+	 * called parse().
+	 */
+	public static interface ChunkConsumer<T> {
+		/**
+		 * @return false to stop parsing
+		 */
+		public boolean consume(T result) throws Exception;
+	}
+
+
+	/**
+	 * A run of whole lines from the file. Call nextLine() to step through
+	 * them; the current line is in getBytes() from getLineStart() up to,
+	 * but not including, getLineEnd(), without its line terminator.
+	 */
+	public static class Chunk {
+		private final int index;
+		private final long offset;
+		private final byte[] bytes;
+		private final int length;
+		private int position;
+		private int lineNumber = -1;
+		private int lineStart;
+		private int lineEnd;
+
+		Chunk(int index, long offset, byte[] bytes, int length) {
+			this.index = index;
+			this.offset = offset;
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		/**
+		 * @return position of this chunk in the file, counting from 0
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public boolean nextLine() {
+			if (position >= length)
+				return false;
+			lineStart = position;
+			int i = position;
+			while (i < length && bytes[i] != '\n')
+				i++;
+			position = i + 1;
+			if (i > lineStart && bytes[i - 1] == '\r')
+				i--;
+			lineEnd = i;
+			lineNumber++;
+			return true;
+		}
+
+		/**
+		 * @return number of the current line within this chunk, from 0
+		 */
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public int getLineStart() {
+			return lineStart;
+		}
+
+		public int getLineEnd() {
+			return lineEnd;
+		}
+
+		/**
+		 * @return number of lines in the chunk, without moving through them
+		 */
+		public int countLines() {
+			int lines = 0;
+			for (int i=0; i<length; i++) {
+				if (bytes[i] == '\n')
+					lines++;
+			}
+			if (length > 0 && bytes[length - 1] != '\n')
+				lines++;
+			return lines;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setChunkBytes(int chunkBytes) {
+		this.chunkBytes = Math.max(PROBE_BYTES, chunkBytes);
+	}
+
+	public int getChunkBytes() {
+		return chunkBytes;
+	}
+
+	/**
+	 * @return true if the file is big enough that splitting it among
+	 * threads is worth the trouble
+	 */
+	public boolean isWorthSplitting(File file) {
+		return threads > 1 && file.isFile() && file.length() > 2L * chunkBytes;
+	}
+
+	public void addProgressListener(ProgressListener listener) {
+		progressListenerSupport.addProgressListener(listener);
+	}
+
+	public void removeProgressListener(ProgressListener listener) {
+		progressListenerSupport.removeProgressListener(listener);
+	}
+
+	/**
+	 * Parse the file in chunks and hand the results to the consumer in
+	 * order. With one thread, chunks are parsed on the calling thread.
+	 * Exceptions thrown by the parser or consumer are rethrown here.
+	 */
+	public void parse(File file, final ChunkParser<T> parser, ChunkConsumer<T> consumer) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final FileChannel channel = raf.getChannel();
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads, new ParserThreadFactory()) : null;
+		final BufferPool buffers = new BufferPool();
+		try {
+			long size = channel.size();
+			long position = 0;
+			long consumed = 0;
+			int index = 0;
+			int maxPending = threads * CHUNKS_PER_THREAD;
+			LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+			LinkedList<Long> pendingEnds = new LinkedList<Long>();
+			progressListenerSupport.fireProgressEvent(0, 100);
+
+			long t0 = System.currentTimeMillis();
+			while (true) {
+				while (pending.size() < maxPending && position < size) {
+					final long start = position;
+					final long end = findLineEnd(channel, Math.min(size, position + chunkBytes), size);
+					final int chunkIndex = index++;
+					Callable<T> task = new Callable<T>() {
+						public T call() throws Exception {
+							int length = (int)(end - start);
+							byte[] bytes = buffers.take(length);
+							try {
+								read(channel, bytes, length, start);
+								return parser.parse(new Chunk(chunkIndex, start, bytes, length));
+							}
+							finally {
+								buffers.give(bytes);
+							}
+						}
+					};
+					if (executor == null) {
+						pending.add(new CompletedFuture<T>(task));
+					}
+					else {
+						pending.add(executor.submit(task));
+					}
+					pendingEnds.add(end);
+					position = end;
+				}
+				if (pending.isEmpty())
+					break;
+
+				T result = get(pending.removeFirst());
+				consumed = pendingEnds.removeFirst();
+				if (!consumer.consume(result))
+					break;
+				progressListenerSupport.fireProgressEvent((int)(100.0 * consumed / Math.max(1, size)));
+			}
+			log.info(String.format("parsed %,d bytes of %s in %d chunks on %d thread%s in %,d ms",
+					consumed, file.getName(), index, threads, threads==1 ? "" : "s", System.currentTimeMillis() - t0));
+			progressListenerSupport.fireDoneEvent();
+		}
+		finally {
+			if (executor != null)
+				executor.shutdownNow();
+			try {
+				raf.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing file " + file, e);
+			}
+		}
+	}
+
+	private T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the position just past the first '\n' at or after from, or
+	 * the end of the file if there isn't one
+	 */
+	private long findLineEnd(FileChannel channel, long from, long size) throws IOException {
+		if (from >= size)
+			return size;
+		// the chunk ends right after a newline already
+		if (from > 0 && readByte(channel, from - 1) == '\n')
+			return from;
+		ByteBuffer probe = ByteBuffer.allocate(PROBE_BYTES);
+		long position = from;
+		while (position < size) {
+			probe.clear();
+			int n = channel.read(probe, position);
+			if (n <= 0)
+				break;
+			for (int i=0; i<n; i++) {
+				if (probe.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += n;
+		}
+		return size;
+	}
+
+	private byte readByte(FileChannel channel, long position) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1);
+		channel.read(b, position);
+		return b.get(0);
+	}
+
+	private static void read(FileChannel channel, byte[] bytes, int length, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+		}
+	}
+
+	private static int getDefaultThreadCount() {
+		String threads = System.getProperty(THREADS_PROPERTY);
+		if (threads != null) {
+			try {
+				return Math.max(1, Integer.parseInt(threads.trim()));
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + THREADS_PROPERTY + ": " + threads);
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+
+	/**
+	 * Chunk buffers go back here when a worker is done with them, so a
+	 * parse allocates about as many as there are chunks in flight rather
+	 * than one per chunk.
+	 */
+	private static class BufferPool {
+		private final LinkedList<byte[]> free = new LinkedList<byte[]>();
+
+		synchronized byte[] take(int length) {
+			while (!free.isEmpty()) {
+				byte[] bytes = free.removeFirst();
+				if (bytes.length >= length)
+					return bytes;
+			}
+			return new byte[length];
+		}
+
+		synchronized void give(byte[] bytes) {
+			free.add(bytes);
+		}
+	}
+
+	/**
+	 * Runs the task right away, for parsing on the calling thread.
+	 */
+	private static class CompletedFuture<T> implements Future<T> {
+		private T result;
+		private Exception exception;
+
+		CompletedFuture(Callable<T> task) {
+			try {
+				result = task.call();
+			}
+			catch (Exception e) {
+				exception = e;
+			}
+		}
+
+		public T get() throws ExecutionException {
+			if (exception != null)
+				throw new ExecutionException(exception);
+			return result;
+		}
+
+		public T get(long timeout, TimeUnit unit) throws ExecutionException {
+			return get();
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean isDone() {
+			return true;
+		}
+	}
+
+	private static class ParserThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "chunk-parser-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package org.systemsbiology.genomebrowser.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 
@@ -28,30 +27,30 @@ public class DataPointFeatureSource implements FeatureSource {
 		
 		QuantitativePositionalFeatureFields feature = new QuantitativePositionalFeatureFields();
 		
-		BufferedReader reader = null;
+		CharLineReader reader = null;
+		FieldTokenizer fields = new FieldTokenizer();
 		try {
 			int i = 0;
-			reader = new BufferedReader(new FileReader(file));
-			String line = null;
+			reader = new CharLineReader(new FileReader(file));
 
 			// if we expect column headers, eat first non-comment line
 			if (hasColumnHeaders) {
-				while ( (line=reader.readLine()) != null ) {
-					if (line.startsWith("#")) continue;
+				while (reader.nextLine()) {
+					if (reader.startsWith('#')) continue;
 					else break;
 				}
 			}
 
-			while ( (line=reader.readLine()) != null ) {
+			while (reader.nextLine()) {
 				i++;
-				if (line.startsWith("#")) continue;
-				String[] fields = line.split("\t");
+				if (reader.startsWith('#')) continue;
+				fields.reset(reader.getLine());
 
 				try {
-					feature.sequence = fields[0];
-					feature.strand = fields[1];
-					feature.position = Integer.parseInt(fields[2]);
-					feature.value = Double.parseDouble(fields[3]);
+					feature.sequence = fields.getString(0, feature.sequence);
+					feature.strand = fields.getString(1, feature.strand);
+					feature.position = fields.getInt(2);
+					feature.value = fields.getDouble(3);
 				}
 				catch (Exception e) {
 					throw new RuntimeException("Couldn't parse line " + i + " of file " + file.getName() +
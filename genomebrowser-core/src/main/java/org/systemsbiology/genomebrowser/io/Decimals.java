@@ -0,0 +1,138 @@
+package org.systemsbiology.genomebrowser.io;
+
+
+/**
+ * Parses numbers in plain decimal notation for FieldScanner and
+ * FieldTokenizer, reading the text through CharSequence.charAt so the same
+ * code serves lines held as bytes and as chars.
+ *
+ * Digits are gathered into a long while counting the power of ten; when
+ * both fit in a double exactly, one multiplication or division gives the
+ * correctly rounded result, the same one Double.parseDouble would give.
+ * Anything else is left for the caller to hand to Integer.parseInt or
+ * Double.parseDouble, so the results and errors are always theirs.
+ */
+final class Decimals {
+
+	// doubles represent every integer of up to 15 digits exactly
+	static final int MAX_EXACT_DIGITS = 15;
+
+	/**
+	 * returned by parseInt for text it leaves to Integer.parseInt
+	 */
+	static final long NOT_PARSED = Long.MIN_VALUE;
+
+	// powers of ten that are exact doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private Decimals() {}
+
+	/**
+	 * Parse an int with an optional minus sign and up to 9 digits, which
+	 * can't overflow.
+	 * @return the value, or NOT_PARSED if the text is anything else
+	 */
+	static long parseInt(CharSequence text, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && text.charAt(i) == '-') {
+			negative = true;
+			i++;
+		}
+		if (i == end || end - i > 9)
+			return NOT_PARSED;
+		int n = 0;
+		for (; i<end; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return NOT_PARSED;
+			n = n * 10 + digit;
+		}
+		return negative ? -n : n;
+	}
+
+	/**
+	 * Parse a double with an optional sign, digits with an optional
+	 * decimal point, and an optional exponent, if it can be computed
+	 * exactly.
+	 * @return the value, or NaN if the text is anything else, which
+	 * includes "NaN" itself
+	 */
+	static double parseDouble(CharSequence text, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean point = false;
+		for (; i<end; i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+				if (mantissa > 0 || c != '0')
+					significantDigits++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (point)
+					exponent--;
+			}
+			else if (c == '.' && !point) {
+				point = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (digits == 0 || significantDigits > MAX_EXACT_DIGITS)
+			return Double.NaN;
+
+		if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+				negativeExponent = text.charAt(i) == '-';
+				i++;
+			}
+			int e = 0;
+			int exponentDigits = 0;
+			for (; i<end && exponentDigits < 4; i++, exponentDigits++) {
+				int digit = text.charAt(i) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				e = e * 10 + digit;
+			}
+			if (exponentDigits == 0)
+				return Double.NaN;
+			exponent += negativeExponent ? -e : e;
+		}
+		if (i != end || !isExact(significantDigits, exponent))
+			return Double.NaN;
+		return scale(mantissa, exponent, negative);
+	}
+
+	/**
+	 * @return true if mantissa * 10^exponent can be computed exactly
+	 */
+	private static boolean isExact(int significantDigits, int exponent) {
+		return significantDigits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22;
+	}
+
+	/**
+	 * @return mantissa * 10^exponent, if isExact()
+	 */
+	private static double scale(long mantissa, int exponent, boolean negative) {
+		double value = (double)mantissa;
+		if (exponent < 0)
+			value /= POWERS_OF_TEN[-exponent];
+		else if (exponent > 0)
+			value *= POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+}
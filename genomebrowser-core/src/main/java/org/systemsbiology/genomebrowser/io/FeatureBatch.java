@@ -0,0 +1,138 @@
+package org.systemsbiology.genomebrowser.io;
+
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.util.MathUtils;
+
+
+/**
+ * The fields of a run of features, kept in arrays, one per field. This is
+ * how a worker thread hands parsed features to the thread feeding them to
+ * a FeatureProcessor. The batch is itself the FeatureFields of one of its
+ * features at a time, so feeding them to a processor allocates nothing.
+ */
+public class FeatureBatch implements FeatureFields {
+	private int size;
+	private int current;
+	private String[] sequenceNames;
+	private String[] strands;
+	private int[] starts;
+	private int[] ends;
+	private double[] values;
+	private String[] names;
+	private String[] commonNames;
+	private String[] geneTypes;
+
+
+	public FeatureBatch(int capacity) {
+		allocate(Math.max(1, capacity));
+	}
+
+	private void allocate(int capacity) {
+		sequenceNames = copyOf(sequenceNames, capacity);
+		strands = copyOf(strands, capacity);
+		starts = copyOf(starts, capacity);
+		ends = copyOf(ends, capacity);
+		values = copyOf(values, capacity);
+		names = copyOf(names, capacity);
+		commonNames = copyOf(commonNames, capacity);
+		geneTypes = copyOf(geneTypes, capacity);
+	}
+
+	/**
+	 * Copy the fields of a feature into the batch.
+	 */
+	public void add(FeatureFields fields) {
+		if (size == starts.length)
+			allocate(size * 2);
+		sequenceNames[size] = fields.getSequenceName();
+		strands[size] = fields.getStrand();
+		starts[size] = fields.getStart();
+		ends[size] = fields.getEnd();
+		values[size] = fields.getValue();
+		names[size] = fields.getName();
+		commonNames[size] = fields.getCommonName();
+		geneTypes[size] = fields.getGeneType();
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Make this the fields of the ith feature of the batch.
+	 */
+	public FeatureBatch select(int i) {
+		if (i >= size)
+			throw new ArrayIndexOutOfBoundsException(i);
+		current = i;
+		return this;
+	}
+
+	/**
+	 * Hand each feature of the batch to the processor, in order.
+	 */
+	public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
+		for (int i=0; i<size; i++) {
+			featureProcessor.process(select(i));
+		}
+	}
+
+	public String getSequenceName() {
+		return sequenceNames[current];
+	}
+
+	public String getStrand() {
+		return strands[current];
+	}
+
+	public int getStart() {
+		return starts[current];
+	}
+
+	public int getEnd() {
+		return ends[current];
+	}
+
+	public int getPosition() {
+		return MathUtils.average(starts[current], ends[current]);
+	}
+
+	public double getValue() {
+		return values[current];
+	}
+
+	public String getName() {
+		return names[current];
+	}
+
+	public String getCommonName() {
+		return commonNames[current];
+	}
+
+	public String getGeneType() {
+		return geneTypes[current];
+	}
+
+	private static String[] copyOf(String[] a, int capacity) {
+		String[] b = new String[capacity];
+		if (a != null)
+			System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	private static int[] copyOf(int[] a, int capacity) {
+		int[] b = new int[capacity];
+		if (a != null)
+			System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	private static double[] copyOf(double[] a, int capacity) {
+		double[] b = new double[capacity];
+		if (a != null)
+			System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
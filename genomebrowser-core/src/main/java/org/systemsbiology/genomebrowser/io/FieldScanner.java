@@ -0,0 +1,163 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Picks apart a line of a tab delimited file held as bytes, without making
+ * a String for each field the way line.split("\t") does. Fields are found
+ * once per line and numbers are parsed straight from the bytes, so a
+ * scanner can be reset to line after line without allocating anything.
+ * FieldTokenizer does the same for lines held as chars.
+ *
+ * Numbers in plain decimal notation are parsed by Decimals. Anything else,
+ * like exponents too big to be exact or "NaN", is handed to Integer.parseInt
+ * or Double.parseDouble, so the results and errors are always theirs.
+ *
+ * Strings are decoded in the platform's default charset, as FileReader
+ * would, which is assumed to be a superset of ASCII.
+ */
+public final class FieldScanner implements TabFields {
+	private static final Charset charset = Charset.defaultCharset();
+
+	private byte[] bytes;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int count;
+
+	// the bytes as chars, for Decimals, which only looks for ASCII
+	private final CharSequence text = new CharSequence() {
+		public char charAt(int index) {
+			return (char)(bytes[index] & 0xFF);
+		}
+		public int length() {
+			return bytes.length;
+		}
+		public CharSequence subSequence(int start, int end) {
+			return new String(bytes, start, end - start, charset);
+		}
+		public String toString() {
+			return new String(bytes, charset);
+		}
+	};
+
+
+	/**
+	 * Scan the line held in bytes[start] to bytes[end-1], which doesn't
+	 * include the line terminator.
+	 * @return this scanner
+	 */
+	public FieldScanner reset(byte[] bytes, int start, int end) {
+		this.bytes = bytes;
+		count = 0;
+		int fieldStart = start;
+		for (int i=start; i<end; i++) {
+			if (bytes[i] == '\t') {
+				addField(fieldStart, i);
+				fieldStart = i + 1;
+			}
+		}
+		addField(fieldStart, end);
+		return this;
+	}
+
+	private void addField(int start, int end) {
+		if (count == starts.length) {
+			int[] newStarts = new int[count * 2];
+			int[] newEnds = new int[count * 2];
+			System.arraycopy(starts, 0, newStarts, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			starts = newStarts;
+			ends = newEnds;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	public int getFieldCount() {
+		return count;
+	}
+
+	public int length(int field) {
+		return end(field) - start(field);
+	}
+
+	public boolean isEmpty(int field) {
+		return length(field) == 0;
+	}
+
+	public boolean isBlank() {
+		return firstNonWhitespace() < 0;
+	}
+
+	public int firstNonWhitespace() {
+		for (int i=starts[0]; i<ends[count-1]; i++) {
+			int b = bytes[i] & 0xFF;
+			if (!Character.isWhitespace(b))
+				return b;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the field holds exactly the given ASCII string
+	 */
+	public boolean equals(int field, String s) {
+		int start = start(field);
+		int length = end(field) - start;
+		if (length != s.length())
+			return false;
+		for (int i=0; i<length; i++) {
+			if (bytes[start + i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	public String getString(int field) {
+		int start = start(field);
+		return new String(bytes, start, end(field) - start, charset);
+	}
+
+	public String getString(int field, String previous) {
+		if (previous != null && equals(field, previous))
+			return previous;
+		return getString(field);
+	}
+
+	public int getInt(int field) {
+		long n = Decimals.parseInt(text, start(field), end(field));
+		if (n == Decimals.NOT_PARSED)
+			return Integer.parseInt(getString(field));
+		return (int)n;
+	}
+
+	/**
+	 * Parse a double with an optional sign, digits with an optional
+	 * decimal point, and an optional exponent. See Decimals for when
+	 * the result is computed here.
+	 */
+	public double getDouble(int field) {
+		double value = Decimals.parseDouble(text, start(field), end(field));
+		if (Double.isNaN(value))
+			return Double.parseDouble(getString(field));
+		return value;
+	}
+
+	private int start(int field) {
+		if (field >= count)
+			throw new ArrayIndexOutOfBoundsException(field);
+		return starts[field];
+	}
+
+	private int end(int field) {
+		if (field >= count)
+			throw new ArrayIndexOutOfBoundsException(field);
+		return ends[field];
+	}
+
+	public String toString() {
+		return count == 0 ? "" : new String(bytes, starts[0], ends[count-1] - starts[0], charset);
+	}
+}
@@ -0,0 +1,140 @@
+package org.systemsbiology.genomebrowser.io;
+
+
+/**
+ * Picks apart a line of a tab delimited file held as chars, without making
+ * a String for each field the way line.split("\t") does. The line can be
+ * any CharSequence: a String from LineReader, or the window CharLineReader
+ * slides over its buffer, in which case nothing is allocated per line
+ * except the Strings asked for. FieldScanner does the same for bytes.
+ *
+ * Numbers in plain decimal notation are parsed by Decimals. Anything else,
+ * like exponents too big to be exact or "NaN", is handed to Integer.parseInt
+ * or Double.parseDouble, so the results and errors are always theirs.
+ */
+public final class FieldTokenizer implements TabFields {
+	private CharSequence chars;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int count;
+
+
+	public FieldTokenizer reset(CharSequence line) {
+		return reset(line, 0, line.length());
+	}
+
+	/**
+	 * Tokenize the line held in chars from start up to, but not including,
+	 * end. The chars must stay put while the fields are read.
+	 * @return this tokenizer
+	 */
+	public FieldTokenizer reset(CharSequence chars, int start, int end) {
+		this.chars = chars;
+		count = 0;
+		int fieldStart = start;
+		for (int i=start; i<end; i++) {
+			if (chars.charAt(i) == '\t') {
+				addField(fieldStart, i);
+				fieldStart = i + 1;
+			}
+		}
+		addField(fieldStart, end);
+		return this;
+	}
+
+	private void addField(int start, int end) {
+		if (count == starts.length) {
+			int[] newStarts = new int[count * 2];
+			int[] newEnds = new int[count * 2];
+			System.arraycopy(starts, 0, newStarts, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			starts = newStarts;
+			ends = newEnds;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	public int getFieldCount() {
+		return count;
+	}
+
+	public int length(int field) {
+		return end(field) - start(field);
+	}
+
+	public boolean isEmpty(int field) {
+		return length(field) == 0;
+	}
+
+	public boolean isBlank() {
+		return firstNonWhitespace() < 0;
+	}
+
+	public int firstNonWhitespace() {
+		for (int i=starts[0]; i<ends[count-1]; i++) {
+			char c = chars.charAt(i);
+			if (!Character.isWhitespace(c))
+				return c;
+		}
+		return -1;
+	}
+
+	public boolean equals(int field, String s) {
+		int start = start(field);
+		int length = end(field) - start;
+		if (length != s.length())
+			return false;
+		for (int i=0; i<length; i++) {
+			if (chars.charAt(start + i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	public String getString(int field) {
+		return chars.subSequence(start(field), end(field)).toString();
+	}
+
+	public String getString(int field, String previous) {
+		if (previous != null && equals(field, previous))
+			return previous;
+		return getString(field);
+	}
+
+	public int getInt(int field) {
+		long n = Decimals.parseInt(chars, start(field), end(field));
+		if (n == Decimals.NOT_PARSED)
+			return Integer.parseInt(getString(field));
+		return (int)n;
+	}
+
+	/**
+	 * Parse a double with an optional sign, digits with an optional
+	 * decimal point, and an optional exponent. See Decimals for when
+	 * the result is computed here.
+	 */
+	public double getDouble(int field) {
+		double value = Decimals.parseDouble(chars, start(field), end(field));
+		if (Double.isNaN(value))
+			return Double.parseDouble(getString(field));
+		return value;
+	}
+
+	private int start(int field) {
+		if (field >= count)
+			throw new ArrayIndexOutOfBoundsException(field);
+		return starts[field];
+	}
+
+	private int end(int field) {
+		if (field >= count)
+			throw new ArrayIndexOutOfBoundsException(field);
+		return ends[field];
+	}
+
+	public String toString() {
+		return count == 0 ? "" : chars.subSequence(starts[0], ends[count-1]).toString();
+	}
+}
@@ -0,0 +1,49 @@
+package org.systemsbiology.genomebrowser.io;
+
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * FeatureFields read from a line of a tab delimited file through a
+ * FieldScanner or FieldTokenizer. Subclasses know which fields hold what,
+ * and either read them on demand in their getters or all at once in scan().
+ *
+ * ChunkedFeatureReader gives each chunk it parses a copy() of a prototype,
+ * so a subclass's own fields should be settings, shared between copies,
+ * or state that scan() sets for every line.
+ */
+public abstract class LineFeatureFields implements FeatureFields, Cloneable {
+	protected TabFields fields;
+
+	/**
+	 * Point these feature fields at a line.
+	 * @return false if the line holds no feature, like a comment
+	 */
+	public boolean scan(TabFields fields) {
+		this.fields = fields;
+		return true;
+	}
+
+	/**
+	 * Read a strand field without making a String of the usual values.
+	 */
+	protected static Strand parseStrand(TabFields fields, int field) {
+		if (fields.equals(field, "+"))
+			return Strand.forward;
+		if (fields.equals(field, "-"))
+			return Strand.reverse;
+		if (fields.equals(field, "."))
+			return Strand.none;
+		return Strand.fromString(fields.getString(field));
+	}
+
+	public LineFeatureFields copy() {
+		try {
+			return (LineFeatureFields)clone();
+		}
+		catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
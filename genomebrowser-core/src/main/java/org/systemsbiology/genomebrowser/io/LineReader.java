@@ -4,8 +4,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
 
 import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.io.ChunkedFileParser.Chunk;
 import org.systemsbiology.util.ProgressListener;
 import org.systemsbiology.util.ProgressListenerSupport;
 import org.systemsbiology.util.FileUtils;
@@ -13,6 +15,10 @@ import org.systemsbiology.util.FileUtils;
 /**
  * Read a text file line-by-line. Each line is processed by an
  * implementation of LineProcessor.
+ *
+ * Big files are cut into chunks whose lines are decoded on several
+ * threads by a ChunkedFileParser. The LineProcessor still gets every line
+ * in order on the calling thread.
  * @author cbare
  */
 public class LineReader {
@@ -25,6 +31,7 @@ public class LineReader {
 	private long fileLength = 100000L;
 	private int bytesPerCharacter = 1;
 	private ProgressListenerSupport progressListenerSupport = new ProgressListenerSupport();
+	private ChunkedFileParser<String[]> parser = new ChunkedFileParser<String[]>();
 
 
 	public LineReader() {
@@ -69,6 +76,14 @@ public class LineReader {
 		this.progressInterval = n;
 	}
 
+	/**
+	 * Threads to decode lines of big files on. 1 reads files the old way,
+	 * through a BufferedReader.
+	 */
+	public void setThreads(int threads) {
+		parser.setThreads(threads);
+	}
+
 	public int getLineCount() {
 		return lineCount;
 	}
@@ -78,7 +93,47 @@ public class LineReader {
 	}
 
 	public void loadData(File file) throws Exception {
-		loadData(new FileReader(file));
+		if (parser.isWorthSplitting(file))
+			loadDataInChunks(file);
+		else
+			loadData(new FileReader(file));
+	}
+
+	private void loadDataInChunks(File file) throws Exception {
+		final Charset charset = Charset.defaultCharset();
+		lineCount = 0;
+		progressListenerSupport.fireProgressEvent(0, 100);
+		parser.parse(file,
+			new ChunkedFileParser.ChunkParser<String[]>() {
+				public String[] parse(Chunk chunk) {
+					String[] lines = new String[chunk.countLines()];
+					byte[] bytes = chunk.getBytes();
+					for (int i=0; chunk.nextLine(); i++) {
+						lines[i] = new String(bytes, chunk.getLineStart(), chunk.getLineEnd() - chunk.getLineStart(), charset);
+					}
+					return lines;
+				}
+			},
+			new ChunkedFileParser.ChunkConsumer<String[]>() {
+				public boolean consume(String[] lines) throws Exception {
+					for (String line : lines) {
+						lineProcessor.process(lineCount, line);
+
+						lineCount++;
+						charCount += line.length();
+
+						if (lineCount % progressInterval == 0) {
+							int percent = (int)( ((double)(charCount * bytesPerCharacter))/((double)fileLength) * 100.0 );
+							progressListenerSupport.fireProgressEvent(percent);
+						}
+
+						if (lineLimit > 0 && lineCount >= lineLimit)
+							return false;
+					}
+					return true;
+				}
+			});
+		progressListenerSupport.fireDoneEvent();
 	}
 
 	public void loadData(String filename) throws Exception {
@@ -1,6 +1,5 @@
 package org.systemsbiology.genomebrowser.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 
@@ -29,31 +28,31 @@ public class SegmentFeatureSource implements FeatureSource {
 		
 		QuantitativeSegmentFeatureFields feature = new QuantitativeSegmentFeatureFields();
 		
-		BufferedReader reader = null;
+		CharLineReader reader = null;
+		FieldTokenizer fields = new FieldTokenizer();
 		try {
 			int i = 0;
-			reader = new BufferedReader(new FileReader(file));
-			String line = null;
+			reader = new CharLineReader(new FileReader(file));
 
 			// if we expect column headers, eat first non-comment line
 			if (hasColumnHeaders) {
-				while ( (line=reader.readLine()) != null ) {
-					if (line.startsWith("#")) continue;
+				while (reader.nextLine()) {
+					if (reader.startsWith('#')) continue;
 					else break;
 				}
 			}
 
-			while ( (line=reader.readLine()) != null ) {
+			while (reader.nextLine()) {
 				i++;
-				if (line.startsWith("#")) continue;
-				String[] fields = line.split("\t");
+				if (reader.startsWith('#')) continue;
+				fields.reset(reader.getLine());
 
 				try {
-					feature.sequence = fields[0];
-					feature.strand = fields[1];
-					feature.start = Integer.parseInt(fields[2]);
-					feature.end = Integer.parseInt(fields[3]);
-					feature.value = Double.parseDouble(fields[4]);
+					feature.sequence = fields.getString(0, feature.sequence);
+					feature.strand = fields.getString(1, feature.strand);
+					feature.start = fields.getInt(2);
+					feature.end = fields.getInt(3);
+					feature.value = fields.getDouble(4);
 				}
 				catch (Exception e) {
 					throw new RuntimeException("Couldn't parse line " + i + " of file " + file.getName() +
@@ -1,6 +1,5 @@
 package org.systemsbiology.genomebrowser.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.HashSet;
@@ -58,17 +57,17 @@ public class StartEndValueDataLoader implements FeatureSource {
 	}
 
 	public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
-		BufferedReader r = new BufferedReader(new FileReader(file));
+		CharLineReader r = new CharLineReader(new FileReader(file));
+		FieldTokenizer fields = new FieldTokenizer();
 
 		try {
-			String line;
-			if (skipFirst) r.readLine();
-			while ( (line = r.readLine()) != null ) {
-				String[] fields = line.split("\t");
-
-				feature.start = Integer.parseInt(fields[start]);
-				feature.end = Integer.parseInt(fields[end]);
-				feature.value = Double.parseDouble(fields[value]);
+			if (skipFirst) r.nextLine();
+			while (r.nextLine()) {
+				fields.reset(r.getLine());
+
+				feature.start = fields.getInt(start);
+				feature.end = fields.getInt(end);
+				feature.value = fields.getDouble(value);
 
 				featureProcessor.process(feature);
 			}
@@ -1,12 +1,17 @@
 package org.systemsbiology.genomebrowser.io;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.io.ChunkedFileParser.Chunk;
 import org.systemsbiology.util.FileUtils;
 import org.systemsbiology.util.ProgressListener;
 
@@ -24,6 +29,10 @@ import org.systemsbiology.util.ProgressListener;
  * getStringColumn.</p>
  * 
  * <p>First row of file must contain column headers.</p>
+ *
+ * <p>Big local files are parsed in chunks on several threads by a
+ * ChunkedFileParser. Each chunk fills columns of its own, which are
+ * copied into place in the order of the file.</p>
  * 
  * <p>This class is the result of generalizing a bunch of similar loaders
  * that were specific to a particular arrangement of columns. It's not
@@ -35,6 +44,7 @@ public class TabDelimitedFileLoader {
     private int size;
     private String[] columnHeaders;
     private Set<ProgressListener> listeners = new HashSet<ProgressListener>();
+    private ChunkedFileParser<ParsedChunk> parser = new ChunkedFileParser<ParsedChunk>();
 
     /**
      * Generally, we only want one column object (or one column of a particular
@@ -213,35 +223,104 @@ public class TabDelimitedFileLoader {
         return -1;
     }
 
+    /**
+     * Threads to parse big files on. 1 parses files the old way, a line
+     * at a time on the calling thread.
+     */
+    public void setThreads(int threads) {
+        parser.setThreads(threads);
+    }
+
     public void loadData(String filename) throws IOException {
-        loadData(FileUtils.getReaderFor(filename));
+        File file = new File(filename);
+        if (file.isFile())
+            loadData(file);
+        else
+            loadData(FileUtils.getReaderFor(filename));
+    }
+
+    public void loadData(File file) throws IOException {
+        if (!parser.isWorthSplitting(file)) {
+            loadData(new FileReader(file));
+            return;
+        }
+
+        readHeaders(new FileReader(file));
+
+        // allocate arrays
+        for (Column column : columns) column.allocateArray(size);
+        log.debug("Allocated " + columns.size() + " columns");
+
+        final List<Column> columnList = new ArrayList<Column>(columns);
+        final int[] lines = new int[1];
+        try {
+            parser.parse(file,
+                new ChunkedFileParser.ChunkParser<ParsedChunk>() {
+                    public ParsedChunk parse(Chunk chunk) {
+                        ParsedChunk parsed = new ParsedChunk(columnList, chunk.countLines());
+                        FieldScanner fields = new FieldScanner();
+                        while (chunk.nextLine()) {
+                            // skip column headers
+                            if (chunk.getIndex() == 0 && chunk.getLineNumber() == 0) continue;
+                            fields.reset(chunk.getBytes(), chunk.getLineStart(), chunk.getLineEnd());
+                            for (Column column : parsed.columns) {
+                                column.processLine(parsed.lines, fields);
+                            }
+                            parsed.lines++;
+                        }
+                        return parsed;
+                    }
+                },
+                new ChunkedFileParser.ChunkConsumer<ParsedChunk>() {
+                    public boolean consume(ParsedChunk parsed) {
+                        int i = lines[0];
+                        for (int c = 0; c < columnList.size(); c++) {
+                            columnList.get(c).copyFrom(parsed.columns.get(c), i, parsed.lines);
+                        }
+                        lines[0] += parsed.lines;
+                        int progress = lines[0] / 1000 - i / 1000;
+                        if (progress > 0) fireIncrementProgressEvent(progress);
+                        return true;
+                    }
+                });
+            log.info("read " + lines[0] + " lines.");
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public void loadData(Reader reader) throws IOException {
-        BufferedReader r = null;
+        CharLineReader r = null;
 
         // allocate arrays
         for (Column column : columns) column.allocateArray(size);
         log.debug("Allocated " + columns.size() + " columns");
 
         try {
-            r = new BufferedReader(reader);
+            r = new CharLineReader(reader);
+            FieldTokenizer fields = new FieldTokenizer();
 
             // read first line of the file, which we assume holds column headers
-            String line = r.readLine();
-            columnHeaders = line.split("\t");
+            if (!r.nextLine())
+                throw new IOException("Expected a line of column headers");
+            columnHeaders = r.getLine().toString().split("\t");
 
             int i = 0;
-            line = r.readLine();
-            while (line != null) {
-                String[] fields = line.split("\t");
+            while (r.nextLine()) {
+                fields.reset(r.getLine());
 
                 for (Column column : columns) {
                     column.processLine(i, fields);
                 }
                 i++;
                 if (i % 1000 == 0) fireIncrementProgressEvent(1);
-                line = r.readLine();
             }
             log.info("read " + i + " lines.");
         } finally {
@@ -302,7 +381,20 @@ public class TabDelimitedFileLoader {
 		
         public abstract Object getArray();
         public abstract void allocateArray(int size);
-        public abstract void processLine(int i, String[] fields);
+        public abstract void processLine(int i, TabFields fields);
+
+        /**
+         * @return a column of the same type reading the same fields, with no array yet
+         */
+        public abstract Column emptyCopy();
+
+        /**
+         * Copy the first n values of another column of the same type into
+         * this one starting at offset.
+         */
+        public void copyFrom(Column column, int offset, int n) {
+            System.arraycopy(column.getArray(), 0, getArray(), offset, n);
+        }
 
         @Override
         public int hashCode() {
@@ -319,6 +411,23 @@ public class TabDelimitedFileLoader {
         }
     }
 
+    /**
+     * Columns holding the values of one chunk of a file.
+     */
+    static class ParsedChunk {
+        final List<Column> columns;
+        int lines;
+
+        ParsedChunk(List<Column> prototypes, int size) {
+            columns = new ArrayList<Column>(prototypes.size());
+            for (Column prototype : prototypes) {
+                Column column = prototype.emptyCopy();
+                column.allocateArray(size);
+                columns.add(column);
+            }
+        }
+    }
+
     static abstract class ComputedColumn extends Column {
         String name;
     }
@@ -333,9 +442,10 @@ public class TabDelimitedFileLoader {
         public void allocateArray(int size) {
             array = new int[size];
         }
-        public void processLine(int i, String[] fields) {
-            array[i] = Integer.parseInt(fields[index]);
+        public void processLine(int i, TabFields fields) {
+            array[i] = fields.getInt(index);
         }
+        public Column emptyCopy() { return new IntColumn(index); }
     }
 	
     static class DoubleColumn extends Column {
@@ -346,9 +456,10 @@ public class TabDelimitedFileLoader {
         }
         public double[] getArray() { return array; }
         public void allocateArray(int size) { array = new double[size]; }
-        public void processLine(int i, String[] fields) {
-            array[i] = Double.parseDouble(fields[index]);
+        public void processLine(int i, TabFields fields) {
+            array[i] = fields.getDouble(index);
         }
+        public Column emptyCopy() { return new DoubleColumn(index); }
     }
 	
     static class FloatColumn extends Column {
@@ -359,9 +470,10 @@ public class TabDelimitedFileLoader {
         }
         public float[] getArray() { return array; }
         public void allocateArray(int size) { array = new float[size]; }
-        public void processLine(int i, String[] fields) {
-            array[i] = Float.parseFloat(fields[index]);
+        public void processLine(int i, TabFields fields) {
+            array[i] = Float.parseFloat(fields.getString(index));
         }
+        public Column emptyCopy() { return new FloatColumn(index); }
     }
 	
     static class StringColumn extends Column {
@@ -372,7 +484,8 @@ public class TabDelimitedFileLoader {
         }
         public String[] getArray() { return array; }
         public void allocateArray(int size) { array = new String[size]; }
-        public void processLine(int i, String[] fields) { array[i] = fields[index]; }
+        public void processLine(int i, TabFields fields) { array[i] = fields.getString(index); }
+        public Column emptyCopy() { return new StringColumn(index); }
     }
 
     static class IntAverageColumn extends ComputedColumn {
@@ -390,9 +503,10 @@ public class TabDelimitedFileLoader {
 
         public void allocateArray(int size) { array = new int[size]; }
         public Object getArray() { return array; }
-        public void processLine(int i, String[] fields) {
-            array[i] = (Integer.parseInt(fields[index1]) + Integer.parseInt(fields[index2])) >>>1;
+        public void processLine(int i, TabFields fields) {
+            array[i] = (fields.getInt(index1) + fields.getInt(index2)) >>>1;
         }
+        public Column emptyCopy() { return new IntAverageColumn(name, index1, index2); }
 
         @Override
         public int hashCode() {
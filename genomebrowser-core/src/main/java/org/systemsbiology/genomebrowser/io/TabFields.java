@@ -0,0 +1,55 @@
+package org.systemsbiology.genomebrowser.io;
+
+
+/**
+ * The fields of one line of a tab delimited file, read in place rather
+ * than split into an array of Strings. FieldScanner reads lines held as
+ * bytes and FieldTokenizer reads lines held as chars, so a LineFeatureFields
+ * can parse either one the same way.
+ *
+ * Fields are numbered from 0 as in the array split("\t") returns, except
+ * that trailing empty fields are kept. Asking for a field past the last
+ * throws ArrayIndexOutOfBoundsException.
+ */
+public interface TabFields {
+
+	public int getFieldCount();
+
+	public int length(int field);
+
+	public boolean isEmpty(int field);
+
+	/**
+	 * @return true if the line is empty or all whitespace
+	 */
+	public boolean isBlank();
+
+	/**
+	 * @return the first character of the line that isn't whitespace, or -1
+	 */
+	public int firstNonWhitespace();
+
+	/**
+	 * @return true if the field holds exactly the given string
+	 */
+	public boolean equals(int field, String s);
+
+	public String getString(int field);
+
+	/**
+	 * Files tend to repeat the same few strings, like sequence names,
+	 * line after line. Pass in the string this field held last time and
+	 * get it back, rather than a new copy, if it hasn't changed.
+	 */
+	public String getString(int field, String previous);
+
+	/**
+	 * @throws NumberFormatException as Integer.parseInt would
+	 */
+	public int getInt(int field);
+
+	/**
+	 * @throws NumberFormatException as Double.parseDouble would
+	 */
+	public double getDouble(int field);
+}
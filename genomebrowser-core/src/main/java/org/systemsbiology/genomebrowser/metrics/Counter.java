@@ -0,0 +1,42 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A count of events, such as frames scheduled.
+ */
+public class Counter implements CounterMBean {
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+
+	public Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	public void add(long n) {
+		count.addAndGet(n);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public void reset() {
+		count.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s=%d", name, count.get());
+	}
+}
@@ -0,0 +1,5 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+public interface CounterMBean {
+	public long getCount();
+}
@@ -0,0 +1,9 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+/**
+ * A value read when it's asked for, such as the depth of a queue or
+ * a counter kept by some other class.
+ */
+public interface Gauge {
+	public long getValue();
+}
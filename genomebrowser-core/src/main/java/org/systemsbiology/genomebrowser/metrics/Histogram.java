@@ -0,0 +1,143 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A histogram of durations, such as how long blocks take to load.
+ *
+ * Durations are counted in buckets on a log scale, four to each power of
+ * two nanoseconds, so recording one is a few atomic adds and no allocation,
+ * and percentiles come out within 25% or so. Percentiles are reported as
+ * the upper bound of the bucket they fall in.
+ */
+public class Histogram implements HistogramMBean {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+
+	public Histogram(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record a duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	/**
+	 * Record the time since the given System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	public double getMedianMillis() {
+		return getPercentileMillis(0.50);
+	}
+
+	public double get95thPercentileMillis() {
+		return getPercentileMillis(0.95);
+	}
+
+	public double get99thPercentileMillis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * @param q between 0.0 and 1.0
+	 * @return the duration, in milliseconds, that the given fraction of
+	 * durations don't exceed, or 0 if nothing's been recorded.
+	 */
+	public double getPercentileMillis(double q) {
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) return 0.0;
+		long rank = Math.max(1, (long)Math.ceil(q * n));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), maxNanos.get()) / 1e6;
+		}
+		return getMaxMillis();
+	}
+
+	public void reset() {
+		for (int i=0; i<BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * @return the bucket counting the given duration: the power of two
+	 * below it, and which quarter of the way to the next power it falls in.
+	 */
+	static int bucket(long nanos) {
+		if (nanos == 0) return 0;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent < SUB_BUCKET_BITS)
+			return exponent << SUB_BUCKET_BITS;
+		int sub = (int)((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (exponent << SUB_BUCKET_BITS) | sub;
+	}
+
+	/**
+	 * @return the smallest duration in nanoseconds greater than all those
+	 * counted in the given bucket
+	 */
+	static long upperBound(int bucket) {
+		int exponent = bucket >>> SUB_BUCKET_BITS;
+		if (exponent < SUB_BUCKET_BITS)
+			return 1L << (exponent + 1);
+		int sub = bucket & (SUB_BUCKETS - 1);
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (sub + 1) * width;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s=(n=%d, mean=%.2f ms, p50=%.2f ms, p95=%.2f ms, p99=%.2f ms, max=%.2f ms)",
+				name, getCount(), getMeanMillis(), getMedianMillis(), get95thPercentileMillis(),
+				get99thPercentileMillis(), getMaxMillis());
+	}
+}
@@ -0,0 +1,10 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+public interface HistogramMBean {
+	public long getCount();
+	public double getMeanMillis();
+	public double getMaxMillis();
+	public double getMedianMillis();
+	public double get95thPercentileMillis();
+	public double get99thPercentileMillis();
+}
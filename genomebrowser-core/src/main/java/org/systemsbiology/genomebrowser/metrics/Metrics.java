@@ -0,0 +1,259 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Named counters, gauges and histograms describing the render pipeline,
+ * shared by the whole application.
+ *
+ * Collecting is off unless the system property genomebrowser.metrics is
+ * true, or setEnabled(true) is called. Instrumented code checks isEnabled()
+ * before timing anything, so when it's off the cost is a volatile read.
+ * When it's on, an event costs a map lookup, a couple of System.nanoTime()
+ * calls and a few atomic adds, which is small next to loading a block or
+ * drawing a track. Code on a hot path should hang on to the metrics it
+ * uses rather than look them up by name each time.
+ *
+ * While enabled, each metric is registered as an MBean named
+ * org.systemsbiology.genomebrowser:type=Counter|Gauge|Histogram,name=...
+ * along with org.systemsbiology.genomebrowser:type=Metrics, which can
+ * reset them and print a summary. If genomebrowser.metrics.log.seconds is
+ * set, the summary is also logged that often.
+ */
+public class Metrics implements MetricsMBean {
+	private static final Logger log = Logger.getLogger(Metrics.class);
+	public static final String ENABLED_PROPERTY = "genomebrowser.metrics";
+	public static final String LOG_INTERVAL_PROPERTY = "genomebrowser.metrics.log.seconds";
+	public static final String JMX_DOMAIN = "org.systemsbiology.genomebrowser";
+
+	private static final Metrics instance = new Metrics();
+
+	private volatile boolean enabled;
+	private final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private ScheduledExecutorService logger;
+
+
+	/**
+	 * Use getInstance(), except in tests.
+	 */
+	Metrics() {}
+
+	/**
+	 * @return the metrics shared by the application, enabled and logging
+	 * as the system properties say.
+	 */
+	public static Metrics getInstance() {
+		return instance;
+	}
+
+	static {
+		if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+			instance.setEnabled(true);
+			String seconds = System.getProperty(LOG_INTERVAL_PROPERTY);
+			if (seconds != null) {
+				try {
+					instance.startLogging(Long.parseLong(seconds.trim()));
+				}
+				catch (NumberFormatException e) {
+					log.warn("Ignoring bad value for " + LOG_INTERVAL_PROPERTY + ": " + seconds);
+				}
+			}
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start or stop collecting, registering or unregistering MBeans.
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		if (this.enabled == enabled) return;
+		this.enabled = enabled;
+		if (enabled) {
+			register("Metrics", null, this, MetricsMBean.class);
+			for (Counter counter : counters.values())
+				register("Counter", counter.getName(), counter, CounterMBean.class);
+			for (Histogram histogram : histograms.values())
+				register("Histogram", histogram.getName(), histogram, HistogramMBean.class);
+			for (Map.Entry<String, Gauge> entry : gauges.entrySet())
+				register("Gauge", entry.getKey(), entry.getValue(), Gauge.class);
+		}
+		else {
+			unregister("Metrics", null);
+			for (String name : counters.keySet())
+				unregister("Counter", name);
+			for (String name : histograms.keySet())
+				unregister("Histogram", name);
+			for (String name : gauges.keySet())
+				unregister("Gauge", name);
+		}
+		log.info("metrics " + (enabled ? "enabled" : "disabled"));
+	}
+
+	/**
+	 * @return the counter by the given name, creating it if necessary
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			synchronized (this) {
+				counter = counters.get(name);
+				if (counter == null) {
+					counter = new Counter(name);
+					counters.put(name, counter);
+					if (enabled)
+						register("Counter", name, counter, CounterMBean.class);
+				}
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * @return the histogram by the given name, creating it if necessary
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			synchronized (this) {
+				histogram = histograms.get(name);
+				if (histogram == null) {
+					histogram = new Histogram(name);
+					histograms.put(name, histogram);
+					if (enabled)
+						register("Histogram", name, histogram, HistogramMBean.class);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Drop the histogram by the given name, if there is one, for instance
+	 * when the thing it times goes away.
+	 */
+	public synchronized void removeHistogram(String name) {
+		if (histograms.remove(name) != null && enabled)
+			unregister("Histogram", name);
+	}
+
+	/**
+	 * Add a gauge, replacing any by the same name.
+	 */
+	public synchronized void gauge(String name, Gauge gauge) {
+		if (gauges.put(name, gauge) != null && enabled)
+			unregister("Gauge", name);
+		if (enabled)
+			register("Gauge", name, gauge, Gauge.class);
+	}
+
+	public synchronized void reset() {
+		for (Counter counter : counters.values())
+			counter.reset();
+		for (Histogram histogram : histograms.values())
+			histogram.reset();
+	}
+
+	/**
+	 * Log the summary every so many seconds, until stopLogging() is called.
+	 */
+	public synchronized void startLogging(long seconds) {
+		stopLogging();
+		if (seconds <= 0) return;
+		logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-logger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		logger.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				if (enabled)
+					log.info(getSummary());
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stopLogging() {
+		if (logger != null) {
+			logger.shutdownNow();
+			logger = null;
+		}
+	}
+
+	/**
+	 * @return every metric, one per line, sorted by name
+	 */
+	public String getSummary() {
+		List<String> lines = new ArrayList<String>();
+		for (Counter counter : counters.values())
+			lines.add(counter.toString());
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet())
+			lines.add(entry.getKey() + "=" + entry.getValue().getValue());
+		for (Histogram histogram : histograms.values()) {
+			if (histogram.getCount() > 0)
+				lines.add(histogram.toString());
+		}
+		Collections.sort(lines);
+		StringBuilder sb = new StringBuilder("metrics:");
+		for (String line : lines)
+			sb.append("\n  ").append(line);
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getSummary();
+	}
+
+	static ObjectName getObjectName(String type, String name) throws Exception {
+		if (name == null)
+			return new ObjectName(JMX_DOMAIN + ":type=" + type);
+		return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+	}
+
+	private <T> void register(String type, String name, T bean, Class<T> mbeanInterface) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(type, name);
+			if (!server.isRegistered(objectName))
+				server.registerMBean(new StandardMBean(bean, mbeanInterface), objectName);
+		}
+		catch (Exception e) {
+			log.warn("Error registering MBean for " + type + " " + name, e);
+		}
+	}
+
+	private void unregister(String type, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(type, name);
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		}
+		catch (Exception e) {
+			log.warn("Error unregistering MBean for " + type + " " + name, e);
+		}
+	}
+}
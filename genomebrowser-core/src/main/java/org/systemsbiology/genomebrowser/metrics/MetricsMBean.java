@@ -0,0 +1,8 @@
+package org.systemsbiology.genomebrowser.metrics;
+
+public interface MetricsMBean {
+	public boolean isEnabled();
+	public void setEnabled(boolean enabled);
+	public String getSummary();
+	public void reset();
+}
@@ -65,12 +65,14 @@ public class BasicQuantitativeBlock<F extends Feature.Quantitative> implements B
         public Iterator<F> iterator() { return this; }		
     }
 
-    class WindowedFeaturesIteratable implements Iteratable<F> {
+    class WindowedFeaturesIteratable implements Iteratable<F>, QuantitativeWindow {
         FlyweightQuantitativeFeature feature = new FlyweightQuantitativeFeature();
         int len = starts.length;
         int start;
         int end;
         int next;
+        int from = -1;
+        int to;
 
         public WindowedFeaturesIteratable(int start, int end) {
             this.start = start;
@@ -95,5 +97,22 @@ public class BasicQuantitativeBlock<F extends Feature.Quantitative> implements B
             throw new UnsupportedOperationException("remove() not supported.");
         }
         public Iterator<F> iterator() { return this; }		
+
+        private void findWindow() {
+            if (from < 0) {
+                int i = 0;
+                while (i < len && ends[i] < start) i++;
+                int j = i;
+                while (j < len && starts[j] < end) j++;
+                from = i;
+                to = j;
+            }
+        }
+
+        public int getFrom() { findWindow(); return from; }
+        public int getTo() { findWindow(); return to; }
+        public int[] getStarts() { return starts; }
+        public int[] getEnds() { return ends; }
+        public double[] getValues() { return values; }
     }
 }
@@ -0,0 +1,83 @@
+package org.systemsbiology.genomebrowser.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Features of a block sorted by start, with the greatest end of each
+ * prefix, so the features overlapping a coordinate can be found by binary
+ * search rather than by walking the block. Features are expected to be
+ * sorted by start already, as FeatureIteratable assumes, but are sorted
+ * again in case they aren't.
+ */
+public class FeatureIntervals<F extends Feature> {
+	private final Object[] features;
+	private final int[] starts;
+
+	// maxEnds[i] is the greatest end of features 0 through i
+	private final int[] maxEnds;
+
+
+	public FeatureIntervals(Iterable<? extends F> features) {
+		// a block's features may only be iterated once
+		List<F> unsorted = new ArrayList<F>();
+		for (F feature : features)
+			unsorted.add(feature);
+		int n = unsorted.size();
+		// sort (start, index) pairs packed into longs, which keeps features
+		// with equal starts in block order
+		long[] keys = new long[n];
+		for (int i=0; i<n; i++)
+			keys[i] = ((long)unsorted.get(i).getStart() << 32) | i;
+		Arrays.sort(keys);
+		this.features = new Object[n];
+		starts = new int[n];
+		maxEnds = new int[n];
+		int max = Integer.MIN_VALUE;
+		for (int i=0; i<n; i++) {
+			Feature feature = unsorted.get((int)(keys[i] & 0xFFFFFFFFL));
+			this.features[i] = feature;
+			starts[i] = feature.getStart();
+			max = Math.max(max, feature.getEnd());
+			maxEnds[i] = max;
+		}
+	}
+
+	public int size() {
+		return features.length;
+	}
+
+	/**
+	 * @return the feature with the lowest start that covers the given
+	 * coordinate, ends included, or null if none does.
+	 */
+	@SuppressWarnings("unchecked")
+	public F at(int coord) {
+		// last feature starting at or before coord
+		int i = lastStartingBefore(coord + 1);
+		F result = null;
+		for (; i>=0 && maxEnds[i] >= coord; i--) {
+			if (((Feature)features[i]).getEnd() >= coord)
+				result = (F)features[i];
+		}
+		return result;
+	}
+
+	/**
+	 * @return index of the last feature starting before coord, or -1
+	 */
+	private int lastStartingBefore(int coord) {
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] < coord)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+}
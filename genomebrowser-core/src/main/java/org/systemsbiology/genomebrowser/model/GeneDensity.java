@@ -0,0 +1,106 @@
+package org.systemsbiology.genomebrowser.model;
+
+
+/**
+ * The number of genes on one strand of a sequence, counted in bins of a
+ * fixed number of bases when the genes are added to a track. Used to draw
+ * a zoomed out gene track as a histogram, and to tell how many genes are
+ * in a view without iterating over them.
+ *
+ * A gene is counted in the bin holding its central position. Counts between
+ * arbitrary coordinates are interpolated within the end bins, so a column
+ * narrower than a bin still gets a sensible share.
+ */
+public class GeneDensity {
+	/**
+	 * most bins for a sequence, however long it is
+	 */
+	static final int MAX_BINS = 65536;
+	static final int MIN_BIN_SIZE = 100;
+
+	private final int binSize;
+
+	// cumulative[i] is the number of genes in bins before bin i
+	private final int[] cumulative;
+	private final int maxCount;
+
+	// width and result of the last call to maxCount(width), which is
+	// asked for again on every draw at the same zoom
+	private volatile double[] lastMaxCount = {0.0, 0.0};
+
+
+	public GeneDensity(Sequence sequence, Iterable<? extends Feature> features) {
+		int length = Math.max(1, sequence.getLength());
+		binSize = Math.max(MIN_BIN_SIZE, (int)((length + (long)MAX_BINS - 1) / MAX_BINS));
+		int bins = (length + binSize - 1) / binSize;
+		int[] counts = new int[bins];
+		for (Feature feature : features) {
+			counts[bin(feature.getCentralPosition(), bins)]++;
+		}
+		cumulative = new int[bins + 1];
+		int max = 0;
+		for (int i=0; i<bins; i++) {
+			cumulative[i + 1] = cumulative[i] + counts[i];
+			if (counts[i] > max) max = counts[i];
+		}
+		maxCount = max;
+	}
+
+	private int bin(int coord, int bins) {
+		return Math.max(0, Math.min(bins - 1, coord / binSize));
+	}
+
+	/**
+	 * @return width of a bin in bases
+	 */
+	public int getBinSize() {
+		return binSize;
+	}
+
+	/**
+	 * @return number of genes in the fullest bin
+	 */
+	public int getMaxCount() {
+		return maxCount;
+	}
+
+	/**
+	 * @return the most genes in any window of the given number of bases,
+	 * with windows laid end to end from the start of the sequence.
+	 */
+	public double maxCount(double width) {
+		if (width <= binSize) return maxCount;
+		double[] last = lastMaxCount;
+		if (last[0] == width) return last[1];
+		double length = (cumulative.length - 1) * (double)binSize;
+		double max = 0.0;
+		for (double start=0.0; start<length; start+=width)
+			max = Math.max(max, count(start, start + width));
+		lastMaxCount = new double[] {width, max};
+		return max;
+	}
+
+	/**
+	 * @return total number of genes
+	 */
+	public int getCount() {
+		return cumulative[cumulative.length - 1];
+	}
+
+	/**
+	 * @return the number of genes between start and end, interpolated
+	 * within the bins at either end.
+	 */
+	public double count(double start, double end) {
+		return cumulative(end) - cumulative(start);
+	}
+
+	private double cumulative(double coord) {
+		int bins = cumulative.length - 1;
+		double b = coord / binSize;
+		if (b <= 0.0) return 0.0;
+		if (b >= bins) return cumulative[bins];
+		int i = (int)b;
+		return cumulative[i] + (cumulative[i + 1] - cumulative[i]) * (b - i);
+	}
+}
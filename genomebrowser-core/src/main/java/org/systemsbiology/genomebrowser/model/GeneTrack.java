@@ -25,6 +25,9 @@ import org.systemsbiology.util.Iteratable;
  */
 public class GeneTrack<G extends GeneFeature> implements Track.Gene<G> {
 	private List<BlockEntry<G>> blocks = new ArrayList<BlockEntry<G>>();
+	// genes of each block in blocks, indexed for getFeatureAt
+	private List<FeatureIntervals<G>> intervals = new ArrayList<FeatureIntervals<G>>();
+	private List<DensityEntry> densities = new ArrayList<DensityEntry>();
 	private Attributes attributes = new Attributes();
 	private String name;
 	private UUID uuid;
@@ -47,6 +50,9 @@ public class GeneTrack<G extends GeneFeature> implements Track.Gene<G> {
 	@SuppressWarnings("unchecked")
 	public void addGeneFeatures(FeatureFilter filter, Block<? extends G> block) {
 		this.blocks.add(new BlockEntry<G>(filter, (Block<G>)block));
+		this.intervals.add(new FeatureIntervals<G>(block.features()));
+		if (filter.sequence != null)
+			this.densities.add(new DensityEntry(filter, new GeneDensity(filter.sequence, block.features())));
 	}
 
 	public void addGeneFeatures(Block<? extends G> block) {
@@ -77,13 +83,28 @@ public class GeneTrack<G extends GeneFeature> implements Track.Gene<G> {
 		return strands.toArray(new Strand[strands.size()]);
 	}
 
+	/**
+	 * @return counts of genes on the given sequence and strand, or null if
+	 * there are none.
+	 */
+	public GeneDensity getDensity(Sequence sequence, Strand strand) {
+		for (DensityEntry entry : densities) {
+			if (entry.filter.sequence.equals(sequence) && entry.filter.strand == strand)
+				return entry.density;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the gene covering the given coordinate, found by binary
+	 * search in each block that overlaps it, or null.
+	 */
 	public G getFeatureAt(Sequence sequence, Strand strand, int coord) {
-		for (BlockEntry<G> entry : blocks) {
-        if (entry.key().overlaps(sequence, strand, coord)) {
-            for (G feature: entry.block()) {
-					if (feature.getStart() <= coord && feature.getEnd() >= coord)
-						return feature;
-				}
+		for (int i=0; i<blocks.size(); i++) {
+			if (blocks.get(i).key().overlaps(sequence, strand, coord)) {
+				G feature = intervals.get(i).at(coord);
+				if (feature != null)
+					return feature;
 			}
 		}
 		return null;
@@ -107,6 +128,16 @@ public class GeneTrack<G extends GeneFeature> implements Track.Gene<G> {
 		return new FilteredGeneFeaturesIteratable(filter);
 	}
 	
+	private static class DensityEntry {
+		final FeatureFilter filter;
+		final GeneDensity density;
+
+		DensityEntry(FeatureFilter filter, GeneDensity density) {
+			this.filter = filter;
+			this.density = density;
+		}
+	}
+
 	class GeneFeatureIteratable implements Iteratable<G> {
 		Iterator<BlockEntry<G>> entries;
 		Iterator<G> features;
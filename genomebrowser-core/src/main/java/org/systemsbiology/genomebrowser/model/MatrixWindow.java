@@ -0,0 +1,26 @@
+package org.systemsbiology.genomebrowser.model;
+
+
+/**
+ * A window onto the primitive columns of a block of matrix features, those
+ * with a value for each of a number of conditions. Like QuantitativeWindow,
+ * but values are an array of rows, one per feature, each holding a value
+ * for every condition.
+ *
+ * @see QuantitativeWindow
+ */
+public interface MatrixWindow {
+	int[] getStarts();
+	int[] getEnds();
+	double[][] getValues();
+
+	/**
+	 * @return index of the first feature in the window
+	 */
+	int getFrom();
+
+	/**
+	 * @return index one past the last feature in the window
+	 */
+	int getTo();
+}
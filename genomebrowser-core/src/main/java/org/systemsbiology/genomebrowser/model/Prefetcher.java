@@ -0,0 +1,29 @@
+package org.systemsbiology.genomebrowser.model;
+
+import java.util.List;
+
+
+/**
+ * Loads track data ahead of its being needed. The renderer tells the
+ * prefetcher about each frame it starts, and it's up to the prefetcher
+ * which of the tracks on screen it knows how to load ahead of time, and
+ * from where.
+ *
+ * @see org.systemsbiology.genomebrowser.sqlite.BlockPrefetcher
+ */
+public interface Prefetcher {
+
+	/**
+	 * Called for each new frame with the tracks on screen and the visible
+	 * region of the genome. Should return quickly, leaving the loading to
+	 * some other thread.
+	 * @param frame increases with each frame, so work done for earlier
+	 * frames can be dropped
+	 */
+	public void viewChanged(List<? extends Track<?>> tracks, Sequence sequence, int start, int end, int frame);
+
+	/**
+	 * Stop loading and release any threads.
+	 */
+	public void shutdown();
+}
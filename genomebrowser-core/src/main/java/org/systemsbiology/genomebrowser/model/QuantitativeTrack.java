@@ -65,6 +65,10 @@ public class QuantitativeTrack implements Track.Quantitative<Feature.Quantitativ
         return new Range(-1.0, 1.0);
     }
 
+    public SummaryLevel getSummaryLevel(double basesPerBin) {
+        return null;
+    }
+
     public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback) {
         for (BlockEntry<Feature.Quantitative> entry : blocks) {
             if (filter.overlaps(entry.key())) {
@@ -0,0 +1,29 @@
+package org.systemsbiology.genomebrowser.model;
+
+
+/**
+ * A window onto the primitive columns of a block of quantitative features.
+ * Iteratables of features that are backed by arrays implement this, so
+ * renderers with lots of data points to draw can skip the flyweights and
+ * loop over the arrays directly.
+ *
+ * Features from index getFrom() (inclusive) to getTo() (exclusive) are
+ * the ones the iteratable would return. The arrays belong to the block
+ * and must not be modified. For positional data, starts and ends are the
+ * same array.
+ */
+public interface QuantitativeWindow {
+	int[] getStarts();
+	int[] getEnds();
+	double[] getValues();
+
+	/**
+	 * @return index of the first feature in the window
+	 */
+	int getFrom();
+
+	/**
+	 * @return index one past the last feature in the window
+	 */
+	int getTo();
+}
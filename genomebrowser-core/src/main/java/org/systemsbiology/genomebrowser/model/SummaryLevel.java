@@ -0,0 +1,28 @@
+package org.systemsbiology.genomebrowser.model;
+
+import org.systemsbiology.util.Iteratable;
+
+
+/**
+ * A summary of a quantitative track at one level of detail. The sequence is
+ * divided into bins of a fixed number of bases, and for each bin holding
+ * features we keep the count, min, max, mean and sum of squares of their
+ * values. Drawing a zoomed out view from summaries touches a row per bin
+ * rather than a row per feature.
+ * @see Track.Quantitative#getSummaryLevel(double)
+ */
+public interface SummaryLevel {
+
+	/**
+	 * @return width of a bin in bases
+	 */
+	public int getBinSize();
+
+	public Iteratable<Feature.Summary> features(FeatureFilter filter);
+
+	/**
+	 * Fetch the bins overlapping the filter, calling the callback once for
+	 * each strand.
+	 */
+	public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback);
+}
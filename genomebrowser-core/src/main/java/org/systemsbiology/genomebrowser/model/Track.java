@@ -62,6 +62,13 @@ public interface Track<F extends Feature> {
 
 	public interface Quantitative<Q extends Feature.Quantitative> extends Track<Q> {
 		public Range getRange();
+
+		/**
+		 * @return the coarsest summary of the track whose bins are no wider
+		 * than the given number of bases, or null if there is none, in
+		 * which case draw the features themselves.
+		 */
+		public SummaryLevel getSummaryLevel(double basesPerBin);
 	}
 
 	public interface Gene<G extends GeneFeature> extends Track<G> {
@@ -0,0 +1,270 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+
+/**
+ * The data of a block as primitive columns: integer coordinate columns,
+ * like start and end or position, and value columns. Blocks are read into
+ * this shape either from rows of a features table or from a single BLOB
+ * in the block_data table, which holds a block encoded by encode(...).
+ *
+ * Encoded layout, all numbers big-endian:
+ * <pre>
+ *   byte     format version (1)
+ *   byte     value encoding (0 = double, 1 = float, 2 = quantized)
+ *   varint   length, number of int columns, number of value columns
+ *   for each int column:
+ *     varint[length]  zig-zag encoded differences from the previous element
+ *   for each value column:
+ *     double:    8 bytes per value
+ *     float:     4 bytes per value
+ *     quantized: min and max as doubles, then 2 bytes per value giving
+ *                one of 65535 evenly spaced steps from min to max, with
+ *                0xFFFF meaning NaN
+ * </pre>
+ * Sorted coordinates have small, mostly equal differences, so the int
+ * columns usually take a byte or two per feature.
+ */
+public class BlockColumns {
+	private static final int FORMAT_VERSION = 1;
+	private static final int QUANTIZED_NAN = 0xFFFF;
+	private static final int QUANTIZED_STEPS = 0xFFFE;
+
+	/**
+	 * How values are stored in an encoded block. Float and quantized give
+	 * up precision for size: float keeps about 7 significant digits and
+	 * quantized keeps (max - min) / 65534 of absolute precision per block.
+	 */
+	public enum Encoding {
+		DOUBLE, FLOAT, QUANTIZED;
+
+		public static Encoding fromString(String s) {
+			return valueOf(s.trim().toUpperCase());
+		}
+	}
+
+	public final int length;
+	public final int[][] ints;
+	public final double[][] values;
+
+
+	public BlockColumns(int length, int intColumns, int valueColumns) {
+		this(length, new int[intColumns][length], new double[valueColumns][length]);
+	}
+
+	public BlockColumns(int length, int[][] ints, double[][] values) {
+		this.length = length;
+		this.ints = ints;
+		this.values = values;
+	}
+
+	/**
+	 * @return values as an array of rows, as used by matrix blocks
+	 */
+	public double[][] valueRows() {
+		double[][] rows = new double[length][values.length];
+		for (int j=0; j<values.length; j++) {
+			double[] column = values[j];
+			for (int i=0; i<length; i++) {
+				rows[i][j] = column[i];
+			}
+		}
+		return rows;
+	}
+
+	public byte[] encode(Encoding encoding) {
+		int valueBytes = encoding == Encoding.DOUBLE ? 8 : encoding == Encoding.FLOAT ? 4 : 2;
+		ByteWriter out = new ByteWriter(16 + length * (ints.length * 2 + values.length * valueBytes));
+		out.writeByte(FORMAT_VERSION);
+		out.writeByte(encoding.ordinal());
+		out.writeVarint(length);
+		out.writeVarint(ints.length);
+		out.writeVarint(values.length);
+
+		for (int[] column : ints) {
+			int previous = 0;
+			for (int i=0; i<length; i++) {
+				int delta = column[i] - previous;
+				out.writeVarint((delta << 1) ^ (delta >> 31));
+				previous = column[i];
+			}
+		}
+
+		for (double[] column : values) {
+			switch (encoding) {
+			case DOUBLE:
+				for (int i=0; i<length; i++)
+					out.writeLong(Double.doubleToLongBits(column[i]));
+				break;
+			case FLOAT:
+				for (int i=0; i<length; i++)
+					out.writeInt(Float.floatToIntBits((float)column[i]));
+				break;
+			case QUANTIZED:
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int i=0; i<length; i++) {
+					if (column[i] < min) min = column[i];
+					if (column[i] > max) max = column[i];
+				}
+				if (min > max) {
+					min = 0.0;
+					max = 0.0;
+				}
+				double scale = max > min ? QUANTIZED_STEPS / (max - min) : 0.0;
+				out.writeLong(Double.doubleToLongBits(min));
+				out.writeLong(Double.doubleToLongBits(max));
+				for (int i=0; i<length; i++) {
+					if (Double.isNaN(column[i]))
+						out.writeShort(QUANTIZED_NAN);
+					else
+						out.writeShort((int)Math.round((column[i] - min) * scale));
+				}
+				break;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode a block encoded by encode(...) in a single pass.
+	 */
+	public static BlockColumns decode(byte[] data) {
+		ByteReader in = new ByteReader(data);
+		int version = in.readByte();
+		if (version != FORMAT_VERSION)
+			throw new RuntimeException("Unknown block format version: " + version);
+		Encoding encoding = Encoding.values()[in.readByte()];
+		int length = in.readVarint();
+		BlockColumns columns = new BlockColumns(length, in.readVarint(), in.readVarint());
+
+		for (int[] column : columns.ints) {
+			int previous = 0;
+			for (int i=0; i<length; i++) {
+				int zigzag = in.readVarint();
+				previous += (zigzag >>> 1) ^ -(zigzag & 1);
+				column[i] = previous;
+			}
+		}
+
+		for (double[] column : columns.values) {
+			switch (encoding) {
+			case DOUBLE:
+				for (int i=0; i<length; i++)
+					column[i] = Double.longBitsToDouble(in.readLong());
+				break;
+			case FLOAT:
+				for (int i=0; i<length; i++)
+					column[i] = Float.intBitsToFloat(in.readInt());
+				break;
+			case QUANTIZED:
+				double min = Double.longBitsToDouble(in.readLong());
+				double max = Double.longBitsToDouble(in.readLong());
+				double step = (max - min) / QUANTIZED_STEPS;
+				for (int i=0; i<length; i++) {
+					int q = in.readShort();
+					column[i] = q == QUANTIZED_NAN ? Double.NaN : min + q * step;
+				}
+				break;
+			}
+		}
+		return columns;
+	}
+
+
+	private static class ByteWriter {
+		private byte[] bytes;
+		private int size;
+
+		ByteWriter(int capacity) {
+			bytes = new byte[Math.max(capacity, 16)];
+		}
+
+		private void ensure(int n) {
+			if (size + n > bytes.length) {
+				byte[] newBytes = new byte[Math.max(bytes.length * 2, size + n)];
+				System.arraycopy(bytes, 0, newBytes, 0, size);
+				bytes = newBytes;
+			}
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			bytes[size++] = (byte)b;
+		}
+
+		void writeShort(int s) {
+			ensure(2);
+			bytes[size++] = (byte)(s >>> 8);
+			bytes[size++] = (byte)s;
+		}
+
+		void writeInt(int n) {
+			ensure(4);
+			bytes[size++] = (byte)(n >>> 24);
+			bytes[size++] = (byte)(n >>> 16);
+			bytes[size++] = (byte)(n >>> 8);
+			bytes[size++] = (byte)n;
+		}
+
+		void writeLong(long n) {
+			writeInt((int)(n >>> 32));
+			writeInt((int)n);
+		}
+
+		void writeVarint(int n) {
+			ensure(5);
+			while ((n & ~0x7F) != 0) {
+				bytes[size++] = (byte)((n & 0x7F) | 0x80);
+				n >>>= 7;
+			}
+			bytes[size++] = (byte)n;
+		}
+
+		byte[] toByteArray() {
+			byte[] result = new byte[size];
+			System.arraycopy(bytes, 0, result, 0, size);
+			return result;
+		}
+	}
+
+	private static class ByteReader {
+		private final byte[] bytes;
+		private int pos;
+
+		ByteReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		int readByte() {
+			return bytes[pos++] & 0xFF;
+		}
+
+		int readShort() {
+			int s = ((bytes[pos] & 0xFF) << 8) | (bytes[pos+1] & 0xFF);
+			pos += 2;
+			return s;
+		}
+
+		int readInt() {
+			int n = ((bytes[pos] & 0xFF) << 24) | ((bytes[pos+1] & 0xFF) << 16) | ((bytes[pos+2] & 0xFF) << 8) | (bytes[pos+3] & 0xFF);
+			pos += 4;
+			return n;
+		}
+
+		long readLong() {
+			return (((long)readInt()) << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+
+		int readVarint() {
+			int n = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				n |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return n;
+		}
+	}
+}
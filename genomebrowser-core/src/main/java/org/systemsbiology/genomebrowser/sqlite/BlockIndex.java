@@ -1,30 +1,51 @@
 package org.systemsbiology.genomebrowser.sqlite;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.util.Iteratable;
 import org.systemsbiology.util.IteratableWrapper;
-import org.systemsbiology.util.MultiHashMap;
-import org.systemsbiology.util.Pair;
 
 
+/**
+ * Index of the blocks of a track by sequence, strand and position. For each
+ * (seqId, strand) the keys are held sorted by start along with primitive
+ * arrays of starts, ends, and the running maximum of ends. A window query
+ * binary searches for the first key whose running max end reaches the start
+ * of the window and scans forward until keys start past the end of the
+ * window, so it costs O(log n + k) and needs no copying of keys.
+ */
 public class BlockIndex {
 	@SuppressWarnings("unused")
 	private static final Logger log = Logger.getLogger(BlockIndex.class);
 
-	// map (SeqId, Strand) -> BlockKey 
-	private MultiHashMap<Pair<String, Strand>, BlockKey> keyMap = new MultiHashMap<Pair<String, Strand>, BlockKey>(); 
+	// map SeqId -> keys for that sequence indexed by Strand.ordinal()
+	private final Map<String, StrandIndex[]> index = new HashMap<String, StrandIndex[]>();
+
+	// each thread's WindowIteratable, while it's not in use
+	private static final ThreadLocal<WindowIteratable> spare = new ThreadLocal<WindowIteratable>();
 
 
 	public BlockIndex() {}
 
-	public void add(BlockKey key) {
-		//log.info(key);
-		keyMap.add(new Pair<String, Strand>(key.getSeqId(), key.getStrand()), key);
+	public synchronized void add(BlockKey key) {
+		StrandIndex[] strands = index.get(key.getSeqId());
+		if (strands == null) {
+			strands = new StrandIndex[Strand.values().length];
+			index.put(key.getSeqId(), strands);
+		}
+		int s = key.getStrand().ordinal();
+		if (strands[s] == null)
+			strands[s] = new StrandIndex();
+		strands[s].add(key);
 	}
 
 	public void addAll(List<BlockKey> keys) {
@@ -33,100 +54,253 @@ public class BlockIndex {
 		}
 	}
 
-	public int size() {
+	public synchronized int size() {
 		int size = 0;
-		for (List<BlockKey> list: keyMap.values()) {
-			size += list.size();
+		for (StrandIndex[] strands : index.values()) {
+			for (StrandIndex strandIndex : strands) {
+				if (strandIndex != null)
+					size += strandIndex.build().keys.length;
+			}
 		}
 		return size;
 	}
 
-	public Iteratable<BlockKey> keys() {
-		return new IteratableWrapper<BlockKey>(keyMap.getAllValues().iterator());
-	}
-
-	public Iteratable<BlockKey> keys(String seqId, Strand strand) {
+	public synchronized Iteratable<BlockKey> keys() {
 		List<BlockKey> keys = new ArrayList<BlockKey>();
-		if (strand == Strand.any) {
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.forward)));
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.reverse)));
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.none)));
-		}
-		else {
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, strand)));
+		for (StrandIndex[] strands : index.values()) {
+			for (StrandIndex strandIndex : strands) {
+				if (strandIndex != null)
+					Collections.addAll(keys, strandIndex.build().keys);
+			}
 		}
 		return new IteratableWrapper<BlockKey>(keys.iterator());
 	}
 
+	public Iteratable<BlockKey> keys(String seqId, Strand strand) {
+		return keys(seqId, strand, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return keys of blocks on the given sequence and strand that overlap the
+	 * window from start to end, inclusive. Strand.any matches all strands.
+	 */
 	public Iteratable<BlockKey> keys(String seqId, Strand strand, int start, int end) {
-		List<BlockKey> keys = new ArrayList<BlockKey>();
-		if (strand == Strand.any) {
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.forward)));
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.reverse)));
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.none)));
+		return keys(seqId, strand, start, end, new WindowIteratable());
+	}
+
+	/**
+	 * Same as keys(seqId, strand, start, end), but reuses the given iteratable
+	 * so callers doing many queries on one thread need not allocate anything.
+	 * @see #takeWindowIteratable()
+	 */
+	public Iteratable<BlockKey> keys(String seqId, Strand strand, int start, int end, WindowIteratable reuse) {
+		Sorted[] sorted = reuse.sorted;
+		if (sorted == null)
+			sorted = new Sorted[Strand.values().length];
+		synchronized (this) {
+			StrandIndex[] strands = index.get(seqId);
+			for (int i=0; i<sorted.length; i++)
+				sorted[i] = (strands == null || strands[i] == null) ? null : strands[i].build();
+		}
+		reuse.init(sorted, strand, start, end);
+		return reuse;
+	}
+
+	/**
+	 * @return this thread's spare WindowIteratable for keys(..., reuse), or
+	 * a new one if it's already taken, say by a query further up the stack.
+	 * Hand it back with releaseWindowIteratable when done iterating.
+	 */
+	public static WindowIteratable takeWindowIteratable() {
+		WindowIteratable iteratable = spare.get();
+		if (iteratable == null)
+			return new WindowIteratable();
+		spare.set(null);
+		return iteratable;
+	}
+
+	/**
+	 * Make the given iteratable this thread's spare, forgetting the keys it
+	 * was iterating over.
+	 */
+	public static void releaseWindowIteratable(WindowIteratable iteratable) {
+		iteratable.clear();
+		spare.set(iteratable);
+	}
+
+
+	/**
+	 * Block keys for a single sequence and strand. Keys are accumulated
+	 * in a list and the sorted arrays are (re)built lazily on query.
+	 */
+	private static class StrandIndex {
+		private List<BlockKey> pending = new ArrayList<BlockKey>();
+		private Sorted sorted = new Sorted(new BlockKey[0]);
+
+		void add(BlockKey key) {
+			if (pending == null) {
+				pending = new ArrayList<BlockKey>(sorted.keys.length + 1);
+				Collections.addAll(pending, sorted.keys);
+			}
+			pending.add(key);
 		}
-		else {
-			keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, strand)));
+
+		Sorted build() {
+			if (pending != null) {
+				Collections.sort(pending, BLOCK_KEY_COMPARATOR);
+
+				// drop duplicate keys
+				List<BlockKey> unique = new ArrayList<BlockKey>(pending.size());
+				BlockKey prev = null;
+				for (BlockKey key : pending) {
+					if (prev == null || !prev.equals(key))
+						unique.add(key);
+					prev = key;
+				}
+				sorted = new Sorted(unique.toArray(new BlockKey[unique.size()]));
+				pending = null;
+			}
+			return sorted;
 		}
-		return new BlockKeyIteratable(keys, start, end);
 	}
 
-	private class BlockKeyIteratable implements Iteratable<BlockKey> {
-		int start;
-		int end;
-		int i;
-		BlockKey next;
-		List<BlockKey> keys;
+	/**
+	 * Immutable sorted keys for a sequence and strand, so iterators can
+	 * keep walking them even if keys are added concurrently.
+	 */
+	private static class Sorted {
+		final BlockKey[] keys;
+		final int[] starts;
+		final int[] ends;
+		// maxEnds[i] = max(ends[0..i]), non-decreasing so we can binary search it
+		final int[] maxEnds;
 
-		BlockKeyIteratable(List<BlockKey> keys, int start, int end) {
+		Sorted(BlockKey[] keys) {
+			int n = keys.length;
 			this.keys = keys;
+			starts = new int[n];
+			ends = new int[n];
+			maxEnds = new int[n];
+			int maxEnd = Integer.MIN_VALUE;
+			for (int i=0; i<n; i++) {
+				starts[i] = keys[i].getStart();
+				ends[i] = keys[i].getEnd();
+				maxEnd = Math.max(maxEnd, ends[i]);
+				maxEnds[i] = maxEnd;
+			}
+		}
+
+		/**
+		 * @return index of the first key that could overlap a window
+		 * starting at start.
+		 */
+		int first(int start) {
+			int lo = 0;
+			int hi = maxEnds.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (maxEnds[mid] < start)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+	}
+
+	private static final Comparator<BlockKey> BLOCK_KEY_COMPARATOR = new Comparator<BlockKey>() {
+		public int compare(BlockKey a, BlockKey b) {
+			if (a.getStart() != b.getStart())
+				return a.getStart() < b.getStart() ? -1 : 1;
+			if (a.getEnd() != b.getEnd())
+				return a.getEnd() < b.getEnd() ? -1 : 1;
+			if (a.getFirstRowId() != b.getFirstRowId())
+				return a.getFirstRowId() < b.getFirstRowId() ? -1 : 1;
+			return 0;
+		}
+	};
+
+
+	/**
+	 * Iterates over the keys overlapping a window, walking the strands
+	 * forward, reverse, none in that order when the query is for Strand.any.
+	 */
+	public static class WindowIteratable implements Iteratable<BlockKey> {
+		private Sorted[] sorted;
+		private int strandOrdinal;
+		private int lastStrandOrdinal;
+		private int start;
+		private int end;
+		private Sorted current;
+		private int i;
+		private BlockKey next;
+
+		void init(Sorted[] sorted, Strand strand, int start, int end) {
+			this.sorted = sorted;
 			this.start = start;
 			this.end = end;
-			i = 0;
-			if (keys == null || keys.size() < 1)
-				next = null;
+			if (strand == Strand.any) {
+				strandOrdinal = Strand.forward.ordinal();
+				lastStrandOrdinal = Strand.none.ordinal();
+			}
 			else {
-				next = keys.get(i);
-				while (next.getEnd()<start || next.getStart()>end) {
-					i++;
-					if (i>=keys.size()) {
-						next = null;
-						break;
-					}
-					next = keys.get(i);
-				}
+				strandOrdinal = lastStrandOrdinal = strand.ordinal();
 			}
+			current = null;
+			strandOrdinal--;
+			nextStrand();
+			advance();
 		}
 
-		public Iterator<BlockKey> iterator() {
-			return this;
+		void clear() {
+			if (sorted != null)
+				Arrays.fill(sorted, null);
+			current = null;
+			next = null;
 		}
 
-		public boolean hasNext() {
-			return next != null;
+		private boolean nextStrand() {
+			current = null;
+			if (sorted == null) return false;
+			while (current == null && strandOrdinal < lastStrandOrdinal) {
+				strandOrdinal++;
+				current = sorted[strandOrdinal];
+			}
+			if (current != null)
+				i = current.first(start);
+			return current != null;
 		}
 
-		public BlockKey next() {
-			BlockKey current = next;
-			i++;
-			if (i>=keys.size())
-				next = null;
-			else {
-				next = keys.get(i);
-				while (next.getEnd()<start || next.getStart()>end) {
-					i++;
-					if (i>=keys.size()) {
-						next = null;
-						break;
+		private void advance() {
+			next = null;
+			while (current != null) {
+				while (i < current.keys.length && current.starts[i] <= end) {
+					int j = i++;
+					if (current.ends[j] >= start) {
+						next = current.keys[j];
+						return;
 					}
-					next = keys.get(i);
 				}
+				nextStrand();
 			}
-			return current;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public BlockKey next() {
+			BlockKey result = next;
+			advance();
+			return result;
 		}
 
 		public void remove() {
-			throw new UnsupportedOperationException("BlockKeyIteratable doesn't support remove().");
+			throw new UnsupportedOperationException("BlockIndex iterators don't support remove().");
+		}
+
+		public Iterator<BlockKey> iterator() {
+			return this;
 		}
 	}
 }
@@ -10,6 +10,7 @@ import org.systemsbiology.genomebrowser.model.Strand;
  * Describes a block sufficiently to load the block's data from the DB.
  */
 public class BlockKey {
+	private final String source;
 	private final UUID trackUuid;
 	private final int sequencesId;
 	private final String seqId;
@@ -18,8 +19,8 @@ public class BlockKey {
 	private final int end;
 	private final int length;
 	private final String table;
-	private final int firstRowId; // TODO change row IDs to long
-	private final int lastRowId;
+	private final long firstRowId;
+	private final long lastRowId;
 
 	/*
 	Note that, for the human genome the largest chromosomes are ~250 million bps, which
@@ -27,10 +28,21 @@ public class BlockKey {
 	
 	BUT the rowID's could easily exceed the size of an integer, for example single base
 	resolution data on the human genome would need 3 billion bps, or twice that if we
-	have strand specific data.
+	have strand specific data. So row IDs are longs, like sqlite's own rowids, while
+	coordinates and the number of features in a block stay ints.
 	*/
 
-	public BlockKey(UUID trackUuid, int sequencesId, String seqId, Strand strand, int start, int end, int length, String table, int firstRowId, int lastRowId) {
+	public BlockKey(UUID trackUuid, int sequencesId, String seqId, Strand strand, int start, int end, int length, String table, long firstRowId, long lastRowId) {
+		this(null, trackUuid, sequencesId, seqId, strand, start, end, length, table, firstRowId, lastRowId);
+	}
+
+	/**
+	 * @param source identifies the dataset the block is read from, typically
+	 * its connect string. Blocks of all open datasets share one cache, and a
+	 * copy of a dataset has the same track uuids and row ids as the original.
+	 */
+	public BlockKey(String source, UUID trackUuid, int sequencesId, String seqId, Strand strand, int start, int end, int length, String table, long firstRowId, long lastRowId) {
+		this.source = source;
 		this.trackUuid = trackUuid;
 		this.sequencesId = sequencesId;
 		this.seqId = seqId;
@@ -44,6 +56,13 @@ public class BlockKey {
 	}
 
 	
+	/**
+	 * @return the dataset the block is read from, or null if not known
+	 */
+	public String getSource() {
+		return source;
+	}
+
 	public UUID getTrackUuid() {
 		return trackUuid;
 	}
@@ -76,22 +95,22 @@ public class BlockKey {
 		return table;
 	}
 
-	public int getFirstRowId() {
+	public long getFirstRowId() {
 		return firstRowId;
 	}
 
-	public int getLastRowId() {
+	public long getLastRowId() {
 		return lastRowId;
 	}
 
 	// careful, we're assuming contiguous row ids
 	public int getFeatureCount() {
-		return lastRowId - firstRowId + 1;
+		return (int)(lastRowId - firstRowId + 1);
 	}
 
 	@Override
 	public int hashCode() {
-		return trackUuid.hashCode() * 151 + firstRowId * 31 + lastRowId;
+		return ((source == null ? 0 : source.hashCode()) * 31 + trackUuid.hashCode()) * 151 + (int)(firstRowId ^ (firstRowId >>> 32)) * 31 + (int)(lastRowId ^ (lastRowId >>> 32));
 	}
 
 	@Override
@@ -104,10 +123,12 @@ public class BlockKey {
 			return false;
 		BlockKey other = (BlockKey) obj;
 		
-		// a block is uniquely defined by it's track uuid and first
-		// and last rowId in the track's features table.
+		// a block is uniquely defined by the dataset it comes from, its
+		// track uuid and first and last rowId in the track's features table.
 
-		if (trackUuid != other.trackUuid)
+		if (source == null ? other.source != null : !source.equals(other.source))
+			return false;
+		if (!trackUuid.equals(other.trackUuid))
 			return false;
 		if (firstRowId != other.firstRowId)
 			return false;
@@ -124,8 +145,8 @@ public class BlockKey {
 
 	@Override
 	public String toString() {
-		return String.format("(BlockKey uuid=%s, seq=(%d)%s, strand=%s, start=%d, end=%d, len=%d, table=%s, rows=%d:%d)",
-				trackUuid.toString(), sequencesId, seqId, strand.toAbbreviatedString(), start, end, length, table, firstRowId, lastRowId);
+		return String.format("(BlockKey source=%s, uuid=%s, seq=(%d)%s, strand=%s, start=%d, end=%d, len=%d, table=%s, rows=%d:%d)",
+				source, trackUuid.toString(), sequencesId, seqId, strand.toAbbreviatedString(), start, end, length, table, firstRowId, lastRowId);
 	}
 }
 
@@ -0,0 +1,313 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.cache.BlockCache;
+import org.systemsbiology.genomebrowser.model.Block;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Prefetcher;
+import org.systemsbiology.genomebrowser.model.Segment;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Track;
+
+
+/**
+ * Loads blocks of track data into the block cache ahead of their being
+ * needed. Each time the view changes, the prefetcher guesses where the
+ * view will go next from the direction and speed of scrolling and whether
+ * we're zooming out, and loads blocks in that region on a small pool of
+ * low priority background threads.
+ *
+ * The blocks in view are pinned in the cache so prefetching never pushes
+ * them out, and unpinned once no track in view uses the cache. Prefetching for a frame stops as soon as the next frame starts.
+ * Tracks that aren't BlockTracks are left alone.
+ */
+public class BlockPrefetcher implements Prefetcher {
+	private static final Logger log = Logger.getLogger(BlockPrefetcher.class);
+
+	/**
+	 * System property giving the number of prefetch threads. Zero turns
+	 * prefetching off, though visible blocks are still pinned.
+	 */
+	public static final String THREADS_PROPERTY = "genomebrowser.prefetch.threads";
+	public static final int DEFAULT_THREADS = 2;
+
+	// how far ahead of a scrolling view to look, in milliseconds at the current speed
+	static final long LOOKAHEAD_MILLIS = 1000;
+
+	// bounds on the size of the predicted region, as multiples of the view's width
+	static final int MIN_LOOKAHEAD_WIDTHS = 1;
+	static final int MAX_LOOKAHEAD_WIDTHS = 4;
+
+	// a pause longer than this means we don't know which way the user is headed
+	static final long IDLE_MILLIS = 2000;
+
+	// most blocks to prefetch per track per frame
+	static final int MAX_BLOCKS_PER_TRACK = 16;
+
+	private final ThreadPoolExecutor executor;
+
+	// frame being prefetched for; tasks for earlier frames quit
+	private volatile int currentFrame;
+
+	// motion of the view, as of the last frame
+	private String seqId;
+	private int lastStart;
+	private int lastEnd;
+	private long lastMillis;
+	// smoothed scrolling speed in bp per millisecond, positive toward the end of the sequence
+	private double velocity;
+
+	// caches with blocks pinned by the last frame, to be unpinned when
+	// the tracks using them go out of view
+	private Set<BlockCache<BlockKey, Block<? extends Feature>>> pinnedCaches = Collections.emptySet();
+
+
+	public BlockPrefetcher() {
+		this(getDefaultThreadCount());
+	}
+
+	/**
+	 * @param threads number of threads loading blocks, 0 to turn prefetching off
+	 */
+	public BlockPrefetcher(int threads) {
+		if (threads > 0) {
+			executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(64),
+					new PrefetchThreadFactory(),
+					new ThreadPoolExecutor.DiscardOldestPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		else {
+			executor = null;
+		}
+	}
+
+	private static int getDefaultThreadCount() {
+		String threads = System.getProperty(THREADS_PROPERTY);
+		if (threads != null) {
+			try {
+				return Integer.parseInt(threads.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + THREADS_PROPERTY + ": " + threads);
+			}
+		}
+		return DEFAULT_THREADS;
+	}
+
+	/**
+	 * Called for each new frame with the tracks on screen and the visible
+	 * region of the genome. Pins the visible blocks and starts prefetching
+	 * blocks where we expect the view to go next.
+	 */
+	public void viewChanged(List<? extends Track<?>> tracks, Sequence sequence, int start, int end, int frame) {
+		currentFrame = frame;
+		if (executor != null)
+			executor.getQueue().clear();
+
+		List<Segment> windows = predict(sequence, start, end, System.currentTimeMillis());
+
+		Map<BlockCache<BlockKey, Block<? extends Feature>>, List<BlockKey>> pins =
+			new IdentityHashMap<BlockCache<BlockKey, Block<? extends Feature>>, List<BlockKey>>();
+
+		// one iteratable for all the index queries of the frame
+		BlockIndex.WindowIteratable reuse = BlockIndex.takeWindowIteratable();
+		try {
+			for (Track<?> t : tracks) {
+				if (!(t instanceof BlockTrack))
+					continue;
+				BlockTrack track = (BlockTrack)t;
+				BlockIndex index = track.getBlockIndex();
+				Set<BlockKey> visible = new HashSet<BlockKey>();
+				for (BlockKey key : index.keys(sequence.getSeqId(), Strand.any, start, end, reuse)) {
+					visible.add(key);
+				}
+
+				List<BlockKey> pinned = pins.get(track.getBlockCache());
+				if (pinned == null) {
+					pinned = new ArrayList<BlockKey>();
+					pins.put(track.getBlockCache(), pinned);
+				}
+				pinned.addAll(visible);
+
+				if (executor != null) {
+					List<BlockKey> keys = new ArrayList<BlockKey>();
+					for (Segment window : windows) {
+						for (BlockKey key : index.keys(sequence.getSeqId(), Strand.any, window.start, window.end, reuse)) {
+							if (!visible.contains(key) && !keys.contains(key))
+								keys.add(key);
+						}
+					}
+					if (keys.size() > 0) {
+						Collections.sort(keys, new DistanceComparator(start, end));
+						if (keys.size() > MAX_BLOCKS_PER_TRACK)
+							keys = keys.subList(0, MAX_BLOCKS_PER_TRACK);
+						executor.execute(new PrefetchTask(frame, track, keys));
+					}
+				}
+			}
+		}
+		finally {
+			BlockIndex.releaseWindowIteratable(reuse);
+		}
+
+		for (Map.Entry<BlockCache<BlockKey, Block<? extends Feature>>, List<BlockKey>> entry : pins.entrySet()) {
+			entry.getKey().setPinned(entry.getValue());
+		}
+		synchronized (this) {
+			for (BlockCache<BlockKey, Block<? extends Feature>> cache : pinnedCaches) {
+				if (!pins.containsKey(cache))
+					cache.setPinned(Collections.<BlockKey>emptyList());
+			}
+			pinnedCaches = pins.keySet();
+		}
+	}
+
+	/**
+	 * Guess which regions of the sequence will be viewed next, given that
+	 * the view has moved to start-end.
+	 * @return regions to prefetch, nearest first
+	 */
+	synchronized List<Segment> predict(Sequence sequence, int start, int end, long millis) {
+		List<Segment> windows = new ArrayList<Segment>();
+		int width = end - start + 1;
+
+		boolean moving = sequence.getSeqId().equals(seqId) && millis - lastMillis < IDLE_MILLIS;
+		int lastWidth = lastEnd - lastStart + 1;
+
+		if (moving) {
+			long dt = Math.max(1, millis - lastMillis);
+			double center = (start + end) / 2.0;
+			double lastCenter = (lastStart + lastEnd) / 2.0;
+			velocity = 0.5 * velocity + 0.5 * (center - lastCenter) / dt;
+		}
+		else {
+			velocity = 0.0;
+		}
+
+		if (moving && width > lastWidth) {
+			// zooming out: expect to see the region around the view, grown
+			// by the same factor again.
+			double ratio = Math.min(MAX_LOOKAHEAD_WIDTHS, ((double)width) / lastWidth);
+			int margin = (int)(width * (ratio - 1.0) / 2.0) + 1;
+			addWindow(windows, sequence, end + 1, end + margin);
+			addWindow(windows, sequence, start - margin, start - 1);
+		}
+		else if (moving && velocity != 0.0) {
+			long distance = (long)Math.abs(velocity * LOOKAHEAD_MILLIS);
+			distance = Math.max(distance, (long)width * MIN_LOOKAHEAD_WIDTHS);
+			distance = Math.min(distance, (long)width * MAX_LOOKAHEAD_WIDTHS);
+			if (velocity > 0)
+				addWindow(windows, sequence, end + 1, (int)Math.min(Integer.MAX_VALUE, end + distance));
+			else
+				addWindow(windows, sequence, (int)Math.max(Integer.MIN_VALUE, start - distance), start - 1);
+		}
+		else if (!moving || width == lastWidth) {
+			// no idea which way we're going next, so look a screen either way
+			addWindow(windows, sequence, end + 1, end + width);
+			addWindow(windows, sequence, start - width, start - 1);
+		}
+		// when zooming in, the blocks we'll need are already on screen
+
+		seqId = sequence.getSeqId();
+		lastStart = start;
+		lastEnd = end;
+		lastMillis = millis;
+
+		return windows;
+	}
+
+	private void addWindow(List<Segment> windows, Sequence sequence, int start, int end) {
+		start = Math.max(0, start);
+		end = Math.min(sequence.getLength(), end);
+		if (start <= end)
+			windows.add(new Segment(sequence.getSeqId(), start, end));
+	}
+
+	public void shutdown() {
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+
+	/**
+	 * Loads the given blocks of one track, in order, until the frame changes.
+	 */
+	private class PrefetchTask implements Runnable {
+		private final int frame;
+		private final BlockTrack track;
+		private final List<BlockKey> keys;
+
+		PrefetchTask(int frame, BlockTrack track, List<BlockKey> keys) {
+			this.frame = frame;
+			this.track = track;
+			this.keys = keys;
+		}
+
+		public void run() {
+			for (BlockKey key : keys) {
+				if (frame != currentFrame) return;
+				try {
+					track.prefetchBlock(key);
+				}
+				catch (RuntimeException e) {
+					log.warn("Error prefetching block " + key, e);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Orders keys by their distance from the visible region.
+	 */
+	private static class DistanceComparator implements Comparator<BlockKey> {
+		private final int start;
+		private final int end;
+
+		DistanceComparator(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		private long distance(BlockKey key) {
+			if (key.getStart() > end)
+				return (long)key.getStart() - end;
+			if (key.getEnd() < start)
+				return (long)start - key.getEnd();
+			return 0;
+		}
+
+		public int compare(BlockKey a, BlockKey b) {
+			long da = distance(a);
+			long db = distance(b);
+			return da < db ? -1 : (da > db ? 1 : 0);
+		}
+	}
+
+	private static class PrefetchThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "block-prefetch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	}
+}
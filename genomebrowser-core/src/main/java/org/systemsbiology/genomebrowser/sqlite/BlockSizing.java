@@ -0,0 +1,71 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Works out how many features go in a block. Rather than a fixed number
+ * of features, each block aims at about the same number of bytes once it's
+ * loaded, so blocks of narrow positional features hold more features than
+ * blocks of wide matrix rows. The target is read from the system property
+ * genomebrowser.block.bytes and defaults to 320KB, which is the size of the
+ * 20,000 feature segment blocks we used to make for every track.
+ *
+ * Changing the target only affects block indexes created afterwards.
+ */
+public class BlockSizing {
+	private static final Logger log = Logger.getLogger(BlockSizing.class);
+
+	public static final String TARGET_BYTES_PROPERTY = "genomebrowser.block.bytes";
+	public static final long DEFAULT_TARGET_BYTES = 320 * 1024;
+
+	public static final int MIN_FEATURES = 256;
+	public static final int MAX_FEATURES = 256 * 1024;
+
+	// rough footprint of a peptide, which has a couple of short strings
+	private static final int PEPTIDE_BYTES = 120;
+
+
+	public static long getTargetBytes() {
+		String bytes = System.getProperty(TARGET_BYTES_PROPERTY);
+		if (bytes != null) {
+			try {
+				return Long.parseLong(bytes.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + TARGET_BYTES_PROPERTY + ": " + bytes);
+			}
+		}
+		return DEFAULT_TARGET_BYTES;
+	}
+
+	/**
+	 * Bytes taken by one feature of a track of the given type once loaded
+	 * into a block.
+	 * @param valueColumns number of value columns of a matrix track
+	 */
+	public static int bytesPerFeature(String type, int valueColumns) {
+		if ("quantitative.segment".equals(type))
+			return 4 + 4 + 8;
+		if ("quantitative.positional".equals(type))
+			return 4 + 8;
+		if ("quantitative.positional.p.value".equals(type))
+			return 4 + 8 + 8;
+		if ("quantitative.segment.matrix".equals(type))
+			// each row of values is an array of its own
+			return 4 + 4 + 16 + 8 * valueColumns;
+		return PEPTIDE_BYTES;
+	}
+
+	/**
+	 * @return number of features per block for features of the given size
+	 */
+	public static int featuresPerBlock(int bytesPerFeature) {
+		return featuresPerBlock(bytesPerFeature, getTargetBytes());
+	}
+
+	public static int featuresPerBlock(int bytesPerFeature, long targetBytes) {
+		long features = targetBytes / Math.max(1, bytesPerFeature);
+		return (int)Math.max(MIN_FEATURES, Math.min(MAX_FEATURES, features));
+	}
+}
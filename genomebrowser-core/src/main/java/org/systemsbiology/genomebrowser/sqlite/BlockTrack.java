@@ -0,0 +1,27 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import org.systemsbiology.genomebrowser.cache.BlockCache;
+import org.systemsbiology.genomebrowser.model.Block;
+import org.systemsbiology.genomebrowser.model.Feature;
+
+
+/**
+ * A track whose features are stored in blocks which are loaded on demand
+ * and held in a BlockCache.
+ */
+public interface BlockTrack {
+
+	public BlockIndex getBlockIndex();
+
+	/**
+	 * @return the cache holding this track's blocks
+	 */
+	public BlockCache<BlockKey, Block<? extends Feature>> getBlockCache();
+
+	/**
+	 * Load the block with the given key into the cache ahead of its being
+	 * needed, if it's not cached already.
+	 * @return true if the block was loaded
+	 */
+	public boolean prefetchBlock(BlockKey key);
+}
@@ -0,0 +1,592 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.metrics.Histogram;
+import org.systemsbiology.genomebrowser.metrics.Metrics;
+
+
+/**
+ * Hands out long-lived connections to a dataset file. Opening a sqlite file
+ * and compiling SQL is a large part of the cost of a small query, so rather
+ * than opening a connection per query, connections are pooled: a handful of
+ * read connections and a single write connection per file. Each pooled
+ * connection caches its prepared statements keyed by SQL text.
+ *
+ * Connections are handed out wrapped so that existing code written in the
+ * open-use-close style works unchanged: closing the connection returns it to
+ * the pool and closing a prepared statement returns it to the statement cache.
+ *
+ * The write connection is exclusive. A thread asking for it while another
+ * thread holds it waits. The same thread can ask for it again (say, from a
+ * helper method) and gets the same connection. Read connections are never
+ * waited for; if all are in use, another is opened and kept if there is room
+ * in the pool.
+ *
+ * When Metrics are enabled, executing a cached statement is timed in the
+ * histogram sql.[method], for example sql.executeQuery. For queries, that's
+ * the time to run the statement up to its first row; reading the rest of
+ * the rows is part of the block load times.
+ */
+public class ConnectionManager {
+	private static final Logger log = Logger.getLogger(ConnectionManager.class);
+
+	/**
+	 * System property giving the number of idle read connections kept open per file.
+	 */
+	public static final String POOL_SIZE_PROPERTY = "genomebrowser.sqlite.readers";
+	public static final int DEFAULT_POOL_SIZE = 4;
+
+	/**
+	 * Number of prepared statements cached per connection.
+	 */
+	public static final int STATEMENT_CACHE_SIZE = 64;
+
+	private static final Map<String, ConnectionManager> managers = new HashMap<String, ConnectionManager>();
+	private static final Metrics metrics = Metrics.getInstance();
+
+	// sql.[method] histograms by statement method, so executing a statement
+	// doesn't build the name and look it up each time
+	private static final Map<Method, Histogram> sqlHistograms = new ConcurrentHashMap<Method, Histogram>();
+
+	private final String connectString;
+	private int poolSize;
+	private final LinkedList<PooledConnection> idleReaders = new LinkedList<PooledConnection>();
+	private final List<PooledConnection> allReaders = new ArrayList<PooledConnection>();
+	private PooledConnection writer;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private boolean closed;
+
+	// incremented each time the writer is released, so readers know to
+	// check for changes to the schema
+	private final AtomicLong writeGeneration = new AtomicLong();
+
+	private final AtomicLong readCheckouts = new AtomicLong();
+	private final AtomicLong writeCheckouts = new AtomicLong();
+	private final AtomicLong writeWaits = new AtomicLong();
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	private final AtomicLong statementHits = new AtomicLong();
+	private final AtomicLong statementMisses = new AtomicLong();
+	private final AtomicLong statementEvictions = new AtomicLong();
+
+
+	ConnectionManager(String connectString, int poolSize) {
+		this.connectString = connectString;
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @return the manager for the given connect string, creating it if necessary.
+	 */
+	public static synchronized ConnectionManager getInstance(String connectString) {
+		ConnectionManager manager = managers.get(connectString);
+		if (manager == null) {
+			SqliteDataSource.loadSqliteDriver();
+			manager = new ConnectionManager(connectString, getDefaultPoolSize());
+			managers.put(connectString, manager);
+		}
+		return manager;
+	}
+
+	/**
+	 * Close pooled connections to the given file. Must be called before
+	 * deleting or overwriting a dataset file that may have been opened.
+	 */
+	public static void close(File file) {
+		close(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath()));
+	}
+
+	public static void close(String connectString) {
+		ConnectionManager manager;
+		synchronized (ConnectionManager.class) {
+			manager = managers.remove(connectString);
+		}
+		if (manager != null)
+			manager.close();
+	}
+
+	public static void closeAll() {
+		List<ConnectionManager> list;
+		synchronized (ConnectionManager.class) {
+			list = new ArrayList<ConnectionManager>(managers.values());
+			managers.clear();
+		}
+		for (ConnectionManager manager : list) {
+			manager.close();
+		}
+	}
+
+	private static int getDefaultPoolSize() {
+		String size = System.getProperty(POOL_SIZE_PROPERTY);
+		if (size != null) {
+			try {
+				return Integer.parseInt(size.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + POOL_SIZE_PROPERTY + ": " + size);
+			}
+		}
+		return DEFAULT_POOL_SIZE;
+	}
+
+	/**
+	 * Keep at least the given number of idle read connections, so that
+	 * many threads reading at once each get to reuse a connection.
+	 */
+	public synchronized void ensurePoolSize(int size) {
+		if (size > poolSize)
+			poolSize = size;
+	}
+
+	public String getConnectString() {
+		return connectString;
+	}
+
+	/**
+	 * Get a connection for reading. Close it when done to return it to the pool.
+	 */
+	public Connection getReadConnection() throws SQLException {
+		PooledConnection pc = null;
+		synchronized (this) {
+			if (closed)
+				throw new SQLException("Connection manager for " + connectString + " has been closed.");
+			pc = idleReaders.poll();
+		}
+		if (pc == null)
+			pc = open(false);
+		long generation = writeGeneration.get();
+		if (pc.generation != generation) {
+			pc.refreshSchema();
+			pc.generation = generation;
+		}
+		readCheckouts.incrementAndGet();
+		return pc.checkout();
+	}
+
+	/**
+	 * Get the write connection for this file, waiting if another thread
+	 * holds it. Close it when done to release it.
+	 */
+	public Connection getWriteConnection() throws SQLException {
+		if (!writeLock.tryLock()) {
+			writeWaits.incrementAndGet();
+			writeLock.lock();
+		}
+		try {
+			synchronized (this) {
+				if (closed)
+					throw new SQLException("Connection manager for " + connectString + " has been closed.");
+				if (writer == null)
+					writer = open(true);
+			}
+			writeCheckouts.incrementAndGet();
+			return writer.checkout();
+		}
+		catch (SQLException e) {
+			writeLock.unlock();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			writeLock.unlock();
+			throw e;
+		}
+	}
+
+	private PooledConnection open(boolean isWriter) throws SQLException {
+		PooledConnection pc = new PooledConnection(DriverManager.getConnection(connectString), isWriter);
+		connectionsOpened.incrementAndGet();
+		if (!isWriter) {
+			synchronized (this) {
+				allReaders.add(pc);
+			}
+		}
+		return pc;
+	}
+
+	private void release(PooledConnection pc) {
+		if (pc.isWriter) {
+			writeLock.unlock();
+			return;
+		}
+		boolean keep;
+		synchronized (this) {
+			keep = !closed && idleReaders.size() < poolSize;
+			if (keep)
+				idleReaders.addFirst(pc);
+			else
+				allReaders.remove(pc);
+		}
+		if (!keep)
+			pc.closeQuietly();
+	}
+
+	/**
+	 * Close all idle connections. Connections in use are closed as they're
+	 * returned.
+	 */
+	public void close() {
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		synchronized (this) {
+			closed = true;
+			toClose.addAll(idleReaders);
+			allReaders.removeAll(idleReaders);
+			idleReaders.clear();
+		}
+		writeLock.lock();
+		try {
+			synchronized (this) {
+				if (writer != null)
+					toClose.add(writer);
+				writer = null;
+			}
+		}
+		finally {
+			writeLock.unlock();
+		}
+		for (PooledConnection pc : toClose) {
+			pc.closeQuietly();
+		}
+	}
+
+	public ConnectionStats getStats() {
+		int open, idle, cached = 0;
+		synchronized (this) {
+			open = allReaders.size() + (writer == null ? 0 : 1);
+			idle = idleReaders.size();
+			for (PooledConnection pc : allReaders)
+				cached += pc.cachedStatementCount();
+			if (writer != null)
+				cached += writer.cachedStatementCount();
+		}
+		return new ConnectionStats(open, idle, connectionsOpened.get(), readCheckouts.get(),
+				writeCheckouts.get(), writeWaits.get(), statementHits.get(), statementMisses.get(),
+				statementEvictions.get(), cached);
+	}
+
+
+	/**
+	 * Counters describing the state of the pool and statement caches.
+	 */
+	public static class ConnectionStats {
+		public final int openConnections;
+		public final int idleReadConnections;
+		public final long connectionsOpened;
+		public final long readCheckouts;
+		public final long writeCheckouts;
+		public final long writeWaits;
+		public final long statementHits;
+		public final long statementMisses;
+		public final long statementEvictions;
+		public final int cachedStatements;
+
+		ConnectionStats(int openConnections, int idleReadConnections, long connectionsOpened,
+				long readCheckouts, long writeCheckouts, long writeWaits, long statementHits,
+				long statementMisses, long statementEvictions, int cachedStatements) {
+			this.openConnections = openConnections;
+			this.idleReadConnections = idleReadConnections;
+			this.connectionsOpened = connectionsOpened;
+			this.readCheckouts = readCheckouts;
+			this.writeCheckouts = writeCheckouts;
+			this.writeWaits = writeWaits;
+			this.statementHits = statementHits;
+			this.statementMisses = statementMisses;
+			this.statementEvictions = statementEvictions;
+			this.cachedStatements = cachedStatements;
+		}
+
+		public String toString() {
+			return String.format("(ConnectionStats open=%d, idle=%d, opened=%d, reads=%d, writes=%d, writeWaits=%d, statementHits=%d, statementMisses=%d, statementEvictions=%d, cachedStatements=%d)",
+					openConnections, idleReadConnections, connectionsOpened, readCheckouts, writeCheckouts,
+					writeWaits, statementHits, statementMisses, statementEvictions, cachedStatements);
+		}
+	}
+
+
+	/**
+	 * A real connection plus its cache of prepared statements.
+	 */
+	private class PooledConnection {
+		final Connection conn;
+		final boolean isWriter;
+		// nesting depth of checkouts of the writer by its owning thread
+		int holds;
+		// value of writeGeneration when a reader last looked at the schema
+		long generation;
+
+		// LRU cache of statements by SQL, eldest first
+		final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+
+		PooledConnection(Connection conn, boolean isWriter) {
+			this.conn = conn;
+			this.isWriter = isWriter;
+		}
+
+		Connection checkout() {
+			holds++;
+			return (Connection)Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class },
+					new ConnectionHandle(this));
+		}
+
+		/**
+		 * Called as each handle is closed.
+		 */
+		void checkin() {
+			holds--;
+			if (holds == 0) {
+				resetState();
+				if (isWriter)
+					writeGeneration.incrementAndGet();
+			}
+			release(this);
+		}
+
+		/**
+		 * Leave the connection as we found it for the next user. In particular,
+		 * don't let a failed import leave a transaction open.
+		 */
+		private void resetState() {
+			try {
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+			}
+			catch (SQLException e) {
+				log.warn("Error resetting pooled connection", e);
+			}
+			if (isWriter) {
+				Statement s = null;
+				try {
+					s = conn.createStatement();
+					s.execute("rollback;");
+				}
+				catch (SQLException e) {
+					// no transaction was active, which is what we want
+				}
+				finally {
+					try {
+						if (s != null) s.close();
+					}
+					catch (SQLException e) {
+						log.warn("Error closing statement", e);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Sqlite compiles SQL against the schema as the connection last saw it,
+		 * so a reader opened before a table was created won't find the table.
+		 * Running a query makes sqlite check the schema cookie and reload the
+		 * schema if another connection has changed it.
+		 */
+		void refreshSchema() throws SQLException {
+			Statement s = conn.createStatement();
+			try {
+				s.executeQuery("select count(*) from sqlite_master;").close();
+			}
+			finally {
+				s.close();
+			}
+		}
+
+		synchronized PreparedStatement prepareStatement(String sql) throws SQLException {
+			CachedStatement cs = statements.get(sql);
+			if (cs != null && !cs.inUse) {
+				statementHits.incrementAndGet();
+				cs.inUse = true;
+				return cs.proxy;
+			}
+			statementMisses.incrementAndGet();
+			PreparedStatement ps = conn.prepareStatement(sql);
+			if (cs != null) {
+				// the cached statement is in use by the same connection (a nested
+				// query), so this one is used once and thrown away.
+				return ps;
+			}
+			cs = new CachedStatement(ps);
+			cs.inUse = true;
+			statements.put(sql, cs);
+			evictStatements();
+			return cs.proxy;
+		}
+
+		synchronized void returnStatement(CachedStatement cs) {
+			cs.inUse = false;
+			try {
+				cs.ps.clearParameters();
+			}
+			catch (SQLException e) {
+				log.warn("Error resetting cached statement", e);
+			}
+			evictStatements();
+		}
+
+		private void evictStatements() {
+			Iterator<CachedStatement> iterator = statements.values().iterator();
+			while (statements.size() > STATEMENT_CACHE_SIZE && iterator.hasNext()) {
+				CachedStatement eldest = iterator.next();
+				if (!eldest.inUse) {
+					iterator.remove();
+					statementEvictions.incrementAndGet();
+					try {
+						eldest.ps.close();
+					}
+					catch (SQLException e) {
+						log.warn("Error closing evicted statement", e);
+					}
+				}
+			}
+		}
+
+		synchronized int cachedStatementCount() {
+			return statements.size();
+		}
+
+		synchronized void closeQuietly() {
+			for (CachedStatement cs : statements.values()) {
+				try {
+					cs.ps.close();
+				}
+				catch (SQLException e) {
+					log.warn("Error closing statement", e);
+				}
+			}
+			statements.clear();
+			try {
+				conn.close();
+			}
+			catch (SQLException e) {
+				log.warn("Error closing connection", e);
+			}
+		}
+
+		/**
+		 * A prepared statement owned by the cache. Callers get a proxy whose
+		 * close() puts the statement back in the cache.
+		 */
+		private class CachedStatement implements InvocationHandler {
+			final PreparedStatement ps;
+			final PreparedStatement proxy;
+			boolean inUse;
+
+			CachedStatement(PreparedStatement ps) {
+				this.ps = ps;
+				this.proxy = (PreparedStatement)Proxy.newProxyInstance(
+						PreparedStatement.class.getClassLoader(),
+						new Class<?>[] { PreparedStatement.class },
+						this);
+			}
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if ("close".equals(name) && (args == null || args.length == 0)) {
+					if (inUse)
+						returnStatement(this);
+					return null;
+				}
+				if ("isClosed".equals(name) && (args == null || args.length == 0)) {
+					return !inUse;
+				}
+				if ("equals".equals(name) && args != null && args.length == 1) {
+					return proxy == args[0];
+				}
+				if ("hashCode".equals(name) && (args == null || args.length == 0)) {
+					return System.identityHashCode(proxy);
+				}
+				if (!inUse)
+					throw new SQLException("Statement has been closed.");
+				if (metrics.isEnabled() && name.startsWith("execute")) {
+					long t0 = System.nanoTime();
+					try {
+						return invokeTarget(ps, method, args);
+					}
+					finally {
+						sqlHistogram(method).recordSince(t0);
+					}
+				}
+				return invokeTarget(ps, method, args);
+			}
+		}
+	}
+
+	/**
+	 * What callers actually hold. Closing the handle returns the connection
+	 * to the pool; after that the handle can't be used.
+	 */
+	private static class ConnectionHandle implements InvocationHandler {
+		private PooledConnection pc;
+
+		ConnectionHandle(PooledConnection pc) {
+			this.pc = pc;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			int argc = (args == null) ? 0 : args.length;
+			if ("close".equals(name) && argc == 0) {
+				if (pc != null) {
+					PooledConnection released = pc;
+					pc = null;
+					released.checkin();
+				}
+				return null;
+			}
+			if ("isClosed".equals(name) && argc == 0) {
+				return pc == null;
+			}
+			if ("equals".equals(name) && argc == 1) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name) && argc == 0) {
+				return System.identityHashCode(proxy);
+			}
+			if (pc == null)
+				throw new SQLException("Connection has been returned to the pool.");
+			if ("prepareStatement".equals(name) && argc == 1) {
+				return pc.prepareStatement((String)args[0]);
+			}
+			return invokeTarget(pc.conn, method, args);
+		}
+	}
+
+	private static Histogram sqlHistogram(Method method) {
+		Histogram histogram = sqlHistograms.get(method);
+		if (histogram == null) {
+			histogram = metrics.histogram("sql." + method.getName());
+			sqlHistograms.put(method, histogram);
+		}
+		return histogram;
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * A row of a features table on its way in, with its sequence already
+ * resolved to an id. Rows sort the way the features table is ordered:
+ * by sequence id, strand, start and end. Positional features keep their
+ * position in both start and end.
+ *
+ * Which of the other fields are filled in depends on the type of track.
+ * Quantitative tracks have a value, or values for a matrix track; gene
+ * tracks have names and a gene type.
+ */
+class FeatureRow implements Comparable<FeatureRow> {
+	int sequencesId;
+	String strand;
+	int start;
+	int end;
+	double value;
+	double[] values;
+	String name;
+	String commonName;
+	String geneType;
+
+
+	public int compareTo(FeatureRow other) {
+		if (sequencesId != other.sequencesId)
+			return sequencesId < other.sequencesId ? -1 : 1;
+		int c = strand.compareTo(other.strand);
+		if (c != 0)
+			return c;
+		if (start != other.start)
+			return start < other.start ? -1 : 1;
+		if (end != other.end)
+			return end < other.end ? -1 : 1;
+		return 0;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(sequencesId);
+		out.writeUTF(strand);
+		out.writeInt(start);
+		out.writeInt(end);
+		out.writeDouble(value);
+		if (values == null) {
+			out.writeInt(-1);
+		}
+		else {
+			out.writeInt(values.length);
+			for (double d : values)
+				out.writeDouble(d);
+		}
+		writeString(out, name);
+		writeString(out, commonName);
+		writeString(out, geneType);
+	}
+
+	static FeatureRow read(DataInput in) throws IOException {
+		FeatureRow row = new FeatureRow();
+		row.sequencesId = in.readInt();
+		row.strand = in.readUTF();
+		row.start = in.readInt();
+		row.end = in.readInt();
+		row.value = in.readDouble();
+		int n = in.readInt();
+		if (n >= 0) {
+			row.values = new double[n];
+			for (int i=0; i<n; i++)
+				row.values[i] = in.readDouble();
+		}
+		row.name = readString(in);
+		row.commonName = readString(in);
+		row.geneType = readString(in);
+		return row;
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("(%d, %s, %d, %d)", sequencesId, strand, start, end);
+	}
+}
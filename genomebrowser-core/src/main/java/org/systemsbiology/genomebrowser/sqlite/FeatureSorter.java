@@ -0,0 +1,247 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Sorts the rows of a track being imported, so they can be appended to
+ * its features table in order. Up to maxRows rows are sorted in memory.
+ * Past that, each sorted run is spilled to a temp file and the runs are
+ * merged as they're read back, so a track can be bigger than the heap.
+ *
+ * Add all rows, then iterate once, then cleanup(), which deletes any spill
+ * files.
+ */
+class FeatureSorter implements Iterable<FeatureRow> {
+	private static final Logger log = Logger.getLogger(FeatureSorter.class);
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	// most spill files we'll read at once, to stay clear of the limit on
+	// open files. More than that get merged into bigger spill files first.
+	static final int MAX_MERGE = 64;
+
+	private final int maxRows;
+	private final File tempDir;
+	private List<FeatureRow> rows = new ArrayList<FeatureRow>();
+	private final List<File> spills = new ArrayList<File>();
+	private final List<SpillReader> readers = new ArrayList<SpillReader>();
+	private long count;
+
+
+	/**
+	 * @param maxRows rows to hold in memory before spilling
+	 * @param tempDir where to put spill files, or null for the system's temp directory
+	 */
+	public FeatureSorter(int maxRows, File tempDir) {
+		this.maxRows = Math.max(1, maxRows);
+		this.tempDir = tempDir;
+	}
+
+	public void add(FeatureRow row) throws IOException {
+		rows.add(row);
+		count++;
+		if (rows.size() >= maxRows)
+			spill();
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public int getSpillCount() {
+		return spills.size();
+	}
+
+	/**
+	 * @return the rows in order. Errors reading spill files are thrown as
+	 * RuntimeExceptions.
+	 */
+	public Iterator<FeatureRow> iterator() {
+		try {
+			if (spills.isEmpty()) {
+				Collections.sort(rows);
+				List<FeatureRow> sorted = rows;
+				rows = new ArrayList<FeatureRow>();
+				return sorted.iterator();
+			}
+			if (!rows.isEmpty())
+				spill();
+			while (spills.size() > MAX_MERGE) {
+				File merged = merge(new ArrayList<File>(spills.subList(0, MAX_MERGE)));
+				spills.subList(0, MAX_MERGE).clear();
+				spills.add(merged);
+			}
+			log.info(String.format("merging %,d rows from %d spill files", count, spills.size()));
+			return new MergingIterator(open(spills));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Close and delete spill files.
+	 */
+	public void cleanup() {
+		for (SpillReader reader : readers)
+			reader.close();
+		readers.clear();
+		for (File file : spills) {
+			if (!file.delete())
+				log.warn("Couldn't delete spill file: " + file);
+		}
+		spills.clear();
+		rows = new ArrayList<FeatureRow>();
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(rows);
+		File file = File.createTempFile("features", ".spill", tempDir);
+		spills.add(file);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES));
+		try {
+			for (FeatureRow row : rows)
+				row.write(out);
+		}
+		finally {
+			out.close();
+		}
+		log.debug("spilled " + rows.size() + " rows to " + file);
+		rows = new ArrayList<FeatureRow>(rows.size());
+	}
+
+	/**
+	 * Merge the given spill files into one, deleting them if that works.
+	 */
+	private File merge(List<File> group) throws IOException {
+		File file = File.createTempFile("features", ".spill", tempDir);
+		List<SpillReader> groupReaders = open(group);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES));
+			Iterator<FeatureRow> merged = new MergingIterator(groupReaders);
+			while (merged.hasNext())
+				merged.next().write(out);
+			out.close();
+		}
+		catch (IOException e) {
+			if (out != null)
+				out.close();
+			file.delete();
+			throw e;
+		}
+		finally {
+			for (SpillReader reader : groupReaders) {
+				reader.close();
+				readers.remove(reader);
+			}
+		}
+		for (File spill : group)
+			spill.delete();
+		return file;
+	}
+
+	private List<SpillReader> open(List<File> files) throws IOException {
+		List<SpillReader> opened = new ArrayList<SpillReader>(files.size());
+		for (File file : files) {
+			SpillReader reader = new SpillReader(file);
+			readers.add(reader);
+			opened.add(reader);
+		}
+		return opened;
+	}
+
+
+	/**
+	 * Reads back a spill file, one row ahead.
+	 */
+	private static class SpillReader implements Comparable<SpillReader> {
+		final DataInputStream in;
+		FeatureRow head;
+
+		SpillReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES));
+			advance();
+		}
+
+		void advance() throws IOException {
+			try {
+				head = FeatureRow.read(in);
+			}
+			catch (EOFException e) {
+				head = null;
+				close();
+			}
+		}
+
+		void close() {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				log.warn("Error closing spill file", e);
+			}
+		}
+
+		public int compareTo(SpillReader other) {
+			return head.compareTo(other.head);
+		}
+	}
+
+
+	/**
+	 * Merges sorted spill files by always taking the smallest row at the
+	 * head of any of them.
+	 */
+	private static class MergingIterator implements Iterator<FeatureRow> {
+		private final PriorityQueue<SpillReader> queue;
+
+		MergingIterator(List<SpillReader> readers) {
+			queue = new PriorityQueue<SpillReader>(Math.max(1, readers.size()));
+			for (SpillReader reader : readers) {
+				if (reader.head != null)
+					queue.add(reader);
+			}
+		}
+
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		public FeatureRow next() {
+			SpillReader reader = queue.poll();
+			if (reader == null)
+				throw new NoSuchElementException();
+			FeatureRow row = reader.head;
+			try {
+				reader.advance();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			if (reader.head != null)
+				queue.add(reader);
+			return row;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
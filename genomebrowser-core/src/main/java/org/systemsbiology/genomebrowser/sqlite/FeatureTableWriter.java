@@ -0,0 +1,261 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.Range;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * Appends rows, already in order, to a newly created features table,
+ * sending them to sqlite in batches. Since rows arrive in order, the
+ * track's blocks are worked out along the way, the same way
+ * SqliteDataSource.createBlockIndex() would: each run of rows on one
+ * sequence and strand is cut into blocks of up to blockSize rows.
+ *
+ * A new table's rowIds start at 1, or wherever setFirstRowId() says, and
+ * count up as rows are appended, which is what the block index's first and
+ * last rowIds rely on.
+ *
+ * The track's metadata and the spacing of its features, which sizes its
+ * summary bins, are also gathered as rows go by, so the importer can store
+ * them in the same transaction without scanning the new table again.
+ *
+ * Subclasses bind a row's columns to the insert statement.
+ */
+abstract class FeatureTableWriter {
+	private static final Logger log = Logger.getLogger(FeatureTableWriter.class);
+	private final Connection conn;
+	private final PreparedStatement ps;
+	private final int batchSize;
+	private final UUID trackUuid;
+	private final String table;
+	private final int blockSize;
+	private final Map<Integer, String> sequenceNames;
+	private final BlockIndex index = new BlockIndex();
+	private FeatureRow previous;
+	private long firstRowId = 1;
+	private long count;
+	private int batched;
+
+	// metadata, with NaN standing in for no values yet, as null does in sql
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private final SortedSet<String> strands = new TreeSet<String>();
+
+	// summed over runs of rows on one sequence and strand
+	private long span;
+	private int runStart;
+	private int runEnd;
+
+	// the block being filled
+	private int blockRows;
+	private long blockFirstRowId;
+	private int blockStart;
+	private int blockEnd;
+
+
+	/**
+	 * @param sql an insert statement taking the row's columns
+	 * @param blockSize rows per block, or 0 if the track doesn't need a block index
+	 * @param sequenceNames names of sequences by id, for the block index
+	 */
+	public FeatureTableWriter(Connection conn, String sql, int batchSize, UUID trackUuid, String table, int blockSize, Map<Integer, String> sequenceNames) throws SQLException {
+		this.conn = conn;
+		this.ps = conn.prepareStatement(sql);
+		this.batchSize = Math.max(1, batchSize);
+		this.trackUuid = trackUuid;
+		this.table = table;
+		this.blockSize = blockSize;
+		this.sequenceNames = sequenceNames;
+	}
+
+	/**
+	 * Number the table's rows from the given rowId rather than from 1, as
+	 * if the table came after billions of rows of other tracks. Lets us
+	 * try out rowIds past the range of an int without writing all those
+	 * rows first. Call before writing any rows.
+	 */
+	void setFirstRowId(long firstRowId) {
+		if (count > 0)
+			throw new IllegalStateException("Rows have already been written to " + table);
+		this.firstRowId = firstRowId;
+	}
+
+	/**
+	 * Set the parameters of ps for the given row.
+	 */
+	protected abstract void bind(PreparedStatement ps, FeatureRow row) throws SQLException;
+
+	/**
+	 * @return false for tracks whose rows carry no values, like genes
+	 */
+	protected boolean hasValues() {
+		return true;
+	}
+
+	public void write(FeatureRow row) throws SQLException {
+		if (previous != null && row.compareTo(previous) < 0)
+			throw new IllegalStateException("Rows out of order: " + row + " after " + previous);
+
+		bind(ps, row);
+		if (count == 0 && firstRowId != 1) {
+			// sqlite gives a new row the largest rowId so far plus one, so
+			// the rows after the first follow it to where it's moved
+			ps.executeUpdate();
+			moveFirstRow();
+		}
+		else if (batchSize > 1) {
+			ps.addBatch();
+			if (++batched >= batchSize) {
+				batched = 0;
+				ps.executeBatch();
+			}
+		}
+		else {
+			ps.executeUpdate();
+		}
+		count++;
+
+		boolean newRun = previous == null || row.sequencesId != previous.sequencesId || !row.strand.equals(previous.strand);
+		if (newRun) {
+			if (previous != null)
+				span += runEnd - runStart + 1;
+			runStart = row.start;
+			runEnd = row.end;
+			strands.add(row.strand);
+		}
+		runEnd = Math.max(runEnd, row.end);
+
+		if (hasValues()) {
+			if (row.values == null) {
+				addValue(row.value);
+			}
+			else {
+				for (double value : row.values)
+					addValue(value);
+			}
+		}
+
+		if (blockSize > 0) {
+			if (blockRows > 0 && (blockRows >= blockSize || newRun))
+				closeBlock();
+			if (blockRows == 0) {
+				blockFirstRowId = firstRowId + count - 1;
+				blockStart = row.start;
+				blockEnd = row.end;
+			}
+			blockStart = Math.min(blockStart, row.start);
+			blockEnd = Math.max(blockEnd, row.end);
+			blockRows++;
+		}
+		previous = row;
+	}
+
+	/**
+	 * Insert rows left in the last batch and close the last block and run.
+	 */
+	public void finish() throws SQLException {
+		if (batched > 0) {
+			batched = 0;
+			ps.executeBatch();
+		}
+		if (blockRows > 0)
+			closeBlock();
+		if (count > 0)
+			span += runEnd - runStart + 1;
+	}
+
+	private void moveFirstRow() throws SQLException {
+		Statement statement = null;
+		try {
+			statement = conn.createStatement();
+			statement.executeUpdate("update " + table + " set rowid=" + firstRowId + " where rowid=1;");
+		}
+		finally {
+			try {
+				if (statement != null)
+					statement.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement in FeatureTableWriter.moveFirstRow()", e);
+			}
+		}
+	}
+
+	private void addValue(double value) {
+		// matrix rows mark missing values with NaN, which don't count
+		if (Double.isNaN(value))
+			return;
+		if (!(value >= min))
+			min = value;
+		if (!(value <= max))
+			max = value;
+	}
+
+	private void closeBlock() {
+		index.add(new BlockKey(
+				trackUuid,
+				previous.sequencesId,
+				sequenceNames.get(previous.sequencesId),
+				Strand.fromString(previous.strand),
+				blockStart,
+				blockEnd,
+				blockRows,
+				table,
+				blockFirstRowId,
+				blockFirstRowId + blockRows - 1));
+		blockRows = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the same metadata TrackMetadata.compute() would find by
+	 * scanning the table, valid after finish()
+	 */
+	public TrackMetadata getMetadata() {
+		Set<Strand> strandSet = new LinkedHashSet<Strand>();
+		for (String strand : strands)
+			strandSet.add(Strand.fromString(strand));
+		Range range = Double.isNaN(min) ? null : new Range(min, max);
+		return new TrackMetadata(trackUuid, range, count, strandSet.toArray(new Strand[strandSet.size()]));
+	}
+
+	/**
+	 * @return the size of the finest summary bins for the rows written,
+	 * valid after finish()
+	 * @see SummaryBuilder#baseBinSize(long, long)
+	 */
+	public long getBaseBinSize() {
+		return SummaryBuilder.baseBinSize(count, span);
+	}
+
+	/**
+	 * @return the blocks of rows written so far, complete after finish()
+	 */
+	public BlockIndex getBlockIndex() {
+		return index;
+	}
+
+	public void close() {
+		try {
+			ps.close();
+		}
+		catch (Exception e) {
+			log.warn("Error closing statement in FeatureTableWriter.close()", e);
+		}
+	}
+}
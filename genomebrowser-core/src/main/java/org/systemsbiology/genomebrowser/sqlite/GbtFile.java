@@ -0,0 +1,311 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.Range;
+import org.systemsbiology.genomebrowser.model.Segment;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * A sidecar file holding the features of one quantitative track as blocks
+ * of primitive columns, which are memory mapped and read in place rather
+ * than copied into the heap. The track's entry in the tracks table has the
+ * name of the sidecar file, relative to the database, as its table name.
+ *
+ * Layout, little-endian:
+ * <pre>
+ *   header, 64 bytes:
+ *     0  "GBT1"
+ *     4  int     format version (1)
+ *     8  int     flags: 1 = positional (no end column), 2 = double values
+ *     12 int     number of sequences
+ *     16 int     number of blocks
+ *     24 long    number of features
+ *     32 double  min value
+ *     40 double  max value
+ *     48 long    offset of the sequence table
+ *   blocks, starting at 64, each column 8-byte aligned:
+ *     int[length] starts (or positions), int[length] ends,
+ *     float[length] or double[length] values
+ *   sequence table:
+ *     for each sequence: int sequences id, int length of name,
+ *     UTF-8 name, padded to 8 bytes
+ *   block directory, 40 bytes per block:
+ *     int sequence (index into sequence table), int strand (char),
+ *     int start, int end, int length, int unused,
+ *     long index of first feature, long offset of block
+ * </pre>
+ * Blocks are sorted by sequence, strand, and start, as are the features
+ * within each block.
+ *
+ * @see GbtWriter
+ * @see MappedBlock
+ */
+public class GbtFile {
+	private static final Logger log = Logger.getLogger(GbtFile.class);
+
+	public static final String EXTENSION = ".gbt";
+
+	static final byte[] MAGIC = {'G', 'B', 'T', '1'};
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int DIRECTORY_ENTRY_SIZE = 40;
+	static final int FLAG_POSITIONAL = 1;
+	static final int FLAG_DOUBLE_VALUES = 2;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int flags;
+	private final long featureCount;
+	private final Range range;
+
+	private final int[] sequenceIds;
+	private final String[] sequenceNames;
+
+	// block directory
+	private final int[] blockSequences;
+	private final Strand[] blockStrands;
+	private final int[] blockStarts;
+	private final int[] blockEnds;
+	private final int[] blockLengths;
+	private final long[] blockFirstFeatures;
+	private final long[] blockOffsets;
+
+
+	public GbtFile(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		try {
+			ByteBuffer header = read(0, HEADER_SIZE);
+			for (int i=0; i<MAGIC.length; i++) {
+				if (header.get(i) != MAGIC[i])
+					throw new IOException("Not a .gbt file: " + file);
+			}
+			int version = header.getInt(4);
+			if (version != VERSION)
+				throw new IOException("Unknown .gbt version " + version + " in " + file);
+			flags = header.getInt(8);
+			int sequences = header.getInt(12);
+			int blocks = header.getInt(16);
+			featureCount = header.getLong(24);
+			range = featureCount > 0 ? new Range(header.getDouble(32), header.getDouble(40)) : null;
+			long sequenceTableOffset = header.getLong(48);
+
+			ByteBuffer directory = read(sequenceTableOffset, channel.size() - sequenceTableOffset);
+			sequenceIds = new int[sequences];
+			sequenceNames = new String[sequences];
+			for (int i=0; i<sequences; i++) {
+				sequenceIds[i] = directory.getInt();
+				byte[] name = new byte[directory.getInt()];
+				directory.get(name);
+				sequenceNames[i] = new String(name, "UTF-8");
+				directory.position(align(directory.position()));
+			}
+
+			blockSequences = new int[blocks];
+			blockStrands = new Strand[blocks];
+			blockStarts = new int[blocks];
+			blockEnds = new int[blocks];
+			blockLengths = new int[blocks];
+			blockFirstFeatures = new long[blocks];
+			blockOffsets = new long[blocks];
+			for (int i=0; i<blocks; i++) {
+				blockSequences[i] = directory.getInt();
+				blockStrands[i] = Strand.fromString(String.valueOf((char)directory.getInt()));
+				blockStarts[i] = directory.getInt();
+				blockEnds[i] = directory.getInt();
+				blockLengths[i] = directory.getInt();
+				directory.getInt();
+				blockFirstFeatures[i] = directory.getLong();
+				blockOffsets[i] = directory.getLong();
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			close();
+			throw new IOException("Corrupt .gbt file: " + file, e);
+		}
+		log.info(String.format("opened %s: %,d features in %d blocks", file, featureCount, blockLengths.length));
+	}
+
+	public static boolean isSidecar(String tableName) {
+		return tableName != null && tableName.endsWith(EXTENSION);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isPositional() {
+		return (flags & FLAG_POSITIONAL) != 0;
+	}
+
+	public boolean hasDoubleValues() {
+		return (flags & FLAG_DOUBLE_VALUES) != 0;
+	}
+
+	public long getFeatureCount() {
+		return featureCount;
+	}
+
+	/**
+	 * @return range of values or null if the file holds no features
+	 */
+	public Range getRange() {
+		return range;
+	}
+
+	public Strand[] getStrands() {
+		Set<Strand> strands = new LinkedHashSet<Strand>();
+		for (Strand strand : blockStrands) {
+			strands.add(strand);
+		}
+		return strands.toArray(new Strand[strands.size()]);
+	}
+
+	/**
+	 * @return the extent of the features on each sequence
+	 */
+	public List<Segment> getCoordinateRanges() {
+		List<Segment> segments = new ArrayList<Segment>();
+		int b = 0;
+		while (b < blockSequences.length) {
+			int sequence = blockSequences[b];
+			int start = Integer.MAX_VALUE;
+			int end = Integer.MIN_VALUE;
+			for (; b < blockSequences.length && blockSequences[b] == sequence; b++) {
+				start = Math.min(start, blockStarts[b]);
+				end = Math.max(end, blockEnds[b]);
+			}
+			segments.add(new Segment(sequenceNames[sequence], start, end));
+		}
+		return segments;
+	}
+
+	/**
+	 * Make an index of the blocks in the file. The row ids of each key are
+	 * the 1-based indexes of the block's first and last features.
+	 * @param source the dataset the file belongs to, see BlockKey
+	 * @param tableName the name by which the track refers to this file
+	 */
+	public BlockIndex createBlockIndex(String source, UUID trackUuid, String tableName) {
+		BlockIndex index = new BlockIndex();
+		for (int i=0; i<blockLengths.length; i++) {
+			index.add(new BlockKey(
+					source,
+					trackUuid,
+					sequenceIds[blockSequences[i]],
+					sequenceNames[blockSequences[i]],
+					blockStrands[i],
+					blockStarts[i],
+					blockEnds[i],
+					blockLengths[i],
+					tableName,
+					blockFirstFeatures[i] + 1,
+					blockFirstFeatures[i] + blockLengths[i]));
+		}
+		return index;
+	}
+
+	/**
+	 * Map the block with the given key. Nothing is read until features
+	 * are accessed, and then only the pages touched.
+	 * @param load read the whole block into memory now, for prefetching
+	 */
+	public MappedBlock mapBlock(BlockKey key, boolean load) throws IOException {
+		int i = findBlock(key.getFirstRowId() - 1L);
+		if (i < 0)
+			throw new IOException("No block for " + key + " in " + file);
+		int length = blockLengths[i];
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[i], blockSize(length, flags));
+		if (load)
+			buffer.load();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return new MappedBlock(key, buffer, length, isPositional(), hasDoubleValues());
+	}
+
+	private int findBlock(long firstFeature) {
+		int low = 0;
+		int high = blockFirstFeatures.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (blockFirstFeatures[mid] < firstFeature)
+				low = mid + 1;
+			else if (blockFirstFeatures[mid] > firstFeature)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	public void close() {
+		try {
+			raf.close();
+		}
+		catch (IOException e) {
+			log.warn("Error closing " + file, e);
+		}
+	}
+
+	private ByteBuffer read(long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int)size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file: " + file);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	static int align(int n) {
+		return (n + 7) & ~7;
+	}
+
+	static long align(long n) {
+		return (n + 7) & ~7L;
+	}
+
+	/**
+	 * Offsets of the columns of a block of the given length, and its
+	 * total size: {starts, ends, values, size}. Positional blocks have
+	 * no ends column, so ends and starts have the same offset.
+	 */
+	static int[] columnOffsets(int length, int flags) {
+		int starts = 0;
+		int ends = align(length * 4);
+		int values = (flags & FLAG_POSITIONAL) != 0 ? ends : ends + align(length * 4);
+		if ((flags & FLAG_POSITIONAL) != 0)
+			ends = starts;
+		int size = values + align(length * ((flags & FLAG_DOUBLE_VALUES) != 0 ? 8 : 4));
+		return new int[] {starts, ends, values, size};
+	}
+
+	static int blockSize(int length, int flags) {
+		return columnOffsets(length, flags)[3];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("(GbtFile %s features=%,d, blocks=%d, positional=%s)", file, featureCount, blockLengths.length, isPositional());
+	}
+}
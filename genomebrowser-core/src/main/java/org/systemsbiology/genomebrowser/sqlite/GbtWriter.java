@@ -0,0 +1,214 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * Writes a .gbt sidecar file, one feature at a time. Features must be
+ * added in order of sequence, strand, and start, and a new block is begun
+ * whenever the sequence or strand changes or the block is full.
+ * @see GbtFile
+ */
+public class GbtWriter {
+	private static final Logger log = Logger.getLogger(GbtWriter.class);
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int flags;
+	private final int blockSize;
+
+	// features of the block being filled
+	private final int[] starts;
+	private final int[] ends;
+	private final double[] values;
+	private int length;
+	private int sequencesId = -1;
+	private String seqId;
+	private Strand strand;
+
+	private final List<Integer> sequenceIds = new ArrayList<Integer>();
+	private final List<String> sequenceNames = new ArrayList<String>();
+	private final ByteBuffer directory;
+	private ByteBuffer directoryEntries;
+	private int blocks;
+	private long featureCount;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private long offset = GbtFile.HEADER_SIZE;
+
+
+	/**
+	 * @param positional features have a position rather than start and end
+	 * @param doubleValues store values as doubles rather than floats
+	 * @param blockSize maximum number of features in a block
+	 */
+	public GbtWriter(File file, boolean positional, boolean doubleValues, int blockSize) throws IOException {
+		this.file = file;
+		this.flags = (positional ? GbtFile.FLAG_POSITIONAL : 0) | (doubleValues ? GbtFile.FLAG_DOUBLE_VALUES : 0);
+		this.blockSize = blockSize;
+		starts = new int[blockSize];
+		ends = positional ? starts : new int[blockSize];
+		values = new double[blockSize];
+		directory = ByteBuffer.allocate(GbtFile.DIRECTORY_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		directoryEntries = ByteBuffer.allocate(GbtFile.DIRECTORY_ENTRY_SIZE * 64).order(ByteOrder.LITTLE_ENDIAN);
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+	}
+
+	/**
+	 * Size blocks to the target set in BlockSizing.
+	 */
+	public GbtWriter(File file, boolean positional, boolean doubleValues) throws IOException {
+		this(file, positional, doubleValues, BlockSizing.featuresPerBlock((positional ? 4 : 8) + (doubleValues ? 8 : 4)));
+	}
+
+	/**
+	 * Add a feature. For positional files, start and end are both the position.
+	 * @param sequencesId id of the sequence in the database's sequences table
+	 */
+	public void add(int sequencesId, String seqId, Strand strand, int start, int end, double value) throws IOException {
+		if (sequencesId != this.sequencesId || strand != this.strand) {
+			flush();
+			if (sequencesId != this.sequencesId) {
+				if (sequenceIds.contains(sequencesId))
+					throw new IOException("Features must be sorted by sequence, but " + seqId + " came up twice");
+				sequenceIds.add(sequencesId);
+				sequenceNames.add(seqId);
+			}
+			this.sequencesId = sequencesId;
+			this.seqId = seqId;
+			this.strand = strand;
+		}
+		else if (length == blockSize) {
+			flush();
+		}
+		else if (length > 0 && start < starts[length-1]) {
+			throw new IOException(String.format("Features must be sorted by start, but %s:%d came after %d", seqId, start, starts[length-1]));
+		}
+		starts[length] = start;
+		ends[length] = end;
+		values[length] = value;
+		length++;
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+
+	private void flush() throws IOException {
+		if (length == 0)
+			return;
+
+		int[] columns = GbtFile.columnOffsets(length, flags);
+		ByteBuffer buffer = ByteBuffer.allocate(columns[3]).order(ByteOrder.LITTLE_ENDIAN);
+		int blockStart = Integer.MAX_VALUE;
+		int blockEnd = Integer.MIN_VALUE;
+		for (int i=0; i<length; i++) {
+			buffer.putInt(columns[0] + i*4, starts[i]);
+			blockStart = Math.min(blockStart, starts[i]);
+			blockEnd = Math.max(blockEnd, ends[i]);
+		}
+		if ((flags & GbtFile.FLAG_POSITIONAL) == 0) {
+			for (int i=0; i<length; i++)
+				buffer.putInt(columns[1] + i*4, ends[i]);
+		}
+		if ((flags & GbtFile.FLAG_DOUBLE_VALUES) != 0) {
+			for (int i=0; i<length; i++)
+				buffer.putDouble(columns[2] + i*8, values[i]);
+		}
+		else {
+			for (int i=0; i<length; i++)
+				buffer.putFloat(columns[2] + i*4, (float)values[i]);
+		}
+		write(buffer, offset);
+
+		directory.clear();
+		directory.putInt(sequenceIds.size() - 1);
+		directory.putInt(strand.toAbbreviatedString().charAt(0));
+		directory.putInt(blockStart);
+		directory.putInt(blockEnd);
+		directory.putInt(length);
+		directory.putInt(0);
+		directory.putLong(featureCount);
+		directory.putLong(offset);
+		directory.flip();
+		if (directoryEntries.remaining() < directory.remaining()) {
+			ByteBuffer bigger = ByteBuffer.allocate(directoryEntries.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+			directoryEntries.flip();
+			bigger.put(directoryEntries);
+			directoryEntries = bigger;
+		}
+		directoryEntries.put(directory);
+
+		blocks++;
+		featureCount += length;
+		offset += columns[3];
+		length = 0;
+	}
+
+	/**
+	 * Write the last block, the sequence table, the block directory, and
+	 * the header, and close the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+
+			long sequenceTableOffset = offset;
+			int size = 0;
+			List<byte[]> names = new ArrayList<byte[]>(sequenceNames.size());
+			for (String name : sequenceNames) {
+				byte[] bytes = name.getBytes("UTF-8");
+				names.add(bytes);
+				size += GbtFile.align(8 + bytes.length);
+			}
+			ByteBuffer sequenceTable = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i=0; i<names.size(); i++) {
+				sequenceTable.putInt(sequenceIds.get(i));
+				sequenceTable.putInt(names.get(i).length);
+				sequenceTable.put(names.get(i));
+				sequenceTable.position(GbtFile.align(sequenceTable.position()));
+			}
+			sequenceTable.flip();
+			write(sequenceTable, sequenceTableOffset);
+
+			directoryEntries.flip();
+			write(directoryEntries, sequenceTableOffset + size);
+
+			ByteBuffer header = ByteBuffer.allocate(GbtFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.put(GbtFile.MAGIC);
+			header.putInt(GbtFile.VERSION);
+			header.putInt(flags);
+			header.putInt(sequenceIds.size());
+			header.putInt(blocks);
+			header.putInt(0);
+			header.putLong(featureCount);
+			header.putDouble(featureCount > 0 ? min : 0.0);
+			header.putDouble(featureCount > 0 ? max : 0.0);
+			header.putLong(sequenceTableOffset);
+			header.clear();
+			write(header, 0);
+			log.info(String.format("wrote %s: %,d features in %d blocks", file, featureCount, blocks));
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		buffer.rewind();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
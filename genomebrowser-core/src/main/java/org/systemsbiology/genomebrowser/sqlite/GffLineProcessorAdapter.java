@@ -7,15 +7,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.io.ChunkedFeatureReader;
+import org.systemsbiology.genomebrowser.io.FieldTokenizer;
+import org.systemsbiology.genomebrowser.io.LineFeatureFields;
 import org.systemsbiology.genomebrowser.io.LineReader;
 import org.systemsbiology.genomebrowser.io.LineReader.LineProcessor;
+import org.systemsbiology.genomebrowser.io.TabFields;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.model.FeatureSource;
 import org.systemsbiology.genomebrowser.model.FeatureProcessor;
-import org.systemsbiology.genomebrowser.model.FeatureFields;
 import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.util.FileUtils;
 import org.systemsbiology.util.MathUtils;
@@ -25,7 +27,8 @@ import org.systemsbiology.util.ProgressListenerWrapper;
 
 /**
  * Gets lines of text from a GFF file, divides them into fields, and calls a
- * FeatureProcessor with the results.
+ * FeatureProcessor with the results. Big local files are parsed on several
+ * threads by a ChunkedFeatureReader.
  */
 public class GffLineProcessorAdapter implements FeatureSource, LineProcessor {
 	@SuppressWarnings("unused")
@@ -38,8 +41,7 @@ public class GffLineProcessorAdapter implements FeatureSource, LineProcessor {
 	private ProgressListenerSupport progressListenerSupport = new ProgressListenerSupport();
 	private boolean hasColumnHeaders;
 	private GffFeatureFields featureFields = new GffFeatureFields();
-	private static Pattern comment = Pattern.compile("\\s*#.*");
-	private static Pattern blank = Pattern.compile("\\s*");
+	private FieldTokenizer tokenizer = new FieldTokenizer();
 
 
 	public GffLineProcessorAdapter(String path) {
@@ -84,6 +86,14 @@ public class GffLineProcessorAdapter implements FeatureSource, LineProcessor {
 	 */
 	public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
 		this.featureProcessor = featureProcessor;
+		if (reader == null && file != null) {
+			ChunkedFeatureReader chunkedReader = new ChunkedFeatureReader();
+			if (chunkedReader.getParser().isWorthSplitting(file)) {
+				processFeaturesInChunks(chunkedReader);
+				return;
+			}
+		}
+
 		LineReader loader = new LineReader(this);
 		loader.setFileLengthInBytes(fileLengthInBytes);
 		ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListenerSupport);
@@ -104,6 +114,18 @@ public class GffLineProcessorAdapter implements FeatureSource, LineProcessor {
 		}
 	}
 
+	private void processFeaturesInChunks(ChunkedFeatureReader chunkedReader) throws Exception {
+		ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListenerSupport);
+		try {
+			chunkedReader.addProgressListener(plw);
+			chunkedReader.setHeaderLines(hasColumnHeaders ? 1 : 0);
+			chunkedReader.processFeatures(file, new GffFeatureFields(), featureProcessor);
+		}
+		finally {
+			chunkedReader.removeProgressListener(plw);
+		}
+	}
+
 	/**
 	 * PreviewLoader uses process() as a call-back. 
 	 */
@@ -111,15 +133,16 @@ public class GffLineProcessorAdapter implements FeatureSource, LineProcessor {
 		// here we adapt from LineProcessor to FeatureProcessor by making a
 		// feature out of the line of text.
 
-		// ignore column headers and comments
-		if ( (lineNumber==0 && hasColumnHeaders) || comment.matcher(line).matches() || blank.matcher(line).matches())
+		// ignore column headers; scan skips comments and blank lines
+		if (lineNumber==0 && hasColumnHeaders)
 			return;
 
-		featureProcessor.process(featureFields.digest(line));
+		if (featureFields.scan(tokenizer.reset(line)))
+			featureProcessor.process(featureFields);
 	}
 }
 
-class GffFeatureFields implements FeatureFields {
+class GffFeatureFields extends LineFeatureFields {
 	private static final Logger log = Logger.getLogger(GffFeatureFields.class);
 	private String sequenceName;
 	private Strand strand;
@@ -132,21 +155,30 @@ class GffFeatureFields implements FeatureFields {
 
 	// gff fields = (sequenceName, source, feature, start, end, score, strand, frame, attribute)
 
-	public GffFeatureFields digest(String line) {
-		String[] fields = line.split("\t");
-		sequenceName = fields[0];
-		setStrand(fields[6]);
-		start = Integer.parseInt(fields[3]);
-		end = Integer.parseInt(fields[4]);
-		value = parseScore(fields[5]);
-		// treat attributes as optional
-		if (fields.length > 8) {
-			Attributes attributes = parseAttributes(fields[8]);
+	/**
+	 * Read a line, skipping comments and blank lines. Strings repeated from
+	 * the line before, like the sequence name, are reused rather than copied.
+	 */
+	public boolean scan(TabFields fields) {
+		int first = fields.firstNonWhitespace();
+		if (first < 0 || first == '#')
+			return false;
+		sequenceName = fields.getString(0, sequenceName);
+		strand = parseStrand(fields, 6);
+		start = fields.getInt(3);
+		end = fields.getInt(4);
+		value = parseScore(fields, 5);
+		if (fields.getFieldCount() > 8 && !fields.isEmpty(8)) {
+			Attributes attributes = parseAttributes(fields.getString(8));
 			name = attributes.getString("ID");
 			commonName = attributes.getString("Name");
 		}
-		geneType = fields[2];
-		return this;
+		else {
+			name = null;
+			commonName = null;
+		}
+		geneType = fields.getString(2, geneType);
+		return true;
 	}
 
 	/**
@@ -180,13 +212,11 @@ class GffFeatureFields implements FeatureFields {
 		}
 	}
 
-	private double parseScore(String score) {
-		if (score==null || "".equals(score))
-			return Double.NaN;
-		if (".".equals(score))
+	private double parseScore(TabFields fields, int field) {
+		if (fields.isEmpty(field) || fields.equals(field, "."))
 			return Double.NaN;
 		try {
-			return Double.parseDouble(score);
+			return fields.getDouble(field);
 		}
 		catch (Exception e) {
 			log.error(e);
@@ -9,13 +9,19 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.io.ChunkedFeatureReader;
+import org.systemsbiology.genomebrowser.io.FieldTokenizer;
+import org.systemsbiology.genomebrowser.io.LineFeatureFields;
 import org.systemsbiology.genomebrowser.io.LineReader;
+import org.systemsbiology.genomebrowser.io.TabFields;
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
 import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.util.MathUtils;
 
 
 /**
@@ -37,10 +43,14 @@ import org.systemsbiology.genomebrowser.model.Strand;
  * Another issue is that sequence names given in the imported file might not
  * match our sequence names. 
  * 
+ * Big files are parsed on several threads by a ChunkedFeatureReader and
+ * inserted into the temp table in batches, in one transaction.
+ * 
  * @author cbare
  */
 public class GffReader {
 	private static final Logger log = Logger.getLogger(GffReader.class);
+	private static final int BATCH_SIZE = 1000;
 	LineReader loader;
 	String connectString;
 
@@ -73,7 +83,72 @@ public class GffReader {
 
 	public void read(File file) throws Exception {
 		createTempTable();
-		loader.loadData(file);
+		ChunkedFeatureReader chunkedReader = new ChunkedFeatureReader();
+		if (chunkedReader.getParser().isWorthSplitting(file))
+			readInChunks(chunkedReader, file);
+		else
+			loader.loadData(file);
+	}
+
+	private void readInChunks(ChunkedFeatureReader chunkedReader, File file) throws Exception {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		try {
+			conn = DriverManager.getConnection(connectString);
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement("insert into temp values(?,?,?,?,?,?);");
+			final PreparedStatement insert = ps;
+			chunkedReader.processFeatures(file, new GffTempFeatureFields(), new FeatureProcessor() {
+				int count;
+
+				public void process(FeatureFields fields) throws Exception {
+					insert.setString(1, fields.getSequenceName());
+					insert.setString(2, fields.getStrand());
+					insert.setInt(3, fields.getStart());
+					insert.setInt(4, fields.getEnd());
+					insert.setString(5, fields.getGeneType());
+					insert.setDouble(6, fields.getValue());
+					insert.addBatch();
+					if (++count % BATCH_SIZE == 0)
+						insert.executeBatch();
+				}
+
+				public int getCount() {
+					return count;
+				}
+
+				public void cleanup() {}
+			});
+			ps.executeBatch();
+			conn.commit();
+		}
+		catch (Exception e) {
+			if (conn != null) {
+				try {
+					conn.rollback();
+				}
+				catch (SQLException e1) {
+					log.error(e1);
+				}
+			}
+			throw e;
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing prepared statement", e1);
+			}
+			try {
+				if (conn != null)
+					conn.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing connection", e1);
+			}
+		}
 	}
 
 	void createTempTable() {
@@ -355,40 +430,103 @@ public class GffReader {
 	 * process a line of a GFF file.
 	 */
 	class GffLineProcessor implements LineReader.LineProcessor {
-		public void process(int lineNumber, String line) {
-			// ignore comment lines
-			if (line.startsWith("#")) return;
+		private final FieldTokenizer tokenizer = new FieldTokenizer();
+		private final GffTempFeatureFields feature = new GffTempFeatureFields();
 
+		public void process(int lineNumber, String line) {
 			// lines should have these fields:
 			// seqname source feature start end score strand frame attributes comments
 			// see: http://www.sanger.ac.uk/Software/formats/GFF/
 
-			String[] fields = line.split("\t");
-			System.out.println(Arrays.toString(fields));
-			
+			// ignore comment lines
+			if (!feature.scan(tokenizer.reset(line)))
+				return;
+
 			// create an entry in the temp table:
 			// seq, strand, start, end, label, value
 			insertFeatureIntoTemp(
-					fields[0],
-					Strand.fromString(fields[6]),
-					Integer.parseInt(fields[3]),
-					Integer.parseInt(fields[4]),
-					fields[2],
-					parseScore(fields[5])
+					feature.sequenceName,
+					feature.strand,
+					feature.start,
+					feature.end,
+					feature.label,
+					feature.score
 			);
 		}
+	}
 
-		private double parseScore(String score) {
-			if (score==null || "".equals(score))
+	/**
+	 * A line of a GFF file, with the feature type as the label. Read by
+	 * GffLineProcessor and, for parsing in chunks, by a ChunkedFeatureReader.
+	 */
+	static class GffTempFeatureFields extends LineFeatureFields {
+		private String sequenceName;
+		private Strand strand;
+		private int start;
+		private int end;
+		private String label;
+		private double score;
+
+		public boolean scan(TabFields fields) {
+			// ignore comment lines
+			if (fields.firstNonWhitespace() == '#')
+				return false;
+			sequenceName = fields.getString(0, sequenceName);
+			strand = parseStrand(fields, 6);
+			start = fields.getInt(3);
+			end = fields.getInt(4);
+			label = fields.getString(2, label);
+			score = parseScore(fields, 5);
+			return true;
+		}
+
+		private double parseScore(TabFields fields, int field) {
+			if (fields.isEmpty(field))
 				return -1.0;
-			if (".".equals(score))
+			if (fields.equals(field, "."))
 				return 0.0;
 			try {
-				return Double.parseDouble(score);
+				return fields.getDouble(field);
 			}
 			catch (Exception e) {
 				return -1.0;
 			}
 		}
+
+		public String getSequenceName() {
+			return sequenceName;
+		}
+
+		public String getStrand() {
+			return strand.toAbbreviatedString();
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		public int getPosition() {
+			return MathUtils.average(start, end);
+		}
+
+		public double getValue() {
+			return score;
+		}
+
+		public String getName() {
+			return null;
+		}
+
+		public String getCommonName() {
+			return null;
+		}
+
+		public String getGeneType() {
+			return label;
+		}
 	}
 }
@@ -0,0 +1,114 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Pragmas that speed up loading a big track into sqlite, and the settings
+ * they replaced, so they can be put back once the import is done. Pooled
+ * connections outlive an import, so leaving them set would make every
+ * later write on the connection just as careless.
+ *
+ * The journal is kept in memory and sqlite doesn't wait for the disk, so
+ * a crash in the middle of an import can corrupt the database file.
+ * Temp tables and indices sqlite makes along the way, for instance
+ * while building summaries, are kept in memory as well.
+ *
+ * Versions of sqlite before 3.6.5, like the one in older sqlitejdbc jars,
+ * ignore journal_mode=memory and go on journaling to disk, which is safe,
+ * just slower. We don't fall back to journal_mode=off, because then the
+ * rollback when an import fails would leave the database corrupt.
+ *
+ * journal_mode and synchronous can't be changed inside a transaction, so
+ * apply() before beginning the import's transaction and restore() after
+ * committing or rolling it back.
+ */
+class ImportPragmas {
+	private static final Logger log = Logger.getLogger(ImportPragmas.class);
+	private static final String[] NAMES = {"journal_mode", "synchronous", "cache_size", "temp_store"};
+
+	// cache_size is in pages, which default to 1K
+	public static final int DEFAULT_CACHE_SIZE = 100000;
+
+	private final String[] saved = new String[NAMES.length];
+
+
+	/**
+	 * Remember the connection's current settings and switch to the ones
+	 * for bulk loading.
+	 * @return the settings to restore
+	 */
+	public static ImportPragmas apply(Connection conn, int cacheSize) throws SQLException {
+		ImportPragmas pragmas = new ImportPragmas();
+		for (int i=0; i<NAMES.length; i++)
+			pragmas.saved[i] = get(conn, NAMES[i]);
+		set(conn, "journal_mode", "memory");
+		String journalMode = get(conn, "journal_mode");
+		if (!"memory".equalsIgnoreCase(journalMode))
+			log.info("sqlite kept journal_mode=" + journalMode + " for import");
+		set(conn, "synchronous", "off");
+		set(conn, "cache_size", String.valueOf(cacheSize));
+		set(conn, "temp_store", "memory");
+		return pragmas;
+	}
+
+	/**
+	 * Put back the settings in place before apply(). Failures are logged
+	 * rather than thrown, so as not to mask whatever went wrong during
+	 * the import.
+	 */
+	public void restore(Connection conn) {
+		for (int i=0; i<NAMES.length; i++) {
+			if (saved[i] == null) continue;
+			try {
+				set(conn, NAMES[i], saved[i]);
+			}
+			catch (Exception e) {
+				log.warn("Error restoring pragma " + NAMES[i] + "=" + saved[i], e);
+			}
+		}
+	}
+
+	static String get(Connection conn, String name) throws SQLException {
+		Statement statement = null;
+		ResultSet rs = null;
+		try {
+			statement = conn.createStatement();
+			rs = statement.executeQuery("pragma " + name + ";");
+			return rs.next() ? rs.getString(1) : null;
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (statement != null)
+					statement.close();
+			}
+			catch (Exception e) {
+				log.error("Exception while closing statement in ImportPragmas.get(...)", e);
+			}
+		}
+	}
+
+	static void set(Connection conn, String name, String value) throws SQLException {
+		Statement statement = null;
+		try {
+			statement = conn.createStatement();
+			statement.execute("pragma " + name + "=" + value + ";");
+		}
+		finally {
+			try {
+				if (statement != null)
+					statement.close();
+			}
+			catch (Exception e) {
+				log.error("Exception while closing statement in ImportPragmas.set(...)", e);
+			}
+		}
+	}
+}
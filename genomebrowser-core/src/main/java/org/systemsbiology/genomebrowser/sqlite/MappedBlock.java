@@ -0,0 +1,205 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
+import org.systemsbiology.genomebrowser.model.Block;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.util.Iteratable;
+import org.systemsbiology.util.MathUtils;
+
+/**
+ * A block of quantitative features read in place from a memory mapped
+ * .gbt sidecar file. Features are flyweights over the mapped columns, so
+ * the block itself takes next to no heap; its data lives in the OS page
+ * cache.
+ * @see GbtFile
+ */
+public class MappedBlock implements Block<Feature.Quantitative>, Sized {
+	private final BlockKey key;
+	private final ByteBuffer buffer;
+	private final int length;
+	private final int startsOffset;
+	private final int endsOffset;
+	private final int valuesOffset;
+	private final boolean positional;
+	private final boolean doubleValues;
+
+
+	public MappedBlock(BlockKey key, ByteBuffer buffer, int length, boolean positional, boolean doubleValues) {
+		this.key = key;
+		this.buffer = buffer;
+		this.length = length;
+		this.positional = positional;
+		this.doubleValues = doubleValues;
+		int[] offsets = GbtFile.columnOffsets(length, (positional ? GbtFile.FLAG_POSITIONAL : 0) | (doubleValues ? GbtFile.FLAG_DOUBLE_VALUES : 0));
+		startsOffset = offsets[0];
+		endsOffset = offsets[1];
+		valuesOffset = offsets[2];
+	}
+
+	public Sequence getSequence() {
+		// key only has seqId
+		return null;
+	}
+
+	public Strand getStrand() {
+		return key.getStrand();
+	}
+
+	/**
+	 * Only the heap taken by this object counts, not the mapped data.
+	 */
+	public long getSizeInBytes() {
+		return SizeOf.OBJECT_HEADER * 3 + 48;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	int start(int i) {
+		return buffer.getInt(startsOffset + (i << 2));
+	}
+
+	int end(int i) {
+		return buffer.getInt(endsOffset + (i << 2));
+	}
+
+	double value(int i) {
+		return doubleValues ? buffer.getDouble(valuesOffset + (i << 3)) : buffer.getFloat(valuesOffset + (i << 2));
+	}
+
+	private int firstPositionAtOrAfter(int position) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (start(mid) < position)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return iterator of flyweight quantitative features
+	 */
+	public Iterator<Feature.Quantitative> iterator() {
+		return features();
+	}
+
+	/**
+	 * @return iterator of flyweight quantitative features
+	 */
+	public Iteratable<Feature.Quantitative> features() {
+		return new FeaturesIteratable();
+	}
+
+	/**
+	 * @return iterator of flyweight quantitative features
+	 */
+	public Iteratable<Feature.Quantitative> features(int start, int end) {
+		return new WindowedFeaturesIteratable(start, end);
+	}
+
+	class FeaturesIteratable implements Iteratable<Feature.Quantitative> {
+		FlyweightFeature feature = new FlyweightFeature();
+		int next;
+
+		public boolean hasNext() {
+			return next < length;
+		}
+
+		public Feature.Quantitative next() {
+			feature.i = next++;
+			return feature;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("remove() not supported.");
+		}
+
+		public Iterator<Feature.Quantitative> iterator() {
+			return this;
+		}
+	}
+
+	class WindowedFeaturesIteratable implements Iteratable<Feature.Quantitative> {
+		FlyweightFeature feature = new FlyweightFeature();
+		int start;
+		int end;
+		int next;
+
+		public WindowedFeaturesIteratable(int start, int end) {
+			this.start = start;
+			this.end = end;
+			// positions are sorted, so we can skip to the window without
+			// touching the pages in between
+			if (positional)
+				next = firstPositionAtOrAfter(start);
+		}
+
+		public boolean hasNext() {
+			// features are sorted by start,end
+			while (next < length && end(next) < start) {
+				next++;
+			}
+			return (next < length) && start(next) < end;
+		}
+
+		public Feature.Quantitative next() {
+			feature.i = next++;
+			return feature;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("remove() not supported.");
+		}
+
+		public Iterator<Feature.Quantitative> iterator() {
+			return this;
+		}
+	}
+
+	class FlyweightFeature implements Feature.Quantitative {
+		int i;
+
+		public double getValue() {
+			return value(i);
+		}
+
+		public int getCentralPosition() {
+			return MathUtils.average(start(i), end(i));
+		}
+
+		public int getEnd() {
+			return end(i);
+		}
+
+		public String getSeqId() {
+			return key.getSeqId();
+		}
+
+		public int getStart() {
+			return start(i);
+		}
+
+		public Strand getStrand() {
+			return key.getStrand();
+		}
+
+		public String toString() {
+			return String.format("(Feature: %s, %s, %d, %d, %.2f)", getSeqId(), getStrand(), start(i), end(i), value(i));
+		}
+
+		public String getLabel() {
+			return null;
+		}
+	}
+}
@@ -4,6 +4,8 @@ import static org.systemsbiology.util.StringUtils.isNullOrEmpty;
 
 import java.util.Iterator;
 
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
 import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.GeneFeatureType;
 import org.systemsbiology.genomebrowser.model.PeptideFeature;
@@ -12,7 +14,7 @@ import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.util.Iteratable;
 import org.systemsbiology.util.MathUtils;
 
-public class PeptideBlock implements Block<PeptideFeature> {
+public class PeptideBlock implements Block<PeptideFeature>, Sized {
     private BlockKey key;
     private int[] starts;
     private int[] ends;
@@ -46,6 +48,11 @@ public class PeptideBlock implements Block<PeptideFeature> {
     }
     public Iterator<PeptideFeature> iterator() { return features(); }
 
+    public long getSizeInBytes() {
+        return SizeOf.OBJECT_HEADER + SizeOf.array(starts) + SizeOf.array(ends) + SizeOf.array(names)
+            + SizeOf.array(commonNames) + SizeOf.array(scores) + SizeOf.array(redundancy);
+    }
+
     class FeaturesIteratable implements Iteratable<PeptideFeature> {
         FlyweightFeature feature = new FlyweightFeature();
         int len = starts.length;
@@ -5,7 +5,9 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.UUID;
 
+import org.systemsbiology.genomebrowser.cache.BlockCache;
 import org.systemsbiology.genomebrowser.model.AsyncFeatureCallback;
+import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.Feature;
 import org.systemsbiology.genomebrowser.model.FeatureFilter;
 import org.systemsbiology.genomebrowser.model.PeptideFeature;
@@ -17,12 +19,13 @@ import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.util.Iteratable;
 
 
-public class PeptideBlockTrack implements Track.Gene<PeptideFeature> {
+public class PeptideBlockTrack implements Track.Gene<PeptideFeature>, BlockTrack {
 	private BlockIndex index;
 	private UUID uuid;
 	private String name;
 	private Attributes attributes = new Attributes();
 	private SqliteDataSource dataSource;
+	private Strand[] strands;
 	private Class<? extends Feature> featureClass = PeptideFeature.class;
 
 
@@ -45,6 +48,10 @@ public class PeptideBlockTrack implements Track.Gene<PeptideFeature> {
 		return attributes;
 	}
 
+	public BlockIndex getBlockIndex() {
+		return index;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -59,11 +66,18 @@ public class PeptideBlockTrack implements Track.Gene<PeptideFeature> {
 
 	@Override
 	public Strand[] strands() {
-		Set<Strand> strands = new HashSet<Strand>();
-		for (Feature feature: features()) {
-			strands.add(feature.getStrand());
+		if (strands == null) {
+			Set<Strand> set = new HashSet<Strand>();
+			for (BlockKey key: index.keys()) {
+				set.add(key.getStrand());
+			}
+			strands = set.toArray(new Strand[set.size()]);
 		}
-		return strands.toArray(new Strand[strands.size()]);
+		return strands;
+	}
+
+	public void setStrands(Strand[] strands) {
+		this.strands = strands;
 	}
 
 	@Override
@@ -91,8 +105,14 @@ public class PeptideBlockTrack implements Track.Gene<PeptideFeature> {
 
 	@Override
 	public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback) {
-		for (BlockKey key: index.keys(filter.sequence.getSeqId(), filter.strand, filter.start, filter.end)) {
-			callback.consumeFeatures(getBlock(key).features(filter.start, filter.end), new FeatureFilter(filter.sequence, key.getStrand(), filter.start, filter.end));
+		BlockIndex.WindowIteratable keys = BlockIndex.takeWindowIteratable();
+		try {
+			for (BlockKey key: index.keys(filter.sequence.getSeqId(), filter.strand, filter.start, filter.end, keys)) {
+				callback.consumeFeatures(getBlock(key).features(filter.start, filter.end), new FeatureFilter(filter.sequence, key.getStrand(), filter.start, filter.end));
+			}
+		}
+		finally {
+			BlockIndex.releaseWindowIteratable(keys);
 		}
 	}
 	
@@ -100,6 +120,14 @@ public class PeptideBlockTrack implements Track.Gene<PeptideFeature> {
 		return dataSource.loadPeptideBlock(key);
 	}
 
+	public BlockCache<BlockKey, Block<? extends Feature>> getBlockCache() {
+		return dataSource.getBlockCache();
+	}
+
+	public boolean prefetchBlock(BlockKey key) {
+		return dataSource.prefetchPeptideBlock(key);
+	}
+
 	class BlockIteratable implements Iteratable<PeptideFeature> {
 		Iterator<BlockKey> keys;
 		Iterator<PeptideFeature> features;
@@ -2,8 +2,11 @@ package org.systemsbiology.genomebrowser.sqlite;
 
 import java.util.Iterator;
 
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
 import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
 import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.util.Iteratable;
@@ -12,7 +15,7 @@ import org.systemsbiology.util.Iteratable;
  * A block of features with a single coordinate and a quantitative measurement.
  * @author cbare
  */
-public class PositionalBlock implements Block<Feature.Quantitative> {
+public class PositionalBlock implements Block<Feature.Quantitative>, Sized {
 	private final BlockKey key;
 	private int[] positions;
 	private double[] values;
@@ -33,6 +36,10 @@ public class PositionalBlock implements Block<Feature.Quantitative> {
 		return key.getStrand();
 	}
 
+	public long getSizeInBytes() {
+		return SizeOf.OBJECT_HEADER + SizeOf.array(positions) + SizeOf.array(values);
+	}
+
 	/**
 	 * @return iterator of flyweight quantitative features
 	 */
@@ -77,11 +84,13 @@ public class PositionalBlock implements Block<Feature.Quantitative> {
 		}		
 	}
 
-	class WindowedFeaturesIteratable implements Iteratable<Feature.Quantitative> {
+	class WindowedFeaturesIteratable implements Iteratable<Feature.Quantitative>, QuantitativeWindow {
 		FlyweightFeature feature = new FlyweightFeature();
 		int start;
 		int end;
 		int next;
+		int from = -1;
+		int to;
 
 		public WindowedFeaturesIteratable(int start, int end) {
 			this.start = start;
@@ -108,6 +117,51 @@ public class PositionalBlock implements Block<Feature.Quantitative> {
 		public Iterator<Feature.Quantitative> iterator() {
 			return this;
 		}		
+
+		private void findWindow() {
+			if (from < 0) {
+				from = firstPositionAtOrAfter(start);
+				to = firstPositionAtOrAfter(end);
+			}
+		}
+
+		public int getFrom() {
+			findWindow();
+			return from;
+		}
+
+		public int getTo() {
+			findWindow();
+			return to;
+		}
+
+		public int[] getStarts() {
+			return positions;
+		}
+
+		public int[] getEnds() {
+			return positions;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
+	}
+
+	/**
+	 * positions are sorted, so the window can be found by binary search
+	 */
+	private int firstPositionAtOrAfter(int position) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (positions[mid] < position)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
 	}
 
 	class FlyweightFeature implements Feature.Quantitative {
@@ -2,6 +2,8 @@ package org.systemsbiology.genomebrowser.sqlite;
 
 import java.util.Iterator;
 
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
 import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.Feature;
 import org.systemsbiology.genomebrowser.model.Sequence;
@@ -13,7 +15,7 @@ import org.systemsbiology.util.Iteratable;
  * A block of features with a single coordinate and a quantitative measurement and a p-value.
  * @author cbare
  */
-public class PositionalQuantitativePvalueBlock implements Block<Feature.QuantitativePvalue> {
+public class PositionalQuantitativePvalueBlock implements Block<Feature.QuantitativePvalue>, Sized {
 	private final BlockKey key;
 	private int[] positions;
 	private double[] values;
@@ -36,6 +38,10 @@ public class PositionalQuantitativePvalueBlock implements Block<Feature.Quantita
 		return key.getStrand();
 	}
 
+	public long getSizeInBytes() {
+		return SizeOf.OBJECT_HEADER + SizeOf.array(positions) + SizeOf.array(values) + SizeOf.array(pvalues);
+	}
+
 	/**
 	 * @return iterator of flyweight quantitative features
 	 */
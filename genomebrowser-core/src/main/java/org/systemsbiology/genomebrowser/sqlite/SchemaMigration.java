@@ -0,0 +1,185 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Brings the schema of a genome browser database up to date. The version
+ * of the schema is stamped in the schema_version table. Databases from
+ * before we kept a version have no such table and are taken to be
+ * version 1.
+ *
+ * Migrations only change the schema. Data that can be derived from the
+ * features, like the metadata of a track, is filled in lazily the first
+ * time the track is loaded, so opening an old file stays quick.
+ *
+ * Versions:
+ * 1. original schema, see sqlite_create_tables.sql
+ * 2. adds track_metadata, holding the range, feature count, and strands
+ *    of each track, and makes sure block_index and summary_levels exist.
+ * 3. adds block_data, holding blocks of quantitative tracks encoded as
+ *    columns in a BLOB, see BlockColumns.
+ */
+public class SchemaMigration extends SqliteDb {
+	private static final Logger log = Logger.getLogger(SchemaMigration.class);
+
+	public static final int CURRENT_VERSION = 3;
+
+
+	/**
+	 * @return version of the schema, 1 for databases that predate
+	 * versioning, or 0 for an empty database.
+	 */
+	public int getVersion(Connection conn) throws SQLException {
+		if (!tableExists(conn, "schema_version"))
+			return tableExists(conn, "tracks") ? 1 : 0;
+
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = conn.createStatement();
+			rs = s.executeQuery("select max(version) from schema_version;");
+			return rs.next() ? rs.getInt(1) : 1;
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Apply any migrations the database needs, in a transaction of
+	 * their own. Does nothing to an empty database, whose tables are
+	 * created elsewhere.
+	 * @return true if the schema was changed
+	 */
+	public boolean migrate(Connection conn) throws SQLException {
+		int version = getVersion(conn);
+		if (version == 0 || version >= CURRENT_VERSION)
+			return false;
+
+		log.info("migrating schema from version " + version + " to " + CURRENT_VERSION);
+		try {
+			beginTransaction(conn);
+			if (version < 2)
+				migrateToVersion2(conn);
+			if (version < 3)
+				createBlockDataTable(conn);
+			writeVersion(conn, CURRENT_VERSION);
+			commitTransaction(conn);
+			return true;
+		}
+		catch (SQLException e) {
+			rollbackTransaction(conn);
+			throw e;
+		}
+	}
+
+	private void migrateToVersion2(Connection conn) throws SQLException {
+		Statement s = null;
+		try {
+			s = conn.createStatement();
+			s.execute("create table if not exists track_metadata (" +
+					"tracks_uuid text primary key not null," +
+					"min_value numeric," +
+					"max_value numeric," +
+					"feature_count integer not null," +
+					"strands text not null);");
+			s.execute("create table if not exists block_index (" +
+					"tracks_uuid text not null," +
+					"sequences_id integer not null," +
+					"seqId text not null," +
+					"strand text not null," +
+					"start integer not null," +
+					"end integer not null," +
+					"length integer not null," +
+					"table_name text not null," +
+					"first_row_id integer not null," +
+					"last_row_id integer not null);");
+			s.execute("create index if not exists block_index_index on block_index (tracks_uuid, sequences_id, strand, start, end);");
+		}
+		finally {
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+		SummaryBuilder.createSummaryLevelsTable(conn);
+	}
+
+	/**
+	 * Blocks stored in columnar form are keyed by track and the row id
+	 * of their first feature, which is unique within a track.
+	 */
+	public static void createBlockDataTable(Connection conn) throws SQLException {
+		Statement s = null;
+		try {
+			s = conn.createStatement();
+			s.execute("create table if not exists block_data (" +
+					"tracks_uuid text not null," +
+					"first_row_id integer not null," +
+					"encoding text not null," +
+					"data blob not null," +
+					"primary key (tracks_uuid, first_row_id));");
+		}
+		finally {
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	private void writeVersion(Connection conn, int version) throws SQLException {
+		Statement s = null;
+		PreparedStatement ps = null;
+		try {
+			s = conn.createStatement();
+			s.execute("create table if not exists schema_version (version integer not null);");
+			s.execute("delete from schema_version;");
+			ps = conn.prepareStatement("insert into schema_version values (?);");
+			ps.setInt(1, version);
+			ps.executeUpdate();
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+}
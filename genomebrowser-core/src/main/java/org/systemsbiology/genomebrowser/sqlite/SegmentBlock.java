@@ -2,8 +2,11 @@ package org.systemsbiology.genomebrowser.sqlite;
 
 import java.util.Iterator;
 
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
 import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
 import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.util.Iteratable;
@@ -13,7 +16,7 @@ import org.systemsbiology.util.MathUtils;
  * A contiguous block of quantitative features on the same sequence and strand.
  * @author cbare
  */
-public class SegmentBlock implements Block<Feature.Quantitative> {
+public class SegmentBlock implements Block<Feature.Quantitative>, Sized {
 	private final BlockKey key;
 	private final int[] starts;
 	private final int[] ends;
@@ -36,6 +39,10 @@ public class SegmentBlock implements Block<Feature.Quantitative> {
 		return key.getStrand();
 	}
 
+	public long getSizeInBytes() {
+		return SizeOf.OBJECT_HEADER + SizeOf.array(starts) + SizeOf.array(ends) + SizeOf.array(values);
+	}
+
 	/**
 	 * @return iterator of flyweight quantitative features
 	 */
@@ -80,12 +87,14 @@ public class SegmentBlock implements Block<Feature.Quantitative> {
 		}		
 	}
 
-	class WindowedFeaturesIteratable implements Iteratable<Feature.Quantitative> {
+	class WindowedFeaturesIteratable implements Iteratable<Feature.Quantitative>, QuantitativeWindow {
 		FlyweightFeature feature = new FlyweightFeature();
 		int len = starts.length;
 		int start;
 		int end;
 		int next;
+		int from = -1;
+		int to;
 
 		public WindowedFeaturesIteratable(int start, int end) {
 			this.start = start;
@@ -112,6 +121,41 @@ public class SegmentBlock implements Block<Feature.Quantitative> {
 		public Iterator<Feature.Quantitative> iterator() {
 			return this;
 		}		
+
+		private void findWindow() {
+			if (from < 0) {
+				int i = 0;
+				while (i < len && ends[i] < start)
+					i++;
+				int j = i;
+				while (j < len && starts[j] < end)
+					j++;
+				from = i;
+				to = j;
+			}
+		}
+
+		public int getFrom() {
+			findWindow();
+			return from;
+		}
+
+		public int getTo() {
+			findWindow();
+			return to;
+		}
+
+		public int[] getStarts() {
+			return starts;
+		}
+
+		public int[] getEnds() {
+			return ends;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
 	}
 
 	class FlyweightFeature implements Feature.Quantitative {
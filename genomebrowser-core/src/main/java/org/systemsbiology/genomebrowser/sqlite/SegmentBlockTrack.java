@@ -1,28 +1,34 @@
 package org.systemsbiology.genomebrowser.sqlite;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
+import org.systemsbiology.genomebrowser.cache.BlockCache;
 import org.systemsbiology.genomebrowser.model.AsyncFeatureCallback;
 import org.systemsbiology.genomebrowser.model.Block;
 import org.systemsbiology.genomebrowser.model.Feature;
 import org.systemsbiology.genomebrowser.model.FeatureFilter;
 import org.systemsbiology.genomebrowser.model.Range;
 import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.util.Iteratable;
 
 
-public class SegmentBlockTrack implements Track.Quantitative<Feature.Quantitative> {
+public class SegmentBlockTrack implements Track.Quantitative<Feature.Quantitative>, BlockTrack {
 	private BlockIndex index;
 	private UUID uuid;
 	private String name;
 	private Attributes attr = new Attributes();
 	private Range range;
 	private SqliteDataSource dataSource;
+	private Strand[] strands;
+	private List<SummaryLevel> summaryLevels = Collections.emptyList();
 
 
 	public SegmentBlockTrack(UUID uuid, String name, BlockIndex index, Range range, SqliteDataSource dataSource) {
@@ -54,11 +60,18 @@ public class SegmentBlockTrack implements Track.Quantitative<Feature.Quantitativ
 	}
 
 	public Strand[] strands() {
-		Set<Strand> strands = new HashSet<Strand>();
-		for (Feature feature: features()) {
-			strands.add(feature.getStrand());
+		if (strands == null) {
+			Set<Strand> set = new HashSet<Strand>();
+			for (BlockKey key: index.keys()) {
+				set.add(key.getStrand());
+			}
+			strands = set.toArray(new Strand[set.size()]);
 		}
-		return strands.toArray(new Strand[strands.size()]);
+		return strands;
+	}
+
+	public void setStrands(Strand[] strands) {
+		this.strands = strands;
 	}
 
 	public BlockIndex getBlockIndex() {
@@ -74,15 +87,33 @@ public class SegmentBlockTrack implements Track.Quantitative<Feature.Quantitativ
 	}
 
 	public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback) {
-		for (BlockKey key: index.keys(filter.sequence.getSeqId(), filter.strand, filter.start, filter.end)) {
-			callback.consumeFeatures(getBlock(key).features(filter.start, filter.end), new FeatureFilter(filter.sequence, key.getStrand(), filter.start, filter.end));
+		BlockIndex.WindowIteratable keys = BlockIndex.takeWindowIteratable();
+		try {
+			for (BlockKey key: index.keys(filter.sequence.getSeqId(), filter.strand, filter.start, filter.end, keys)) {
+				callback.consumeFeatures(getBlock(key).features(filter.start, filter.end), new FeatureFilter(filter.sequence, key.getStrand(), filter.start, filter.end));
+			}
+		}
+		finally {
+			BlockIndex.releaseWindowIteratable(keys);
 		}
 	}
 
 	private Block<Feature.Quantitative> getBlock(BlockKey key) {
+		if (GbtFile.isSidecar(key.getTable()))
+			return dataSource.loadMappedBlock(key);
 		return dataSource.loadSegmentBlock(key);
 	}
 
+	public BlockCache<BlockKey, Block<? extends Feature>> getBlockCache() {
+		return dataSource.getBlockCache();
+	}
+
+	public boolean prefetchBlock(BlockKey key) {
+		if (GbtFile.isSidecar(key.getTable()))
+			return dataSource.prefetchMappedBlock(key);
+		return dataSource.prefetchSegmentBlock(key);
+	}
+
 	class SegmentBlockIteratable implements Iteratable<Feature.Quantitative> {
 		Iterator<BlockKey> keys;
 		Iterator<Feature.Quantitative> features;
@@ -146,4 +177,12 @@ public class SegmentBlockTrack implements Track.Quantitative<Feature.Quantitativ
 	public Range getRange() {
 		return range;
 	}
+
+	public SummaryLevel getSummaryLevel(double basesPerBin) {
+		return SqliteSummaryLevel.select(summaryLevels, basesPerBin);
+	}
+
+	public void setSummaryLevels(List<SummaryLevel> summaryLevels) {
+		this.summaryLevels = summaryLevels;
+	}
 }
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -110,7 +109,7 @@ public class SequenceDAO extends SqliteDb implements SequenceFetcher {
 		progressListenerSupport.fireSetExpectedProgressEvent(sequence.getLength());
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
 
 			// get sequence id to link sequence to sequences table
 			int sequence_id = getSequenceId(conn, sequence.getUuid());
@@ -287,7 +286,7 @@ public class SequenceDAO extends SqliteDb implements SequenceFetcher {
 		StringBuilder sb = new StringBuilder();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getReadConnection();
 			if (!dataSource.tableExists(conn, "bases")) {
 				log.warn("No sequence data present");
 				return "";
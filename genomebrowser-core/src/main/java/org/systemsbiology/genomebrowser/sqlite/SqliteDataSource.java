@@ -1,6 +1,7 @@
 package org.systemsbiology.genomebrowser.sqlite;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -12,15 +13,27 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.systemsbiology.util.Progress;
+import org.systemsbiology.genomebrowser.cache.BlockCache;
+import org.systemsbiology.genomebrowser.metrics.Histogram;
+import org.systemsbiology.genomebrowser.metrics.Metrics;
 import org.systemsbiology.genomebrowser.bookmarks.Bookmark;
 import org.systemsbiology.genomebrowser.bookmarks.BookmarkDataSource;
 import org.systemsbiology.genomebrowser.bookmarks.ListBookmarkDataSource;
@@ -43,6 +56,7 @@ import org.systemsbiology.genomebrowser.model.Segment;
 import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.SequenceFetcher;
 import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
 import org.systemsbiology.genomebrowser.model.Topology;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.model.Feature.NamedFeature;
@@ -51,10 +65,9 @@ import org.systemsbiology.util.FileUtils;
 import org.systemsbiology.util.StringUtils;
 import org.systemsbiology.genomebrowser.model.SequenceMapper;
 
-// proposed changes for version 2 of schema:
+// proposed changes for version 3 of schema:
 // * add label column to attributes for use in switchable views
-// * add min, max, and length columns to tracks table? max.value and min.value stashed in attributes for now.
-// * add schema version stamp either to datasets table or in its own table
+// (version 2 added the schema_version stamp and track_metadata, see SchemaMigration)
 
 
 
@@ -70,25 +83,95 @@ public class SqliteDataSource extends SqliteDb {
 	private Progress progress = new Progress();
 
 	/**
-	 * number of features in a block
+	 * System property giving the number of threads used to load the tracks
+	 * of a dataset. Defaults to the number of processors, up to MAX_LOAD_THREADS.
 	 */
-	private int blockSize = 20000;
+	public static final String LOAD_THREADS_PROPERTY = "genomebrowser.load.threads";
+	public static final int MAX_LOAD_THREADS = 8;
 
-	// Note: the size of the cache is fixed to an arbitrary value, and also the
-	// size of blocks is fixed to 20k features. Both of these could be tuned
-	// based on the amount of available memory, size of features, etc.
+	// set once the schema has been checked and migrated if need be
+	private volatile boolean migrated;
 
-	// use LinkedHashMap as an LRU-cache for blocks
-	// seems like the cache shouldn't be owned by this class, since the cache
-	// is a higher level design feature than choice of DB.
-	@SuppressWarnings("serial")
-	private LinkedHashMap<BlockKey, Block<? extends Feature>> cache = new LinkedHashMap<BlockKey, Block<? extends Feature>>(100, 0.75f, true) {
-		private static final int MAX_ENTRIES = 100;
-		protected boolean removeEldestEntry(Map.Entry<BlockKey, Block<? extends Feature>> eldest) {
-	        return size() > MAX_ENTRIES;
-	    }
-	};
+	// columns read into blocks of each type of quantitative track
+	private static final String[] SEGMENT_COLUMNS = {"start", "end"};
+	private static final String[] POSITIONAL_COLUMNS = {"position"};
+	private static final String[] VALUE_COLUMNS = {"value"};
+	private static final String[] PVALUE_COLUMNS = {"value", "p_value"};
 
+	// tracks whose blocks are stored encoded in the block_data table
+	private final Set<UUID> columnarTracks = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+	// open .gbt sidecar files by track uuid
+	private final Map<UUID, GbtFile> sidecars = new ConcurrentHashMap<UUID, GbtFile>();
+
+	// blocks are cached in a memory-budgeted cache shared by all data sources,
+	// so our block keys carry our connect string to tell them apart
+	private BlockCache<BlockKey, Block<? extends Feature>> cache = BlockCache.getSharedInstance();
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> segmentBlockLoader = timed("quantitative.segment", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadSegmentBlock(key);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> positionalBlockLoader = timed("quantitative.positional", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadPositionalBlock(key);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> positionalQuantitativePvalueBlockLoader = timed("quantitative.positional.p.value", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadPositionalQuantitativePvalueBlock(key);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> segmentMatrixBlockLoader = timed("quantitative.segment.matrix", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadSegmentMatrixBlock(key);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> mappedBlockLoader = timed("mapped", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadMappedBlock(key, false);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> mappedBlockPrefetchLoader = timed("mapped.prefetch", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadMappedBlock(key, true);
+		}
+	});
+
+	private final BlockCache.Loader<BlockKey, Block<? extends Feature>> peptideBlockLoader = timed("peptide", new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+		public Block<? extends Feature> load(BlockKey key) {
+			return _loadPeptideBlock(key);
+		}
+	});
+
+
+	/**
+	 * Wrap a block loader to time its loads, when metrics are enabled, in
+	 * the histogram block.load.[track type].
+	 */
+	private static BlockCache.Loader<BlockKey, Block<? extends Feature>> timed(String trackType, final BlockCache.Loader<BlockKey, Block<? extends Feature>> loader) {
+		final Metrics metrics = Metrics.getInstance();
+		final Histogram histogram = metrics.histogram("block.load." + trackType);
+		return new BlockCache.Loader<BlockKey, Block<? extends Feature>>() {
+			public Block<? extends Feature> load(BlockKey key) {
+				if (!metrics.isEnabled())
+					return loader.load(key);
+				long t0 = System.nanoTime();
+				try {
+					return loader.load(key);
+				}
+				finally {
+					histogram.recordSince(t0);
+				}
+			}
+		};
+	}
 
 	public SqliteDataSource(File file) {
 		this(getConnectStringForFile(file.getAbsolutePath()));
@@ -112,6 +195,22 @@ public class SqliteDataSource extends SqliteDb {
 		}
 	}
 
+	/**
+	 * @return a pooled connection for queries. Closing it returns it to the pool.
+	 * @see ConnectionManager
+	 */
+	private Connection getReadConnection() throws SQLException {
+		return ConnectionManager.getInstance(connectString).getReadConnection();
+	}
+
+	/**
+	 * @return the connection used for all writes to this file, which is
+	 * held exclusively by the calling thread until closed.
+	 */
+	private Connection getWriteConnection() throws SQLException {
+		return ConnectionManager.getInstance(connectString).getWriteConnection();
+	}
+
 	/**
 	 * Create a fake empty database so we can get version info for the DB driver
 	 */
@@ -167,7 +266,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// check if there is a datasets table
 			DatabaseMetaData dbmd = conn.getMetaData();
@@ -238,8 +337,31 @@ public class SqliteDataSource extends SqliteDb {
 		return dataset;
 	}
 
+	/**
+	 * Bring the schema of the database up to date, once per data source.
+	 * @see SchemaMigration
+	 */
 	public void migrateDb() {
 		// TODO create bookmarks tables
+		if (migrated) return;
+		Connection conn = null;
+		try {
+			conn = getWriteConnection();
+			new SchemaMigration().migrate(conn);
+			migrated = true;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			try {
+				if (conn != null)
+					conn.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing connection", e1);
+			}
+		}
 	}
 
 	private BasicDataset loadDatasetStub(UUID uuid) {
@@ -248,7 +370,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select name from datasets where uuid=?");
 			ps.setString(1, uuid.toString());
@@ -329,6 +451,14 @@ public class SqliteDataSource extends SqliteDb {
 	public Progress getProgress() {
 		return progress;
 	}
+
+	public BlockCache<BlockKey, Block<? extends Feature>> getBlockCache() {
+		return cache;
+	}
+
+	public void setBlockCache(BlockCache<BlockKey, Block<? extends Feature>> cache) {
+		this.cache = cache;
+	}
 	
 	private Sequence getSequence(int id) {
 		Sequence sequence = getSequenceStub(id);
@@ -342,7 +472,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select sequences.uuid, sequences.name, sequences.length, sequences.topology from sequences where id=?");
 			ps.setInt(1, id);
@@ -395,7 +525,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select sequences.uuid, sequences.name, sequences.length, sequences.topology from datasets_sequences join sequences on datasets_sequences.sequences_uuid=sequences.uuid where datasets_sequences.datasets_uuid=?");
 			ps.setString(1, uuid.toString());
@@ -444,14 +574,116 @@ public class SqliteDataSource extends SqliteDb {
 	 * @param uuid UUID of the dataset
 	 */
 	public List<Track<? extends Feature>> loadTracks(UUID uuid) {
+		return loadTracks(uuid, getLoadThreadCount());
+	}
+
+	/**
+	 * Load the tracks of a dataset using the given number of threads. The
+	 * work for each track is independent, so tracks are loaded in parallel,
+	 * each worker reading through its own pooled connection. Tracks are
+	 * returned in the same order as when loaded one at a time.
+	 *
+	 * Tracks from older files that don't have their metadata yet are loaded
+	 * first on the calling thread, because loading them writes the block
+	 * index, metadata, and summaries, and sqlite won't commit those while
+	 * the workers hold read locks. That leaves the parallel part read-only.
+	 */
+	public List<Track<? extends Feature>> loadTracks(UUID uuid, int threads) {
 		List<TrackStub> stubs = loadTrackStubs(uuid);
-		List<Track<? extends Feature>> tracks = new ArrayList<Track<? extends Feature>>();
+		List<Track<? extends Feature>> tracks = new ArrayList<Track<? extends Feature>>(stubs.size());
+		threads = Math.min(threads, stubs.size());
 
+		if (threads <= 1) {
+			for (TrackStub stub: stubs) {
+				tracks.add(loadTrack(stub));
+				progress.add(100);
+			}
+			return tracks;
+		}
+
+		// migrate up front, rather than having every worker wait on it
+		migrateDb();
+		ConnectionManager.getInstance(connectString).ensurePoolSize(threads);
+
+		long t0 = System.currentTimeMillis();
+		List<Track<Feature>> prepared = new ArrayList<Track<Feature>>(stubs.size());
 		for (TrackStub stub: stubs) {
-			tracks.add(loadTrack(stub));
-			progress.add(100);
+			if (isBlockTrackType(stub.type) && loadTrackMetadata(stub) == null) {
+				prepared.add(loadTrack(stub));
+				progress.add(100);
+			}
+			else {
+				prepared.add(null);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new TrackLoaderThreadFactory());
+		try {
+			List<Future<Track<Feature>>> futures = new ArrayList<Future<Track<Feature>>>(stubs.size());
+			for (int i=0; i<stubs.size(); i++) {
+				if (prepared.get(i) != null) {
+					futures.add(null);
+					continue;
+				}
+				final TrackStub stub = stubs.get(i);
+				futures.add(executor.submit(new Callable<Track<Feature>>() {
+					public Track<Feature> call() {
+						Track<Feature> track = loadTrack(stub);
+						progress.add(100);
+						return track;
+					}
+				}));
+			}
+			for (int i=0; i<stubs.size(); i++) {
+				Future<Track<Feature>> future = futures.get(i);
+				tracks.add(future == null ? prepared.get(i) : future.get());
+			}
+			log.info(String.format("loaded %d tracks on %d threads in %,d ms", tracks.size(), threads, System.currentTimeMillis() - t0));
+			return tracks;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading tracks", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return true for the types of track loaded through a block index,
+	 * which are the ones that have track metadata
+	 */
+	private static boolean isBlockTrackType(String type) {
+		return "peptide".equals(type) || type.startsWith("quantitative");
+	}
+
+	private static int getLoadThreadCount() {
+		String threads = System.getProperty(LOAD_THREADS_PROPERTY);
+		if (threads != null) {
+			try {
+				return Integer.parseInt(threads.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + LOAD_THREADS_PROPERTY + ": " + threads);
+			}
+		}
+		return Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	private static class TrackLoaderThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "track-loader-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
-		return tracks;
 	}
 
 	public Track<Feature> loadTrack(UUID trackUuid) {
@@ -467,37 +699,59 @@ public class SqliteDataSource extends SqliteDb {
 	@SuppressWarnings("unchecked")
 	public Track<Feature> loadTrack(TrackStub stub) {
 		
-		// The calls to getRange in here take a long time for large tracks.
-		// We could add an index, but that seems like overkill. It would be
-		// nicer to cache the range and length of tracks in the tracks table.
-		// This brings up the need to record a schema version number somewhere
-		// and have a procedure for migrating the schema when necessary.
-		
-		createBlockIndexTable();
+		// The range, feature count, and strands of a track are kept in
+		// track_metadata so we don't have to scan the features table to
+		// find them. Tracks from files made before schema version 2 get
+		// their metadata computed the first time they're loaded.
+
+		migrateDb();
 		log.info("loading track: " + stub.name);
 		Attributes attributes = getAttributes(stub.uuid);
+		if (stub.type.startsWith("quantitative") && hasBlockData(stub))
+			columnarTracks.add(stub.uuid);
 		Track<? extends Feature> track = null;
-		if ("gene".equals(stub.type)) {
+		if (GbtFile.isSidecar(stub.tableName)) {
+			track = loadSidecarTrack(stub);
+		}
+		else if ("gene".equals(stub.type)) {
 			track = loadGeneTrack(stub);
 		}
 		else if ("peptide".equals(stub.type)) {
-			track = new PeptideBlockTrack(stub.uuid, stub.name, getOrCreateBlockIndex(stub), this);
+			BlockIndex index = getOrCreateBlockIndex(stub);
+			TrackMetadata metadata = getOrCreateTrackMetadata(stub, index, attributes);
+			PeptideBlockTrack peptideTrack = new PeptideBlockTrack(stub.uuid, stub.name, index, this);
+			peptideTrack.setStrands(metadata.strands);
+			track = peptideTrack;
 		}
 		else if ("quantitative.segment".equals(stub.type)) {
-			Range r = getRange(stub, attributes);
-			track = new SegmentBlockTrack(stub.uuid, stub.name, getOrCreateBlockIndex(stub), r, this);
+			BlockIndex index = getOrCreateBlockIndex(stub);
+			TrackMetadata metadata = getOrCreateTrackMetadata(stub, index, attributes);
+			SegmentBlockTrack segmentTrack = new SegmentBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			segmentTrack.setStrands(metadata.strands);
+			segmentTrack.setSummaryLevels(getOrCreateSummaryLevels(stub, metadata, false));
+			track = segmentTrack;
 		}
 		else if ("quantitative.positional".equals(stub.type)) {
-			Range r = getRange(stub, attributes);
-			track = new PositionalBlockTrack(stub.uuid, stub.name, getOrCreateBlockIndex(stub), r, this);
+			BlockIndex index = getOrCreateBlockIndex(stub);
+			TrackMetadata metadata = getOrCreateTrackMetadata(stub, index, attributes);
+			PositionalBlockTrack positionalTrack = new PositionalBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			positionalTrack.setStrands(metadata.strands);
+			positionalTrack.setSummaryLevels(getOrCreateSummaryLevels(stub, metadata, true));
+			track = positionalTrack;
 		}
 		else if ("quantitative.positional.p.value".equals(stub.type)) {
-			Range r = getRange(stub, attributes);
-			track = new PositionalQuantitativePvalueBlockTrack(stub.uuid, stub.name, getOrCreateBlockIndex(stub), r, this);
+			BlockIndex index = getOrCreateBlockIndex(stub);
+			TrackMetadata metadata = getOrCreateTrackMetadata(stub, index, attributes);
+			PositionalQuantitativePvalueBlockTrack pvalueTrack = new PositionalQuantitativePvalueBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			pvalueTrack.setStrands(metadata.strands);
+			track = pvalueTrack;
 		}
 		else if ("quantitative.segment.matrix".equals(stub.type)) {
-			Range r = getRange(stub, attributes);
-			track = new SegmentMatrixBlockTrack(stub.uuid, stub.name, getOrCreateBlockIndex(stub), r, this);
+			BlockIndex index = getOrCreateBlockIndex(stub);
+			TrackMetadata metadata = getOrCreateTrackMetadata(stub, index, attributes);
+			SegmentMatrixBlockTrack matrixTrack = new SegmentMatrixBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			matrixTrack.setStrands(metadata.strands);
+			track = matrixTrack;
 		}
 		// nsaf type for SSO fractionation/proteomics data
 		else if ("nsaf".equals(stub.type)) {
@@ -513,6 +767,103 @@ public class SqliteDataSource extends SqliteDb {
 	}
 
 
+	/**
+	 * Load a quantitative track whose features are in a .gbt sidecar file.
+	 * The block index comes from the file's block directory. There are no
+	 * summary levels, since those are built from a features table.
+	 */
+	private Track<? extends Feature> loadSidecarTrack(TrackStub stub) {
+		GbtFile gbt = getSidecar(stub);
+		BlockIndex index = gbt.createBlockIndex(connectString, stub.uuid, stub.tableName);
+		TrackMetadata metadata = loadTrackMetadata(stub);
+		if (metadata == null)
+			metadata = new TrackMetadata(stub.uuid, gbt.getRange(), gbt.getFeatureCount(), gbt.getStrands());
+
+		if ("quantitative.segment".equals(stub.type)) {
+			SegmentBlockTrack segmentTrack = new SegmentBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			segmentTrack.setStrands(metadata.strands);
+			return segmentTrack;
+		}
+		else if ("quantitative.positional".equals(stub.type)) {
+			PositionalBlockTrack positionalTrack = new PositionalBlockTrack(stub.uuid, stub.name, index, metadata.getRange(), this);
+			positionalTrack.setStrands(metadata.strands);
+			return positionalTrack;
+		}
+		throw new RuntimeException("Sidecar files can't hold tracks of type: " + stub.type);
+	}
+
+	/**
+	 * @return the open sidecar file of a track, opening it if need be
+	 */
+	private GbtFile getSidecar(TrackStub stub) {
+		GbtFile gbt = sidecars.get(stub.uuid);
+		if (gbt == null) {
+			synchronized (sidecars) {
+				gbt = sidecars.get(stub.uuid);
+				if (gbt == null) {
+					try {
+						gbt = new GbtFile(resolveSidecar(stub.tableName));
+					}
+					catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+					sidecars.put(stub.uuid, gbt);
+				}
+			}
+		}
+		return gbt;
+	}
+
+	/**
+	 * Sidecar files are named relative to the directory of the database,
+	 * unless they're given as absolute paths.
+	 */
+	public File resolveSidecar(String name) {
+		File file = new File(name);
+		if (file.isAbsolute())
+			return file;
+		return new File(getDbFile().getAbsoluteFile().getParentFile(), name);
+	}
+
+	/**
+	 * @return the name by which a track refers to the given sidecar file, which
+	 * is relative if the file is in the same directory as the database.
+	 */
+	public String getSidecarName(File gbt) {
+		File dir = getDbFile().getAbsoluteFile().getParentFile();
+		if (dir != null && dir.equals(gbt.getAbsoluteFile().getParentFile()))
+			return gbt.getName();
+		return gbt.getAbsolutePath();
+	}
+
+	private File getDbFile() {
+		return new File(connectString.substring("jdbc:sqlite:".length()));
+	}
+
+	public MappedBlock loadMappedBlock(BlockKey key) {
+		return (MappedBlock)cache.get(key, mappedBlockLoader);
+	}
+
+	/**
+	 * Map a block and read it into the page cache ahead of time.
+	 */
+	public boolean prefetchMappedBlock(BlockKey key) {
+		return cache.prefetch(key, mappedBlockPrefetchLoader);
+	}
+
+	public MappedBlock _loadMappedBlock(BlockKey key, boolean load) {
+		GbtFile gbt = sidecars.get(key.getTrackUuid());
+		if (gbt == null)
+			throw new RuntimeException("Sidecar file not open for block: " + key);
+		try {
+			return gbt.mapBlock(key, load);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
 	static class TrackStub {
 		final UUID uuid;
 		final String name;
@@ -564,7 +915,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			ps = conn.prepareStatement("select start, end, name, common_name, gene_type from " + table + "  where sequences_id=? and strand=? order by start, end, strand;");
 			ps.setInt(1, key.id);
 			ps.setString(2, strand.toAbbreviatedString());
@@ -646,7 +997,7 @@ public class SqliteDataSource extends SqliteDb {
 		 */
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			ps = conn.prepareStatement("select start, end, name, common_name, gene_type, " +
 					" NSAF_in_Media_Secretion2_April_24_2009, " +
 					" NSAF_in_SEC_Secretion1_April_16_2009, " +
@@ -793,7 +1144,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select tracks.uuid, tracks.name, tracks.type, tracks.table_name from datasets_tracks join tracks on datasets_tracks.tracks_uuid=tracks.uuid where datasets_tracks.datasets_uuid=?");
 			ps.setString(1, datasetUuid.toString());
@@ -845,7 +1196,7 @@ public class SqliteDataSource extends SqliteDb {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select uuid, name, type, table_name from tracks where uuid=?");
 			ps.setString(1, uuid.toString());
@@ -897,7 +1248,7 @@ public class SqliteDataSource extends SqliteDb {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select uuid, name, type, table_name from tracks where name=?");
 			ps.setString(1, name);
@@ -958,7 +1309,7 @@ public class SqliteDataSource extends SqliteDb {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			
 			ps = conn.prepareStatement("select key, value from attributes where uuid like ?");
 			ps.setString(1, uuid.toString());
@@ -997,59 +1348,79 @@ public class SqliteDataSource extends SqliteDb {
 	}
 
 	public SegmentBlock loadSegmentBlock(BlockKey key) {
-		Block<? extends Feature> block = cache.get(key);
-		if (block==null) {
-			//log.info("miss");
-			block = _loadSegmentBlock(key);
-			cache.put(key, block);
-		}
-		return (SegmentBlock)block;
+		return (SegmentBlock)cache.get(key, segmentBlockLoader);
+	}
+
+	public boolean prefetchSegmentBlock(BlockKey key) {
+		return cache.prefetch(key, segmentBlockLoader);
 	}
 
 	public SegmentBlock _loadSegmentBlock(BlockKey key) {
-		int[] starts = new int[key.getLength()];
-		int[] ends = new int[key.getLength()];
-		double[] values = new double[key.getLength()];
-		int i=0;
+		BlockColumns columns = readBlockColumns(key, SEGMENT_COLUMNS, VALUE_COLUMNS);
+		return new SegmentBlock(key, columns.ints[0], columns.ints[1], columns.values[0]);
+	}
 
-		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
+	public PositionalBlock loadPositionalBlock(BlockKey key) {
+		return (PositionalBlock)cache.get(key, positionalBlockLoader);
+	}
 
-		try {
-			conn = DriverManager.getConnection(connectString);
+	public boolean prefetchPositionalBlock(BlockKey key) {
+		return cache.prefetch(key, positionalBlockLoader);
+	}
 
-			ps = conn.prepareStatement("Select start, end, value from " + key.getTable() + " where rowId>=? and rowId<=?;");
-			ps.setInt(1, key.getFirstRowId());
-			ps.setInt(2, key.getLastRowId());
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				starts[i] = rs.getInt(1);
-				ends[i] = rs.getInt(2);
-				values[i] = rs.getDouble(3);
-				i++;
-			}
+	public PositionalBlock _loadPositionalBlock(BlockKey key) {
+		BlockColumns columns = readBlockColumns(key, POSITIONAL_COLUMNS, VALUE_COLUMNS);
+		return new PositionalBlock(key, columns.ints[0], columns.values[0]);
+	}
 
-			return new SegmentBlock(key, starts, ends, values);
+	public PositionalQuantitativePvalueBlock loadPositionalQuantitativePvalueBlock(BlockKey key) {
+		return (PositionalQuantitativePvalueBlock)cache.get(key, positionalQuantitativePvalueBlockLoader);
+	}
+
+	public boolean prefetchPositionalQuantitativePvalueBlock(BlockKey key) {
+		return cache.prefetch(key, positionalQuantitativePvalueBlockLoader);
+	}
+
+	public PositionalQuantitativePvalueBlock _loadPositionalQuantitativePvalueBlock(BlockKey key) {
+		BlockColumns columns = readBlockColumns(key, POSITIONAL_COLUMNS, PVALUE_COLUMNS);
+		return new PositionalQuantitativePvalueBlock(key, columns.ints[0], columns.values[0], columns.values[1]);
+	}
+
+	public SegmentMatrixBlock loadSegmentMatrixBlock(BlockKey key) {
+		return (SegmentMatrixBlock)cache.get(key, segmentMatrixBlockLoader);
+	}
+
+	public boolean prefetchSegmentMatrixBlock(BlockKey key) {
+		return cache.prefetch(key, segmentMatrixBlockLoader);
+	}
+
+	public SegmentMatrixBlock _loadSegmentMatrixBlock(BlockKey key) {
+		// TODO get this once and keep it somewhere
+		List<String> columns = getMatrixColumns(key.getTable());
+		BlockColumns blockColumns = readBlockColumns(key, SEGMENT_COLUMNS, columns.toArray(new String[columns.size()]));
+		return new SegmentMatrixBlock(key, blockColumns.ints[0], blockColumns.ints[1], blockColumns.valueRows());
+	}
+
+	/**
+	 * Read the data of a block, from the block_data table if the track has
+	 * columnar blocks, otherwise from the rows of its features table.
+	 */
+	private BlockColumns readBlockColumns(BlockKey key, String[] intColumns, String[] valueColumns) {
+		Connection conn = null;
+		try {
+			conn = getReadConnection();
+			if (columnarTracks.contains(key.getTrackUuid())) {
+				BlockColumns columns = readBlockData(conn, key);
+				if (columns != null)
+					return columns;
+				log.warn("no columnar data for block, reading rows instead: " + key);
+			}
+			return readBlockRows(conn, key, intColumns, valueColumns);
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 		finally {
-			try {
-				if (rs != null)
-					rs.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing result set", e1);
-			}
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing prepared statement", e1);
-			}
 			try {
 				if (conn != null)
 					conn.close();
@@ -1060,42 +1431,44 @@ public class SqliteDataSource extends SqliteDb {
 		}
 	}
 
-	public PositionalBlock loadPositionalBlock(BlockKey key) {
-		Block<? extends Feature> block = cache.get(key);
-		if (block==null) {
-			//log.info("miss");
-			block = _loadPositionalBlock(key);
-			cache.put(key, block);
-		}
-		return (PositionalBlock)block;
-	}
-
-	public PositionalBlock _loadPositionalBlock(BlockKey key) {
-		int[] positions = new int[key.getLength()];
-		double[] values = new double[key.getLength()];
+	/**
+	 * Read a block one row at a time from the track's features table.
+	 */
+	private BlockColumns readBlockRows(Connection conn, BlockKey key, String[] intColumns, String[] valueColumns) throws SQLException {
+		BlockColumns columns = new BlockColumns(key.getLength(), intColumns.length, valueColumns.length);
+		int[][] ints = columns.ints;
+		double[][] values = columns.values;
 		int i=0;
 
-		Connection conn = null;
+		StringBuilder sql = new StringBuilder("Select ");
+		for (String column : intColumns) {
+			sql.append(column).append(", ");
+		}
+		for (String column : valueColumns) {
+			sql.append(column).append(", ");
+		}
+		sql.setLength(sql.length() - 2);
+		sql.append(" from ").append(key.getTable()).append(" where rowId>=? and rowId<=?;");
+
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-
 		try {
-			conn = DriverManager.getConnection(connectString);
-
-			ps = conn.prepareStatement("Select position, value from " + key.getTable() + " where rowId>=? and rowId<=?;");
-			ps.setInt(1, key.getFirstRowId());
-			ps.setInt(2, key.getLastRowId());
+			ps = conn.prepareStatement(sql.toString());
+			ps.setLong(1, key.getFirstRowId());
+			ps.setLong(2, key.getLastRowId());
 			rs = ps.executeQuery();
 			while (rs.next()) {
-				positions[i] = rs.getInt(1);
-				values[i] = rs.getDouble(2);
+				for (int j=0; j<ints.length; j++)
+					ints[j][i] = rs.getInt(1+j);
+				for (int j=0; j<values.length; j++)
+					values[j][i] = rs.getDouble(1+ints.length+j);
 				i++;
 			}
 
-			return new PositionalBlock(key, positions, values);
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
+			if (i != key.getLength())
+				log.warn("wrong number of features in block: " + key);
+
+			return columns;
 		}
 		finally {
 			try {
@@ -1112,54 +1485,22 @@ public class SqliteDataSource extends SqliteDb {
 			catch (Exception e1) {
 				log.warn("Error closing prepared statement", e1);
 			}
-			try {
-				if (conn != null)
-					conn.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing connection", e1);
-			}
 		}
 	}
 
-	public PositionalQuantitativePvalueBlock loadPositionalQuantitativePvalueBlock(BlockKey key) {
-		Block<? extends Feature> block = cache.get(key);
-		if (block==null) {
-			//log.info("miss");
-			block = _loadPositionalQuantitativePvalueBlock(key);
-			cache.put(key, block);
-		}
-		return (PositionalQuantitativePvalueBlock)block;
-	}
-
-	public PositionalQuantitativePvalueBlock _loadPositionalQuantitativePvalueBlock(BlockKey key) {
-		int[] positions = new int[key.getLength()];
-		double[] values = new double[key.getLength()];
-		double[] pvalues = new double[key.getLength()];
-		int i=0;
-
-		Connection conn = null;
+	/**
+	 * Read a block stored as a single encoded row of the block_data table.
+	 * @return the block's columns or null if it's not there
+	 */
+	private BlockColumns readBlockData(Connection conn, BlockKey key) throws SQLException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-
 		try {
-			conn = DriverManager.getConnection(connectString);
-
-			ps = conn.prepareStatement("Select position, value, p_value from " + key.getTable() + " where rowId>=? and rowId<=?;");
-			ps.setInt(1, key.getFirstRowId());
-			ps.setInt(2, key.getLastRowId());
+			ps = conn.prepareStatement("select data from block_data where tracks_uuid=? and first_row_id=?;");
+			ps.setString(1, key.getTrackUuid().toString());
+			ps.setLong(2, key.getFirstRowId());
 			rs = ps.executeQuery();
-			while (rs.next()) {
-				positions[i] = rs.getInt(1);
-				values[i] = rs.getDouble(2);
-				pvalues[i] = rs.getDouble(3);
-				i++;
-			}
-
-			return new PositionalQuantitativePvalueBlock(key, positions, values, pvalues);
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
+			return rs.next() ? BlockColumns.decode(rs.getBytes(1)) : null;
 		}
 		finally {
 			try {
@@ -1176,6 +1517,81 @@ public class SqliteDataSource extends SqliteDb {
 			catch (Exception e1) {
 				log.warn("Error closing prepared statement", e1);
 			}
+		}
+	}
+
+	/**
+	 * Store each block of a quantitative track as an encoded BLOB in the
+	 * block_data table, so loading a block takes one row fetch and a bulk
+	 * decode instead of a row per feature. The features table is left as
+	 * it is, since summaries, metadata, export, and rebuilding the block
+	 * index all work from it.
+	 * @param encoding how to store values; FLOAT and QUANTIZED lose precision
+	 */
+	public void writeBlockData(TrackStub stub, BlockIndex index, BlockColumns.Encoding encoding) {
+		String[] intColumns;
+		String[] valueColumns;
+		if ("quantitative.segment".equals(stub.type)) {
+			intColumns = SEGMENT_COLUMNS;
+			valueColumns = VALUE_COLUMNS;
+		}
+		else if ("quantitative.positional".equals(stub.type)) {
+			intColumns = POSITIONAL_COLUMNS;
+			valueColumns = VALUE_COLUMNS;
+		}
+		else if ("quantitative.positional.p.value".equals(stub.type)) {
+			intColumns = POSITIONAL_COLUMNS;
+			valueColumns = PVALUE_COLUMNS;
+		}
+		else if ("quantitative.segment.matrix".equals(stub.type)) {
+			intColumns = SEGMENT_COLUMNS;
+			List<String> columns = getMatrixColumns(stub.tableName);
+			valueColumns = columns.toArray(new String[columns.size()]);
+		}
+		else {
+			throw new RuntimeException("Can't store blocks of " + stub.type + " tracks in columnar form");
+		}
+
+		Connection conn = null;
+		PreparedStatement ps = null;
+		long bytes = 0;
+		try {
+			conn = getWriteConnection();
+			beginTransaction(conn);
+			ps = conn.prepareStatement("insert or replace into block_data values (?,?,?,?);");
+			for (BlockKey key : index.keys()) {
+				byte[] data = readBlockRows(conn, key, intColumns, valueColumns).encode(encoding);
+				ps.setString(1, key.getTrackUuid().toString());
+				ps.setLong(2, key.getFirstRowId());
+				ps.setString(3, encoding.toString());
+				ps.setBytes(4, data);
+				ps.executeUpdate();
+				bytes += data.length;
+			}
+			commitTransaction(conn);
+			columnarTracks.add(stub.uuid);
+			log.info(String.format("wrote %d columnar blocks for track %s, %,d bytes, %s values", index.size(), stub.name, bytes, encoding));
+		}
+		catch (Exception e) {
+			// roll back on any failure, so no track is left with some of
+			// its blocks written
+			try {
+				if (conn != null)
+					rollbackTransaction(conn);
+			}
+			catch (SQLException e1) {
+				log.error(e1);
+			}
+			throw new RuntimeException(e);
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing prepared statement", e1);
+			}
 			try {
 				if (conn != null)
 					conn.close();
@@ -1186,58 +1602,19 @@ public class SqliteDataSource extends SqliteDb {
 		}
 	}
 
-	public SegmentMatrixBlock loadSegmentMatrixBlock(BlockKey key) {
-		Block<? extends Feature> block = cache.get(key);
-		if (block==null) {
-			//log.info("miss");
-			block = _loadSegmentMatrixBlock(key);
-			cache.put(key, block);
-		}
-		return (SegmentMatrixBlock)block;
-	}
-
-	public SegmentMatrixBlock _loadSegmentMatrixBlock(BlockKey key) {
-		int i=0;
-		int[] starts = new int[key.getLength()];
-		int[] ends = new int[key.getLength()];
-
-		// TODO get this once and keep it somewhere
-		List<String> columns = getMatrixColumns(key.getTable());
-		int cols = columns.size();
-
-		double[][] values = new double[key.getLength()][cols];
-
-		StringBuilder sql = new StringBuilder("Select start, end");
-		for (String column : columns) {
-			sql.append(", ").append(column);
-		}
-		sql.append(" from ").append(key.getTable()).append(" where rowId>=? and rowId<=?;");
-
+	/**
+	 * @return true if the blocks of the given track are stored in block_data
+	 */
+	public boolean hasBlockData(TrackStub stub) {
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-
 		try {
-			conn = DriverManager.getConnection(connectString);
-
-			ps = conn.prepareStatement(sql.toString());
-			ps.setInt(1, key.getFirstRowId());
-			ps.setInt(2, key.getLastRowId());
+			conn = getReadConnection();
+			ps = conn.prepareStatement("select 1 from block_data where tracks_uuid=? limit 1;");
+			ps.setString(1, stub.uuid.toString());
 			rs = ps.executeQuery();
-			while (rs.next()) {
-				starts[i] = rs.getInt(1);
-				ends[i] = rs.getInt(2);
-
-				for (int j=0; j<cols; j++)
-					values[i][j] = rs.getDouble(3+j);
-
-				i++;
-			}
-			
-			if (i != key.getLength())
-				log.warn("wrong number of features in block: " + key);
-
-			return new SegmentMatrixBlock(key, starts, ends, values);
+			return rs.next();
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -1268,13 +1645,11 @@ public class SqliteDataSource extends SqliteDb {
 	}
 
 	public PeptideBlock loadPeptideBlock(BlockKey key) {
-		Block<? extends Feature> block = cache.get(key);
-		if (block==null) {
-			//log.info("miss");
-			block = _loadPeptideBlock(key);
-			cache.put(key, block);
-		}
-		return (PeptideBlock)block;
+		return (PeptideBlock)cache.get(key, peptideBlockLoader);
+	}
+
+	public boolean prefetchPeptideBlock(BlockKey key) {
+		return cache.prefetch(key, peptideBlockLoader);
 	}
 
 	public PeptideBlock _loadPeptideBlock(BlockKey key) {
@@ -1291,7 +1666,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			boolean hasRedundancy = tableHasColumn(conn, key.getTable(), "redundancy");
 			String sql = hasRedundancy ? 
@@ -1299,8 +1674,8 @@ public class SqliteDataSource extends SqliteDb {
 					"Select start, end, name, common_name, score from " + key.getTable() + " where rowId>=? and rowId<=?;";
 			
 			ps = conn.prepareStatement(sql);
-			ps.setInt(1, key.getFirstRowId());
-			ps.setInt(2, key.getLastRowId());
+			ps.setLong(1, key.getFirstRowId());
+			ps.setLong(2, key.getLastRowId());
 			rs = ps.executeQuery();
 			while (rs.next()) {
 				starts[i] = rs.getInt(1);
@@ -1360,7 +1735,7 @@ public class SqliteDataSource extends SqliteDb {
 		BlockIndex index = new BlockIndex();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement(
 					"select sequences_id, seqId, strand, start, end, length, first_row_id, last_row_id " +
@@ -1372,6 +1747,7 @@ public class SqliteDataSource extends SqliteDb {
 			rs = ps.executeQuery();
 			while (rs.next()) {
 				BlockKey blockKey = new BlockKey(
+						connectString,
 						stub.uuid,
 						rs.getInt(1),
 						rs.getString(2),
@@ -1380,8 +1756,8 @@ public class SqliteDataSource extends SqliteDb {
 						rs.getInt(5),
 						rs.getInt(6),
 						stub.tableName,
-						rs.getInt(7),
-						rs.getInt(8));
+						rs.getLong(7),
+						rs.getLong(8));
 				index.add(blockKey);
 //				progress.add(blockKey.getFeatureCount());
 			}
@@ -1427,46 +1803,50 @@ public class SqliteDataSource extends SqliteDb {
 		log.info("create block index for track " + stub.tableName);
 		BlockIndex index = new BlockIndex();
 
-		List<SequenceKey> keys = getSequenceKeys(stub);
+		int blockSize = getBlockSize(stub);
 
-		for (SequenceKey seqKey : keys) {
-			for (Strand strand : getStrandsForTrack(stub)) {
-
-				// count the features in the track on a given sequence and strand
-				int count = getFeatureCount(stub.tableName, seqKey.id, strand);
-
-				// compute the number of blocks needed to hold the features
-				int blockCount = (int)Math.ceil( ((double)count) / blockSize );
-
-				//System.out.format("sequence=%s, strand=%s, blockCount=%d\n", sequences.get(sequencesId), strand.toAbbreviatedString(), blockCount);
-				int firstRowId0 = getFirstRow(stub.tableName, seqKey.id, strand);
-				int lastRowId0 = firstRowId0 + count - 1;
-
-				for (int i=0; i<blockCount; i++) {
-					int firstRowId = i * blockSize + firstRowId0;
-					int lastRowId = Math.min(lastRowId0, firstRowId + blockSize - 1);
-					BlockDimensions dim = getBlockDimensions(stub, firstRowId, lastRowId);
-					if (dim.length<=0)
-						log.warn("block length = " + dim.length + " for track " + stub.name);
-//					progress.add(dim.length);
-
-					index.add(new BlockKey(
-							stub.uuid,
-							seqKey.id,
-							seqKey.name,
-							strand,
-							dim.start,
-							dim.end,
-							dim.length,
-							stub.tableName,
-							firstRowId,
-							lastRowId));
-				}
+		for (FeatureRun run : getFeatureRuns(stub)) {
+
+			// compute the number of blocks needed to hold the features
+			long blockCount = (run.count + blockSize - 1) / blockSize;
+
+			long firstRowId0 = run.firstRowId;
+			long lastRowId0 = firstRowId0 + run.count - 1;
+
+			for (long i=0; i<blockCount; i++) {
+				long firstRowId = i * blockSize + firstRowId0;
+				long lastRowId = Math.min(lastRowId0, firstRowId + blockSize - 1);
+				BlockDimensions dim = getBlockDimensions(stub, firstRowId, lastRowId);
+				if (dim.length<=0)
+					log.warn("block length = " + dim.length + " for track " + stub.name);
+
+				index.add(new BlockKey(
+						connectString,
+						stub.uuid,
+						run.sequencesId,
+						run.seqId,
+						run.strand,
+						dim.start,
+						dim.end,
+						dim.length,
+						stub.tableName,
+						firstRowId,
+						lastRowId));
 			}
 		}
-		log.info("create block index for track: " + stub.name + ", " + index.size() + " blocks");
+		log.info("create block index for track: " + stub.name + ", " + index.size() + " blocks of up to " + blockSize + " features");
 		return index;
 	}
+
+	/**
+	 * @return the number of features per block for the given track, which
+	 * depends on how much memory a feature of its type takes.
+	 * @see BlockSizing
+	 */
+	int getBlockSize(TrackStub stub) {
+		int columns = "quantitative.segment.matrix".equals(stub.type) ? getMatrixColumns(stub.tableName).size() : 1;
+		return BlockSizing.featuresPerBlock(BlockSizing.bytesPerFeature(stub.type, columns));
+	}
 	
 	
 	/*
@@ -1493,31 +1873,50 @@ public class SqliteDataSource extends SqliteDb {
 	 * 
 	 */
 
-	private void createBlockIndexTable() {
-
+	private void saveBlockIndex(BlockIndex blockIndex) {
 		Connection conn = null;
-		PreparedStatement ps = null;
-
 		try {
-			conn = DriverManager.getConnection(connectString);
-
-			ps = conn.prepareStatement(
-					"create table if not exists block_index (" +
-					"tracks_uuid text not null," +
-					"sequences_id integer not null," +
-					"seqId text not null," +
-					"strand text not null," +
-					"start integer not null," +
-					"end integer not null," +
-					"length integer not null," +
-					"table_name text not null," +
-					"first_row_id integer not null," +
-					"last_row_id integer not null);");
-			ps.executeUpdate();
+			conn = getWriteConnection();
+			saveBlockIndex(conn, blockIndex);
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
+		finally {
+			try {
+				if (conn != null)
+					conn.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing connection", e1);
+			}
+		}
+	}
+
+	/**
+	 * Save a block index on the given connection, so the importer can do
+	 * it in the same transaction that writes the track.
+	 */
+	void saveBlockIndex(Connection conn, BlockIndex blockIndex) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement("insert into block_index values (?,?,?,?,?,?,?,?,?,?);");
+			for (BlockKey key: blockIndex.keys()) {
+				ps.setString(1, key.getTrackUuid().toString());
+				ps.setInt(2, key.getSequencesId());
+				ps.setString(3, key.getSeqId());
+				ps.setString(4, key.getStrand().toAbbreviatedString());
+				ps.setInt(5, key.getStart());
+				ps.setInt(6, key.getEnd());
+				ps.setInt(7, key.getLength());
+				ps.setString(8, key.getTable());
+				ps.setLong(9, key.getFirstRowId());
+				ps.setLong(10, key.getLastRowId());
+				ps.addBatch();
+			}
+			if (blockIndex.size() > 0)
+				ps.executeBatch();
+		}
 		finally {
 			try {
 				if (ps != null)
@@ -1526,6 +1925,41 @@ public class SqliteDataSource extends SqliteDb {
 			catch (Exception e1) {
 				log.warn("Error closing prepared statement", e1);
 			}
+		}
+	}
+
+	/**
+	 * Load the metadata of a track. Tracks imported before we kept
+	 * metadata get it worked out here from the block index and the
+	 * track's range and stored for next time.
+	 */
+	public TrackMetadata getOrCreateTrackMetadata(TrackStub stub, BlockIndex index, Attributes attributes) {
+		TrackMetadata metadata = loadTrackMetadata(stub);
+		if (metadata == null) {
+			Range range = stub.type.startsWith("quantitative") ? getRange(stub, attributes) : null;
+			long count = 0;
+			Set<Strand> strands = new LinkedHashSet<Strand>();
+			for (BlockKey key : index.keys()) {
+				count += key.getFeatureCount();
+				strands.add(key.getStrand());
+			}
+			metadata = new TrackMetadata(stub.uuid, range, count, strands.toArray(new Strand[strands.size()]));
+			saveTrackMetadata(metadata);
+			log.info("created metadata for track: " + stub.name + " " + metadata);
+		}
+		return metadata;
+	}
+
+	public TrackMetadata loadTrackMetadata(TrackStub stub) {
+		Connection conn = null;
+		try {
+			conn = getReadConnection();
+			return TrackMetadata.load(conn, stub.uuid);
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
 			try {
 				if (conn != null)
 					conn.close();
@@ -1536,48 +1970,164 @@ public class SqliteDataSource extends SqliteDb {
 		}
 	}
 
-	private void saveBlockIndex(BlockIndex blockIndex) {
-		for (BlockKey key: blockIndex.keys()) {
-			saveBlockIndexEntry(key);
+	private void saveTrackMetadata(TrackMetadata metadata) {
+		Connection conn = null;
+		try {
+			conn = getWriteConnection();
+			metadata.save(conn);
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			try {
+				if (conn != null)
+					conn.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing connection", e1);
+			}
 		}
 	}
 
-	private void saveBlockIndexEntry(BlockKey key) {
+	/**
+	 * Load the summary levels of a quantitative track, building them first
+	 * if the track is big enough to need them and they don't exist yet.
+	 * @return summary levels, finest first, or an empty list for small tracks
+	 */
+	public List<SummaryLevel> getOrCreateSummaryLevels(TrackStub stub, TrackMetadata metadata, boolean positional) {
+		List<SummaryLevel> levels = loadSummaryLevels(stub);
+		if (levels.size() == 0 && metadata.featureCount >= SummaryBuilder.MIN_FEATURES) {
+			Connection conn = null;
+			try {
+				conn = getWriteConnection();
+				beginTransaction(conn);
+				int count = new SummaryBuilder().buildSummaries(conn, stub.uuid, stub.tableName, positional);
+				commitTransaction(conn);
+				if (count > 0)
+					levels = loadSummaryLevels(stub);
+			}
+			catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+			finally {
+				try {
+					if (conn != null)
+						conn.close();
+				}
+				catch (Exception e1) {
+					log.warn("Error closing connection", e1);
+				}
+			}
+		}
+		return levels;
+	}
 
+	public List<SummaryLevel> loadSummaryLevels(TrackStub stub) {
 		Connection conn = null;
 		PreparedStatement ps = null;
+		ResultSet rs = null;
+		List<SummaryLevel> levels = new ArrayList<SummaryLevel>();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
-//			private final UUID trackUuid;
-//			private final String seqId;
-//			private final Strand strand;
-//			private final int start;
-//			private final int end;
-//			private final int length;
-//			private final String table;
-//			private final int firstRowId;
-//			private final int lastRowId;
+			ps = conn.prepareStatement(
+					"select level, bin_size, table_name " +
+					"from summary_levels " +
+					"where tracks_uuid=? " +
+					"order by level;");
+			ps.setString(1, stub.uuid.toString());
 
-			ps = conn.prepareStatement("insert into block_index values (?,?,?,?,?,?,?,?,?,?);");
-			ps.setString(1, key.getTrackUuid().toString());
-			ps.setInt(2, key.getSequencesId());
-			ps.setString(3, key.getSeqId());
-			ps.setString(4, key.getStrand().toAbbreviatedString());
-			ps.setInt(5, key.getStart());
-			ps.setInt(6, key.getEnd());
-			ps.setInt(7, key.getLength());
-			ps.setString(8, key.getTable());
-			ps.setInt(9, key.getFirstRowId());
-			ps.setInt(10, key.getLastRowId());
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				levels.add(new SqliteSummaryLevel(this, rs.getString(3), rs.getInt(1), rs.getInt(2)));
+			}
+			return levels;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing result set", e1);
+			}
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing prepared statement", e1);
+			}
+			try {
+				if (conn != null)
+					conn.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing connection", e1);
+			}
+		}
+	}
 
-			ps.executeUpdate();
+	/**
+	 * Read the summaries at one level that overlap the given filter,
+	 * ordered by strand and position.
+	 */
+	public List<Feature.Summary> loadSummaries(SqliteSummaryLevel level, FeatureFilter filter) {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		List<Feature.Summary> summaries = new ArrayList<Feature.Summary>();
+		String seqId = filter.sequence.getSeqId();
+
+		try {
+			conn = getReadConnection();
+
+			ps = conn.prepareStatement(
+					"select t.strand, t.start, t.end, t.feature_count, t.min_value, t.max_value, t.mean, t.sum_of_squares " +
+					"from " + level.getTable() + " t join sequences s on t.sequences_id=s.id " +
+					"where t.level=? and s.name=? and t.bin between ? and ? " +
+					(filter.strand == Strand.any ? "" : "and t.strand=? ") +
+					"order by t.strand, t.bin;");
+			ps.setInt(1, level.getLevel());
+			ps.setString(2, seqId);
+			// a feature's bin is determined by its center, so
+			// look one bin further out on either side
+			ps.setInt(3, filter.start / level.getBinSize() - 1);
+			ps.setInt(4, filter.end / level.getBinSize() + 1);
+			if (filter.strand != Strand.any)
+				ps.setString(5, filter.strand.toAbbreviatedString());
+
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				summaries.add(new SqliteSummaryLevel.SummaryFeature(
+						seqId,
+						Strand.fromString(rs.getString(1)),
+						rs.getInt(2),
+						rs.getInt(3),
+						rs.getInt(4),
+						rs.getDouble(5),
+						rs.getDouble(6),
+						rs.getDouble(7),
+						rs.getDouble(8)));
+			}
+			return summaries;
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e1) {
+				log.warn("Error closing result set", e1);
+			}
 			try {
 				if (ps != null)
 					ps.close();
@@ -1619,7 +2169,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			DatabaseMetaData dbmd = conn.getMetaData();
 			rs = dbmd.getColumns(null, null, table, "value%");
 			List<String> columns = new ArrayList<String>();
@@ -1710,8 +2260,10 @@ public class SqliteDataSource extends SqliteDb {
 
 	/**
 	 * Get range of a track, first by looking in attributes for
-	 * min.value and max.value. Failing to find those, we find the min
-	 * and max value by querying, which can be slow for large tables.
+	 * min.value and max.value, where older versions stashed it. Failing
+	 * to find those, we find the min and max value by querying, which can
+	 * be slow for large tables. Either way, callers should store the
+	 * result in the track's metadata.
 	 */
 	public Range getRange(TrackStub stub, Attributes attributes) {
 		double min = attributes.getDouble("min.value", Double.NaN);
@@ -1724,8 +2276,6 @@ public class SqliteDataSource extends SqliteDb {
 			else {
 				range = getRange(stub, "value");
 			}
-			writeAttribute(stub.uuid, "min.value", range.min);
-			writeAttribute(stub.uuid, "max.value", range.max);
 		}
 		else {
 			range = new Range(min, max);
@@ -1744,7 +2294,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select min(" + column + "), max(" + column + ") from " + stub.tableName + ";");
 			rs = ps.executeQuery();
@@ -1849,7 +2399,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// get length to alloc arrays
 			ps = conn.prepareStatement("select id, name from sequences where id in (select distinct sequences_id from " + stub.tableName + ");");
@@ -1897,7 +2447,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// get length to alloc arrays
 			ps = conn.prepareStatement("select count(*) from " + table + " where sequences_id=? and strand=?;");
@@ -1943,7 +2493,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// get length to alloc arrays
 			ps = conn.prepareStatement("select count(*) from " + table + " where sequences_id=?;");
@@ -1988,7 +2538,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// get length to alloc arrays
 			ps = conn.prepareStatement("select count(*) from " + table + ";");
@@ -2032,7 +2582,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// get length to alloc arrays
 			ps = conn.prepareStatement("select count(*) from datasets_sequences where datasets_uuid like ?;");
@@ -2091,68 +2641,56 @@ public class SqliteDataSource extends SqliteDb {
 		return total;
 	}
 
-	private List<Strand> getStrandsForTrack(TrackStub stub) {
-		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-
-		try {
-			conn = DriverManager.getConnection(connectString);
-
-			// get length to alloc arrays
-			ps = conn.prepareStatement("select distinct strand from " + stub.tableName + ";");
-			rs = ps.executeQuery();
-			List<Strand> strands = new ArrayList<Strand>();
-			while (rs.next()) {
-				strands.add(Strand.fromString(rs.getString(1)));
-			}
-			return strands;
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
-		}
-		finally {
-			try {
-				if (rs != null)
-					rs.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing result set", e1);
-			}
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing prepared statement", e1);
-			}
-			try {
-				if (conn != null)
-					conn.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing connection", e1);
-			}
+	/**
+	 * A run of consecutive rows of a features table on one sequence and
+	 * strand. Features are written sorted by sequence and strand, so each
+	 * sequence and strand is one run.
+	 */
+	private static class FeatureRun {
+		final int sequencesId;
+		final String seqId;
+		final Strand strand;
+		final long count;
+		final long firstRowId;
+
+		FeatureRun(int sequencesId, String seqId, Strand strand, long count, long firstRowId) {
+			this.sequencesId = sequencesId;
+			this.seqId = seqId;
+			this.strand = strand;
+			this.count = count;
+			this.firstRowId = firstRowId;
 		}
 	}
 
-	private int getFirstRow(String table, int sequencesId, Strand strand) {
+	/**
+	 * Find the runs of features on each sequence and strand of a track
+	 * in one pass over its features table.
+	 */
+	private List<FeatureRun> getFeatureRuns(TrackStub stub) {
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
-			// get length to alloc arrays
-			ps = conn.prepareStatement("select min(rowId) from " + table + " where sequences_id=? and strand=?;");
-			ps.setInt(1, sequencesId);
-			ps.setString(2, strand.toAbbreviatedString());
+			ps = conn.prepareStatement(
+					"select t.sequences_id, s.name, t.strand, count(*), min(t.rowId) " +
+					"from " + stub.tableName + " t join sequences s on t.sequences_id=s.id " +
+					"group by t.sequences_id, t.strand " +
+					"order by t.sequences_id, t.strand;");
 			rs = ps.executeQuery();
-			if (rs.next()) {
-				return rs.getInt(1);
+
+			List<FeatureRun> runs = new ArrayList<FeatureRun>();
+			while (rs.next()) {
+				runs.add(new FeatureRun(
+						rs.getInt(1),
+						rs.getString(2),
+						Strand.fromString(rs.getString(3)),
+						rs.getLong(4),
+						rs.getLong(5)));
 			}
-			throw new RuntimeException(String.format("First row not found for: table=%s, seq=%d, strand=%s", table, sequencesId, strand.toAbbreviatedString()));
+			return runs;
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -2182,13 +2720,13 @@ public class SqliteDataSource extends SqliteDb {
 		}
 	}
 
-	private BlockDimensions getBlockDimensions(TrackStub stub, int firstRowId, int lastRowId) {
+	private BlockDimensions getBlockDimensions(TrackStub stub, long firstRowId, long lastRowId) {
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			
 			//log.info("getting block dimensions: " + stub.name + " -- " + firstRowId + ", " + lastRowId);
 
@@ -2205,8 +2743,8 @@ public class SqliteDataSource extends SqliteDb {
 						" from " + stub.tableName +
 						" where rowId>=? and rowId<=?;");
 			}
-			ps.setInt(1, firstRowId);
-			ps.setInt(2, lastRowId);
+			ps.setLong(1, firstRowId);
+			ps.setLong(2, lastRowId);
 			rs = ps.executeQuery();
 			if (rs.next()) {
 				// BlockDimensions(start, end, length)
@@ -2264,7 +2802,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			s = conn.createStatement();
 			rs = s.executeQuery("select count(*) from " + table + ";");
 			if (rs.next()) {
@@ -2321,23 +2859,32 @@ public class SqliteDataSource extends SqliteDb {
 	// clean block_index: delete from block_index where tracks_uuid not in (select uuid from tracks);
 
 	public boolean deleteTrack(TrackStub stub) {
+		migrateDb();
 		Connection conn = null;
 		Statement s = null;
 		PreparedStatement ps = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			beginTransaction(conn);
 
 			s = conn.createStatement();
-			try {
-				s.executeUpdate("drop table if exists " + stub.tableName + ";");
+			if (GbtFile.isSidecar(stub.tableName)) {
+				// the sidecar file is left where it is
+				GbtFile gbt = sidecars.remove(stub.uuid);
+				if (gbt != null)
+					gbt.close();
 			}
-			catch (SQLException e) {
-				if (e.getMessage().contains("use DROP VIEW to delete view")) {
-					s.executeUpdate("drop view if exists " + stub.tableName + ";");
+			else {
+				try {
+					s.executeUpdate("drop table if exists " + stub.tableName + ";");
 				}
-				else {
-					throw e;
+				catch (SQLException e) {
+					if (e.getMessage().contains("use DROP VIEW to delete view")) {
+						s.executeUpdate("drop view if exists " + stub.tableName + ";");
+					}
+					else {
+						throw e;
+					}
 				}
 			}
 			s.close();
@@ -2352,6 +2899,19 @@ public class SqliteDataSource extends SqliteDb {
 			ps.setString(1, stub.uuid.toString());
 			ps.executeUpdate();
 
+			// delete columnar blocks
+			ps = conn.prepareStatement("delete from block_data where tracks_uuid=?");
+			ps.setString(1, stub.uuid.toString());
+			ps.executeUpdate();
+			columnarTracks.remove(stub.uuid);
+
+			// drop summaries of quantitative tracks
+			if (!GbtFile.isSidecar(stub.tableName))
+				new SummaryBuilder().deleteSummaries(conn, stub.uuid, stub.tableName);
+
+			// delete range, count, and strands
+			TrackMetadata.delete(conn, stub.uuid);
+
 			// delete attributes
 			ps = conn.prepareStatement("delete from attributes where uuid=?");
 			ps.setString(1, stub.uuid.toString());
@@ -2406,7 +2966,10 @@ public class SqliteDataSource extends SqliteDb {
 
 		List<Segment> segments = new ArrayList<Segment>(); 
 		String sql = null;
-		if ("quantitative.segment".equals(stub.type)) {
+		if (GbtFile.isSidecar(stub.tableName)) {
+			return getSidecar(stub).getCoordinateRanges();
+		}
+		else if ("quantitative.segment".equals(stub.type)) {
 			sql = "select s.name, min(t.start), max(t.end) from " + stub.tableName + " t join sequences s on t.sequences_id=s.id group by s.id;";
 		}
 		else if ("quantitative.positional".equals(stub.type)) {
@@ -2421,7 +2984,7 @@ public class SqliteDataSource extends SqliteDb {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			ps = conn.prepareStatement(sql);
 			rs = ps.executeQuery();
 
@@ -2469,7 +3032,7 @@ public class SqliteDataSource extends SqliteDb {
 		log.info(String.format("Creating new dataset \"%s\" in sqlite db \"%s\"", name, connectString));
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			createTables(conn);
 			UUID uuid = UUID.randomUUID();
 
@@ -2515,7 +3078,7 @@ public class SqliteDataSource extends SqliteDb {
 		log.info(String.format("Creating new dataset \"%s\" in sqlite db \"%s\"", name, connectString));
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			createTables(conn);
 			writeDatasetRecord(conn, uuid, name);
 		}
@@ -2559,7 +3122,7 @@ public class SqliteDataSource extends SqliteDb {
 	public void writeAttribute(UUID uuid, String key, Object value) {
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			writeAttribute(conn, uuid, key, value);
 		}
 		catch (SQLException e) {
@@ -2610,7 +3173,7 @@ public class SqliteDataSource extends SqliteDb {
 	public void writeAttributes(UUID uuid, Attributes attributes) {
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			writeAttributes(conn, uuid, attributes);
 		}
 		catch (SQLException e) {
@@ -2674,7 +3237,7 @@ public class SqliteDataSource extends SqliteDb {
 		Connection conn = null;
 		PreparedStatement ps = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			ps = conn.prepareStatement("insert into sequences (uuid, name, length, topology) values(?,?,?,?)");
 			ps.setString(1, seqUuid.toString());
 			ps.setString(2, name);
@@ -2719,7 +3282,7 @@ public class SqliteDataSource extends SqliteDb {
 		PreparedStatement psInsertSeq = null;
 		PreparedStatement psDatasetSeq = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			psInsertSeq = conn.prepareStatement("insert into sequences (uuid, name, length, topology) values(?,?,?,?)");
 			psDatasetSeq = conn.prepareStatement("insert into datasets_sequences values (?,?);");
 
@@ -2795,6 +3358,9 @@ public class SqliteDataSource extends SqliteDb {
 			s.executeBatch();
 
 			commitTransaction(conn);
+
+			// the create script gives us version 1 of the schema
+			new SchemaMigration().migrate(conn);
 		}
 		catch (Exception e) {
 			if (conn != null) {
@@ -2865,7 +3431,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			ps = conn.prepareStatement("select tracks.table_name from tracks where type=?");
 			ps.setString(1, type);
@@ -2934,7 +3500,7 @@ public class SqliteDataSource extends SqliteDb {
 			sql.append(");");
 			log.debug(sql.toString());
 
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			st = conn.createStatement();
 			rs = st.executeQuery(sql.toString());
 			if (rs.next()) {
@@ -2980,7 +3546,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			st = conn.createStatement();
 			rs = st.executeQuery(
 					"select s.name as sequence_name, t.strand, t.start, t.end, t.name " +
@@ -3064,7 +3630,7 @@ public class SqliteDataSource extends SqliteDb {
 			ResultSet rs = null;
 
 			try {
-				conn = DriverManager.getConnection(connectString);
+				conn = ConnectionManager.getInstance(connectString).getReadConnection();
 				ps = conn.prepareStatement(
 						"select s.name as sequence_name, t.strand, t.start, t.end " +
 						"from sequences as s join " + table + " as t on s.id = t.sequences_id " +
@@ -3115,7 +3681,7 @@ public class SqliteDataSource extends SqliteDb {
 	public void createCoordinateMapping(UUID datasetUuid, String name, Iterable<NamedFeature> mappings) {
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 
 			beginTransaction(conn);
 
@@ -3175,7 +3741,7 @@ public class SqliteDataSource extends SqliteDb {
 		List<String> tables = new ArrayList<String>();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			DatabaseMetaData dbmd = conn.getMetaData();
 
 			rs = dbmd.getTables(null, null, "map_%", null);
@@ -3319,7 +3885,7 @@ public class SqliteDataSource extends SqliteDb {
 		Statement s = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 			s = conn.createStatement();
 			s.execute("drop table if exists " + table + ";");
 		}
@@ -3354,7 +3920,7 @@ public class SqliteDataSource extends SqliteDb {
 		List<String> names = new ArrayList<String>();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 
 			// check if there is a bookmarks table
 			DatabaseMetaData dbmd = conn.getMetaData();
@@ -3404,7 +3970,7 @@ public class SqliteDataSource extends SqliteDb {
 		List<Bookmark> bookmarks = new ArrayList<Bookmark>();
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			
 			ps = conn.prepareStatement("select s.name, b.strand, b.start, b.end, " +
 					"b.name, b.annotation from bookmarks b join sequences s " +
@@ -3460,7 +4026,7 @@ public class SqliteDataSource extends SqliteDb {
 		ResultSet rs = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getReadConnection();
 			
 			if (tableExists(conn, "bookmarks")) {
 				ps = conn.prepareStatement("select count(*) from bookmarks where collectionName = ?;");
@@ -3509,7 +4075,7 @@ public class SqliteDataSource extends SqliteDb {
 		log.info("storing bookmarks " + bookmarks.getName() + " in dataset " + datasetUuid);
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 
 			Map<String, Integer> sequenceMap = loadSequenceMap(conn, datasetUuid);
 
@@ -3574,7 +4140,7 @@ public class SqliteDataSource extends SqliteDb {
 		log.info("storing bookmarks " + collectionName + " in dataset " + datasetUuid);
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = getWriteConnection();
 
 			// no bookmarks, guess we're all done
 			if (!tableExists(conn, "bookmarks")) {
@@ -70,7 +70,7 @@ public abstract class SqliteDb {
 		ResultSet rs = null;
 		try {
 			DatabaseMetaData dbmd = conn.getMetaData();
-			rs = dbmd.getTables(null, null, "name", null);
+			rs = dbmd.getTables(null, null, name, null);
 			// return true if table exists
 			return rs.next();
 		}
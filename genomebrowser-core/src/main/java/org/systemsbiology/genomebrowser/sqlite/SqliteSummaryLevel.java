@@ -0,0 +1,150 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.systemsbiology.genomebrowser.model.AsyncFeatureCallback;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
+import org.systemsbiology.util.Iteratable;
+import org.systemsbiology.util.IteratableWrapper;
+import org.systemsbiology.util.MathUtils;
+
+
+/**
+ * A level of summaries of a quantitative track, read from the track's
+ * summaries table.
+ * @see SummaryBuilder
+ */
+public class SqliteSummaryLevel implements SummaryLevel {
+	private final SqliteDataSource dataSource;
+	private final String table;
+	private final int level;
+	private final int binSize;
+
+
+	public SqliteSummaryLevel(SqliteDataSource dataSource, String table, int level, int binSize) {
+		this.dataSource = dataSource;
+		this.table = table;
+		this.level = level;
+		this.binSize = binSize;
+	}
+
+	public int getBinSize() {
+		return binSize;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public Iteratable<Feature.Summary> features(FeatureFilter filter) {
+		return new IteratableWrapper<Feature.Summary>(dataSource.loadSummaries(this, filter).iterator());
+	}
+
+	public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback) {
+		Strand[] strands = (filter.strand == Strand.any) ? Strand.all : new Strand[] { filter.strand };
+		List<Feature.Summary> summaries = dataSource.loadSummaries(this, filter);
+		for (Strand strand : strands) {
+			List<Feature.Summary> stranded = new ArrayList<Feature.Summary>();
+			for (Feature.Summary summary : summaries) {
+				if (summary.getStrand() == strand)
+					stranded.add(summary);
+			}
+			if (stranded.size() > 0)
+				callback.consumeFeatures(new IteratableWrapper<Feature.Summary>(stranded.iterator()), new FeatureFilter(filter.sequence, strand, filter.start, filter.end));
+		}
+	}
+
+	public String toString() {
+		return String.format("(SummaryLevel %s level=%d, binSize=%,d)", table, level, binSize);
+	}
+
+	/**
+	 * @return the coarsest level whose bins are no wider than basesPerBin,
+	 * or null if there's no such level.
+	 */
+	public static SummaryLevel select(List<? extends SummaryLevel> levels, double basesPerBin) {
+		SummaryLevel best = null;
+		for (SummaryLevel level : levels) {
+			if (level.getBinSize() <= basesPerBin && (best == null || level.getBinSize() > best.getBinSize()))
+				best = level;
+		}
+		return best;
+	}
+
+
+	static class SummaryFeature implements Feature.Summary {
+		final String seqId;
+		final Strand strand;
+		final int start;
+		final int end;
+		final int count;
+		final double min;
+		final double max;
+		final double mean;
+		final double sumOfSquares;
+
+		SummaryFeature(String seqId, Strand strand, int start, int end, int count, double min, double max, double mean, double sumOfSquares) {
+			this.seqId = seqId;
+			this.strand = strand;
+			this.start = start;
+			this.end = end;
+			this.count = count;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.sumOfSquares = sumOfSquares;
+		}
+
+		public String getSeqId() {
+			return seqId;
+		}
+
+		public Strand getStrand() {
+			return strand;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		public int getCentralPosition() {
+			return MathUtils.average(start, end);
+		}
+
+		public String getLabel() {
+			return String.valueOf(mean);
+		}
+
+		public double getValue() {
+			return mean;
+		}
+
+		public double getMin() {
+			return min;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public double getSumOfSquares() {
+			return sumOfSquares;
+		}
+	}
+}
@@ -2,7 +2,10 @@ package org.systemsbiology.genomebrowser.sqlite;
 
 import java.awt.Color;
 import java.io.File;
+import java.io.IOException;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
@@ -30,9 +33,21 @@ import org.systemsbiology.util.ProgressListenerWrapper;
 public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 	private static final Logger log = Logger.getLogger(SqliteTrackImporter.class);
 	private static final Pattern namePattern = Pattern.compile("(.*?)(?:_(\\d+))?");
+	public static final String BATCH_SIZE_PROPERTY = "genomebrowser.import.batch.size";
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final String SORT_BUFFER_PROPERTY = "genomebrowser.import.sort.rows";
+	public static final int DEFAULT_SORT_BUFFER_ROWS = 500000;
+	private static final int OTHER_DATASET = -1;
 	private String connectString;
 	private ProgressListenerSupport progressListeners = new ProgressListenerSupport();
 	private SqliteDataSource dataSource;
+	private BlockColumns.Encoding columnarEncoding;
+	private int batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+	private boolean bulkLoad = true;
+	private int cacheSize = ImportPragmas.DEFAULT_CACHE_SIZE;
+	private int sortBufferRows = Integer.getInteger(SORT_BUFFER_PROPERTY, DEFAULT_SORT_BUFFER_ROWS);
+	private File tempDir;
+	private long firstRowId = 1;
 
 
 	public SqliteTrackImporter(File file) {
@@ -59,6 +74,76 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		});
 	}
 
+	/**
+	 * Have quantitative tracks imported from now on also store each block
+	 * in columnar form in the block_data table, with values encoded as
+	 * given, or pass null to store only rows, which is the default.
+	 */
+	public void setColumnarEncoding(BlockColumns.Encoding encoding) {
+		this.columnarEncoding = encoding;
+	}
+
+	public BlockColumns.Encoding getColumnarEncoding() {
+		return columnarEncoding;
+	}
+
+	/**
+	 * Send features to sqlite in batches of the given size. A batch size
+	 * of 1 inserts one row at a time. The default comes from the system
+	 * property genomebrowser.import.batch.size.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Relax sqlite's journaling and syncing while importing a track, and
+	 * keep temp tables in memory, which is the default. See ImportPragmas
+	 * for what that risks.
+	 */
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
+
+	/**
+	 * @param cacheSize pages of sqlite cache to use while bulk loading
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Sort up to the given number of features in memory, spilling sorted
+	 * runs to temp files past that. The default comes from the system
+	 * property genomebrowser.import.sort.rows.
+	 */
+	public void setSortBufferRows(int rows) {
+		this.sortBufferRows = rows;
+	}
+
+	/**
+	 * @param tempDir where to put spill files, or null for the default temp directory
+	 */
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Number the rows of tracks imported from now on from the given rowId
+	 * rather than 1. For testing rowIds past the range of an int.
+	 */
+	void setFirstRowId(long firstRowId) {
+		this.firstRowId = firstRowId;
+	}
+
 	public static String getConnectStringForFile(String filename) {
 		if (StringUtils.isNullOrEmpty(filename))
 			throw new RuntimeException("Can't pass an empty filename to getConnectStringForFile(filename).");
@@ -68,17 +153,156 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 
 
 	// The general procedure (steps) for importing track data is:
-	// 1. create temp table
-	// 2. read features from source into temp table
-	// 3. resolve sequence names to entries in the sequences table??
-	// 4. select features into track table ordering by sequence, strand, start, end
-	// 5. create entry in tracks table
+	// 1. create the features table and an entry in the tracks table
+	// 2. read features from source, resolving sequence names to ids
+	// 3. sort features by sequence, strand, start, end, spilling to disk if there are lots
+	// 4. append features to the features table in order, working out the block index as we go
+	// 5. save the block index and metadata gathered while appending, and build summaries
+
+	/**
+	 * Reads features from a FeatureSource, resolves their sequence names
+	 * to ids and hands them to a FeatureSorter. Features on sequences of
+	 * other datasets are dropped; names that aren't any sequence's are
+	 * collected in unknownSequences. Subclasses copy the fields of their
+	 * type of track into a FeatureRow.
+	 */
+	abstract class SortingFeatureProcessor implements FeatureProcessor {
+		final Map<String, Integer> sequenceIds;
+		final FeatureSorter sorter = new FeatureSorter(sortBufferRows, tempDir);
+		final Set<String> unknownSequences = new TreeSet<String>();
+		private final Map<String, String> strands = new HashMap<String, String>();
+		int count;
+
+		SortingFeatureProcessor(Map<String, Integer> sequenceIds) {
+			this.sequenceIds = sequenceIds;
+		}
+
+		protected abstract void copy(FeatureFields fields, FeatureRow row);
+
+		public void process(FeatureFields fields) throws IOException {
+			Integer id = sequenceIds.get(fields.getSequenceName());
+			if (id == null) {
+				unknownSequences.add(fields.getSequenceName());
+				return;
+			}
+			count++;
+			if (id == OTHER_DATASET)
+				return;
+			if (fields.getStrand() == null)
+				throw new RuntimeException("Missing strand for feature: " + fields);
+
+			FeatureRow row = new FeatureRow();
+			row.sequencesId = id;
+			// share strand strings among rows rather than keep one per line read
+			row.strand = strands.get(fields.getStrand());
+			if (row.strand == null) {
+				row.strand = fields.getStrand();
+				strands.put(row.strand, row.strand);
+			}
+			copy(fields, row);
+			sorter.add(row);
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void cleanup() {
+			sorter.cleanup();
+		}
+	}
+
+	/**
+	 * Read features from the source, sort them and append them to the
+	 * features table through the given writer.
+	 */
+	private void importFeatures(FeatureSource featureSource, SortingFeatureProcessor fp, FeatureTableWriter writer, String table) throws Exception {
+		try {
+			writer.setFirstRowId(firstRowId);
+			progressListeners.fireMessageEvent("reading features");
+			featureSource.processFeatures(fp);
+			if (fp.unknownSequences.size() > 0)
+				throw new RuntimeException("Unknown sequences: " + fp.unknownSequences);
+			log.info("read " + fp.getCount() + " feature" + (fp.getCount()==1 ? "" : "s") +
+					(fp.sorter.getSpillCount() > 0 ? ", spilled to " + fp.sorter.getSpillCount() + " files" : ""));
+			progressListeners.fireProgressEvent(60);
+
+			progressListeners.fireMessageEvent("writing features into " + table);
+			long total = Math.max(1, fp.sorter.getCount());
+			for (FeatureRow row : fp.sorter) {
+				writer.write(row);
+				if (writer.getCount() % 100000 == 0)
+					progressListeners.fireProgressEvent(60 + (int)(30 * writer.getCount() / total));
+			}
+			writer.finish();
+		}
+		finally {
+			fp.cleanup();
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return ids of sequences by name. Names of sequences belonging only to
+	 * other datasets map to OTHER_DATASET.
+	 */
+	private Map<String, Integer> loadSequenceIds(Connection conn, UUID datasetUuid) throws SQLException {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = conn.prepareStatement(
+					"select s.name, s.id, s.uuid in " +
+					"  (select sequences_uuid " +
+					"   from datasets_sequences " +
+					"   where datasets_uuid=?) " +
+					"from sequences as s;");
+			ps.setString(1, datasetUuid.toString());
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				if (rs.getBoolean(3))
+					ids.put(rs.getString(1), rs.getInt(2));
+				else if (!ids.containsKey(rs.getString(1)))
+					ids.put(rs.getString(1), OTHER_DATASET);
+			}
+			return ids;
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	private static Map<Integer, String> sequenceNames(Map<String, Integer> sequenceIds) {
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		for (Map.Entry<String, Integer> entry : sequenceIds.entrySet())
+			names.put(entry.getValue(), entry.getKey());
+		return names;
+	}
+
+	/**
+	 * @return rows per block, the same as SqliteDataSource.getBlockSize()
+	 */
+	private static int blockSize(String type, int columns) {
+		return BlockSizing.featuresPerBlock(BlockSizing.bytesPerFeature(type, columns));
+	}
 
 	/**
 	 * Accepts a name, dataset uuid, and a source of features and creates a
 	 * quantitative segment track. The features do not need to be in any particular
-	 * order as they will be loaded into a temp table and sorted on their way
-	 * into the database.
+	 * order as they will be sorted on their way into the database.
 	 * @param name the name of the new track
 	 * @param datasetUuid uuid of dataset to which this track will belong
 	 * @param featureSource source of features
@@ -91,49 +315,53 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		log.info("importing track: " + name + " to db " + connectString);
 
 		Connection conn = null;
+		ImportPragmas pragmas = null;
+		UUID trackUuid;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
+			new SchemaMigration().migrate(conn);
 			
+			if (bulkLoad)
+				pragmas = ImportPragmas.apply(conn, cacheSize);
 			beginTransaction(conn);
 
 			//name = uniquifyTrackName(conn, name);
 			String table = uniquifyTableName(conn, toFeaturesTableName(name));
 			progressListeners.fireProgressEvent(5);
 
-			progressListeners.fireMessageEvent("creating temp table");
-			createQuantitativeSegmentTempTable(conn);
+			progressListeners.fireMessageEvent("creating table " + table);
+			createQuantitativeSegmentFeaturesTable(conn, table);
+
+			progressListeners.fireMessageEvent("creating track record and linking to dataset");
+			trackUuid = createNewTrackEntry(conn, name, "quantitative.segment", table);
+			assignTracksToDataset(conn, datasetUuid, trackUuid);
 			progressListeners.fireProgressEvent(10);
 
 			// set up wrapper progress listener for scale and forward progress events
 			ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListeners);
-			plw.scaleProgressToFit(10, 70);
+			plw.scaleProgressToFit(10, 60);
 			featureSource.addProgressListener(plw);
 
-			progressListeners.fireMessageEvent("reading features");
-			importQuantitativeSegmentFeatures(conn, featureSource);
-			progressListeners.fireProgressEvent(70);
-
-			progressListeners.fireMessageEvent("creating table " + table);
-			createQuantitativeSegmentFeaturesTable(conn, table);
-			progressListeners.fireProgressEvent(75);
-
-			progressListeners.fireMessageEvent("copying features into " + table);
-			copyQuantitativeSegmentFeaturesIntoFeaturesTable(conn, table, datasetUuid);
+			Map<String, Integer> sequenceIds = loadSequenceIds(conn, datasetUuid);
+			FeatureTableWriter writer = newQuantitativeSegmentWriter(conn, trackUuid, table, sequenceIds);
+			importFeatures(featureSource, new QuantitativeSegmentFeatureProcessor(sequenceIds), writer, table);
+			dataSource.saveBlockIndex(conn, writer.getBlockIndex());
 			progressListeners.fireProgressEvent(90);
 
-			progressListeners.fireMessageEvent("creating track record and linking to dataset");
-			UUID trackUuid = createNewTrackEntry(conn, name, "quantitative.segment", table);
-			assignTracksToDataset(conn, datasetUuid, trackUuid);
+			TrackMetadata metadata = writer.getMetadata();
+			metadata.save(conn);
+			progressListeners.fireProgressEvent(95);
+
+			progressListeners.fireMessageEvent("building summaries of " + table);
+			new SummaryBuilder().buildSummaries(conn, trackUuid, table, false, writer.getBaseBinSize());
 			progressListeners.fireProgressEvent(100);
 			
 			commitTransaction(conn);
 
-			int count = getFeatureCount(trackUuid);
+			long count = metadata.featureCount;
 			String msg = String.format("finished importing track: %s (%,d features)", name, count);
 			progressListeners.fireMessageEvent(msg);
 			log.info(msg);
-
-			return trackUuid;
 		}
 		catch (Exception e) {
 			if (conn != null) {
@@ -147,6 +375,8 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 			throw new RuntimeException(e);
 		}
 		finally {
+			if (pragmas != null)
+				pragmas.restore(conn);
 			try {
 				if (conn != null)
 					conn.close();
@@ -155,28 +385,13 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 				log.warn("Error closing connection", e1);
 			}
 		}
-	}
 
-	public void createQuantitativeSegmentTempTable(Connection conn) throws SQLException {
-		Statement statement = null;
-		try {
-			statement = conn.createStatement();
-			statement.execute("create temp table temp (" +
-					"sequences_name text NOT NULL," +
-					"strand text NOT NULL," +
-					"start integer NOT NULL," +
-					"end integer NOT NULL," +
-					"value numeric);");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e) {
-				log.error("Exception while closing statement in createQuantitativeSegmentTempTable(...)", e);
-			}
-		}
+		// the track is committed by now, so failing to write its blocks
+		// shouldn't roll it back
+		if (columnarEncoding != null)
+			writeBlocks(trackUuid);
+
+		return trackUuid;
 	}
 
 	public void createQuantitativeSegmentFeaturesTable(Connection conn, String table) throws SQLException {
@@ -201,138 +416,29 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	/**
-	 * read quantitative segment features into the temp table associated with the given connection.
-	 * Quantitative segment features have a start, end, and a floating point value.
-	 * 
-	 * NOTE: the down-side of this approach is that when we're done, we need a way to tell the
-	 * featureSource to do any necessary cleanup (closing files, or whatever).
-	 */
-	public void importQuantitativeSegmentFeatures(Connection conn, Iterable<Feature.Quantitative> featureSource) {
-		PreparedStatement ps = null;
-
-		try {
-			// fields: sequences_name, strand, start, end, value
-			// we'll have to resolve sequences later
-			ps = conn.prepareStatement("insert into temp values (?,?,?,?,?);");
-
-			for (Feature.Quantitative feature : featureSource) {
-				ps.setString(1, feature.getSeqId());
-				ps.setString(2, feature.getStrand().toAbbreviatedString());
-				ps.setInt(3, feature.getStart());
-				ps.setInt(4, feature.getEnd());
-				ps.setDouble(5, feature.getValue());
-				ps.executeUpdate();
-			}
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
-		}
-		finally {
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing prepared statement", e);
-			}
-		}
-	}
-
-	public void importQuantitativeSegmentFeatures(FeatureSource featureSource) throws Exception {
-		Connection conn = null;
-		try {
-			conn = DriverManager.getConnection(connectString);
-			importQuantitativeSegmentFeatures(conn, featureSource);
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
-		}
-		finally {
-			try {
-				if (conn != null)
-					conn.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing connection", e1);
-			}
+	class QuantitativeSegmentFeatureProcessor extends SortingFeatureProcessor {
+		public QuantitativeSegmentFeatureProcessor(Map<String, Integer> sequenceIds) {
+			super(sequenceIds);
 		}
-	}
 
-	public void importQuantitativeSegmentFeatures(Connection conn, FeatureSource featureSource) throws Exception {
-		FeatureProcessor fp = new QuantitativeSegmentFeatureProcessor(conn);
-		featureSource.processFeatures(fp);
-		log.info("imported " + fp.getCount() + " feature" + (fp.getCount()==1 ? "" : "s") + " into temp table.");
-		fp.cleanup();
-	}
-
-	class QuantitativeSegmentFeatureProcessor implements FeatureProcessor {
-		PreparedStatement ps;
-		Connection conn;
-		int count;
-
-		public QuantitativeSegmentFeatureProcessor(Connection conn) throws SQLException {
-			this.conn = conn;
-
-			// fields: sequences_name, strand, start, end, value
-			// we'll have to resolve sequence ids later
-			ps = conn.prepareStatement("insert into temp values (?,?,?,?,?);");
-		}
-
-		public void process(FeatureFields fields) throws SQLException {
-			ps.setString(1, fields.getSequenceName());
-			ps.setString(2, fields.getStrand());
-			ps.setInt(3, fields.getStart());
-			ps.setInt(4, fields.getEnd());
-			ps.setDouble(5, fields.getValue());
-			ps.executeUpdate();
-			count++;
-		}
-
-		public int getCount() {
-			return count;
-		}
-
-		public void cleanup() {
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing statement in QuantitativeSegmentFeatureProcessor.cleanup(...)", e);
-			}
+		protected void copy(FeatureFields fields, FeatureRow row) {
+			row.start = fields.getStart();
+			row.end = fields.getEnd();
+			row.value = fields.getValue();
 		}
 	}
 
-	public void copyQuantitativeSegmentFeaturesIntoFeaturesTable(Connection conn, String table, UUID datasetUuid) throws SQLException {
-		Statement statement = null;
-		
-		// TODO should limit to sequences in the current dataset
-
-		try {
-			statement = conn.createStatement();
-			Set<String> unknownSequences = checkSequenceNames(conn);
-			if (unknownSequences.size() > 0)
-				throw new RuntimeException("Unknown sequences: " + unknownSequences);
-			statement.execute("insert into " + table + " " +
-					"select s.id, t.strand, t.start, t.end, t.value " +
-					"from temp as t " +
-					"join sequences as s on s.name = t.sequences_name " +
-					"where s.uuid in " +
-					"  (select sequences_uuid " +
-					"   from datasets_sequences " +
-					"   where datasets_uuid='" + datasetUuid.toString() + "') " +
-					"order by s.id, t.strand, t.start, t.end;");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing statement", e1);
-			}
-		}
+	private FeatureTableWriter newQuantitativeSegmentWriter(Connection conn, UUID trackUuid, String table, Map<String, Integer> sequenceIds) throws SQLException {
+		return new FeatureTableWriter(conn, "insert into " + table + " values (?,?,?,?,?);", batchSize,
+				trackUuid, table, blockSize("quantitative.segment", 1), sequenceNames(sequenceIds)) {
+			protected void bind(PreparedStatement ps, FeatureRow row) throws SQLException {
+				ps.setInt(1, row.sequencesId);
+				ps.setString(2, row.strand);
+				ps.setInt(3, row.start);
+				ps.setInt(4, row.end);
+				ps.setDouble(5, row.value);
+			}
+		};
 	}
 
 
@@ -346,49 +452,53 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		log.info("importing track: " + name + " to db " + connectString);
 
 		Connection conn = null;
+		ImportPragmas pragmas = null;
+		UUID trackUuid;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
+			new SchemaMigration().migrate(conn);
 			
+			if (bulkLoad)
+				pragmas = ImportPragmas.apply(conn, cacheSize);
 			beginTransaction(conn);
 
 			//name = uniquifyTrackName(conn, name);
 			String table = uniquifyTableName(conn, toFeaturesTableName(name));
 			progressListeners.fireProgressEvent(5);
 
-			progressListeners.fireMessageEvent("creating temp table");
-			createQuantitativePositionalTempTable(conn);
+			progressListeners.fireMessageEvent("creating table " + table);
+			createQuantitativePositionalFeaturesTable(conn, table);
+
+			progressListeners.fireMessageEvent("creating track record and linking to dataset");
+			trackUuid = createNewTrackEntry(conn, name, "quantitative.positional", table);
+			assignTracksToDataset(conn, datasetUuid, trackUuid);
 			progressListeners.fireProgressEvent(10);
 
 			// set up wrapper progress listener for scale and forward progress events
 			ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListeners);
-			plw.scaleProgressToFit(10, 70);
+			plw.scaleProgressToFit(10, 60);
 			featureSource.addProgressListener(plw);
 
-			progressListeners.fireMessageEvent("reading features");
-			importQuantitativePositionalFeatures(conn, featureSource);
-			progressListeners.fireProgressEvent(70);
-
-			progressListeners.fireMessageEvent("creating table " + table);
-			createQuantitativePositionalFeaturesTable(conn, table);
-			progressListeners.fireProgressEvent(75);
-
-			progressListeners.fireMessageEvent("copying features into " + table);
-			copyQuantitativePositionalFeaturesIntoFeaturesTable(conn, table, datasetUuid);
+			Map<String, Integer> sequenceIds = loadSequenceIds(conn, datasetUuid);
+			FeatureTableWriter writer = newQuantitativePositionalWriter(conn, trackUuid, table, sequenceIds);
+			importFeatures(featureSource, new QuantitativePositionalFeatureProcessor(sequenceIds), writer, table);
+			dataSource.saveBlockIndex(conn, writer.getBlockIndex());
 			progressListeners.fireProgressEvent(90);
 
-			progressListeners.fireMessageEvent("creating track record and linking to dataset");
-			UUID trackUuid = createNewTrackEntry(conn, name, "quantitative.positional", table);
-			assignTracksToDataset(conn, datasetUuid, trackUuid);
+			TrackMetadata metadata = writer.getMetadata();
+			metadata.save(conn);
+			progressListeners.fireProgressEvent(95);
+
+			progressListeners.fireMessageEvent("building summaries of " + table);
+			new SummaryBuilder().buildSummaries(conn, trackUuid, table, true, writer.getBaseBinSize());
 			progressListeners.fireProgressEvent(100);
 			
 			commitTransaction(conn);
 
-			int count = getFeatureCount(trackUuid);
+			long count = metadata.featureCount;
 			String msg = String.format("finished importing track: %s (%,d features)", name, count);
 			progressListeners.fireMessageEvent(msg);
 			log.info(msg);
-
-			return trackUuid;
 		}
 		catch (Exception e) {
 			if (conn != null) {
@@ -402,6 +512,8 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 			throw new RuntimeException(e);
 		}
 		finally {
+			if (pragmas != null)
+				pragmas.restore(conn);
 			try {
 				if (conn != null)
 					conn.close();
@@ -410,27 +522,13 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 				log.warn("Error closing connection", e1);
 			}
 		}
-	}
 
-	public void createQuantitativePositionalTempTable(Connection conn) throws SQLException {
-		Statement statement = null;
-		try {
-			statement = conn.createStatement();
-			statement.execute("create temp table temp (" +
-					"sequences_name text NOT NULL," +
-					"strand text NOT NULL," +
-					"position integer NOT NULL," +
-					"value numeric);");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e) {
-				log.error("Exception while closing statement in createQuantitativePositionalTempTable(...)", e);
-			}
-		}
+		// the track is committed by now, so failing to write its blocks
+		// shouldn't roll it back
+		if (columnarEncoding != null)
+			writeBlocks(trackUuid);
+
+		return trackUuid;
 	}
 
 	public void createQuantitativePositionalFeaturesTable(Connection conn, String table) throws SQLException {
@@ -454,102 +552,31 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	public void importQuantitativePositionalFeatures(FeatureSource featureSource) throws Exception {
-		Connection conn = null;
-		try {
-			conn = DriverManager.getConnection(connectString);
-			importQuantitativePositionalFeatures(conn, featureSource);
-		}
-		catch (SQLException e) {
-			throw new RuntimeException(e);
-		}
-		finally {
-			try {
-				if (conn != null)
-					conn.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing connection", e1);
-			}
-		}
-	}
-
-	public void importQuantitativePositionalFeatures(Connection conn, FeatureSource featureSource) throws Exception {
-		FeatureProcessor fp = new QuantitativePositionalFeatureProcessor(conn);
-		featureSource.processFeatures(fp);
-		log.info("imported " + fp.getCount() + " feature" + (fp.getCount()==1 ? "" : "s") + " into temp table.");
-		fp.cleanup();
-	}
-
-	class QuantitativePositionalFeatureProcessor implements FeatureProcessor {
-		PreparedStatement ps;
-		Connection conn;
-		int count;
-
-		public QuantitativePositionalFeatureProcessor(Connection conn) throws SQLException {
-			this.conn = conn;
-
-			// fields: sequences_name, strand, position, value
-			// we'll have to resolve sequence ids later
-			ps = conn.prepareStatement("insert into temp values (?,?,?,?);");
+	class QuantitativePositionalFeatureProcessor extends SortingFeatureProcessor {
+		public QuantitativePositionalFeatureProcessor(Map<String, Integer> sequenceIds) {
+			super(sequenceIds);
 		}
 
 		// is averaging start and end the best thing to do here? Or should we
 		// just use start as position?
 
-		public void process(FeatureFields fields) throws SQLException {
-			ps.setString(1, fields.getSequenceName());
-			ps.setString(2, fields.getStrand());
-			ps.setInt(3, fields.getPosition());
-			ps.setDouble(4, fields.getValue());
-			ps.executeUpdate();
-			count++;
-		}
-
-		public int getCount() {
-			return count;
-		}
-
-		public void cleanup() {
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing statement in QuantitativePositionalFeatureProcessor.cleanup(...)", e);
-			}
+		protected void copy(FeatureFields fields, FeatureRow row) {
+			row.start = fields.getPosition();
+			row.end = row.start;
+			row.value = fields.getValue();
 		}
 	}
 
-	public void copyQuantitativePositionalFeaturesIntoFeaturesTable(Connection conn, String table, UUID datasetUuid) throws SQLException {
-		Statement statement = null;
-
-		// TODO should limit to sequences in the current dataset
-
-		try {
-			statement = conn.createStatement();
-			Set<String> unknownSequences = checkSequenceNames(conn);
-			if (unknownSequences.size() > 0)
-				throw new RuntimeException("Unknown sequences: " + unknownSequences);
-			statement.execute("insert into " + table + " " +
-					"select s.id, t.strand, t.position, t.value " +
-					"from temp as t " +
-					"join sequences as s on s.name = t.sequences_name " +
-					"where s.uuid in " +
-					"  (select sequences_uuid " +
-					"   from datasets_sequences " +
-					"   where datasets_uuid='" + datasetUuid.toString() + "') " +
-					"order by s.id, t.strand, t.position;");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing statement", e1);
+	private FeatureTableWriter newQuantitativePositionalWriter(Connection conn, UUID trackUuid, String table, Map<String, Integer> sequenceIds) throws SQLException {
+		return new FeatureTableWriter(conn, "insert into " + table + " values (?,?,?,?);", batchSize,
+				trackUuid, table, blockSize("quantitative.positional", 1), sequenceNames(sequenceIds)) {
+			protected void bind(PreparedStatement ps, FeatureRow row) throws SQLException {
+				ps.setInt(1, row.sequencesId);
+				ps.setString(2, row.strand);
+				ps.setInt(3, row.start);
+				ps.setDouble(4, row.value);
 			}
-		}
+		};
 	}
 
 
@@ -563,44 +590,39 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		log.info("importing track: " + name + " to db " + connectString);
 
 		Connection conn = null;
+		ImportPragmas pragmas = null;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
 			
+			if (bulkLoad)
+				pragmas = ImportPragmas.apply(conn, cacheSize);
 			beginTransaction(conn);
 
 			//name = uniquifyTrackName(conn, name);
 			String table = uniquifyTableName(conn, toFeaturesTableName(name));
 			progressListeners.fireProgressEvent(5);
 
-			progressListeners.fireMessageEvent("creating temp table");
-			createGeneTempTable(conn);
-			progressListeners.fireProgressEvent(10);
-
-			// set up wrapper progress listener for scale and forward progress events
-			ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListeners);
-			plw.scaleProgressToFit(10, 70);
-			featureSource.addProgressListener(plw);
-
-			progressListeners.fireMessageEvent("reading features");
-			importGeneFeatures(conn, featureSource);
-			progressListeners.fireProgressEvent(70);
-
 			progressListeners.fireMessageEvent("creating table " + table);
 			createGeneFeaturesTable(conn, table);
-			progressListeners.fireProgressEvent(75);
-
-			progressListeners.fireMessageEvent("copying features into " + table);
-			copyGeneFeaturesIntoFeaturesTable(conn, table, datasetUuid);
-			progressListeners.fireProgressEvent(90);
 
 			progressListeners.fireMessageEvent("creating track record and linking to dataset");
 			UUID trackUuid = createNewTrackEntry(conn, name, "gene", table);
 			assignTracksToDataset(conn, datasetUuid, trackUuid);
+			progressListeners.fireProgressEvent(10);
+
+			// set up wrapper progress listener for scale and forward progress events
+			ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListeners);
+			plw.scaleProgressToFit(10, 60);
+			featureSource.addProgressListener(plw);
+
+			Map<String, Integer> sequenceIds = loadSequenceIds(conn, datasetUuid);
+			FeatureTableWriter writer = newGeneWriter(conn, trackUuid, table, sequenceIds);
+			importFeatures(featureSource, new GeneFeatureProcessor(sequenceIds), writer, table);
 			progressListeners.fireProgressEvent(100);
 			
 			commitTransaction(conn);
 
-			int count = getFeatureCount(trackUuid);
+			long count = writer.getCount();
 			String msg = String.format("finished importing track: %s (%,d features)", name, count);
 			progressListeners.fireMessageEvent(msg);
 			log.info(msg);
@@ -622,6 +644,8 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 				throw new RuntimeException(e);
 		}
 		finally {
+			if (pragmas != null)
+				pragmas.restore(conn);
 			try {
 				if (conn != null)
 					conn.close();
@@ -632,31 +656,6 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	// TODO avoid NOT NULLs in temp table?
-	public void createGeneTempTable(Connection conn) throws SQLException {
-		Statement statement = null;
-		try {
-			statement = conn.createStatement();
-			statement.execute("create temp table temp (" +
-					"sequences_name text NOT NULL, " +
-					"strand text NOT NULL, " +
-					"start integer NOT NULL, " +
-					"end integer NOT NULL, " +
-					"name text NOT NULL, " +
-					"common_name text, " +
-					"gene_type text);");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e) {
-				log.error("Exception while closing statement in createQuantitativeSegmentTempTable(...)", e);
-			}
-		}
-	}
-
 	public void createGeneFeaturesTable(Connection conn, String table) throws SQLException {
 		Statement statement = null;
 		try {
@@ -681,93 +680,39 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	public void importGeneFeatures(Connection conn, FeatureSource featureSource) throws Exception {
-		FeatureProcessor fp = new GeneFeatureProcessor(conn);
-		featureSource.processFeatures(fp);
-		log.info("imported " + fp.getCount() + " gene feature" + (fp.getCount()==1 ? "" : "s") + " into temp table.");
-		fp.cleanup();
-	}
-
-	class GeneFeatureProcessor implements FeatureProcessor {
-		PreparedStatement ps;
-		Connection conn;
-		int count;
-
-		public GeneFeatureProcessor(Connection conn) throws SQLException {
-			this.conn = conn;
-
-			// fields: sequences_name, strand, start, end, name, common_name, gene_type
-			// we'll have to resolve sequence ids later
-			ps = conn.prepareStatement("insert into temp values (?,?,?,?,?,?,?);");
-		}
-
-		public void process(FeatureFields fields) throws SQLException {
-			try {
-				ps.setString(1, fields.getSequenceName());
-				ps.setString(2, fields.getStrand());
-				ps.setInt(3, fields.getStart());
-				ps.setInt(4, fields.getEnd());
-				ps.setString(5, fields.getName());
-				ps.setString(6, fields.getCommonName());
-				ps.setString(7, fields.getGeneType());
-				ps.executeUpdate();
-				count++;
-			}
-			catch (SQLException e) {
-				log.warn("Error importing feature: " + fields);
-				throw e;
-			}
-		}
-
-		public int getCount() {
-			return count;
+	class GeneFeatureProcessor extends SortingFeatureProcessor {
+		public GeneFeatureProcessor(Map<String, Integer> sequenceIds) {
+			super(sequenceIds);
 		}
 
-		public void cleanup() {
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing statement in GeneFeatureProcessor.cleanup(...)", e);
-			}
+		protected void copy(FeatureFields fields, FeatureRow row) {
+			row.start = fields.getStart();
+			row.end = fields.getEnd();
+			row.name = fields.getName();
+			row.commonName = fields.getCommonName();
+			row.geneType = fields.getGeneType();
 		}
 	}
 
-	public void copyGeneFeaturesIntoFeaturesTable(Connection conn, String table, UUID datasetUuid) throws SQLException {
-		Statement statement = null;
-
-		// TODO should limit to sequences in the current dataset
-		// TODO copy features slow for lots of sequences
-		
-		// For the sea urchin genome we have ~114 thousand unassembled fragments called
-		// scaffolds. This causes the join below to seriously dog out.
-
-		try {
-			statement = conn.createStatement();
-			Set<String> unknownSequences = checkSequenceNames(conn);
-			if (unknownSequences.size() > 0) {
-				throw new RuntimeException("Unknown sequences: " + unknownSequences);
-			}
-			statement.execute("insert into " + table + " " +
-					"select s.id, t.strand, t.start, t.end, t.name, t.common_name, t.gene_type " +
-					"from temp as t " +
-					"join sequences as s on s.name = t.sequences_name " +
-					"where s.uuid in " +
-					"  (select sequences_uuid " +
-					"   from datasets_sequences " +
-					"   where datasets_uuid='" + datasetUuid.toString() + "') " +
-					"order by s.id, t.strand, t.start, t.end;");
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e1) {
-				log.warn("Error closing statement", e1);
-			}
-		}
+	/**
+	 * Gene tracks are loaded whole, so they get no block index.
+	 */
+	private FeatureTableWriter newGeneWriter(Connection conn, UUID trackUuid, String table, Map<String, Integer> sequenceIds) throws SQLException {
+		return new FeatureTableWriter(conn, "insert into " + table + " values (?,?,?,?,?,?,?);", batchSize,
+				trackUuid, table, 0, sequenceNames(sequenceIds)) {
+			protected void bind(PreparedStatement ps, FeatureRow row) throws SQLException {
+				ps.setInt(1, row.sequencesId);
+				ps.setString(2, row.strand);
+				ps.setInt(3, row.start);
+				ps.setInt(4, row.end);
+				ps.setString(5, row.name);
+				ps.setString(6, row.commonName);
+				ps.setString(7, row.geneType);
+			}
+			protected boolean hasValues() {
+				return false;
+			}
+		};
 	}
 
 
@@ -794,49 +739,49 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		log.info("importing track: " + name + " to db " + connectString);
 
 		Connection conn = null;
+		ImportPragmas pragmas = null;
+		UUID trackUuid;
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
+			new SchemaMigration().migrate(conn);
 			
+			if (bulkLoad)
+				pragmas = ImportPragmas.apply(conn, cacheSize);
 			beginTransaction(conn);
 
 			//name = uniquifyTrackName(conn, name);
 			String table = uniquifyTableName(conn, toFeaturesTableName(name));
 			progressListeners.fireProgressEvent(5);
 
-			progressListeners.fireMessageEvent("creating temp table");
-			createQuantitativeSegmentMatrixTempTable(conn, columns);
+			progressListeners.fireMessageEvent("creating table " + table);
+			createQuantitativeSegmentMatrixFeaturesTable(conn, table, columns);
+
+			progressListeners.fireMessageEvent("creating track record and linking to dataset");
+			trackUuid = createNewTrackEntry(conn, name, "quantitative.segment.matrix", table);
+			assignTracksToDataset(conn, datasetUuid, trackUuid);
 			progressListeners.fireProgressEvent(10);
 
 			// set up wrapper progress listener for scale and forward progress events
 			ProgressListenerWrapper plw = new ProgressListenerWrapper(progressListeners);
-			plw.scaleProgressToFit(10, 70);
+			plw.scaleProgressToFit(10, 60);
 			featureSource.addProgressListener(plw);
 
-			progressListeners.fireMessageEvent("reading features");
-			importQuantitativeSegmentMatrixFeatures(conn, featureSource, columns);
-			progressListeners.fireProgressEvent(70);
-
-			progressListeners.fireMessageEvent("creating table " + table);
-			createQuantitativeSegmentMatrixFeaturesTable(conn, table, columns);
-			progressListeners.fireProgressEvent(75);
-
-			progressListeners.fireMessageEvent("copying features into " + table);
-			copyQuantitativeSegmentMatrixFeaturesIntoFeaturesTable(conn, table, datasetUuid, columns);
+			Map<String, Integer> sequenceIds = loadSequenceIds(conn, datasetUuid);
+			FeatureTableWriter writer = newQuantitativeSegmentMatrixWriter(conn, trackUuid, table, sequenceIds, columns);
+			importFeatures(featureSource, new QuantitativeSegmentMatrixFeatureProcessor(sequenceIds, columns), writer, table);
+			dataSource.saveBlockIndex(conn, writer.getBlockIndex());
 			progressListeners.fireProgressEvent(90);
 
-			progressListeners.fireMessageEvent("creating track record and linking to dataset");
-			UUID trackUuid = createNewTrackEntry(conn, name, "quantitative.segment.matrix", table);
-			assignTracksToDataset(conn, datasetUuid, trackUuid);
+			TrackMetadata metadata = writer.getMetadata();
+			metadata.save(conn);
 			progressListeners.fireProgressEvent(100);
 
 			commitTransaction(conn);
 
-			int count = getFeatureCount(trackUuid);
+			long count = metadata.featureCount;
 			String msg = String.format("finished importing track: %s (%,d features)", name, count);
 			progressListeners.fireMessageEvent(msg);
 			log.info(msg);
-
-			return trackUuid;
 		}
 		catch (Exception e) {
 			if (conn != null) {
@@ -850,6 +795,8 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 			throw new RuntimeException(e);
 		}
 		finally {
+			if (pragmas != null)
+				pragmas.restore(conn);
 			try {
 				if (conn != null)
 					conn.close();
@@ -858,95 +805,63 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 				log.warn("Error closing connection", e1);
 			}
 		}
-	}
 
-	public void createQuantitativeSegmentMatrixTempTable(Connection conn, int columns) throws SQLException {
-		Statement statement = null;
-		try {
-			StringBuffer buffer = new StringBuffer(
-					"create temp table temp (" +
-					"sequences_name text NOT NULL," +
-					"strand text NOT NULL," +
-					"start integer NOT NULL," +
-					"end integer NOT NULL");
-			for (int i=0; i<columns; i++) {
-				buffer.append(", ").append("value").append(i).append(" numeric");
-			}
-			buffer.append(")");
-			statement = conn.createStatement();
-			statement.execute(buffer.toString());
-		}
-		finally {
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e) {
-				log.error("Exception while closing statement", e);
-			}
-		}
-	}
+		// the track is committed by now, so failing to write its blocks
+		// shouldn't roll it back
+		if (columnarEncoding != null)
+			writeBlocks(trackUuid);
 
-	public void importQuantitativeSegmentMatrixFeatures(Connection conn, FeatureSource featureSource, int columns) throws Exception {
-		FeatureProcessor fp = new QuantitativeSegmentMatrixFeatureProcessor(conn, columns);
-		featureSource.processFeatures(fp);
-		log.info("imported " + fp.getCount() + " feature" + (fp.getCount()==1 ? "" : "s") + " into temp table.");
-		// TODO cleanup in finally block
-		fp.cleanup();
+		return trackUuid;
 	}
 
-	class QuantitativeSegmentMatrixFeatureProcessor implements FeatureProcessor {
-		PreparedStatement ps;
-		Connection conn;
-		int count;
-
-		public QuantitativeSegmentMatrixFeatureProcessor(Connection conn, int columns) throws SQLException {
-			this.conn = conn;
+	class QuantitativeSegmentMatrixFeatureProcessor extends SortingFeatureProcessor {
+		private final int columns;
 
-			// fields: sequences_name, strand, start, end, value1, ... , value<n>
-			// we'll have to resolve sequence ids later
-			StringBuilder sb = new StringBuilder("insert into temp values (?,?,?,?");
-			for (int i=0; i<columns; i++) {
-				sb.append(",?");
-			}
-			sb.append(");");
-			ps = conn.prepareStatement(sb.toString());
+		public QuantitativeSegmentMatrixFeatureProcessor(Map<String, Integer> sequenceIds, int columns) {
+			super(sequenceIds);
+			this.columns = columns;
 		}
 
-		public void process(FeatureFields fields) throws SQLException {
-			ps.setString(1, fields.getSequenceName());
-			ps.setString(2, fields.getStrand());
-			ps.setInt(3, fields.getStart());
-			ps.setInt(4, fields.getEnd());
-
+		protected void copy(FeatureFields fields, FeatureRow row) {
+			row.start = fields.getStart();
+			row.end = fields.getEnd();
+			row.values = new double[columns];
 			if (fields instanceof MatrixFeatureFields) {
+				// sources may reuse the array, so copy it
 				double[] values = ((MatrixFeatureFields)fields).getValues();
-				int i=5;
-				for (double d : values) {
-					ps.setDouble(i++, d);
-				}
+				System.arraycopy(values, 0, row.values, 0, Math.min(values.length, columns));
+				for (int i=values.length; i<columns; i++)
+					row.values[i] = Double.NaN;
 			}
 			else {
-				ps.setDouble(5, fields.getValue());
+				row.values[0] = fields.getValue();
+				for (int i=1; i<columns; i++)
+					row.values[i] = Double.NaN;
 			}
-
-			ps.executeUpdate();
-			count++;
-		}
-
-		public int getCount() {
-			return count;
 		}
+	}
 
-		public void cleanup() {
-			try {
-				if (ps != null)
-					ps.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing statement", e);
+	private FeatureTableWriter newQuantitativeSegmentMatrixWriter(Connection conn, UUID trackUuid, String table, Map<String, Integer> sequenceIds, int columns) throws SQLException {
+		StringBuilder sb = new StringBuilder("insert into ").append(table).append(" values (?,?,?,?");
+		for (int i=0; i<columns; i++) {
+			sb.append(",?");
+		}
+		sb.append(");");
+		return new FeatureTableWriter(conn, sb.toString(), batchSize,
+				trackUuid, table, blockSize("quantitative.segment.matrix", columns), sequenceNames(sequenceIds)) {
+			protected void bind(PreparedStatement ps, FeatureRow row) throws SQLException {
+				ps.setInt(1, row.sequencesId);
+				ps.setString(2, row.strand);
+				ps.setInt(3, row.start);
+				ps.setInt(4, row.end);
+				for (int i=0; i<row.values.length; i++) {
+					if (Double.isNaN(row.values[i]))
+						ps.setNull(5 + i, Types.NUMERIC);
+					else
+						ps.setDouble(5 + i, row.values[i]);
+				}
 			}
-		}
+		};
 	}
 
 	public void createQuantitativeSegmentMatrixFeaturesTable(Connection conn, String table, int columns) throws SQLException {
@@ -976,44 +891,81 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	public void copyQuantitativeSegmentMatrixFeaturesIntoFeaturesTable(Connection conn, String table, UUID datasetUuid, int columns) throws SQLException {
-		Statement statement = null;
+	// ---- end quantitative segment matrix track functions -------------------
 
-		// TODO should limit to sequences in the current dataset
+	/**
+	 * Add a quantitative track whose features are in a .gbt sidecar file,
+	 * written by GbtWriter. The features stay in the sidecar, which is
+	 * memory mapped when the track is loaded; the database just gets a
+	 * track entry pointing at the file and the track's metadata.
+	 * @return the UUID of the new track
+	 */
+	public UUID importSidecarTrack(String name, UUID datasetUuid, File gbtFile) {
+		progressListeners.fireMessageEvent("importing track: " + name + " from sidecar " + gbtFile);
+		log.info("importing track: " + name + " from sidecar " + gbtFile + " to db " + connectString);
 
+		Connection conn = null;
+		GbtFile gbt = null;
 		try {
-			Set<String> unknownSequences = checkSequenceNames(conn);
-			if (unknownSequences.size() > 0)
-				throw new RuntimeException("Unknown sequences: " + unknownSequences);
+			gbt = new GbtFile(gbtFile);
+			String type = gbt.isPositional() ? "quantitative.positional" : "quantitative.segment";
 
-			StringBuilder sb = new StringBuilder("insert into ");
-			sb.append(table).append(" select s.id, t.strand, t.start, t.end");
-			for (int i=0; i<columns; i++) {
-				sb.append(", ").append("t.value").append(i);
-			}
-			sb.append(" from temp as t " +
-					"join sequences as s on s.name = t.sequences_name " +
-					"where s.uuid in " +
-					"  (select sequences_uuid " +
-					"   from datasets_sequences " +
-					"   where datasets_uuid='" + datasetUuid.toString() + "') " +
-					"order by s.id, t.strand, t.start, t.end;");
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
+			new SchemaMigration().migrate(conn);
+			beginTransaction(conn);
 
-			statement = conn.createStatement();
-			statement.execute(sb.toString());
+			UUID trackUuid = createNewTrackEntry(conn, name, type, dataSource.getSidecarName(gbtFile));
+			assignTracksToDataset(conn, datasetUuid, trackUuid);
+			new TrackMetadata(trackUuid, gbt.getRange(), gbt.getFeatureCount(), gbt.getStrands()).save(conn);
+
+			commitTransaction(conn);
+
+			String msg = String.format("finished importing track: %s (%,d features)", name, gbt.getFeatureCount());
+			progressListeners.fireMessageEvent(msg);
+			log.info(msg);
+
+			return trackUuid;
+		}
+		catch (Exception e) {
+			if (conn != null) {
+				try {
+					rollbackTransaction(conn);
+				}
+				catch (SQLException e1) {
+					log.error(e1);
+				}
+			}
+			throw new RuntimeException(e);
 		}
 		finally {
+			if (gbt != null)
+				gbt.close();
 			try {
-				if (statement != null)
-					statement.close();
+				if (conn != null)
+					conn.close();
 			}
 			catch (Exception e1) {
-				log.warn("Error closing statement", e1);
+				log.warn("Error closing connection", e1);
 			}
 		}
 	}
 
-	// ---- end quantitative segment matrix track functions -------------------
+	/**
+	 * Write the columnar blocks of a newly imported track. If that fails,
+	 * writeBlockData has rolled back whatever blocks it wrote, and the track
+	 * is left as it was imported, read from its features table.
+	 */
+	private void writeBlocks(UUID trackUuid) {
+		try {
+			TrackStub stub = dataSource.loadTrackStub(trackUuid);
+			BlockIndex index = dataSource.getOrCreateBlockIndex(stub);
+			progressListeners.fireMessageEvent("writing columnar blocks for " + stub.tableName);
+			dataSource.writeBlockData(stub, index, columnarEncoding);
+		}
+		catch (Exception e) {
+			log.warn("Failed to write columnar blocks for track " + trackUuid + ", leaving it in row form", e);
+		}
+	}
 
 	public int getFeatureCount(UUID trackUuid) {
 		TrackStub stub = dataSource.loadTrackStub(trackUuid);
@@ -1172,47 +1124,6 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		}
 	}
 
-	/**
-	 * Check if the sequence names present in the temp table are also
-	 * present in the sequences table.
-	 * @param conn
-	 * @return a Set of unrecognized sequence names
-	 * @throws SQLException
-	 */
-	private Set<String> checkSequenceNames(Connection conn) throws SQLException {
-		Set<String> sequences = new TreeSet<String>(); 
-		Statement statement = null;
-		ResultSet rs = null;
-		try {
-			statement = conn.createStatement();
-			rs = statement.executeQuery(
-					"select distinct t.sequences_name " +
-					"from temp as t " +
-					"where t.sequences_name not in " +
-					"(select s.name from sequences as s);");
-			while (rs.next()) {
-				sequences.add(rs.getString(1));
-			}
-			return sequences;
-		}
-		finally {
-			try {
-				if (rs != null)
-					rs.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing result set", e);
-			}
-			try {
-				if (statement != null)
-					statement.close();
-			}
-			catch (Exception e) {
-				log.warn("Error closing statement", e);
-			}
-		}
-	}
-
 	/**
 	 * @return the UUID of the newly created track
 	 */
@@ -1286,7 +1197,7 @@ public class SqliteTrackImporter extends SqliteDb implements TrackImporter {
 		PreparedStatement ps = null;
 
 		try {
-			conn = DriverManager.getConnection(connectString);
+			conn = ConnectionManager.getInstance(connectString).getWriteConnection();
 			ps = conn.prepareStatement("insert into attributes values (?,?,?);");
 
 			for (String key: attributes.keySet()) {
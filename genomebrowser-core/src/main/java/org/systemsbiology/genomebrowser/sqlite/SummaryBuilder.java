@@ -0,0 +1,296 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Builds the summary levels of a quantitative track. Level 0 divides each
+ * sequence into bins holding about 4 features each, and each level after
+ * that has bins 4 times as wide as the last. For each bin holding features,
+ * we store the count, min, max, mean, and sum of squares of their values.
+ * Levels are added until a level has fewer than MIN_BINS bins, at which
+ * point drawing the whole track at that level is cheap anyway.
+ *
+ * Summaries of a track are stored in a table named after the features
+ * table with the suffix "_summaries", and the levels of each track are
+ * listed in the summary_levels table.
+ *
+ * A feature belongs to the bin holding its center.
+ *
+ * @see org.systemsbiology.genomebrowser.model.SummaryLevel
+ */
+public class SummaryBuilder extends SqliteDb {
+	private static final Logger log = Logger.getLogger(SummaryBuilder.class);
+
+	/**
+	 * Ratio of the bin width of each level to that of the level below it,
+	 * and the number of features per bin at level 0.
+	 */
+	public static final int FACTOR = 4;
+
+	/**
+	 * Tracks with fewer features than this are not worth summarizing.
+	 */
+	public static final int MIN_FEATURES = 10000;
+
+	/**
+	 * Stop adding levels once a level has fewer bins than this.
+	 */
+	public static final int MIN_BINS = 1000;
+
+	private static final int MAX_LEVELS = 16;
+
+
+	public static String getSummariesTableName(String featuresTable) {
+		return featuresTable + "_summaries";
+	}
+
+	public static void createSummaryLevelsTable(Connection conn) throws SQLException {
+		Statement s = null;
+		try {
+			s = conn.createStatement();
+			s.execute("create table if not exists summary_levels (" +
+					"tracks_uuid text not null," +
+					"level integer not null," +
+					"bin_size integer not null," +
+					"bins integer not null," +
+					"table_name text not null);");
+		}
+		finally {
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Build summaries of a quantitative track whose features table has columns
+	 * (sequences_id, strand, start, end, value) or, if positional is true,
+	 * (sequences_id, strand, position, value). Any existing summaries of the
+	 * track are replaced. Runs in the caller's transaction, if any.
+	 * @return number of levels built
+	 */
+	public int buildSummaries(Connection conn, UUID trackUuid, String featuresTable, boolean positional) throws SQLException {
+		String startColumn = positional ? "position" : "start";
+		String endColumn = positional ? "position" : "end";
+		return buildSummaries(conn, trackUuid, featuresTable, positional, computeBaseBinSize(conn, featuresTable, startColumn, endColumn));
+	}
+
+	/**
+	 * Build summaries as above, with level 0 bins of the given size, for
+	 * callers that already know the spacing of the track's features and
+	 * can spare us working it out from the table.
+	 * @param baseBinSize bin size of level 0, or 0 if the track is too small to summarize
+	 * @see #baseBinSize(long, long)
+	 */
+	public int buildSummaries(Connection conn, UUID trackUuid, String featuresTable, boolean positional, long baseBinSize) throws SQLException {
+		String startColumn = positional ? "position" : "start";
+		String endColumn = positional ? "position" : "end";
+		String summariesTable = getSummariesTableName(featuresTable);
+
+		createSummaryLevelsTable(conn);
+		deleteSummaries(conn, trackUuid, featuresTable);
+
+		long binSize = baseBinSize;
+		if (binSize <= 0) {
+			log.info("not summarizing track " + featuresTable + ", too few features");
+			return 0;
+		}
+		long maxLength = queryLong(conn, "select max(length) from sequences;");
+
+		Statement s = null;
+		PreparedStatement ps = null;
+		int level = 0;
+		try {
+			s = conn.createStatement();
+			s.execute("create table " + summariesTable + " (" +
+					"level integer not null," +
+					"sequences_id integer not null," +
+					"strand text not null," +
+					"bin integer not null," +
+					"start integer not null," +
+					"end integer not null," +
+					"feature_count integer not null," +
+					"min_value numeric," +
+					"max_value numeric," +
+					"mean numeric," +
+					"sum_of_squares numeric);");
+
+			ps = conn.prepareStatement("insert into summary_levels values (?,?,?,?,?);");
+
+			while (level < MAX_LEVELS) {
+				if (level == 0) {
+					s.execute("insert into " + summariesTable + " " +
+							"select 0, sequences_id, strand, ((" + startColumn + " + " + endColumn + ") / 2) / " + binSize + " as b, " +
+							"min(" + startColumn + "), max(" + endColumn + "), count(*), " +
+							"min(value), max(value), avg(value), sum(value * value) " +
+							"from " + featuresTable + " " +
+							"group by sequences_id, strand, b;");
+				}
+				else {
+					s.execute("insert into " + summariesTable + " " +
+							"select " + level + ", sequences_id, strand, bin / " + FACTOR + " as b, " +
+							"min(start), max(end), sum(feature_count), " +
+							"min(min_value), max(max_value), sum(mean * feature_count) / sum(feature_count), sum(sum_of_squares) " +
+							"from " + summariesTable + " " +
+							"where level=" + (level - 1) + " " +
+							"group by sequences_id, strand, b;");
+				}
+				int bins = (int)queryLong(conn, "select count(*) from " + summariesTable + " where level=" + level + ";");
+
+				ps.setString(1, trackUuid.toString());
+				ps.setInt(2, level);
+				ps.setLong(3, binSize);
+				ps.setInt(4, bins);
+				ps.setString(5, summariesTable);
+				ps.executeUpdate();
+				log.info(String.format("summary level %d of %s: bin size=%,d, bins=%,d", level, featuresTable, binSize, bins));
+
+				level++;
+				binSize *= FACTOR;
+				if (bins < MIN_BINS || binSize > maxLength || binSize > Integer.MAX_VALUE)
+					break;
+			}
+
+			s.execute("create index " + summariesTable + "_index on " + summariesTable + " (level, sequences_id, strand, bin);");
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * Drop the summaries of a track, if there are any.
+	 */
+	public void deleteSummaries(Connection conn, UUID trackUuid, String featuresTable) throws SQLException {
+		Statement s = null;
+		PreparedStatement ps = null;
+		try {
+			s = conn.createStatement();
+			s.execute("drop table if exists " + getSummariesTableName(featuresTable) + ";");
+			if (tableExists(conn, "summary_levels")) {
+				ps = conn.prepareStatement("delete from summary_levels where tracks_uuid=?;");
+				ps.setString(1, trackUuid.toString());
+				ps.executeUpdate();
+			}
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Level 0 bins are sized to hold about FACTOR features each, based on
+	 * the average spacing of features along the sequences they cover.
+	 * @return the bin size in bases, or 0 if the track is too small to summarize
+	 */
+	long computeBaseBinSize(Connection conn, String featuresTable, String startColumn, String endColumn) throws SQLException {
+		Statement s = null;
+		ResultSet rs = null;
+		long count = 0;
+		long span = 0;
+		try {
+			s = conn.createStatement();
+			rs = s.executeQuery("select count(*), max(" + endColumn + ") - min(" + startColumn + ") + 1 " +
+					"from " + featuresTable + " " +
+					"group by sequences_id, strand;");
+			while (rs.next()) {
+				count += rs.getLong(1);
+				span += rs.getLong(2);
+			}
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+		return baseBinSize(count, span);
+	}
+
+	/**
+	 * @param count number of features
+	 * @param span bases from the first feature to the last, summed over
+	 * each sequence and strand
+	 * @return the bin size in bases, or 0 if the track is too small to summarize
+	 */
+	public static long baseBinSize(long count, long span) {
+		if (count < MIN_FEATURES)
+			return 0;
+		return Math.max(1L, Math.round(FACTOR * ((double)span) / count));
+	}
+
+	private long queryLong(Connection conn, String sql) throws SQLException {
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = conn.createStatement();
+			rs = s.executeQuery(sql);
+			return rs.next() ? rs.getLong(1) : 0L;
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+}
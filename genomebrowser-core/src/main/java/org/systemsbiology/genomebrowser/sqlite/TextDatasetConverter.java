@@ -10,7 +10,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
-import org.systemsbiology.genomebrowser.io.LineReader;
+import org.systemsbiology.genomebrowser.io.ChunkedFeatureReader;
+import org.systemsbiology.genomebrowser.io.LineFeatureFields;
 import org.systemsbiology.genomebrowser.io.StartEndValueDataLoader;
 import org.systemsbiology.genomebrowser.io.dataset.DatasetFileParser;
 import org.systemsbiology.genomebrowser.io.dataset.DatasetFileParser.ChromosomeInfo;
@@ -19,7 +20,6 @@ import org.systemsbiology.genomebrowser.io.dataset.DatasetFileParser.TrackInfo;
 import org.systemsbiology.genomebrowser.model.DatasetBuilder;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.model.Topology;
-import org.systemsbiology.genomebrowser.model.FeatureFields;
 import org.systemsbiology.genomebrowser.model.FeatureProcessor;
 import org.systemsbiology.genomebrowser.model.FeatureSource;
 import org.systemsbiology.util.CaseInsensitiveKey;
@@ -81,6 +81,7 @@ public class TextDatasetConverter {
 		
 		File outFile = new File(outputFilename);
 		if (outFile.exists() && options.overwrite) {
+			ConnectionManager.close(outFile);
 			outFile.delete();
 			System.out.println("deleted file: " + outFile.getName());
 		}
@@ -194,83 +195,48 @@ public class TextDatasetConverter {
 				if ("StartEndToPointDataLoader".equals(trackInfo.getAttributes().get("reader"))
 				|| "SegmentDataLoader".equals(trackInfo.getAttributes().get("reader"))) {
 
-					final QuantitativeSegmentFeatureFields feature = new QuantitativeSegmentFeatureFields();
+					QuantitativeSegmentFeatureFields feature = new QuantitativeSegmentFeatureFields();
 					feature.trackInfo = trackInfo;
 					feature.strand = detectStrand(trackInfo);
 
-					LineReader reader = new LineReader(new LineReader.LineProcessor() {
-						public void process(int lineNumber, String line) throws Exception {
-							if (lineNumber == 0) return;
-							feature.fields = line.split("\t");
-							featureProcessor.process(feature);
-						}
-					});
 					File file = new File(new File(parentDir, trackInfo.getChromosome().getName()), filename);
-					reader.loadData(file);
+					processFile(file, 1, feature, featureProcessor);
 				}
 
 				else if ("SegmentDataLoader".equals(trackInfo.getAttributes().get("reader"))) {
 
-					final QuantitativePositionFeatureFields feature = new QuantitativePositionFeatureFields();
+					QuantitativePositionFeatureFields feature = new QuantitativePositionFeatureFields();
 					feature.trackInfo = trackInfo;
 					feature.strand = detectStrand(trackInfo);
 
-					LineReader reader = new LineReader(new LineReader.LineProcessor() {
-						public void process(int lineNumber, String line) throws Exception {
-							if (lineNumber == 0) return;
-							feature.fields = line.split("\t");
-							featureProcessor.process(feature);
-						}
-					});
 					File file = new File(new File(parentDir, trackInfo.getChromosome().getName()), filename);
-					reader.loadData(file);
+					processFile(file, 1, feature, featureProcessor);
 				}
 
 				else if ("PositionDataLoader".equals(trackInfo.getAttributes().get("reader"))) {
 
-					final QuantitativePositionFeatureFields feature = new QuantitativePositionFeatureFields();
+					QuantitativePositionFeatureFields feature = new QuantitativePositionFeatureFields();
 					feature.trackInfo = trackInfo;
 					feature.strand = detectStrand(trackInfo);
 
-					LineReader reader = new LineReader(new LineReader.LineProcessor() {
-						public void process(int lineNumber, String line) throws Exception {
-							if (lineNumber == 0) return;
-							feature.fields = line.split("\t");
-							featureProcessor.process(feature);
-						}
-					});
 					File file = new File(new File(parentDir, trackInfo.getChromosome().getName()), filename);
-					reader.loadData(file);
+					processFile(file, 1, feature, featureProcessor);
 				}
 				
 				else if ("GeneCoordinateLoader".equals(trackInfo.getAttributes().get("reader"))) {
-					final GeneFeatureFields feature = new GeneFeatureFields();
+					GeneFeatureFields feature = new GeneFeatureFields();
 					feature.trackInfo = trackInfo;
 
-					LineReader reader = new LineReader(new LineReader.LineProcessor() {
-						public void process(int lineNumber, String line) throws Exception {
-							if (lineNumber == 0) return;
-							feature.fields = line.split("\t");
-							featureProcessor.process(feature);
-						}
-					});
 					File file = new File(new File(parentDir, trackInfo.getChromosome().getName()), filename);
-					reader.loadData(file);
+					processFile(file, 1, feature, featureProcessor);
 				}
 
 				else if ("NcbiRnaCoordinateLoader".equals(trackInfo.getAttributes().get("reader"))) {
-					final NcbiRnaCoordinateLoader feature = new NcbiRnaCoordinateLoader();
+					NcbiRnaCoordinateLoader feature = new NcbiRnaCoordinateLoader();
 					feature.trackInfo = trackInfo;
 
-					LineReader reader = new LineReader(new LineReader.LineProcessor() {
-						public void process(int lineNumber, String line) throws Exception {
-							if (lineNumber < 2) return;
-							feature.fields = line.split("\t");
-							featureProcessor.process(feature);
-						}
-					});
 					File file = new File(new File(parentDir, trackInfo.getChromosome().getName()), filename);
-					reader.loadData(file);
+					processFile(file, 2, feature, featureProcessor);
 				}
 
 				else if ("MicroarrayDataLoader".equals(trackInfo.getAttributes().get("reader"))) {
@@ -299,6 +265,16 @@ public class TextDatasetConverter {
 			}
 		}
 
+		/**
+		 * Parse the file in chunks on several threads, handing features to
+		 * the processor in the order of the file.
+		 */
+		private void processFile(File file, int headerLines, LineFeatureFields feature, FeatureProcessor featureProcessor) throws Exception {
+			ChunkedFeatureReader reader = new ChunkedFeatureReader();
+			reader.setHeaderLines(headerLines);
+			reader.processFeatures(file, feature, featureProcessor);
+		}
+
 		private Strand detectStrand(TrackInfo trackInfo) {
 			if (containsForward(trackInfo.getChromosome().getName()))
 				return Strand.forward;
@@ -325,10 +301,9 @@ public class TextDatasetConverter {
 			return m.matches();
 		}
 
-		class QuantitativeSegmentFeatureFields implements FeatureFields {
+		class QuantitativeSegmentFeatureFields extends LineFeatureFields {
 			TrackInfo trackInfo;
 			Strand strand;
-			String[] fields;
 
 			public String getSequenceName() {
 				return trackInfo.getChromosome().getName();
@@ -339,11 +314,11 @@ public class TextDatasetConverter {
 			}
 
 			public int getStart() {
-				return Integer.parseInt(fields[0]);
+				return fields.getInt(0);
 			}
 
 			public int getEnd() {
-				return Integer.parseInt(fields[1]);
+				return fields.getInt(1);
 			}
 
 			public int getPosition() {
@@ -363,14 +338,13 @@ public class TextDatasetConverter {
 			}
 
 			public double getValue() {
-				return Double.parseDouble(fields[2]);
+				return fields.getDouble(2);
 			}
 		};
 
-		class QuantitativePositionFeatureFields implements FeatureFields {
+		class QuantitativePositionFeatureFields extends LineFeatureFields {
 			TrackInfo trackInfo;
 			Strand strand;
-			String[] fields;
 
 			public String getSequenceName() {
 				return trackInfo.getChromosome().getName();
@@ -381,15 +355,15 @@ public class TextDatasetConverter {
 			}
 
 			public int getStart() {
-				return Integer.parseInt(fields[0]);
+				return fields.getInt(0);
 			}
 
 			public int getEnd() {
-				return Integer.parseInt(fields[0]);
+				return fields.getInt(0);
 			}
 
 			public int getPosition() {
-				return Integer.parseInt(fields[0]);
+				return fields.getInt(0);
 			}
 
 			public String getGeneType() {
@@ -405,13 +379,12 @@ public class TextDatasetConverter {
 			}
 
 			public double getValue() {
-				return Double.parseDouble(fields[1]);
+				return fields.getDouble(1);
 			}
 		};
 
-		class GeneFeatureFields implements FeatureFields {
+		class GeneFeatureFields extends LineFeatureFields {
 			TrackInfo trackInfo;
-			String[] fields;
 			
 			// canonical_Name	Gene_Name	Start	Stop	Orientation
 
@@ -420,15 +393,15 @@ public class TextDatasetConverter {
 			}
 
 			public String getStrand() {
-				return Strand.fromString(fields[4]).toAbbreviatedString();
+				return Strand.fromString(fields.getString(4)).toAbbreviatedString();
 			}
 
 			public int getStart() {
-				return Integer.parseInt(fields[2]);
+				return fields.getInt(2);
 			}
 
 			public int getEnd() {
-				return Integer.parseInt(fields[3]);
+				return fields.getInt(3);
 			}
 
 			public int getPosition() {
@@ -440,11 +413,11 @@ public class TextDatasetConverter {
 			}
 
 			public String getName() {
-				return fields[0];
+				return fields.getString(0);
 			}
 
 			public String getCommonName() {
-				return fields[1];
+				return fields.getString(1);
 			}
 
 			public double getValue() {
@@ -452,9 +425,8 @@ public class TextDatasetConverter {
 			}
 		};
 
-		class NcbiRnaCoordinateLoader implements FeatureFields {
+		class NcbiRnaCoordinateLoader extends LineFeatureFields {
 			TrackInfo trackInfo;
-			String[] fields;
 			
 			// Product-Name	Start	End	Strand	Length	GeneID	Locus	Locus_tag
 
@@ -463,15 +435,15 @@ public class TextDatasetConverter {
 			}
 
 			public String getStrand() {
-				return Strand.fromString(fields[3]).toAbbreviatedString();
+				return Strand.fromString(fields.getString(3)).toAbbreviatedString();
 			}
 
 			public int getStart() {
-				return Integer.parseInt(fields[1]);
+				return fields.getInt(1);
 			}
 
 			public int getEnd() {
-				return Integer.parseInt(fields[2]);
+				return fields.getInt(2);
 			}
 
 			public int getPosition() {
@@ -488,11 +460,11 @@ public class TextDatasetConverter {
 			}
 
 			public String getName() {
-				return fields[0];
+				return fields.getString(0);
 			}
 
 			public String getCommonName() {
-				return fields[6];
+				return fields.getString(6);
 			}
 
 			public double getValue() {
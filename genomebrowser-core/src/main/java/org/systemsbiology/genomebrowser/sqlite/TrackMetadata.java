@@ -0,0 +1,215 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.Range;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * Facts about a track that would otherwise take a scan of its features
+ * table to find out: the range of its values, the number of features, and
+ * which strands have features. Stored in the track_metadata table, which
+ * is written when the track is imported or, for tracks imported before we
+ * had it, the first time the track is loaded.
+ * @see SchemaMigration
+ */
+public class TrackMetadata {
+	private static final Logger log = Logger.getLogger(TrackMetadata.class);
+
+	public final UUID trackUuid;
+	/**
+	 * range of values, or null for tracks with no values
+	 */
+	public final Range range;
+	public final long featureCount;
+	public final Strand[] strands;
+
+
+	public TrackMetadata(UUID trackUuid, Range range, long featureCount, Strand[] strands) {
+		this.trackUuid = trackUuid;
+		this.range = range;
+		this.featureCount = featureCount;
+		this.strands = strands;
+	}
+
+	/**
+	 * @return the range of values, or an empty range for tracks with no values
+	 */
+	public Range getRange() {
+		return range == null ? new Range(0,0) : range;
+	}
+
+	/**
+	 * @return metadata for the given track or null if none has been stored
+	 */
+	public static TrackMetadata load(Connection conn, UUID trackUuid) throws SQLException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = conn.prepareStatement("select min_value, max_value, feature_count, strands from track_metadata where tracks_uuid=?;");
+			ps.setString(1, trackUuid.toString());
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				Range range = null;
+				double min = rs.getDouble(1);
+				boolean hasRange = !rs.wasNull();
+				double max = rs.getDouble(2);
+				if (hasRange && !rs.wasNull())
+					range = new Range(min, max);
+				return new TrackMetadata(trackUuid, range, rs.getLong(3), parseStrands(rs.getString(4)));
+			}
+			return null;
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Store this metadata, replacing any stored earlier for the same track.
+	 */
+	public void save(Connection conn) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement("insert or replace into track_metadata values (?,?,?,?,?);");
+			ps.setString(1, trackUuid.toString());
+			if (range == null) {
+				ps.setNull(2, java.sql.Types.NUMERIC);
+				ps.setNull(3, java.sql.Types.NUMERIC);
+			}
+			else {
+				ps.setDouble(2, range.min);
+				ps.setDouble(3, range.max);
+			}
+			ps.setLong(4, featureCount);
+			ps.setString(5, toString(strands));
+			ps.executeUpdate();
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+		}
+	}
+
+	public static void delete(Connection conn, UUID trackUuid) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement("delete from track_metadata where tracks_uuid=?;");
+			ps.setString(1, trackUuid.toString());
+			ps.executeUpdate();
+		}
+		finally {
+			try {
+				if (ps != null)
+					ps.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing prepared statement", e);
+			}
+		}
+	}
+
+	/**
+	 * Compute the metadata of a track in one pass over its features table.
+	 * @param valueColumns columns holding the track's values, which may be empty
+	 */
+	public static TrackMetadata compute(Connection conn, UUID trackUuid, String table, List<String> valueColumns) throws SQLException {
+		StringBuilder sql = new StringBuilder("select strand, count(*)");
+		for (String column : valueColumns) {
+			sql.append(", min(").append(column).append("), max(").append(column).append(")");
+		}
+		sql.append(" from ").append(table).append(" group by strand;");
+
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = conn.createStatement();
+			rs = s.executeQuery(sql.toString());
+			List<Strand> strands = new ArrayList<Strand>();
+			long count = 0;
+			double min = Double.NaN;
+			double max = Double.NaN;
+			while (rs.next()) {
+				strands.add(Strand.fromString(rs.getString(1)));
+				count += rs.getLong(2);
+				for (int i=0; i<valueColumns.size(); i++) {
+					double colMin = rs.getDouble(3 + i*2);
+					if (!rs.wasNull() && !(colMin >= min))
+						min = colMin;
+					double colMax = rs.getDouble(4 + i*2);
+					if (!rs.wasNull() && !(colMax <= max))
+						max = colMax;
+				}
+			}
+			Range range = Double.isNaN(min) || Double.isNaN(max) ? null : new Range(min, max);
+			return new TrackMetadata(trackUuid, range, count, strands.toArray(new Strand[strands.size()]));
+		}
+		finally {
+			try {
+				if (rs != null)
+					rs.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing result set", e);
+			}
+			try {
+				if (s != null)
+					s.close();
+			}
+			catch (Exception e) {
+				log.warn("Error closing statement", e);
+			}
+		}
+	}
+
+	static String toString(Strand[] strands) {
+		StringBuilder sb = new StringBuilder();
+		for (Strand strand : strands) {
+			if (sb.length() > 0) sb.append(",");
+			sb.append(strand.toAbbreviatedString());
+		}
+		return sb.toString();
+	}
+
+	static Strand[] parseStrands(String s) {
+		if (s == null || s.length() == 0)
+			return new Strand[0];
+		String[] fields = s.split(",");
+		Strand[] strands = new Strand[fields.length];
+		for (int i=0; i<fields.length; i++) {
+			strands[i] = Strand.fromString(fields[i]);
+		}
+		return strands;
+	}
+
+	public String toString() {
+		return String.format("(TrackMetadata %s range=%s, featureCount=%,d, strands=%s)", trackUuid, range, featureCount, toString(strands));
+	}
+}
@@ -7,11 +7,18 @@ import org.systemsbiology.genomebrowser.model.Range;
 
 /**
  * A strategy for converting a measured value to a color for rendering.
+ * Implementations are usually table driven.
  * 
  * @see ColorScaleRegistry
  */
 public interface ColorScale {
 	public Color valueToColor(double value);
+
+	/**
+	 * @return the color of the value as a non-premultiplied ARGB int, as
+	 * from Color.getRGB(), for writing straight into an image's raster
+	 */
+	public int valueToArgb(double value);
 	public void setRange(Range range);
 	public void setGamma(double gamma);
 }
@@ -13,7 +13,9 @@ public class FeatureCallback implements AsyncFeatureCallback {
 	}
 
 	public void consumeFeatures(final Iteratable<? extends Feature> features, FeatureFilter filter) {
-		if (context.frame != context.scheduler.getCurrentFrame()) return;
+		if (context.isCancelled()) return;
+		long t0 = System.nanoTime();
 		context.renderer.draw(context.getGraphics(), features, filter.strand);
+		context.drawNanos += System.nanoTime() - t0;
 	}
 }
@@ -0,0 +1,86 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Keeps track of how long frames take to render, from the moment they're
+ * scheduled until every track has been drawn, and how many tiles each
+ * took from the tile cache rather than rendering. A summary is logged
+ * every REPORT_INTERVAL frames.
+ */
+public class FrameTimer {
+	private static final Logger log = Logger.getLogger(FrameTimer.class);
+	public static final int REPORT_INTERVAL = 100;
+
+	// times of the most recent frames, in a ring
+	private final long[] recent = new long[REPORT_INTERVAL];
+	private long frames;
+	private long totalMillis;
+	private long maxMillis;
+	private long lastMillis;
+	private long tilesRendered;
+	private long tilesReused;
+
+
+	public synchronized void frameRendered(long millis, int rendered, int reused) {
+		recent[(int)(frames % recent.length)] = millis;
+		frames++;
+		totalMillis += millis;
+		maxMillis = Math.max(maxMillis, millis);
+		lastMillis = millis;
+		tilesRendered += rendered;
+		tilesReused += reused;
+		if (log.isDebugEnabled())
+			log.debug(String.format("frame rendered in %,d ms, %d tiles rendered, %d reused", millis, rendered, reused));
+		if (frames % REPORT_INTERVAL == 0)
+			log.info(toString());
+	}
+
+	public synchronized long getFrameCount() {
+		return frames;
+	}
+
+	public synchronized long getLastMillis() {
+		return lastMillis;
+	}
+
+	public synchronized double getAverageMillis() {
+		return frames == 0 ? 0.0 : ((double)totalMillis) / frames;
+	}
+
+	/**
+	 * @return average time of the last REPORT_INTERVAL frames
+	 */
+	public synchronized double getRecentAverageMillis() {
+		int n = (int)Math.min(frames, recent.length);
+		if (n == 0) return 0.0;
+		long sum = 0;
+		for (int i=0; i<n; i++)
+			sum += recent[i];
+		return ((double)sum) / n;
+	}
+
+	/**
+	 * @return fraction of tiles that came from the cache
+	 */
+	public synchronized double getTileReuseRate() {
+		long tiles = tilesRendered + tilesReused;
+		return tiles == 0 ? 0.0 : ((double)tilesReused) / tiles;
+	}
+
+	public synchronized void reset() {
+		frames = 0;
+		totalMillis = 0;
+		maxMillis = 0;
+		lastMillis = 0;
+		tilesRendered = 0;
+		tilesReused = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("(FrameTimer frames=%d, average=%.1f ms, recent=%.1f ms, max=%d ms, tiles rendered=%d, reused=%d (%.0f%%))",
+				frames, getAverageMillis(), getRecentAverageMillis(), maxMillis, tilesRendered, tilesReused, getTileReuseRate() * 100.0);
+	}
+}
@@ -0,0 +1,349 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.bookmarks.Bookmark;
+import org.systemsbiology.genomebrowser.model.Dataset;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Segment;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
+import org.systemsbiology.genomebrowser.model.Track;
+import org.systemsbiology.genomebrowser.sqlite.ConnectionManager;
+import org.systemsbiology.genomebrowser.sqlite.SqliteDataSource;
+
+
+/**
+ * Renders regions of a dataset to images without a UI, for scripting
+ * figures, for example one image per bookmark.
+ *
+ * Tracks are drawn by the same renderers the browser uses, created by a
+ * TrackRendererRegistry, onto an off-screen BufferedImage. Tracks are drawn
+ * in z-order with the genome track on top, as GenomeViewPanel does. Each
+ * region gets renderers of its own, so regions are rendered in parallel on
+ * a pool of threads. Block tracks read their blocks through the block cache
+ * shared by all data sources, so regions close to each other share blocks.
+ *
+ * Run from the command line, the renderer writes a PNG per region. See
+ * usage(). The main method sets java.awt.headless, so no display is needed.
+ */
+public class HeadlessRenderer {
+	private static final Logger log = Logger.getLogger(HeadlessRenderer.class);
+	public static final int DEFAULT_WIDTH = 1000;
+	public static final int DEFAULT_HEIGHT = 400;
+	private static final ZOrderComparator zorder = new ZOrderComparator();
+
+	private final Dataset dataset;
+	private final TrackRendererRegistry registry;
+	private int width = DEFAULT_WIDTH;
+	private int height = DEFAULT_HEIGHT;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// names of the tracks to draw, or null for the visible tracks
+	private Set<String> trackNames;
+
+
+	public HeadlessRenderer(Dataset dataset, TrackRendererRegistry registry) {
+		this.dataset = dataset;
+		this.registry = registry;
+	}
+
+	public void setImageSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Draw only the named tracks, whether or not they're visible in the
+	 * browser, or pass null to draw the visible tracks.
+	 */
+	public void setTrackNames(List<String> names) {
+		this.trackNames = (names == null) ? null : new HashSet<String>(names);
+	}
+
+	/**
+	 * @return the selected tracks in z-order, with the genome track last.
+	 */
+	List<Track<? extends Feature>> getTracks() {
+		List<Track<? extends Feature>> tracks = new ArrayList<Track<? extends Feature>>(dataset.getTracks());
+		Collections.sort(tracks, zorder);
+		List<Track<? extends Feature>> selected = new ArrayList<Track<? extends Feature>>();
+		Track<? extends Feature> genome = null;
+		for (Track<? extends Feature> track : tracks) {
+			if (trackNames == null ? track.getAttributes().getBoolean("visible", true) : trackNames.contains(track.getName())) {
+				if (genome == null && ("Genome".equals(track.getName()) || "Genes".equals(track.getName())))
+					genome = track;
+				else
+					selected.add(track);
+			}
+		}
+		if (genome != null)
+			selected.add(genome);
+		return selected;
+	}
+
+	/**
+	 * Draw the given region of the genome.
+	 * @throws IllegalArgumentException if the dataset has no sequence by the region's seqId
+	 */
+	public BufferedImage render(Segment region) {
+		Sequence sequence = dataset.getSequence(region.seqId);
+		if (sequence == null)
+			throw new IllegalArgumentException("Dataset does not contain a sequence named \"" + region.seqId + "\".");
+
+		ViewParameters params = new ViewParameters();
+		params.setDeviceSize(width, height);
+		params.initViewParams(sequence, region.start, region.end);
+		double basesPerPixel = ((double)(region.end - region.start + 1)) / width;
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+
+		FeatureFilter filter = new FeatureFilter(sequence, Strand.any, region.start, region.end);
+		for (Track<? extends Feature> track : getTracks()) {
+			try {
+				TrackRenderer renderer = registry.createTrackRenderer(track);
+				renderer.setViewParameters(params);
+				RenderingContext context = new RenderingContext(0, renderer, filter, null, image);
+				SummaryLevel level = TrackRendererScheduler.getSummaryLevel(renderer, basesPerPixel);
+				if (level != null)
+					level.featuresAsync(filter, new SummaryCallback(context));
+				else
+					track.featuresAsync(filter, new FeatureCallback(context));
+			}
+			catch (Exception e) {
+				log.warn("Exception rendering track " + track.getName(), e);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Draw the given regions in parallel, writing a PNG for each into the
+	 * given directory.
+	 * @return the files written, in the order of the regions. Regions that
+	 * fail to render are logged and left out.
+	 */
+	public List<File> renderAll(List<Segment> regions, final File directory) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, regions.size())), new HeadlessRendererThreadFactory());
+		try {
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i=0; i<regions.size(); i++) {
+				final Segment region = regions.get(i);
+				final File file = new File(directory, getFileName(i + 1, region));
+				futures.add(executor.submit(new Callable<File>() {
+					public File call() throws IOException {
+						ImageIO.write(render(region), "png", file);
+						return file;
+					}
+				}));
+			}
+
+			List<File> files = new ArrayList<File>();
+			for (int i=0; i<futures.size(); i++) {
+				try {
+					files.add(futures.get(i).get());
+				}
+				catch (ExecutionException e) {
+					log.warn("Exception rendering region " + regions.get(i), e.getCause());
+				}
+			}
+			return files;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static String getFileName(int n, Segment region) {
+		return String.format("%04d_%s_%d-%d.png", n, region.seqId.replaceAll("[^A-Za-z0-9._-]", "_"), region.start, region.end);
+	}
+
+	/**
+	 * Parse a region of the form seqId:start-end.
+	 * @throws NumberFormatException if the coordinates don't parse
+	 */
+	static Segment parseRegion(String region) {
+		int colon = region.lastIndexOf(':');
+		if (colon < 1)
+			throw new NumberFormatException("Expected a region of the form seqId:start-end: " + region);
+		return Segment.parse(region.substring(0, colon).trim(), region.substring(colon + 1).trim());
+	}
+
+	private static class HeadlessRendererThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "headless-renderer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		Options options = parse(args);
+
+		File file = new File(options.datasetFileName);
+		SqliteDataSource db = new SqliteDataSource(file);
+		try {
+			Dataset dataset = db.loadDataset();
+
+			List<Segment> regions = new ArrayList<Segment>(options.regions);
+			if (options.regionsFileName != null)
+				regions.addAll(readRegions(options.regionsFileName));
+			if (options.bookmarks != null) {
+				for (Bookmark bookmark : db.loadBookmarks(options.bookmarks))
+					regions.add(new Segment(bookmark.getSeqId(), bookmark.getStart(), bookmark.getEnd()));
+			}
+
+			HeadlessRenderer renderer = new HeadlessRenderer(dataset, TrackRendererRegistry.newInstance());
+			renderer.setImageSize(options.width, options.height);
+			if (options.threads > 0)
+				renderer.setThreads(options.threads);
+			if (options.trackNames.size() > 0)
+				renderer.setTrackNames(options.trackNames);
+
+			File directory = new File(options.outputDirectory);
+			directory.mkdirs();
+			long t0 = System.currentTimeMillis();
+			List<File> files = renderer.renderAll(regions, directory);
+			System.out.println(String.format("wrote %d of %d images to %s in %,d ms",
+					files.size(), regions.size(), directory.getPath(), System.currentTimeMillis() - t0));
+		}
+		finally {
+			ConnectionManager.close(file);
+		}
+	}
+
+	/**
+	 * Read regions, one per line, of the form seqId:start-end. Blank lines
+	 * and lines starting with # are skipped.
+	 */
+	static List<Segment> readRegions(String fileName) throws IOException {
+		List<Segment> regions = new ArrayList<Segment>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#"))
+					regions.add(parseRegion(line));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return regions;
+	}
+
+	static Options parse(String[] args) {
+		Options options = new Options();
+
+		for (int i=0; i<args.length; i++) {
+
+			if ("-d".equals(args[i]) || "--dataset".equals(args[i])) {
+				i++;
+				options.datasetFileName = args[i];
+			}
+			else if ("-o".equals(args[i]) || "--output".equals(args[i])) {
+				i++;
+				options.outputDirectory = args[i];
+			}
+			else if ("-r".equals(args[i]) || "--regions".equals(args[i])) {
+				i++;
+				options.regionsFileName = args[i];
+			}
+			else if ("-b".equals(args[i]) || "--bookmarks".equals(args[i])) {
+				i++;
+				options.bookmarks = args[i];
+			}
+			else if ("-t".equals(args[i]) || "--track".equals(args[i])) {
+				i++;
+				options.trackNames.add(args[i]);
+			}
+			else if ("-w".equals(args[i]) || "--width".equals(args[i])) {
+				i++;
+				options.width = Integer.parseInt(args[i]);
+			}
+			else if ("-h".equals(args[i]) || "--height".equals(args[i])) {
+				i++;
+				options.height = Integer.parseInt(args[i]);
+			}
+			else if ("--threads".equals(args[i])) {
+				i++;
+				options.threads = Integer.parseInt(args[i]);
+			}
+			else {
+				options.regions.add(parseRegion(args[i]));
+			}
+		}
+
+		if (options.datasetFileName==null || (options.regions.isEmpty() && options.regionsFileName==null && options.bookmarks==null)) {
+			usage();
+			System.exit(-1);
+		}
+
+		return options;
+	}
+
+	static void usage() {
+		System.out.println("\n===================\n Headless Renderer\n===================\n");
+		System.out.println("Render regions of a dataset to PNG images without a UI.");
+		System.out.println();
+		System.out.println("usage: HeadlessRenderer -d <dataset-file> [options] [seqId:start-end ...]");
+		System.out.println("-d, --dataset           dataset file (sqlite)");
+		System.out.println("-o, --output            directory to write images to, default: .");
+		System.out.println("-r, --regions           file of regions, one seqId:start-end per line");
+		System.out.println("-b, --bookmarks         render the bookmarks of the named collection");
+		System.out.println("-t, --track             name of a track to draw, may be repeated, default: visible tracks");
+		System.out.println("-w, --width             image width in pixels, default: " + DEFAULT_WIDTH);
+		System.out.println("-h, --height            image height in pixels, default: " + DEFAULT_HEIGHT);
+		System.out.println("--threads               number of regions to render at once, default: number of processors");
+		System.out.println("\n");
+	}
+
+	static class Options {
+		String datasetFileName;
+		String outputDirectory = ".";
+		String regionsFileName;
+		String bookmarks;
+		List<Segment> regions = new ArrayList<Segment>();
+		List<String> trackNames = new ArrayList<String>();
+		int width = DEFAULT_WIDTH;
+		int height = DEFAULT_HEIGHT;
+		int threads;
+	}
+}
@@ -0,0 +1,253 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+
+/**
+ * Where a renderer drew each of its features on screen, recorded as it
+ * draws, so tooltips, clicks and lasso selections can be answered from
+ * boxes on screen rather than by mapping the mouse back to the genome and
+ * scanning the track's features.
+ *
+ * Boxes are kept sorted by left edge, along with the rightmost right edge
+ * of each prefix, so a point is looked up by binary search and a scan back
+ * over the boxes that could reach it, and a lasso by binary search and a
+ * scan across it.
+ *
+ * A renderer calls begin(params, strand) before drawing the features of a
+ * strand, add(session, ...) for each feature drawn and finish(session,
+ * strand) when it has drawn them all, passing the session begin returned.
+ * Strand.any covers both strands, as the genome track is drawn. Boxes
+ * recorded for a different view are dropped when drawing starts, and boxes
+ * of a strand drawn again are replaced, so the index only ever holds what's
+ * on screen. A drawing of an old frame may still be running when the next
+ * one begins, so adds and finishes of a session superseded by a later
+ * begin, of the same strand or of another view, are ignored rather than
+ * mixed into the newer drawing. Queries should only be answered from the
+ * index if covers(params, strand) says the strand was completely recorded
+ * for the current view; otherwise the renderer falls back to looking in
+ * its track. Drawing may happen on another thread than the queries, so
+ * methods are synchronized.
+ */
+public class HitIndex {
+	private static final int INITIAL_CAPACITY = 256;
+
+	// the view boxes were recorded for
+	private Sequence sequence;
+	private int start;
+	private double scale;
+	private int deviceWidth;
+	private int deviceHeight;
+
+	// strands completely recorded, by ordinal
+	private final boolean[] covered = new boolean[Strand.values().length];
+
+	// current recording session of each strand, by ordinal, 0 if none
+	private final int[] sessions = new int[Strand.values().length];
+	private int lastSession;
+
+	// boxes in the order they were added
+	private int n;
+	private int[] x = new int[INITIAL_CAPACITY];
+	private int[] y = new int[INITIAL_CAPACITY];
+	private int[] w = new int[INITIAL_CAPACITY];
+	private int[] h = new int[INITIAL_CAPACITY];
+	private byte[] strands = new byte[INITIAL_CAPACITY];
+	private Feature[] features = new Feature[INITIAL_CAPACITY];
+
+	// box indices sorted by x, and greatest right edge of each prefix,
+	// rebuilt on the first query after boxes are added
+	private int[] order = new int[0];
+	private int[] maxRight = new int[0];
+	private boolean sorted = true;
+
+
+	/**
+	 * Start recording the features of the given strand, drawn in the
+	 * current view of params.
+	 * @return the session to pass to add and finish
+	 */
+	public synchronized int begin(ViewParameters params, Strand strand) {
+		if (!isView(params)) {
+			clear();
+			sequence = params.getSequence();
+			start = params.getStart();
+			scale = params.getScale();
+			deviceWidth = params.getDeviceWidth();
+			deviceHeight = params.getDeviceHeight();
+		}
+		else {
+			remove(strand);
+		}
+		if (++lastSession == 0)
+			lastSession = 1;
+		sessions[strand.ordinal()] = lastSession;
+		return lastSession;
+	}
+
+	/**
+	 * Record a feature drawn in the given box while drawing the given strand,
+	 * unless the session has been superseded.
+	 */
+	public synchronized void add(int session, Strand strand, Feature feature, int x, int y, int w, int h) {
+		if (sessions[strand.ordinal()] != session)
+			return;
+		if (n == features.length)
+			grow();
+		this.x[n] = x;
+		this.y[n] = y;
+		this.w[n] = w;
+		this.h[n] = h;
+		this.strands[n] = (byte)strand.ordinal();
+		this.features[n] = feature;
+		n++;
+		sorted = false;
+	}
+
+	/**
+	 * Note that all the features of the strand are recorded, unless the
+	 * session has been superseded.
+	 */
+	public synchronized void finish(int session, Strand strand) {
+		if (sessions[strand.ordinal()] == session)
+			covered[strand.ordinal()] = true;
+	}
+
+	/**
+	 * @return true if the features of the given strand are all recorded
+	 * and were recorded for the current view of params.
+	 */
+	public synchronized boolean covers(ViewParameters params, Strand strand) {
+		return isView(params) && (covered[strand.ordinal()] || covered[Strand.any.ordinal()]);
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(covered, false);
+		Arrays.fill(sessions, 0);
+		Arrays.fill(features, 0, n, null);
+		n = 0;
+		sequence = null;
+		sorted = false;
+	}
+
+	/**
+	 * @return the first feature drawn whose box contains the point, edges
+	 * included, or null.
+	 */
+	public synchronized Feature featureAt(int px, int py) {
+		sort();
+		int result = -1;
+		for (int i = lastStartingAtOrBefore(px); i>=0 && maxRight[i] >= px; i--) {
+			int b = order[i];
+			if (x[b] + w[b] >= px && py >= y[b] && py <= y[b] + h[b]) {
+				if (result < 0 || b < result)
+					result = b;
+			}
+		}
+		return result < 0 ? null : features[result];
+	}
+
+	/**
+	 * @return features whose boxes lie within the rectangle horizontally
+	 * and overlap it vertically, as lassoing a lane of genes selects them.
+	 */
+	public synchronized List<Feature> features(Rectangle r) {
+		sort();
+		List<Feature> result = new ArrayList<Feature>();
+		int i = lastStartingAtOrBefore(r.x - 1) + 1;
+		for (; i<n && x[order[i]] <= r.x + r.width; i++) {
+			int b = order[i];
+			if (x[b] + w[b] <= r.x + r.width && y[b] <= r.y + r.height && y[b] + h[b] >= r.y)
+				result.add(features[b]);
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return n;
+	}
+
+	private boolean isView(ViewParameters params) {
+		return sequence != null && sequence.equals(params.getSequence())
+			&& start == params.getStart() && scale == params.getScale()
+			&& deviceWidth == params.getDeviceWidth() && deviceHeight == params.getDeviceHeight();
+	}
+
+	/**
+	 * Drop boxes recorded while drawing the given strand.
+	 */
+	private void remove(Strand strand) {
+		int s = strand.ordinal();
+		covered[s] = false;
+		int j = 0;
+		for (int i=0; i<n; i++) {
+			if (strands[i] != s) {
+				x[j] = x[i];
+				y[j] = y[i];
+				w[j] = w[i];
+				h[j] = h[i];
+				strands[j] = strands[i];
+				features[j] = features[i];
+				j++;
+			}
+		}
+		if (j < n) {
+			Arrays.fill(features, j, n, null);
+			n = j;
+			sorted = false;
+		}
+	}
+
+	private void grow() {
+		int capacity = features.length * 2;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		w = Arrays.copyOf(w, capacity);
+		h = Arrays.copyOf(h, capacity);
+		strands = Arrays.copyOf(strands, capacity);
+		features = Arrays.copyOf(features, capacity);
+	}
+
+	private void sort() {
+		if (sorted) return;
+		// sort (x, index) pairs packed into longs
+		long[] keys = new long[n];
+		for (int i=0; i<n; i++)
+			keys[i] = ((long)x[i] << 32) | i;
+		Arrays.sort(keys);
+		order = new int[n];
+		maxRight = new int[n];
+		int max = Integer.MIN_VALUE;
+		for (int i=0; i<n; i++) {
+			int b = (int)(keys[i] & 0xFFFFFFFFL);
+			order[i] = b;
+			max = Math.max(max, x[b] + w[b]);
+			maxRight[i] = max;
+		}
+		sorted = true;
+	}
+
+	/**
+	 * @return position in order of the last box whose left edge is at or
+	 * before px, or -1
+	 */
+	private int lastStartingAtOrBefore(int px) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (x[order[mid]] <= px)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+}
@@ -0,0 +1,109 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Color;
+
+import org.systemsbiology.genomebrowser.model.Range;
+
+
+/**
+ * Base class for color scales that quantize values into a table of colors
+ * computed ahead of time, so converting a value to a color is a multiply
+ * and an array lookup rather than a call to Math.pow and a new Color. The
+ * table is rebuilt when the range or gamma changes.
+ *
+ * Values outside the range get the color of the nearest end of the range.
+ * The table is replaced rather than modified, so renderers on other
+ * threads sharing a color scale always see a complete one.
+ */
+public abstract class LookupTableColorScale implements ColorScale {
+	/**
+	 * number of entries in the table
+	 */
+	public static final int LEVELS = 1024;
+
+	protected Range range = new Range(-1.0, 1.0);
+	protected double gamma = 0.8;
+	private volatile Table table;
+
+
+	public void setRange(Range range) {
+		this.range = range;
+		table = null;
+	}
+
+	public void setGamma(double gamma) {
+		this.gamma = gamma;
+		table = null;
+	}
+
+	/**
+	 * @return the color of the given value, computed the slow way
+	 */
+	protected abstract int computeArgb(double value);
+
+	public int valueToArgb(double value) {
+		return getTable().argb(value);
+	}
+
+	public Color valueToColor(double value) {
+		return getTable().color(value);
+	}
+
+	/**
+	 * @return an opaque ARGB int, same as new Color(r, g, b).getRGB()
+	 * but with components clamped to 0..255
+	 */
+	protected static int rgb(int r, int g, int b) {
+		return 0xff000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+	}
+
+	private static int clamp(int c) {
+		return c < 0 ? 0 : (c > 255 ? 255 : c);
+	}
+
+	private Table getTable() {
+		Table t = table;
+		if (t == null) {
+			t = new Table(range, this);
+			table = t;
+		}
+		return t;
+	}
+
+
+	private static class Table {
+		final double min;
+		final double levelsPerUnit;
+		final int[] argb = new int[LEVELS];
+		final Color[] colors = new Color[LEVELS];
+		final int nanArgb;
+		final Color nanColor;
+
+		Table(Range range, LookupTableColorScale scale) {
+			min = range.min;
+			double width = range.max - range.min;
+			levelsPerUnit = width > 0.0 ? (LEVELS - 1) / width : 0.0;
+			for (int i=0; i<LEVELS; i++) {
+				argb[i] = scale.computeArgb(width > 0.0 ? min + i / levelsPerUnit : min);
+				colors[i] = new Color(argb[i], true);
+			}
+			nanArgb = scale.computeArgb(Double.NaN);
+			nanColor = new Color(nanArgb, true);
+		}
+
+		int index(double value) {
+			double i = (value - min) * levelsPerUnit + 0.5;
+			if (i <= 0.0) return 0;
+			if (i >= LEVELS - 1) return LEVELS - 1;
+			return (int)i;
+		}
+
+		int argb(double value) {
+			return value != value ? nanArgb : argb[index(value)];
+		}
+
+		Color color(double value) {
+			return value != value ? nanColor : colors[index(value)];
+		}
+	}
+}
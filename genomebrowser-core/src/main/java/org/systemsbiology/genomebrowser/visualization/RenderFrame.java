@@ -0,0 +1,299 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The layers of one frame. Each track is drawn into its own transparent
+ * layer by a worker thread, and the finished layers are composited in
+ * z-order onto the frame's image.
+ *
+ * Until a track is done, it can be stood in for by a coarse preview
+ * drawn into a second layer, or by a stale layer from an earlier frame
+ * moved to where it belongs in this one. Each change to what would be
+ * composited bumps a version, so the compositor can tell when there's
+ * something new to show.
+ *
+ * Layers are recycled once the compositor and all of the frame's track
+ * tasks are through with them, so a frame that's been superseded hands
+ * its layers back only after the tasks still drawing into them finish.
+ */
+class RenderFrame {
+	final int frame;
+	final int width;
+	final int height;
+	private final LayerPool pool;
+	private final BufferedImage[] layers;
+	private final boolean[] done;
+	private final BufferedImage[] previews;
+	private final boolean[] previewDone;
+	private final StaleLayer[] stale;
+	private int version;
+	final AtomicInteger tilesRendered = new AtomicInteger();
+	final AtomicInteger tilesReused = new AtomicInteger();
+	long startMillis;
+	private int pending;
+	private int references;
+	private boolean cancelled;
+
+
+	RenderFrame(int frame, int tracks, int width, int height, LayerPool pool) {
+		this.frame = frame;
+		this.width = width;
+		this.height = height;
+		this.pool = pool;
+		this.layers = new BufferedImage[tracks];
+		this.done = new boolean[tracks];
+		this.previews = new BufferedImage[tracks];
+		this.previewDone = new boolean[tracks];
+		this.stale = new StaleLayer[tracks];
+		this.pending = tracks;
+		// one reference for each track task and one for the compositor
+		this.references = tracks + 1;
+	}
+
+	/**
+	 * @return a cleared layer for the i-th track
+	 */
+	synchronized BufferedImage getLayer(int i) {
+		if (layers[i] == null)
+			layers[i] = pool.take(width, height);
+		return layers[i];
+	}
+
+	/**
+	 * @return a cleared layer for a coarse preview of the i-th track
+	 */
+	synchronized BufferedImage getPreview(int i) {
+		if (previews[i] == null)
+			previews[i] = pool.take(width, height);
+		return previews[i];
+	}
+
+	/**
+	 * Called by a track task when its preview is ready to be shown.
+	 */
+	synchronized void previewDone(int i) {
+		if (!previewDone[i]) {
+			previewDone[i] = true;
+			version++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stand in for the i-th track with a layer from an earlier frame until
+	 * it's done.
+	 */
+	synchronized void setStale(int i, StaleLayer layer) {
+		stale[i] = layer;
+	}
+
+	/**
+	 * Called by each track task when it's finished or has given up,
+	 * and releases the task's reference to the frame.
+	 */
+	synchronized void trackDone(int i) {
+		if (!done[i]) {
+			done[i] = true;
+			pending--;
+			version++;
+			notifyAll();
+		}
+		release();
+	}
+
+	/**
+	 * Wake up the compositor, which is waiting for a frame that's been
+	 * superseded.
+	 */
+	synchronized void cancel() {
+		cancelled = true;
+		notifyAll();
+	}
+
+	/**
+	 * Wait until all tracks are done, the frame is cancelled, or the
+	 * given time has passed.
+	 * @return true if all tracks are done
+	 */
+	synchronized boolean await(long millis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + millis;
+		long remaining = millis;
+		while (pending > 0 && !cancelled && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return pending == 0;
+	}
+
+	/**
+	 * Wait until something new can be shown, all tracks are done, the
+	 * frame is cancelled, or the given time has passed.
+	 * @return true if all tracks are done
+	 */
+	synchronized boolean awaitChange(int seen, long millis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + millis;
+		long remaining = millis;
+		while (version == seen && pending > 0 && !cancelled && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return pending == 0;
+	}
+
+	synchronized int getDoneCount() {
+		return layers.length - pending;
+	}
+
+	synchronized int getVersion() {
+		return version;
+	}
+
+	synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Draw the layers of the finished tracks in z-order. Tracks that
+	 * aren't done yet are drawn from their preview or stale layer if they
+	 * have one, and otherwise left out rather than drawn half finished.
+	 */
+	synchronized void composite(Graphics2D g) {
+		for (int i=0; i<layers.length; i++) {
+			if (done[i] && layers[i] != null)
+				g.drawImage(layers[i], 0, 0, null);
+			else if (previewDone[i] && previews[i] != null)
+				g.drawImage(previews[i], 0, 0, null);
+			else if (stale[i] != null)
+				stale[i].draw(g, height);
+		}
+	}
+
+	/**
+	 * Take the finished layer of the i-th track out of the frame, so it
+	 * isn't recycled and can stand in for the track in later frames.
+	 * @return the layer, or null if the track didn't finish
+	 */
+	synchronized SharedLayer detachLayer(int i) {
+		if (!done[i] || layers[i] == null) return null;
+		SharedLayer layer = new SharedLayer(layers[i], pool);
+		layers[i] = null;
+		return layer;
+	}
+
+	/**
+	 * Release a reference to the frame. When the last one is released,
+	 * the layers go back to the pool.
+	 */
+	synchronized void release() {
+		if (--references == 0) {
+			for (int i=0; i<layers.length; i++) {
+				if (layers[i] != null) {
+					pool.give(layers[i]);
+					layers[i] = null;
+				}
+				if (previews[i] != null) {
+					pool.give(previews[i]);
+					previews[i] = null;
+				}
+				if (stale[i] != null) {
+					stale[i].layer.release();
+					stale[i] = null;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A finished layer of a track from an earlier frame, stretched and
+	 * moved to where the part of the genome it shows is in this frame.
+	 * The frame releases the layer when it's through with it.
+	 */
+	static class StaleLayer {
+		final SharedLayer layer;
+		final int x;
+		final int width;
+
+		StaleLayer(SharedLayer layer, int x, int width) {
+			this.layer = layer;
+			this.x = x;
+			this.width = width;
+		}
+
+		void draw(Graphics2D g, int height) {
+			g.drawImage(layer.image, x, 0, width, height, null);
+		}
+	}
+
+	/**
+	 * A layer that outlives its frame to stand in for its track in later
+	 * ones. It goes back to the pool when the last of its holders lets go.
+	 */
+	static class SharedLayer {
+		final BufferedImage image;
+		private final LayerPool pool;
+		private int references = 1;
+
+		SharedLayer(BufferedImage image, LayerPool pool) {
+			this.image = image;
+			this.pool = pool;
+		}
+
+		synchronized SharedLayer retain() {
+			references++;
+			return this;
+		}
+
+		synchronized void release() {
+			if (--references == 0)
+				pool.give(image);
+		}
+	}
+
+
+	/**
+	 * Keeps layers around to avoid allocating a screen sized image for
+	 * every track on every frame. Layers of the wrong size are dropped.
+	 */
+	static class LayerPool {
+		private final ConcurrentLinkedQueue<BufferedImage> layers = new ConcurrentLinkedQueue<BufferedImage>();
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		BufferedImage take(int width, int height) {
+			outstanding.incrementAndGet();
+			BufferedImage layer;
+			while ((layer = layers.poll()) != null) {
+				if (layer.getWidth() == width && layer.getHeight() == height) {
+					Graphics2D g = layer.createGraphics();
+					g.setComposite(AlphaComposite.Clear);
+					g.fillRect(0, 0, width, height);
+					g.dispose();
+					return layer;
+				}
+			}
+			return new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB);
+		}
+
+		void give(BufferedImage layer) {
+			outstanding.decrementAndGet();
+			layers.add(layer);
+		}
+
+		/**
+		 * @return number of layers taken and not yet given back
+		 */
+		int getOutstanding() {
+			return outstanding.get();
+		}
+
+		void clear() {
+			layers.clear();
+		}
+	}
+}
@@ -12,18 +12,43 @@ public class RenderingContext {
 	final TrackRenderer renderer;
 	final FeatureFilter filter;
 	final int frame;
+	// null when rendering outside of the scheduler, as HeadlessRenderer does
 	final TrackRendererScheduler scheduler;
 	final Image image;
+	// device y coordinate of the top of the image
+	final int y;
+	// set if any data was skipped because the frame was out of date
+	volatile boolean cancelled;
+	// time spent in the renderer's draw methods, as opposed to fetching features
+	long drawNanos;
 
 	public RenderingContext(int frame, TrackRenderer renderer, FeatureFilter filter, TrackRendererScheduler scheduler, Image image) {
+		this(frame, renderer, filter, scheduler, image, 0);
+	}
+
+	public RenderingContext(int frame, TrackRenderer renderer, FeatureFilter filter, TrackRendererScheduler scheduler, Image image, int y) {
 		this.frame = frame;
 		this.renderer = renderer;
 		this.filter = filter;
 		this.scheduler = scheduler;
 		this.image = image;
+		this.y = y;
 	}
 
 	public Graphics getGraphics() {
-		return image.getGraphics();
+		Graphics g = image.getGraphics();
+		if (y != 0)
+			g.translate(0, -y);
+		return g;
+	}
+
+	/**
+	 * @return true if the frame being rendered is out of date, in which
+	 * case rendering is incomplete
+	 */
+	boolean isCancelled() {
+		if (scheduler != null && frame != scheduler.getCurrentFrame())
+			cancelled = true;
+		return cancelled;
 	}
 }
@@ -0,0 +1,25 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import org.systemsbiology.genomebrowser.model.AsyncFeatureCallback;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.util.Iteratable;
+
+/**
+ * Passes summaries of a track to a SummaryRenderer.
+ */
+public class SummaryCallback implements AsyncFeatureCallback {
+	private final RenderingContext context;
+
+	public SummaryCallback(RenderingContext context) {
+		this.context = context;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void consumeFeatures(final Iteratable<? extends Feature> features, FeatureFilter filter) {
+		if (context.isCancelled()) return;
+		long t0 = System.nanoTime();
+		((SummaryRenderer)context.renderer).drawSummaries(context.getGraphics(), (Iteratable<? extends Feature.Summary>)features, filter.strand);
+		context.drawNanos += System.nanoTime() - t0;
+	}
+}
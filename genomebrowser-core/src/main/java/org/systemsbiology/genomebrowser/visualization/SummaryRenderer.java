@@ -0,0 +1,16 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Graphics;
+
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Strand;
+
+/**
+ * A renderer for quantitative tracks that can draw precomputed summaries
+ * in place of the features themselves when zoomed out far enough that each
+ * pixel covers many features.
+ * @see org.systemsbiology.genomebrowser.model.SummaryLevel
+ */
+public interface SummaryRenderer {
+	public void drawSummaries(Graphics g, Iterable<? extends Feature.Summary> summaries, Strand strand);
+}
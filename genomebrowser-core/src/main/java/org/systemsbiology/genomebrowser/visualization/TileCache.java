@@ -0,0 +1,224 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.image.BufferedImage;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.cache.BlockCache;
+import org.systemsbiology.genomebrowser.cache.CacheStats;
+import org.systemsbiology.genomebrowser.cache.SizeOf;
+import org.systemsbiology.genomebrowser.cache.Sized;
+
+
+/**
+ * Holds rendered tiles of tracks, so panning only has to render the part
+ * of the genome that's newly exposed. A tile is a fixed number of pixels
+ * wide and covers a whole number of bases at a given zoom level. Zoom
+ * levels quantize the scale, LEVELS_PER_OCTAVE of them to each doubling,
+ * so that views at nearly the same scale share tiles. A tile is rendered
+ * at the scale of the view that first needs it, and stretched a little
+ * when drawn into views at other scales of its level.
+ * Tiles are keyed by track, sequence, zoom level and tile index along
+ * with the things that change how a track looks: its renderer's class
+ * and attributes, the height of the view, and a generation number that's
+ * bumped when a track is invalidated.
+ *
+ * Tiles live in a BlockCache with a budget of their own, taken from the
+ * system property genomebrowser.tilecache.bytes, or failing that 1/8th
+ * of the max heap.
+ */
+public class TileCache {
+	private static final Logger log = Logger.getLogger(TileCache.class);
+
+	public static final String BUDGET_PROPERTY = "genomebrowser.tilecache.bytes";
+	public static final double DEFAULT_FRACTION = 0.125;
+
+	/**
+	 * width of a tile in pixels, give or take rounding
+	 */
+	public static final int TILE_WIDTH = 256;
+
+	/**
+	 * features this far outside a tile are drawn too, so that anything
+	 * they draw beyond their own extent (labels, markers) isn't cut off
+	 * at tile boundaries.
+	 */
+	public static final int MARGIN = 64;
+
+	/**
+	 * zoom levels to each doubling of the scale. At 64, a tile is stretched
+	 * by at most about 1%.
+	 */
+	public static final int LEVELS_PER_OCTAVE = 64;
+
+	private final BlockCache<TileKey, Tile> cache;
+	private final ConcurrentHashMap<UUID, Integer> generations = new ConcurrentHashMap<UUID, Integer>();
+	private final AtomicInteger generation = new AtomicInteger();
+
+	// generation of the tracks not invalidated on their own since the last invalidateAll()
+	private volatile int baseGeneration;
+
+
+	public TileCache() {
+		this(getDefaultBudget());
+	}
+
+	public TileCache(long maxBytes) {
+		cache = new BlockCache<TileKey, Tile>(maxBytes);
+		log.info(String.format("tile cache budget = %,d bytes", maxBytes));
+	}
+
+	public static long getDefaultBudget() {
+		String bytes = System.getProperty(BUDGET_PROPERTY);
+		if (bytes != null) {
+			try {
+				return Long.parseLong(bytes.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + BUDGET_PROPERTY + ": " + bytes);
+			}
+		}
+		return (long)(Runtime.getRuntime().maxMemory() * DEFAULT_FRACTION);
+	}
+
+	/**
+	 * @return number of bases covered by a tile at the given scale in pixels per base
+	 */
+	public static int basesPerTile(double scale) {
+		return (int)Math.max(1L, Math.round(TILE_WIDTH / scale));
+	}
+
+	/**
+	 * @return the zoom level nearest the given scale in pixels per base
+	 */
+	public static int zoomLevel(double scale) {
+		return (int)Math.round(Math.log(scale) / Math.log(2.0) * LEVELS_PER_OCTAVE);
+	}
+
+	/**
+	 * @return the scale, in pixels per base, in the middle of the given
+	 * zoom level, which sets how many bases its tiles cover
+	 */
+	public static double levelScale(int zoomLevel) {
+		return Math.pow(2.0, zoomLevel / (double)LEVELS_PER_OCTAVE);
+	}
+
+	Tile get(TileKey key) {
+		return cache.get(key);
+	}
+
+	void put(TileKey key, Tile tile) {
+		cache.put(key, tile);
+	}
+
+	/**
+	 * @return current generation of tiles of the given track
+	 */
+	int getGeneration(UUID trackUuid) {
+		Integer g = generations.get(trackUuid);
+		return g == null ? baseGeneration : g;
+	}
+
+	/**
+	 * Drop the tiles of a track, for instance after its data changes.
+	 * Old tiles are no longer found and age out of the cache.
+	 */
+	public void invalidate(UUID trackUuid) {
+		generations.put(trackUuid, generation.incrementAndGet());
+	}
+
+	/**
+	 * Drop all tiles.
+	 */
+	public void invalidateAll() {
+		generations.clear();
+		baseGeneration = generation.incrementAndGet();
+		cache.clear();
+	}
+
+	public CacheStats getStats() {
+		return cache.getStats();
+	}
+
+
+	/**
+	 * A rendered tile. The image covers a horizontal band of the view from
+	 * y to y + height, which holds the track and a little room around it,
+	 * and was drawn at the given scale.
+	 */
+	static class Tile implements Sized {
+		final BufferedImage image;
+		final int y;
+		final double scale;
+
+		Tile(BufferedImage image, int y, double scale) {
+			this.image = image;
+			this.y = y;
+			this.scale = scale;
+		}
+
+		public long getSizeInBytes() {
+			return SizeOf.OBJECT_HEADER * 2 + 4L * image.getWidth() * image.getHeight();
+		}
+	}
+
+
+	static class TileKey {
+		final UUID trackUuid;
+		final int generation;
+		final String rendererClass;
+		final int attributesHash;
+		final String seqId;
+		final int zoomLevel;
+		final int deviceHeight;
+		final long tileIndex;
+		private final int hashCode;
+
+		TileKey(UUID trackUuid, int generation, String rendererClass, int attributesHash, String seqId, int zoomLevel, int deviceHeight, long tileIndex) {
+			this.trackUuid = trackUuid;
+			this.generation = generation;
+			this.rendererClass = rendererClass;
+			this.attributesHash = attributesHash;
+			this.seqId = seqId;
+			this.zoomLevel = zoomLevel;
+			this.deviceHeight = deviceHeight;
+			this.tileIndex = tileIndex;
+			int h = trackUuid.hashCode();
+			h = h * 31 + generation;
+			h = h * 31 + rendererClass.hashCode();
+			h = h * 31 + attributesHash;
+			h = h * 31 + seqId.hashCode();
+			h = h * 31 + zoomLevel;
+			h = h * 31 + deviceHeight;
+			h = h * 31 + (int)(tileIndex ^ (tileIndex >>> 32));
+			this.hashCode = h;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) return true;
+			if (!(object instanceof TileKey)) return false;
+			TileKey other = (TileKey)object;
+			return tileIndex == other.tileIndex
+				&& zoomLevel == other.zoomLevel
+				&& generation == other.generation
+				&& attributesHash == other.attributesHash
+				&& deviceHeight == other.deviceHeight
+				&& trackUuid.equals(other.trackUuid)
+				&& seqId.equals(other.seqId)
+				&& rendererClass.equals(other.rendererClass);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("(TileKey %s %s:%d zoom=%d)", trackUuid, seqId, tileIndex, zoomLevel);
+		}
+	}
+}
@@ -19,7 +19,7 @@ import org.systemsbiology.util.Hyperlink;
 /**
  * A class that draws a track of data onto the viewer panel.
  */
-public abstract class TrackRenderer {
+public abstract class TrackRenderer implements Cloneable {
 
 	protected Track<? extends Feature> track;
 
@@ -72,6 +72,22 @@ public abstract class TrackRenderer {
 	// TODO pass sequence here? or Key? or FeatureFilter?
 	public abstract void draw(Graphics g, Iterable<? extends Feature> features, Strand strand);
 
+	/**
+	 * @return a shallow copy of this renderer that draws with the given
+	 * view parameters, used to render a tile of the track without
+	 * disturbing the renderer the UI is using.
+	 */
+	public TrackRenderer copyWithViewParameters(ViewParameters p) {
+		try {
+			TrackRenderer copy = (TrackRenderer)clone();
+			copy.params = p;
+			return copy;
+		}
+		catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public List<Feature> getContainedFeatures(Sequence s, Rectangle r) {
 		return Collections.emptyList();
 	}
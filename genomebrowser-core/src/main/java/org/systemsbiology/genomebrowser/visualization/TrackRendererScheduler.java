@@ -1,20 +1,37 @@
 package org.systemsbiology.genomebrowser.visualization;
 
 import java.awt.Color;
-import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.metrics.Counter;
+import org.systemsbiology.genomebrowser.metrics.Gauge;
+import org.systemsbiology.genomebrowser.metrics.Histogram;
+import org.systemsbiology.genomebrowser.metrics.Metrics;
 import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Prefetcher;
 import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.visualization.View;
 import org.systemsbiology.genomebrowser.visualization.ViewParameters.ViewParametersListener;
 import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
+import org.systemsbiology.util.HasSelections;
 
 /**
  * Coordinate rendering to an off screen image.
@@ -22,12 +39,92 @@ import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
  * The scheduler is responsible for maintaining a queue of tasks which access
  * and render track data. The scheduler keeps a frame counter which the tasks
  * can check to avoid unnecessary work.
+ *
+ * Each track is rendered into a layer of its own on a pool of worker
+ * threads, so a frame takes about as long as its slowest track rather than
+ * the sum of all of them. The task runner thread composites the finished
+ * layers in z-order and hands the image to the view once all tracks are
+ * done.
+ *
+ * Each frame gets a latency budget: the frame budget (16 ms) while the
+ * user is dragging or scrolling, that is, when frames come in quick
+ * succession, and the frame deadline otherwise. When the budget runs out,
+ * whatever is ready is shown, and the image is refined as the rest of the
+ * tracks finish. Tracks that aren't done yet are stood in for by their
+ * layer from the last finished frame, moved and stretched to fit, so they
+ * don't blink out. TrackTimings keeps a moving average of how long each
+ * track takes, and tracks expected to blow the budget that have summary
+ * levels get a quick first pass from a coarser level instead. Setting the
+ * system property genomebrowser.render.diagnostics draws the timings over
+ * the view, and they're logged every so often.
+ *
+ * Tracks are rendered in tiles, which are kept in a TileCache, so panning
+ * only renders the tiles that come into view. Renderers that let the user
+ * select features are drawn directly, since selecting doesn't invalidate
+ * their tiles. A FrameTimer keeps track of how long frames take.
+ *
+ * If given a Prefetcher, the scheduler also passes each frame on to
+ * it to load the blocks we're likely to need next.
+ *
+ * When Metrics are enabled, the scheduler counts frames scheduled,
+ * completed and cancelled, times frames, and times each track's fetching
+ * of features (featuresAsync, less the time spent drawing) separately from
+ * its drawing, in histograms track.[name].[uuid].fetch and
+ * track.[name].[uuid].draw, which are dropped when the track is removed.
+ * The uuid keeps tracks of the same name apart.
  */
 public class TrackRendererScheduler implements ViewParametersListener {
-	@SuppressWarnings("unused")
 	private static final Logger log = Logger.getLogger(TrackRendererScheduler.class);
+	public static final String RENDER_THREADS_PROPERTY = "genomebrowser.render.threads";
+	public static final String DIAGNOSTICS_PROPERTY = "genomebrowser.render.diagnostics";
+	public static final long DEFAULT_FRAME_DEADLINE = 100L;
+	public static final long DEFAULT_FRAME_BUDGET = 16L;
+
+	/**
+	 * frames scheduled within this long of the one before are taken to be
+	 * part of a drag or scroll, and get the frame budget
+	 */
+	public static final long INTERACTIVE_INTERVAL = 250L;
+
+	/**
+	 * how much coarser, in bases per pixel, the summary level drawn as a
+	 * preview of a slow track is
+	 */
+	static final int PREVIEW_COARSENESS = 8;
+
+	// compositing tasks, run on the task runner thread
 	private BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
 
+	// track rendering tasks, run on the worker pool
+	private BlockingQueue<Runnable> renderQueue = new LinkedBlockingQueue<Runnable>();
+	private ThreadPoolExecutor renderExecutor;
+	private int renderThreads = getRenderThreadCount();
+	private long frameDeadline = DEFAULT_FRAME_DEADLINE;
+	private long frameBudget = DEFAULT_FRAME_BUDGET;
+	private long lastScheduleMillis;
+	private boolean diagnostics = Boolean.getBoolean(DIAGNOSTICS_PROPERTY);
+	private final RenderFrame.LayerPool layerPool = new RenderFrame.LayerPool();
+	private volatile RenderFrame currentRenderFrame;
+	private volatile TileCache tileCache = new TileCache();
+
+	// publish() draws into these in turn, so the view can still be reading
+	// the last one while the next is drawn
+	private final Image[] frontImages = new Image[2];
+	private int front;
+	private final FrameTimer frameTimer = new FrameTimer();
+	private final TrackTimings trackTimings = new TrackTimings();
+	private final Metrics metrics = Metrics.getInstance();
+	private final Counter framesScheduled = metrics.counter("frames.scheduled");
+	private final Counter framesCompleted = metrics.counter("frames.completed");
+	private final Counter framesCancelled = metrics.counter("frames.cancelled");
+	private final Histogram frameTime = metrics.histogram("frames.time");
+
+	// fetch and draw times, by track uuid
+	private final Map<UUID, TrackHistograms> trackHistograms = new ConcurrentHashMap<UUID, TrackHistograms>();
+
+	// layers of the last finished frame, by track uuid
+	private final Map<UUID, FinishedLayer> finishedLayers = new HashMap<UUID, FinishedLayer>();
+
 	// counts frames to avoid drawing blocks from previous frames.
 	private AtomicInteger counter = new AtomicInteger();
 
@@ -35,6 +132,7 @@ public class TrackRendererScheduler implements ViewParametersListener {
 	
 	private View view;
 	private TaskRunner taskRunner;
+	private Prefetcher prefetcher;
 
 	public void setView(View view) {
 		this.view = view;
@@ -45,6 +143,117 @@ public class TrackRendererScheduler implements ViewParametersListener {
 		this.trackManager = trackManager;
 	}
 
+	// dependency
+	public void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+
+	/**
+	 * Set the number of threads that render tracks. Takes effect when the
+	 * task runner thread is started.
+	 */
+	public void setRenderThreads(int renderThreads) {
+		this.renderThreads = Math.max(1, renderThreads);
+	}
+
+	/**
+	 * Set how long to wait for all tracks to be rendered before showing
+	 * the ones that are done.
+	 */
+	public void setFrameDeadline(long millis) {
+		this.frameDeadline = millis;
+	}
+
+	/**
+	 * Set how long to wait for all tracks to be rendered before showing
+	 * what's ready, while the user is dragging or scrolling.
+	 */
+	public void setFrameBudget(long millis) {
+		this.frameBudget = millis;
+	}
+
+	/**
+	 * Draw per-track render times over the view, or not.
+	 */
+	public void setDiagnostics(boolean diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	/**
+	 * Set the cache for rendered tiles, or null to render every track
+	 * from scratch on every frame.
+	 */
+	public void setTileCache(TileCache tileCache) {
+		this.tileCache = tileCache;
+	}
+
+	public TileCache getTileCache() {
+		return tileCache;
+	}
+
+	/**
+	 * Drop all rendered tiles and the layers kept to stand in for tracks,
+	 * for instance after tracks have changed.
+	 */
+	public void invalidateTiles() {
+		TileCache tiles = tileCache;
+		if (tiles != null)
+			tiles.invalidateAll();
+		synchronized (finishedLayers) {
+			for (FinishedLayer finished : finishedLayers.values())
+				finished.layer.release();
+			finishedLayers.clear();
+		}
+	}
+
+	/**
+	 * Drop the rendered tiles of the given track, and its stand-in layer.
+	 */
+	public void invalidateTiles(Track<?> track) {
+		if (track != null)
+			invalidateTiles(track.getUuid());
+	}
+
+	/**
+	 * Drop the rendered tiles of the track with the given uuid, and its
+	 * stand-in layer, for instance after its features or attributes have
+	 * changed or it's been deleted.
+	 */
+	public void invalidateTiles(UUID trackUuid) {
+		TileCache tiles = tileCache;
+		if (tiles != null)
+			tiles.invalidate(trackUuid);
+		synchronized (finishedLayers) {
+			FinishedLayer finished = finishedLayers.remove(trackUuid);
+			if (finished != null)
+				finished.layer.release();
+		}
+	}
+
+	/**
+	 * Forget a track that's been deleted: its tiles, its stand-in layer,
+	 * its timings and its histograms.
+	 */
+	public void trackRemoved(UUID trackUuid) {
+		invalidateTiles(trackUuid);
+		trackTimings.remove(trackUuid);
+		TrackHistograms histograms = trackHistograms.remove(trackUuid);
+		if (histograms != null)
+			histograms.remove(metrics);
+	}
+
+	public FrameTimer getFrameTimer() {
+		return frameTimer;
+	}
+
+	public TrackTimings getTrackTimings() {
+		return trackTimings;
+	}
+
+	RenderFrame.LayerPool getLayerPool() {
+		return layerPool;
+	}
+
 	public int getCurrentFrame() {
 		return counter.get();
 	}
@@ -52,49 +261,133 @@ public class TrackRendererScheduler implements ViewParametersListener {
 	public void startTaskRunnerThread() {
 		taskRunner = new TaskRunner();
 		taskRunner.setQueue(queue);
+		getRenderExecutor();
+		metrics.gauge("render.queue.depth", new Gauge() {
+			public long getValue() {
+				return renderQueue.size();
+			}
+		});
 		new Thread(taskRunner).start();
 	}
 
+	private synchronized ThreadPoolExecutor getRenderExecutor() {
+		if (renderExecutor == null) {
+			renderExecutor = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS, renderQueue, new TrackRendererThreadFactory());
+			log.info("rendering tracks on " + renderThreads + " threads");
+		}
+		return renderExecutor;
+	}
+
 	/**
 	 * Schedule the given renderers to do their thing on the given region of the genome.
 	 */
-	public void schedule(Iterable<TrackRenderer> renderers, Sequence sequence, int start, int end) {
+	public void schedule(Iterable<TrackRenderer> renderers, final Sequence sequence, final int start, int end) {
 
 		// rendering timing
-		// final long startMillis = System.currentTimeMillis();
+		final long startMillis = System.currentTimeMillis();
+		final long budget = (startMillis - lastScheduleMillis < INTERACTIVE_INTERVAL) ? frameBudget : frameDeadline;
+		lastScheduleMillis = startMillis;
 		//log.info(String.format("rendering: %s:%,d-%,d", sequence.getSeqId(), start, end));
 
 		// increment frame counter
 		final int frame = counter.incrementAndGet();
 
-		// remove all pending BlockKeys from the queue, we may not need to load them anymore.
-		queue.clear();
-		
-		// the queue can't ever get too full, 'cause we clear it here. So, at most,
-		// we'll have one frame worth of data tasks plus whatever task was in-progress
-		// at the time.
+		// tasks of earlier frames still in the queues aren't dropped, since
+		// each holds a reference to its frame that only it can release. They
+		// see they've been superseded and quit without doing any work.
+
+		RenderFrame previous = currentRenderFrame;
+		if (previous != null)
+			previous.cancel();
 
 		if (sequence==null) return;
+		if (metrics.isEnabled())
+			framesScheduled.increment();
 		final FeatureFilter filter = new FeatureFilter(sequence, Strand.any, start, end);
 
-		// creating this buffer every time is probably slow. Maybe we could just recreate when
-		// panel size changes? Or just create one big enough for the whole screen?
-		final Image offScreenImage = view.createImage(view.getWidth(), view.getHeight());
-		Graphics g = offScreenImage.getGraphics();
-		g.setColor(Color.WHITE);
-		g.fillRect(0, 0, view.getWidth(), view.getHeight());
+		final List<TrackRenderer> visible = new ArrayList<TrackRenderer>();
+		for (TrackRenderer renderer: renderers) {
+			// genome track is rendered in the swing thread so skip rendering it here
+			if (!"Genome".equals(renderer.getTrack().getName()))
+				visible.add(renderer);
+		}
 
+		final RenderFrame renderFrame = new RenderFrame(frame, visible.size(), view.getWidth(), view.getHeight(), layerPool);
+		renderFrame.startMillis = startMillis;
+		currentRenderFrame = renderFrame;
+		final double scale = ((double)view.getWidth()) / (end - start + 1);
 
-		for (TrackRenderer renderer: renderers) {
+		// a snapshot of the view, taken here on the swing thread, for
+		// positioning tiles
+		final ViewParameters viewParameters = getViewParameters(visible, sequence, start, end);
+		final TileCache tiles = tileCache;
+
+		List<Track<?>> tracks = new ArrayList<Track<?>>();
+		double basesPerPixel = ((double)(end - start + 1)) / Math.max(1, view.getWidth());
+		ThreadPoolExecutor executor = getRenderExecutor();
+
+		for (int i=0; i<visible.size(); i++) {
+			final int layer = i;
+			final TrackRenderer renderer = visible.get(i);
 			final Track<?> track = renderer.getTrack();
-			// genome track is rendered in the swing thread so skip rendering it here
-			if ("Genome".equals(track.getName())) continue;
 
-			final RenderingContext context = new RenderingContext(frame, renderer, filter, this, offScreenImage);
-			queue.add(new Runnable() {
+			tracks.add(track);
+
+			// when zoomed out, draw summaries rather than individual features
+			final SummaryLevel level = getSummaryLevel(renderer, basesPerPixel);
+
+			// until the track is done, show what it looked like last time,
+			// or if it won't make the budget, a preview from coarser summaries
+			SummaryLevel coarser = null;
+			if (trackTimings.getExpectedMillis(track) > budget) {
+				coarser = getSummaryLevel(renderer, basesPerPixel * PREVIEW_COARSENESS);
+				if (coarser != null && level != null && coarser.getBinSize() <= level.getBinSize())
+					coarser = null;
+			}
+			if (coarser == null)
+				renderFrame.setStale(layer, getStaleLayer(track, sequence, start, scale));
+			final SummaryLevel preview = coarser;
+
+			executor.execute(new Runnable() {
 				public void run() {
-					if (frame!=getCurrentFrame()) return;
-					track.featuresAsync(filter, new FeatureCallback(context));
+					try {
+						if (frame!=getCurrentFrame()) return;
+						if (preview != null) {
+							RenderingContext context = new RenderingContext(frame, renderer, filter, TrackRendererScheduler.this, renderFrame.getPreview(layer));
+							preview.featuresAsync(filter, new SummaryCallback(context));
+							if (context.isCancelled()) return;
+							renderFrame.previewDone(layer);
+						}
+						long t0 = System.currentTimeMillis();
+						long n0 = System.nanoTime();
+						long drawNanos;
+						if (tiles != null && viewParameters != null && isTiled(renderer)) {
+							drawNanos = renderTiles(renderFrame, renderFrame.getLayer(layer), renderer, level, viewParameters, tiles);
+						}
+						else {
+							RenderingContext context = new RenderingContext(frame, renderer, filter, TrackRendererScheduler.this, renderFrame.getLayer(layer));
+							if (level != null)
+								level.featuresAsync(filter, new SummaryCallback(context));
+							else
+								track.featuresAsync(filter, new FeatureCallback(context));
+							drawNanos = context.drawNanos;
+						}
+						if (frame == getCurrentFrame()) {
+							trackTimings.trackRendered(track, System.currentTimeMillis() - t0);
+							if (metrics.isEnabled()) {
+								long nanos = System.nanoTime() - n0;
+								TrackHistograms histograms = getTrackHistograms(track);
+								histograms.fetch.record(nanos - drawNanos);
+								histograms.draw.record(drawNanos);
+							}
+						}
+					}
+					catch (Exception e) {
+						log.warn("Exception rendering track " + track.getName(), e);
+					}
+					finally {
+						renderFrame.trackDone(layer);
+					}
 				}
 			});
 
@@ -118,13 +411,12 @@ public class TrackRendererScheduler implements ViewParametersListener {
 		
 		queue.add(new Runnable() {
 			public void run() {
-				if (frame!=getCurrentFrame()) return;
-				view.updateImage(offScreenImage);
-				
-				// rendering timing
-				//log.info("frame rendered in " + (System.currentTimeMillis()-startMillis) + " milliseconds");
+				composite(renderFrame, visible, budget, sequence, start, scale);
 			}
 		});
+
+		if (prefetcher != null)
+			prefetcher.viewChanged(tracks, sequence, start, end, frame);
 //		queue.add(new Runnable() {
 //			public void run() {
 //				try {
@@ -141,6 +433,324 @@ public class TrackRendererScheduler implements ViewParametersListener {
 //		});
 	}
 
+	/**
+	 * Wait for the tracks of the frame to be rendered, showing what's
+	 * ready when the budget runs out, then again each time there's more to
+	 * show, at most once per budget, until all are done or a newer frame
+	 * comes along.
+	 */
+	private void composite(RenderFrame renderFrame, List<TrackRenderer> renderers, long budget, Sequence sequence, int start, double scale) {
+		try {
+			boolean complete = renderFrame.await(budget);
+			int shown = -1;
+			while (true) {
+				if (renderFrame.isCancelled() || renderFrame.frame!=getCurrentFrame()) {
+					if (metrics.isEnabled())
+						framesCancelled.increment();
+					return;
+				}
+				int version = renderFrame.getVersion();
+				if (complete) {
+					long millis = System.currentTimeMillis() - renderFrame.startMillis;
+					frameTimer.frameRendered(millis, renderFrame.tilesRendered.get(), renderFrame.tilesReused.get());
+					trackTimings.frameRendered();
+					if (metrics.isEnabled()) {
+						framesCompleted.increment();
+						frameTime.record(millis * 1000000L);
+					}
+				}
+				if (complete || version != shown) {
+					publish(renderFrame, renderers);
+					shown = version;
+				}
+				if (complete) {
+					keepFinishedLayers(renderFrame, renderers, sequence, start, scale);
+					return;
+				}
+				// wait for something new, then give the other tracks a
+				// budget's worth of time to finish too
+				complete = renderFrame.awaitChange(shown, frameDeadline);
+				if (!complete)
+					complete = renderFrame.await(budget);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			renderFrame.release();
+		}
+	}
+
+	private void publish(RenderFrame renderFrame, List<TrackRenderer> renderers) {
+		Image offScreenImage = nextFrontImage(renderFrame.width, renderFrame.height);
+		Graphics2D g = (Graphics2D)offScreenImage.getGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, renderFrame.width, renderFrame.height);
+		renderFrame.composite(g);
+		if (diagnostics)
+			drawDiagnostics(g, renderFrame, renderers);
+		g.dispose();
+		view.updateImage(offScreenImage);
+	}
+
+	/**
+	 * @return the image to publish into next: the one not handed to the
+	 * view last time, made anew only when the view has changed size.
+	 */
+	private Image nextFrontImage(int width, int height) {
+		front = 1 - front;
+		Image image = frontImages[front];
+		if (image == null || image.getWidth(null) != width || image.getHeight(null) != height) {
+			if (image != null)
+				image.flush();
+			image = view.createImage(width, height);
+			frontImages[front] = image;
+		}
+		return image;
+	}
+
+	/**
+	 * Draw the render times of the frame's tracks in the corner of the view.
+	 */
+	private void drawDiagnostics(Graphics2D g, RenderFrame renderFrame, List<TrackRenderer> renderers) {
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format("frame %d: %d of %d tracks, %,d ms", renderFrame.frame, renderFrame.getDoneCount(),
+				renderers.size(), System.currentTimeMillis() - renderFrame.startMillis));
+		for (TrackTimings.Timing timing : trackTimings.getTimings())
+			lines.add(timing.toString());
+		g.setFont(g.getFont().deriveFont(10.0F));
+		int lineHeight = g.getFontMetrics().getHeight();
+		int w = 0;
+		for (String line : lines)
+			w = Math.max(w, g.getFontMetrics().stringWidth(line));
+		g.setColor(new Color(0xC0FFFFFF, true));
+		g.fillRect(4, 4, w + 8, lineHeight * lines.size() + 6);
+		g.setColor(Color.BLACK);
+		for (int i=0; i<lines.size(); i++)
+			g.drawString(lines.get(i), 8, 6 + lineHeight * (i + 1) - g.getFontMetrics().getDescent());
+	}
+
+	/**
+	 * Hang on to the layers of a finished frame to stand in for their
+	 * tracks in the next frames, letting go of the ones they replace.
+	 */
+	private void keepFinishedLayers(RenderFrame renderFrame, List<TrackRenderer> renderers, Sequence sequence, int start, double scale) {
+		synchronized (finishedLayers) {
+			for (int i=0; i<renderers.size(); i++) {
+				Track<?> track = renderers.get(i).getTrack();
+				RenderFrame.SharedLayer layer = renderFrame.detachLayer(i);
+				FinishedLayer old = (layer == null) ? finishedLayers.remove(track.getUuid())
+						: finishedLayers.put(track.getUuid(), new FinishedLayer(layer, sequence, start, scale));
+				if (old != null)
+					old.layer.release();
+			}
+		}
+	}
+
+	/**
+	 * @return the track's last finished layer, placed to show the given
+	 * region, or null if there isn't one for this sequence.
+	 */
+	private RenderFrame.StaleLayer getStaleLayer(Track<?> track, Sequence sequence, int start, double scale) {
+		synchronized (finishedLayers) {
+			FinishedLayer finished = finishedLayers.get(track.getUuid());
+			if (finished == null || !finished.sequence.equals(sequence))
+				return null;
+			int x = (int)Math.round((finished.start - start) * scale);
+			int width = (int)Math.round(finished.layer.image.getWidth() / finished.scale * scale);
+			return new RenderFrame.StaleLayer(finished.layer.retain(), x, width);
+		}
+	}
+
+	/**
+	 * Draw a track onto its layer from tiles, rendering the tiles that
+	 * aren't in the cache. Gives up if the frame is superseded.
+	 * @return nanoseconds spent in the renderer's draw methods
+	 */
+	private long renderTiles(RenderFrame renderFrame, BufferedImage layer, TrackRenderer renderer, SummaryLevel level, ViewParameters p, TileCache tiles) {
+		Track<?> track = renderer.getTrack();
+		Sequence sequence = p.getSequence();
+		double scale = p.getScale();
+		int height = p.getDeviceHeight();
+
+		// all scales of a zoom level cut the sequence into the same tiles,
+		// so they can share them
+		int zoomLevel = TileCache.zoomLevel(scale);
+		int bases = TileCache.basesPerTile(TileCache.levelScale(zoomLevel));
+		int tileWidth = (int)Math.ceil(bases * scale) + 1;
+		int margin = (int)Math.ceil(TileCache.MARGIN / scale);
+
+		// the band of the view the track occupies, with a little room around
+		// it. Many renderers draw the reverse strand mirrored about the middle
+		// of the view, so the band includes the mirror image too.
+		double top = Math.min(renderer.getTop(), 1.0 - renderer.getTop() - renderer.getHeight());
+		double bottom = Math.max(renderer.getTop() + renderer.getHeight(), 1.0 - renderer.getTop());
+		int y0 = Math.max(0, (int)(top * height) - TileCache.MARGIN);
+		int y1 = Math.min(height, (int)Math.ceil(bottom * height) + TileCache.MARGIN);
+		if (y1 <= y0) {
+			y0 = 0;
+			y1 = height;
+		}
+
+		int generation = tiles.getGeneration(track.getUuid());
+		int attributesHash = track.getAttributes().entrySet().hashCode();
+		String rendererClass = renderer.getClass().getName();
+
+		long first = p.getStart() / bases;
+		long last = (p.getStart() + (long)Math.ceil(renderFrame.width / scale)) / bases;
+
+		long drawNanos = 0L;
+		Graphics2D g = layer.createGraphics();
+		try {
+			for (long t = first; t <= last; t++) {
+				if (renderFrame.frame != getCurrentFrame()) return drawNanos;
+
+				TileCache.TileKey key = new TileCache.TileKey(track.getUuid(), generation, rendererClass, attributesHash,
+						sequence.getSeqId(), zoomLevel, height, t);
+				TileCache.Tile tile = tiles.get(key);
+				if (tile == null) {
+					int tileStart = (int)(t * bases);
+					BufferedImage image = new BufferedImage(tileWidth, y1 - y0, BufferedImage.TYPE_INT_ARGB);
+					TrackRenderer tileRenderer = renderer.copyWithViewParameters(p.forRegion(tileStart, tileStart + bases - 1, tileWidth));
+					FeatureFilter filter = new FeatureFilter(sequence, Strand.any, Math.max(0, tileStart - margin), tileStart + bases - 1 + margin);
+					RenderingContext context = new RenderingContext(renderFrame.frame, tileRenderer, filter, this, image, y0);
+					if (level != null)
+						level.featuresAsync(filter, new SummaryCallback(context));
+					else
+						track.featuresAsync(filter, new FeatureCallback(context));
+					drawNanos += context.drawNanos;
+					if (context.isCancelled()) return drawNanos;
+					tile = new TileCache.Tile(image, y0, scale);
+					tiles.put(key, tile);
+					renderFrame.tilesRendered.incrementAndGet();
+				}
+				else {
+					renderFrame.tilesReused.incrementAndGet();
+				}
+
+				int x = (int)Math.round((t * bases - p.getStart()) * scale);
+				int next = (int)Math.round(((t + 1) * bases - p.getStart()) * scale);
+				g.setClip(x, 0, next - x, height);
+				if (tile.scale == scale)
+					g.drawImage(tile.image, x, tile.y, null);
+				else
+					g.drawImage(tile.image, x, tile.y, (int)Math.ceil(tile.image.getWidth() * scale / tile.scale), tile.image.getHeight(), null);
+			}
+			return drawNanos;
+		}
+		finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Renderers that let the user select features are drawn directly
+	 * rather than from tiles.
+	 */
+	private boolean isTiled(TrackRenderer renderer) {
+		return !(renderer instanceof HasSelections);
+	}
+
+	/**
+	 * @return a copy of the view parameters the renderers draw with, or
+	 * null if they don't have any
+	 */
+	private ViewParameters getViewParameters(List<TrackRenderer> renderers, Sequence sequence, int start, int end) {
+		for (TrackRenderer renderer : renderers) {
+			ViewParameters p = renderer.params;
+			if (p != null && p.getScale() > 0.0 && sequence.equals(p.getSequence()))
+				return p.forRegion(start, end, view.getWidth());
+		}
+		return null;
+	}
+
+	/**
+	 * @return the fetch and draw histograms of the track, made anew if the
+	 * track has been renamed since they were made
+	 */
+	private TrackHistograms getTrackHistograms(Track<?> track) {
+		TrackHistograms histograms = trackHistograms.get(track.getUuid());
+		if (histograms == null || !histograms.name.equals(track.getName())) {
+			synchronized (trackHistograms) {
+				histograms = trackHistograms.get(track.getUuid());
+				if (histograms == null || !histograms.name.equals(track.getName())) {
+					if (histograms != null)
+						histograms.remove(metrics);
+					histograms = new TrackHistograms(track, metrics);
+					trackHistograms.put(track.getUuid(), histograms);
+				}
+			}
+		}
+		return histograms;
+	}
+
+	private static int getRenderThreadCount() {
+		String threads = System.getProperty(RENDER_THREADS_PROPERTY);
+		if (threads != null) {
+			try {
+				return Math.max(1, Integer.parseInt(threads.trim()));
+			}
+			catch (NumberFormatException e) {
+				log.warn("Ignoring bad value for " + RENDER_THREADS_PROPERTY + ": " + threads);
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static class FinishedLayer {
+		final RenderFrame.SharedLayer layer;
+		final Sequence sequence;
+		final int start;
+		final double scale;
+
+		FinishedLayer(RenderFrame.SharedLayer layer, Sequence sequence, int start, double scale) {
+			this.layer = layer;
+			this.sequence = sequence;
+			this.start = start;
+			this.scale = scale;
+		}
+	}
+
+	private static class TrackHistograms {
+		final String name;
+		final Histogram fetch;
+		final Histogram draw;
+
+		TrackHistograms(Track<?> track, Metrics metrics) {
+			this.name = track.getName();
+			String prefix = "track." + name + "." + track.getUuid();
+			this.fetch = metrics.histogram(prefix + ".fetch");
+			this.draw = metrics.histogram(prefix + ".draw");
+		}
+
+		void remove(Metrics metrics) {
+			metrics.removeHistogram(fetch.getName());
+			metrics.removeHistogram(draw.getName());
+		}
+	}
+
+	private static class TrackRendererThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "track-renderer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * @return the coarsest summary level of the renderer's track that has
+	 * no more than one bin per pixel, or null if the track should be drawn
+	 * feature by feature.
+	 */
+	static SummaryLevel getSummaryLevel(TrackRenderer renderer, double basesPerPixel) {
+		if (renderer instanceof SummaryRenderer && renderer.getTrack() instanceof Track.Quantitative<?>)
+			return ((Track.Quantitative<?>)renderer.getTrack()).getSummaryLevel(basesPerPixel);
+		return null;
+	}
+
 	public void viewParametersChanged(ViewParameters p) {
 		schedule(trackManager, p.getSequence(), p.getStart(), p.getEnd());
 	}
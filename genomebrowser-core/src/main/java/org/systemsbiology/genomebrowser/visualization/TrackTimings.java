@@ -0,0 +1,151 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.Track;
+
+
+/**
+ * Keeps track of how long each track takes to render, as a moving average
+ * over recent frames, so the scheduler can tell which tracks won't make a
+ * frame's budget and should get a coarse stand-in while they render. Times
+ * include fetching features and drawing, and are only recorded for tracks
+ * that were drawn completely. A summary of the slowest tracks is logged
+ * every FrameTimer.REPORT_INTERVAL frames.
+ */
+public class TrackTimings {
+	private static final Logger log = Logger.getLogger(TrackTimings.class);
+
+	/**
+	 * weight of the newest time in the moving average
+	 */
+	private static final double WEIGHT = 0.25;
+
+	private final Map<UUID, Timing> timings = new HashMap<UUID, Timing>();
+	private long frames;
+
+
+	public synchronized void trackRendered(Track<?> track, long millis) {
+		Timing timing = timings.get(track.getUuid());
+		if (timing == null) {
+			timing = new Timing(track.getName());
+			timings.put(track.getUuid(), timing);
+		}
+		timing.add(millis);
+		if (log.isDebugEnabled())
+			log.debug(String.format("track %s rendered in %,d ms", track.getName(), millis));
+	}
+
+	/**
+	 * Called once per completed frame, to log a summary now and then.
+	 */
+	public synchronized void frameRendered() {
+		frames++;
+		if (frames % FrameTimer.REPORT_INTERVAL == 0)
+			log.info(toString());
+	}
+
+	/**
+	 * @return the moving average of the track's render times, or 0 if it
+	 * hasn't been rendered yet.
+	 */
+	public synchronized double getExpectedMillis(Track<?> track) {
+		Timing timing = timings.get(track.getUuid());
+		return timing == null ? 0.0 : timing.average;
+	}
+
+	/**
+	 * @return timings of all tracks rendered so far, slowest first
+	 */
+	public synchronized List<Timing> getTimings() {
+		List<Timing> list = new ArrayList<Timing>();
+		for (Timing timing : timings.values())
+			list.add(timing.copy());
+		Collections.sort(list, new Comparator<Timing>() {
+			public int compare(Timing a, Timing b) {
+				return Double.compare(b.average, a.average);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Forget the timings of a track that's gone.
+	 */
+	public synchronized void remove(UUID trackUuid) {
+		timings.remove(trackUuid);
+	}
+
+	public synchronized void reset() {
+		timings.clear();
+		frames = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("(TrackTimings");
+		for (Timing timing : getTimings())
+			sb.append(", ").append(timing);
+		return sb.append(")").toString();
+	}
+
+
+	/**
+	 * Render times of one track.
+	 */
+	public static class Timing {
+		public final String name;
+		long count;
+		double average;
+		long last;
+		long max;
+
+		Timing(String name) {
+			this.name = name;
+		}
+
+		void add(long millis) {
+			average = (count == 0) ? millis : average + WEIGHT * (millis - average);
+			count++;
+			last = millis;
+			max = Math.max(max, millis);
+		}
+
+		Timing copy() {
+			Timing timing = new Timing(name);
+			timing.count = count;
+			timing.average = average;
+			timing.last = last;
+			timing.max = max;
+			return timing;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getAverageMillis() {
+			return average;
+		}
+
+		public long getLastMillis() {
+			return last;
+		}
+
+		public long getMaxMillis() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s=%.1f ms (last %d, max %d)", name, average, last, max);
+		}
+	}
+}
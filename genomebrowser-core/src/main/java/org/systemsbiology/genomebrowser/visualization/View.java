@@ -8,6 +8,12 @@ import java.awt.Image;
 public interface View {
     int getWidth();
     int getHeight();
+
+    /**
+     * Show a newly rendered image. The scheduler reuses its images, drawing
+     * into this one again two updates from now, so a view that needs it
+     * for longer should copy it.
+     */
     void updateImage(Image image);
     Image createImage(int width, int height);
 }
@@ -191,6 +191,23 @@ public class ViewParameters {
 		}
 	}
 
+	/**
+	 * Create view parameters for a region of the sequence at the same scale
+	 * and height as this view but with a device of the given width. The new
+	 * parameters have no listeners and are not tied to the UI, so they're
+	 * safe to hand to a renderer drawing off the swing thread.
+	 */
+	public ViewParameters forRegion(int start, int end, int deviceWidth) {
+		ViewParameters p = new ViewParameters();
+		p.sequence = sequence;
+		p.scale = scale;
+		p.start = start;
+		p.end = end;
+		p.deviceWidth = deviceWidth;
+		p.deviceHeight = deviceHeight;
+		return p;
+	}
+
 	public Segment getVisibleSegment() {
 		return new Segment(sequence.getSeqId(), start, end);
 	}
@@ -3,9 +3,7 @@ package org.systemsbiology.genomebrowser.visualization.renderers;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -17,6 +15,7 @@ import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.visualization.HasTooltips;
+import org.systemsbiology.genomebrowser.visualization.HitIndex;
 import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
 import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.genomebrowser.util.ColorUtils;
@@ -37,6 +36,8 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 	Color noStrandColor = Color.PINK;
 	GeneFeatureImpl mouseOverGene;
 	Rectangle mouseOverRectangle = new Rectangle();
+	GeneLevelOfDetail lod = new GeneLevelOfDetail();
+	HitIndex hits = new HitIndex();
 	
 	// height of boxes in pixels
 	final int boxHeight = 10;
@@ -59,6 +60,7 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 			setReverseStrandColor(attr.getColor("color.reverse", ColorUtils.darker(color, 0.1)));
 			setNoStrandColor(attr.getColor("color.no.strand", color));
 		}
+		lod.configure(attr);
 	}
 
 
@@ -73,26 +75,44 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 			g.drawRect(0, _t+1, params.getDeviceWidth()-1, _h-1+offset);
 		}	     
 
+		GeneLevelOfDetail.Level level = lod.level(track, params, strand);
+		int session = hits.begin(params, strand);
+		if (level == GeneLevelOfDetail.Level.DENSITY) {
+			for (Strand s : GeneLevelOfDetail.strands(strand))
+				lod.drawDensity(g, track, params, s, laneY(s, _t, _h), boxHeight, getStrandColor(s), s == Strand.reverse);
+			return;
+		}
+
+		if (level == GeneLevelOfDetail.Level.SPANS) {
+			GeneLevelOfDetail.Spans spans = new GeneLevelOfDetail.Spans(g);
+			for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
+				x = params.toScreenX(feature.getStart());
+				w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
+				y = laneY(feature.getStrand(), _t, _h);
+				spans.add(x, y, w, boxHeight, getStrandColor(feature.getStrand()));
+				hits.add(session, strand, feature, x, y, w, boxHeight);
+				if (feature.selected()) {
+					spans.finish();
+					g.setColor(Color.RED);
+					g.drawRect(x, y, w, boxHeight);
+				}
+			}
+			spans.finish();
+			hits.finish(session, strand);
+			return;
+		}
+
+		Font f = g.getFont();
+		Font f9 = f.deriveFont(9.0F);
+		GeneLevelOfDetail.LabelLayout layout = lod.labels(track, params, strand, true, g.getFontMetrics(f9));
+		List<GeneFeatureImpl> labeled = new ArrayList<GeneFeatureImpl>();
+
         for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
     		x = params.toScreenX(feature.getStart());
     		w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
+    		y = laneY(feature.getStrand(), _t, _h);
 
-    		// forward strand
-    		if (feature.getStrand() == Strand.forward) {
-        		y = _t + offset;
-        		g.setColor(forwardStrandColor);
-    		}
-    		// reverse strand
-    		else if (feature.getStrand() == Strand.reverse) {
-        		y = _t + _h - boxHeight;
-        		g.setColor(reverseStrandColor);
-    		}
-    		// no strand information
-    		else {
-    			y = (int) (_t + params.getDeviceHeight() * height / 2 - boxHeight/2);
-        		g.setColor(noStrandColor);
-    		}
-
+    		g.setColor(getStrandColor(feature.getStrand()));
     		g.fillRect(x, y, w, boxHeight);
 
     		if (feature.selected()) {
@@ -100,18 +120,44 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
     			g.drawRect(x, y, w, boxHeight);
     		}
 
-    		if (w > 30 && feature.getLabel() != null) {
-    			g.setColor(Color.BLACK);
-				Font f = g.getFont();
-				Font f9 = f.deriveFont(9.0F);
-				g.setFont(f9);
-   
-    			Rectangle2D r = f9.getStringBounds(feature.getLabel(), ((Graphics2D)g).getFontRenderContext());
-    			if (w > r.getWidth())
-    				g.drawString(feature.getLabel(), x, y+boxHeight);
-				g.setFont(f);
-    		}
+    		hits.add(session, strand, feature, x, y, w, boxHeight);
+
+    		if (layout.isLabeled(feature))
+    			labeled.add(feature);
+        }
+
+        // labels go on top of the boxes, which they may run past
+        g.setColor(Color.BLACK);
+        g.setFont(f9);
+        for (GeneFeatureImpl feature : labeled) {
+        	g.drawString(feature.getLabel(), params.toScreenX(feature.getStart()), laneY(feature.getStrand(), _t, _h) + boxHeight);
         }
+        g.setFont(f);
+        hits.finish(session, strand);
+	}
+
+	/**
+	 * @return y of the top of the boxes for genes on the given strand
+	 */
+	private int laneY(Strand strand, int _t, int _h) {
+		// forward strand
+		if (strand == Strand.forward)
+			return _t + offset;
+		// reverse strand
+		else if (strand == Strand.reverse)
+			return _t + _h - boxHeight;
+		// no strand information
+		else
+			return (int) (_t + params.getDeviceHeight() * height / 2 - boxHeight/2);
+	}
+
+	private Color getStrandColor(Strand strand) {
+		if (strand == Strand.forward)
+			return forwardStrandColor;
+		else if (strand == Strand.reverse)
+			return reverseStrandColor;
+		else
+			return noStrandColor;
 	}
 
 	/**
@@ -125,6 +171,8 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 
 			int yf = _t + offset;
 			if (y >= yf && y <= (yf + boxHeight)) {
+				if (hits.covers(params, Strand.forward))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.forward, coord);
 			}
@@ -132,6 +180,8 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 			int _h = (int) (height * params.getDeviceHeight());
 			int yr = _t + _h - boxHeight;
 			if (y >= yr && y <= (yr + boxHeight)) {
+				if (hits.covers(params, Strand.reverse))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.reverse, coord);
 			}
@@ -152,6 +202,9 @@ public class CenteredTypedGeneTrackRenderer extends TrackRenderer implements Has
 	}
 
 	public List<Feature> getContainedFeatures(Sequence s, Rectangle r) {
+		if (hits.covers(params, Strand.forward) && hits.covers(params, Strand.reverse) && params.getSequence().equals(s))
+			return hits.features(r);
+
 		int yf = (int) (params.getDeviceHeight() * top) + 5;
 		int yr = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height) - boxHeight - 5;
 		List<Strand> strands = new ArrayList<Strand>();
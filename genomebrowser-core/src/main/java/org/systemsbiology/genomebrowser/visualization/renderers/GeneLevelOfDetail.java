@@ -0,0 +1,299 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.GeneDensity;
+import org.systemsbiology.genomebrowser.model.GeneFeature;
+import org.systemsbiology.genomebrowser.model.GeneTrack;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Track;
+import org.systemsbiology.genomebrowser.util.Attributes;
+import org.systemsbiology.genomebrowser.visualization.ViewParameters;
+
+
+/**
+ * Level of detail for gene tracks. Zoomed out to where there are many
+ * genes per pixel, a gene track is drawn as a histogram of the counts kept
+ * by its GeneDensity, without looking at the genes at all. In between, when
+ * genes are too small to label, runs of touching genes are merged into
+ * spans. Zoomed in, genes are drawn as glyphs with labels, and labels that
+ * would run into each other are culled.
+ *
+ * The level depends only on the zoom and the density of genes over the
+ * whole sequence, and labels are laid out over the whole strand, so tiles
+ * of a track drawn separately agree with each other. Layouts are cached by
+ * zoom level, so panning doesn't redo them.
+ *
+ * Attributes: lod (true), lod.density, genes per pixel above which the
+ * histogram is drawn (1.0), and lod.spans, genes per pixel above which
+ * spans are drawn (0.1).
+ *
+ * Instances are shared by the copies of a renderer drawing tiles.
+ */
+class GeneLevelOfDetail {
+
+	enum Level { DENSITY, SPANS, GLYPHS }
+
+	/**
+	 * genes narrower than this many pixels don't get labels
+	 */
+	static final int MIN_LABELED_WIDTH = 10;
+
+	/**
+	 * space in pixels required between labels
+	 */
+	static final int LABEL_GAP = 4;
+
+	private static final int CACHED_LAYOUTS = 16;
+
+	private boolean enabled = true;
+	private double densityThreshold = 1.0;
+	private double spansThreshold = 0.1;
+
+	private final Map<LayoutKey, LabelLayout> layouts = new LinkedHashMap<LayoutKey, LabelLayout>(CACHED_LAYOUTS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<LayoutKey, LabelLayout> eldest) {
+			return size() > CACHED_LAYOUTS;
+		}
+	};
+
+
+	void configure(Attributes attr) {
+		enabled = attr.getBoolean("lod", true);
+		densityThreshold = attr.getDouble("lod.density", densityThreshold);
+		spansThreshold = attr.getDouble("lod.spans", spansThreshold);
+		synchronized (layouts) {
+			layouts.clear();
+		}
+	}
+
+	/**
+	 * @return how much detail to draw genes on the given strand with, or
+	 * on both strands for Strand.any, as the genome track is drawn.
+	 */
+	Level level(Track<? extends Feature> track, ViewParameters params, Strand strand) {
+		if (!enabled) return Level.GLYPHS;
+		Sequence sequence = params.getSequence();
+		if (sequence == null || sequence.getLength() <= 0) return Level.GLYPHS;
+		// the level of the fuller strand, so drawing both at once looks
+		// the same as drawing each on its own
+		int count = -1;
+		for (Strand s : strands(strand)) {
+			GeneDensity density = density(track, sequence, s);
+			if (density != null)
+				count = Math.max(count, density.getCount());
+		}
+		if (count < 0) return Level.GLYPHS;
+		double genesPerPixel = count / (double)sequence.getLength() / params.getScale();
+		if (genesPerPixel > densityThreshold) return Level.DENSITY;
+		if (genesPerPixel > spansThreshold) return Level.SPANS;
+		return Level.GLYPHS;
+	}
+
+	/**
+	 * @return the strands whose genes are drawn by a call to draw with the
+	 * given strand
+	 */
+	static Strand[] strands(Strand strand) {
+		return strand == Strand.any ? Strand.both : new Strand[] {strand};
+	}
+
+	static GeneDensity density(Track<? extends Feature> track, Sequence sequence, Strand strand) {
+		if (track instanceof GeneTrack && sequence != null)
+			return ((GeneTrack<?>)track).getDensity(sequence, strand);
+		return null;
+	}
+
+	/**
+	 * Draw a histogram of the genes in each pixel column, in a lane of the
+	 * given height. Bars are scaled to the fullest column at this zoom on
+	 * either strand of the sequence, so both strands and all tiles share a
+	 * scale, and rise
+	 * from the bottom of the lane, or hang from the top if down is true.
+	 * Columns are written to a RasterStrip, as thousands of one pixel wide
+	 * fillRects are slow.
+	 */
+	void drawDensity(Graphics g, Track<? extends Feature> track, ViewParameters params, Strand strand, int y, int h, Color color, boolean down) {
+		Sequence sequence = params.getSequence();
+		GeneDensity density = density(track, sequence, strand);
+		if (density == null) return;
+		double scale = params.getScale();
+		double max = 0.0;
+		for (Strand s : Strand.both) {
+			GeneDensity d = density(track, sequence, s);
+			if (d != null) max = Math.max(max, d.maxCount(1.0 / scale));
+		}
+		if (max <= 0.0) return;
+
+		int argb = color.getRGB();
+		int width = params.getDeviceWidth();
+		RasterStrip strip = RasterStrip.get(width, params.getDeviceHeight());
+		double start = params.getStart();
+		for (int x=0; x<width; x++) {
+			double b1 = start + x / scale;
+			double b2 = start + (x + 1) / scale;
+			double count = density.count(b1, b2);
+			if (count <= 0.0) continue;
+			int bar = Math.max(1, Math.min(h, (int)Math.round(h * count / max)));
+			strip.fill(x, down ? y : y + h - bar, 1, bar, argb);
+		}
+		strip.draw(g);
+	}
+
+	/**
+	 * @return a layout of labels for all genes on the sequence and strand
+	 * at the current zoom, from the cache if we've seen this zoom before.
+	 */
+	LabelLayout labels(Track<? extends Feature> track, ViewParameters params, Strand strand, boolean useCommonNames, FontMetrics metrics) {
+		LayoutKey key = new LayoutKey(params.getSequence(), strand, params.getScale(), useCommonNames);
+		synchronized (layouts) {
+			LabelLayout layout = layouts.get(key);
+			if (layout == null) {
+				layout = new LabelLayout(track, key, metrics);
+				layouts.put(key, layout);
+			}
+			return layout;
+		}
+	}
+
+	static String label(GeneFeature feature, boolean useCommonNames) {
+		return useCommonNames ? feature.getLabel() : feature.getName();
+	}
+
+
+	/**
+	 * Which genes get labels at one zoom level. Genes are swept left to
+	 * right in genome order and each label is placed greedily if it starts
+	 * clear of the last label placed in its lane, the lane being the gene's
+	 * strand. Positions are in pixels from the start of the sequence, so
+	 * the layout holds wherever the view is.
+	 */
+	static class LabelLayout {
+		private final Set<Feature> labeled = Collections.newSetFromMap(new IdentityHashMap<Feature, Boolean>());
+
+		LabelLayout(Track<? extends Feature> track, LayoutKey key, FontMetrics metrics) {
+			int[] ends = new int[Strand.values().length];
+			for (int i=0; i<ends.length; i++)
+				ends[i] = Integer.MIN_VALUE;
+			for (Feature feature : track.features(new FeatureFilter(key.sequence, key.strand))) {
+				if (!(feature instanceof GeneFeature)) continue;
+				int w = (int)((feature.getEnd() - feature.getStart()) * key.scale);
+				if (w < MIN_LABELED_WIDTH) continue;
+				String label = label((GeneFeature)feature, key.useCommonNames);
+				if (label == null) continue;
+				int x = (int)(feature.getStart() * key.scale);
+				int lane = feature.getStrand().ordinal();
+				if (x >= ends[lane]) {
+					labeled.add(feature);
+					ends[lane] = x + metrics.stringWidth(label) + LABEL_GAP;
+				}
+			}
+		}
+
+		boolean isLabeled(Feature feature) {
+			return labeled.contains(feature);
+		}
+	}
+
+	private static class LayoutKey {
+		final Sequence sequence;
+		final Strand strand;
+		final double scale;
+		final boolean useCommonNames;
+
+		LayoutKey(Sequence sequence, Strand strand, double scale, boolean useCommonNames) {
+			this.sequence = sequence;
+			this.strand = strand;
+			this.scale = scale;
+			this.useCommonNames = useCommonNames;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LayoutKey)) return false;
+			LayoutKey other = (LayoutKey)o;
+			return sequence.equals(other.sequence) && strand == other.strand
+				&& scale == other.scale && useCommonNames == other.useCommonNames;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(scale);
+			return ((sequence.hashCode() * 31 + strand.hashCode()) * 31 + (int)(bits ^ (bits >>> 32))) * 2 + (useCommonNames ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * Merges boxes drawn one after another in the same lane and color that
+	 * overlap or touch into one span, so a run of genes too small to tell
+	 * apart is filled once. Boxes must come in order of x within a lane.
+	 */
+	static class Spans {
+		private static final int LANES = 4;
+		private final Graphics g;
+		private final int[] x1 = new int[LANES];
+		private final int[] x2 = new int[LANES];
+		private final int[] y = new int[LANES];
+		private final int[] h = new int[LANES];
+		private final Color[] colors = new Color[LANES];
+		private int n;
+
+		Spans(Graphics g) {
+			this.g = g;
+		}
+
+		void add(int x, int y, int w, int h, Color color) {
+			for (int i=0; i<n; i++) {
+				if (this.y[i] == y && this.h[i] == h) {
+					if (colors[i].equals(color) && x <= x2[i]) {
+						x2[i] = Math.max(x2[i], x + w);
+						return;
+					}
+					flush(i);
+					set(i, x, y, w, h, color);
+					return;
+				}
+			}
+			if (n == LANES) {
+				flush(0);
+				set(0, x, y, w, h, color);
+			}
+			else {
+				set(n++, x, y, w, h, color);
+			}
+		}
+
+		private void set(int i, int x, int y, int w, int h, Color color) {
+			x1[i] = x;
+			x2[i] = x + w;
+			this.y[i] = y;
+			this.h[i] = h;
+			colors[i] = color;
+		}
+
+		private void flush(int i) {
+			g.setColor(colors[i]);
+			g.fillRect(x1[i], y[i], x2[i] - x1[i], h[i]);
+		}
+
+		/**
+		 * Fill whatever spans are still open.
+		 */
+		void finish() {
+			for (int i=0; i<n; i++)
+				flush(i);
+			n = 0;
+		}
+	}
+}
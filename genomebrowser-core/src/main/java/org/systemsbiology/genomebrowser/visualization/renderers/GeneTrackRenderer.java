@@ -3,9 +3,7 @@ package org.systemsbiology.genomebrowser.visualization.renderers;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -17,7 +15,9 @@ import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.visualization.HasTooltips;
+import org.systemsbiology.genomebrowser.visualization.HitIndex;
 import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
+import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.util.HasSelections;
 import org.systemsbiology.util.Selectable;
 
@@ -35,10 +35,18 @@ public class GeneTrackRenderer extends TrackRenderer implements HasSelections, H
 	int h = 10;
 	GeneFeatureImpl mouseOverGene;
 	Rectangle mouseOverRectangle = new Rectangle();
+	GeneLevelOfDetail lod = new GeneLevelOfDetail();
+	HitIndex hits = new HitIndex();
 
 
 	public GeneTrackRenderer() {}
 
+	@Override
+	public void configure(Attributes attr) {
+		super.configure(attr);
+		lod.configure(attr);
+	}
+
 	@Override
 	public void draw(Graphics g, Iterable<? extends Feature> features, Strand strand) {
 		int x, y, w;
@@ -52,26 +60,44 @@ public class GeneTrackRenderer extends TrackRenderer implements HasSelections, H
 
 		int yc = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height / 2);
 
+		GeneLevelOfDetail.Level level = lod.level(track, params, strand);
+		int session = hits.begin(params, strand);
+		if (level == GeneLevelOfDetail.Level.DENSITY) {
+			for (Strand s : GeneLevelOfDetail.strands(strand))
+				lod.drawDensity(g, track, params, s, laneY(s, yc), h, getStrandColor(s), s == Strand.reverse);
+			return;
+		}
+
+		if (level == GeneLevelOfDetail.Level.SPANS) {
+			GeneLevelOfDetail.Spans spans = new GeneLevelOfDetail.Spans(g);
+			for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
+				x = params.toScreenX(feature.getStart());
+				w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
+				y = laneY(feature.getStrand(), yc);
+				spans.add(x, y, w, h, getStrandColor(feature.getStrand()));
+				hits.add(session, strand, feature, x, y, w, h);
+				if (feature instanceof Selectable && ((Selectable)feature).selected()) {
+					spans.finish();
+					g.setColor(Color.RED);
+					g.drawRect(x, y, w, h);
+				}
+			}
+			spans.finish();
+			hits.finish(session, strand);
+			return;
+		}
+
+		Font f = g.getFont();
+		Font f9 = f.deriveFont(9.0F);
+		GeneLevelOfDetail.LabelLayout layout = lod.labels(track, params, strand, true, g.getFontMetrics(f9));
+		List<GeneFeatureImpl> labeled = new ArrayList<GeneFeatureImpl>();
+
         for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
     		x = params.toScreenX(feature.getStart());
     		w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
+    		y = laneY(feature.getStrand(), yc);
 
-    		// forward strand
-    		if (feature.getStrand() == Strand.forward) {
-    			g.setColor(forwardStrandColor);
-        		y = yc - 10 - h;
-    		}
-    		// reverse strand
-    		else if (feature.getStrand() == Strand.reverse) {
-    			g.setColor(reverseStrandColor);
-        		y = yc + 10;
-    		}
-    		// no strand information
-    		else {
-    			g.setColor(noStrandColor);
-    			y = yc - (int)(h/2);
-    		}
-
+    		g.setColor(getStrandColor(feature.getStrand()));
     		g.fillRect(x, y, w, h);
     		
     		if (feature instanceof Selectable && ((Selectable)feature).selected()) {
@@ -79,18 +105,44 @@ public class GeneTrackRenderer extends TrackRenderer implements HasSelections, H
     			g.drawRect(x, y, w, h);
     		}
 
-    		if (w > 30) {
-    			g.setColor(Color.BLACK);
-				Font f = g.getFont();
-				Font f9 = f.deriveFont(9.0F);
-				g.setFont(f9);
-   
-    			Rectangle2D r = f9.getStringBounds(feature.getLabel(), ((Graphics2D)g).getFontRenderContext());
-    			if (w > r.getWidth())
-    				g.drawString(feature.getLabel(), x, y+h);
-				g.setFont(f);
-    		}
+    		hits.add(session, strand, feature, x, y, w, h);
+
+    		if (layout.isLabeled(feature))
+    			labeled.add(feature);
         }
+
+        // labels go on top of the boxes, which they may run past
+        g.setColor(Color.BLACK);
+        g.setFont(f9);
+        for (GeneFeatureImpl feature : labeled) {
+        	g.drawString(feature.getLabel(), params.toScreenX(feature.getStart()), laneY(feature.getStrand(), yc) + h);
+        }
+        g.setFont(f);
+        hits.finish(session, strand);
+	}
+
+	/**
+	 * @return y of the top of the boxes for genes on the given strand
+	 */
+	private int laneY(Strand strand, int yc) {
+		// forward strand
+		if (strand == Strand.forward)
+			return yc - 10 - h;
+		// reverse strand
+		else if (strand == Strand.reverse)
+			return yc + 10;
+		// no strand information
+		else
+			return yc - (int)(h/2);
+	}
+
+	private Color getStrandColor(Strand strand) {
+		if (strand == Strand.forward)
+			return forwardStrandColor;
+		else if (strand == Strand.reverse)
+			return reverseStrandColor;
+		else
+			return noStrandColor;
 	}
 
 	public String getTooltip(int x, int y) {
@@ -113,11 +165,15 @@ public class GeneTrackRenderer extends TrackRenderer implements HasSelections, H
 			int yc = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height / 2);
 			int yf = yc - h - 10;
 			if (y >= yf && y <= (yf + h)) {
+				if (hits.covers(params, Strand.forward))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.forward, coord);
 			}
 			int yr = yc + 10;
 			if (y >= yr && y <= (yr + h)) {
+				if (hits.covers(params, Strand.reverse))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.reverse, coord);
 			}
@@ -138,6 +194,9 @@ public class GeneTrackRenderer extends TrackRenderer implements HasSelections, H
 	}
 
 	public List<Feature> getContainedFeatures(Sequence s, Rectangle r) {
+		if (hits.covers(params, Strand.forward) && hits.covers(params, Strand.reverse) && params.getSequence().equals(s))
+			return hits.features(r);
+
 		int yf = (int) (params.getDeviceHeight() * top) + 5;
 		int yr = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height) - h - 5;
 		List<Strand> strands = new ArrayList<Strand>();
@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.util.Iterator;
 
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.MatrixWindow;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.visualization.ColorScale;
 import org.systemsbiology.genomebrowser.visualization.ColorScaleRegistry;
@@ -16,6 +17,7 @@ public class HeatmapMatrixTrackRenderer extends QuantitativeTrackRenderer {
 	private boolean overlap;
 	private Color outlineColor = new Color(0x33666666, true);
 	private boolean splitStrands = false;
+	private PixelColumns.Aggregate aggregate = PixelColumns.Aggregate.MEAN;
 
 	// ColorScale is the strategy for converting values into colors
 	private ColorScale colorScale;
@@ -29,6 +31,7 @@ public class HeatmapMatrixTrackRenderer extends QuantitativeTrackRenderer {
 		colorScale.setRange(range);
 		splitStrands = track.getAttributes().getBoolean("split.strands", false);
 		overlap = track.getAttributes().getBoolean("overlap", true);
+		aggregate = PixelColumns.Aggregate.fromAttributes(track.getAttributes());
 	}
 
 	public void setColorScaleRegistry(ColorScaleRegistry colorScaleRegistry) {
@@ -47,6 +50,16 @@ public class HeatmapMatrixTrackRenderer extends QuantitativeTrackRenderer {
 		int y = (int)(top * params.getDeviceHeight());
 		int h = (int)(height * params.getDeviceHeight());
 
+		if (features instanceof MatrixWindow && PixelColumns.isDense((MatrixWindow)features, params)) {
+			drawColumns(g, (MatrixWindow)features, y, h);
+			return;
+		}
+
+		// cells are written straight into the strip's pixels, which are drawn
+		// onto g all at once
+		RasterStrip strip = RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight());
+		int outlineArgb = outlineColor.getRGB();
+
 		Iterator<Feature.Matrix> iterator = ((Iterable<Feature.Matrix>)features).iterator();
 		Feature.Matrix feature = null, nextFeature = null;
 		
@@ -84,16 +97,14 @@ public class HeatmapMatrixTrackRenderer extends QuantitativeTrackRenderer {
 				int yvni = (int)Math.round(yvn); // yvn rounded to the nearest integer
 
 				for (int i=0; i<values.length; i++) {
-					g.setColor(colorScale.valueToColor(values[i]));
 					yv = yvn;
 					yvi = yvni;
 					yvn = yv + increment;
 					yvni = (int)Math.round(yvn);
-					g.fillRect(x1, yvi, w, yvni-yvi+1);
+					strip.fill(x1, yvi, w, yvni-yvi+1, colorScale.valueToArgb(values[i]));
 				}
 
-				g.setColor(outlineColor);
-				g.drawRect(x1, y, w, h);
+				strip.outline(x1, y, w, h, outlineArgb);
 				feature=nextFeature;
 			}
 		} else {
@@ -114,17 +125,69 @@ public class HeatmapMatrixTrackRenderer extends QuantitativeTrackRenderer {
 				int yvni = (int)Math.round(yvn); // yvn rounded to the nearest integer
 
 				for (int i=0; i<values.length; i++) {
-					g.setColor(colorScale.valueToColor(values[i]));
 					yv = yvn;
 					yvi = yvni;
 					yvn = yv + increment;
 					yvni = (int)Math.round(yvn);
-					g.fillRect(x1, yvi, w, yvni-yvi+1);
+					strip.fill(x1, yvi, w, yvni-yvi+1, colorScale.valueToArgb(values[i]));
+				}
+				strip.outline(x1, y, w, h, outlineArgb);
+			}
+		}
+		strip.draw(g);
+	}
+
+	/**
+	 * With more features than pixels, reduce each condition in each pixel
+	 * column to the mean of its values, or the one furthest from zero if
+	 * the track's column.aggregate attribute is max.abs, and write the
+	 * cells straight into the strip. The work of drawing depends on the
+	 * number of pixels rather than the number of features. As with
+	 * features, the outline of each run of columns is drawn, and if
+	 * features overlap, columns without data of their own take on the
+	 * colors of the column to their left.
+	 */
+	private void drawColumns(Graphics g, MatrixWindow window, int y, int h) {
+		PixelColumns columns = PixelColumns.get(params.getDeviceWidth());
+		columns.reduce(window, params);
+		RasterStrip strip = RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight());
+		int outlineArgb = outlineColor.getRGB();
+		int rows = columns.rows;
+
+		// rows are laid out as they are for individual features
+		int[] rowY = new int[rows + 1];
+		double increment = ((double)h) / ((double)rows);
+		for (int r=0; r<=rows; r++)
+			rowY[r] = (int)Math.round(y + r * increment);
+
+		int source = -1;
+		int start = -1;
+		for (int x=columns.first; x<=columns.last + 1; x++) {
+			boolean data = false;
+			if (x <= columns.last) {
+				for (int cell=x*rows; cell<(x+1)*rows && !data; cell++)
+					data = columns.count[cell] > 0;
+			}
+			if (data)
+				source = x;
+			else if (!overlap || x > columns.last)
+				source = -1;
+
+			if (source < 0) {
+				if (start >= 0) {
+					strip.outline(start, y, x - start, h, outlineArgb);
+					start = -1;
 				}
-				g.setColor(outlineColor);
-				g.drawRect(x1, y, w, h);
+				continue;
+			}
+			if (start < 0)
+				start = x;
+			for (int r=0, cell=source*rows; r<rows; r++, cell++) {
+				if (columns.count[cell] > 0)
+					strip.fill(x, rowY[r], 1, rowY[r+1] - rowY[r] + 1, colorScale.valueToArgb(columns.aggregate(cell, aggregate)));
 			}
 		}
+		strip.draw(g);
 	}
 
 	public void setGamma(double gamma) {
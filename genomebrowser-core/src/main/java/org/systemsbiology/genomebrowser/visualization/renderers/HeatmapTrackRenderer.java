@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.util.Iterator;
 
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.visualization.ColorScale;
 import org.systemsbiology.genomebrowser.visualization.ColorScaleRegistry;
@@ -15,6 +16,7 @@ public class HeatmapTrackRenderer extends QuantitativeTrackRenderer {
 	int thickness = 2;
 	private double gamma = 0.8;
 	private Color outlineColor = new Color(0x33666666, true);
+	private PixelColumns.Aggregate aggregate = PixelColumns.Aggregate.MEAN;
 
 	// ColorScale is the strategy for converting values into colors
 	private ColorScale colorScale;
@@ -27,6 +29,7 @@ public class HeatmapTrackRenderer extends QuantitativeTrackRenderer {
 		colorScale = colorScaleRegistry.get(track.getAttributes().getString("color.scale", "red.green"));
 		colorScale.setGamma(gamma);
 		colorScale.setRange(range);
+		aggregate = PixelColumns.Aggregate.fromAttributes(track.getAttributes());
 	}
 
 	public void setColorScaleRegistry(ColorScaleRegistry colorScaleRegistry) {
@@ -45,6 +48,13 @@ public class HeatmapTrackRenderer extends QuantitativeTrackRenderer {
 		int y = (int)(top * params.getDeviceHeight());
 		int h = (int)(height * params.getDeviceHeight());
 
+		if (features instanceof QuantitativeWindow && PixelColumns.isDense((QuantitativeWindow)features, params)) {
+			drawColumns(g, (QuantitativeWindow)features, y, h);
+			return;
+		}
+
+		RasterStrip strip = RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight());
+		int outlineArgb = outlineColor.getRGB();
 		Iterator<Feature.Quantitative> iterator = ((Iterable<Feature.Quantitative>)features).iterator();
 		Feature.Quantitative feature = null;
 
@@ -53,13 +63,40 @@ public class HeatmapTrackRenderer extends QuantitativeTrackRenderer {
 			x1 = params.toScreenX(feature.getStart());
 			x2 = params.toScreenX(feature.getEnd());
 			int w = Math.max(1, x2 - x1);
-			
-			g.setColor(colorScale.valueToColor(feature.getValue()));
-			g.fillRect(x1, y, w, h);
-			
-			g.setColor(outlineColor);
-			g.drawRect(x1, y, w, h);
+
+			strip.fill(x1, y, w, h, colorScale.valueToArgb(feature.getValue()));
+			strip.outline(x1, y, w, h, outlineArgb);
+		}
+		strip.draw(g);
+	}
+
+	/**
+	 * With more data points than pixels, color each pixel column by the mean
+	 * of its values, or the one furthest from zero if the track's
+	 * column.aggregate attribute is max.abs. Outlines of individual features
+	 * would cover the whole thing at this density, so just the outline of
+	 * each run of columns with data is drawn.
+	 */
+	private void drawColumns(Graphics g, QuantitativeWindow window, int y, int h) {
+		PixelColumns columns = PixelColumns.get(params.getDeviceWidth());
+		columns.reduce(window, params);
+		RasterStrip strip = RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight());
+		int outlineArgb = outlineColor.getRGB();
+
+		int x = columns.first;
+		while (x <= columns.last) {
+			if (columns.count[x] == 0) {
+				x++;
+				continue;
+			}
+			int start = x;
+			while (x <= columns.last && columns.count[x] > 0) {
+				strip.fill(x, y, 1, h, colorScale.valueToArgb(columns.aggregate(x, aggregate)));
+				x++;
+			}
+			strip.outline(start, y, x - start, h, outlineArgb);
 		}
+		strip.draw(g);
 	}
 
 	public void setGamma(double gamma) {
@@ -7,6 +7,7 @@ import java.awt.Stroke;
 import java.util.Iterator;
 
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.util.Attributes;
 
@@ -39,6 +40,15 @@ public class LineGraphTrackRenderer extends QuantitativeTrackRenderer {
         // get that. If the track has start and end coordinates, we may only get one or no
         // data points which isn't enough to make a line.
 
+		// with more data points than pixels, the line covers the range of
+		// values in each pixel column, going up and down each column starting
+		// from the end nearest where it left the previous one.
+		if (features instanceof QuantitativeWindow && PixelColumns.isDense((QuantitativeWindow)features, params)) {
+			drawColumns(g, (QuantitativeWindow)features, y0, yScale);
+			g2d.setStroke(oldStroke);
+			return;
+		}
+
 		Iterator<Feature.Quantitative> iterator = ((Iterable<Feature.Quantitative>)features).iterator();
 		Feature.Quantitative feature = null;
 		if (iterator.hasNext()) {
@@ -59,4 +69,44 @@ public class LineGraphTrackRenderer extends QuantitativeTrackRenderer {
 
 		g2d.setStroke(oldStroke);
 	}
+
+	/**
+	 * Draw the line through the min and max of each pixel column. A thin
+	 * line is written into the strip as one span of pixels per column;
+	 * heavier lines are drawn as a single polyline.
+	 */
+	private void drawColumns(Graphics g, QuantitativeWindow window, int y0, double yScale) {
+		PixelColumns columns = PixelColumns.get(params.getDeviceWidth());
+		columns.reduce(window, params);
+		RasterStrip strip = (weight <= 1.0f) ? RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight()) : null;
+		int argb = color.getRGB();
+		int n = 0;
+		int previous = -2;
+		int y1 = y0;
+		for (int x=columns.first; x<=columns.last; x++) {
+			if (columns.count[x] > 0) {
+				int min = (int) (y0 - columns.min[x] * yScale);
+				int max = (int) (y0 - columns.max[x] * yScale);
+				boolean minFirst = n == 0 || Math.abs(min - y1) < Math.abs(max - y1);
+				if (strip != null) {
+					// the segment from the previous column lands in this one
+					int from = (previous == x - 1) ? y1 : (minFirst ? min : max);
+					strip.span(x, Math.min(from, Math.min(min, max)), Math.max(from, Math.max(min, max)), argb);
+					n++;
+				}
+				else {
+					columns.xs[n] = x;
+					columns.ys[n++] = minFirst ? min : max;
+					columns.xs[n] = x;
+					columns.ys[n++] = minFirst ? max : min;
+				}
+				y1 = minFirst ? max : min;
+				previous = x;
+			}
+		}
+		if (strip != null)
+			strip.draw(g);
+		else
+			g.drawPolyline(columns.xs, columns.ys, n);
+	}
 }
@@ -0,0 +1,260 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import org.apache.log4j.Logger;
+import org.systemsbiology.genomebrowser.model.MatrixWindow;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
+import org.systemsbiology.genomebrowser.util.Attributes;
+import org.systemsbiology.genomebrowser.visualization.ViewParameters;
+
+
+/**
+ * Reduces a window of quantitative data to a min, max and mean for each
+ * pixel column of the view, in one tight loop over the block's arrays.
+ * When there are more data points than pixels, that's all that can be
+ * seen anyway, and renderers can draw the columns with a number of
+ * graphics calls that depends on the width of the view rather than the
+ * number of data points.
+ *
+ * Matrix data is reduced to a cell for each condition in each column.
+ * Cells are indexed by x * rows + row, where rows is the number of
+ * conditions, or 1 for plain quantitative data, so for that the index
+ * is just the column.
+ *
+ * Each data point goes in the column of its central position, same as
+ * the per-feature drawing code. Instances are reused by the thread that
+ * took them, so drawing allocates nothing per data point or per frame.
+ *
+ * @see RasterStrip
+ */
+class PixelColumns {
+	private static final Logger log = Logger.getLogger(PixelColumns.class);
+	private static final ThreadLocal<PixelColumns> local = new ThreadLocal<PixelColumns>();
+
+	/**
+	 * How the values in a cell are boiled down to one for coloring.
+	 */
+	enum Aggregate {
+		MEAN, MAX_ABS;
+
+		/**
+		 * @param s "mean" or "max.abs"
+		 */
+		static Aggregate fromString(String s) {
+			return valueOf(s.trim().toUpperCase().replace('.', '_'));
+		}
+
+		/**
+		 * @return the aggregate given by a track's column.aggregate
+		 * attribute, mean if there isn't one.
+		 */
+		static Aggregate fromAttributes(Attributes attr) {
+			String s = attr.getString("column.aggregate", "mean");
+			try {
+				return fromString(s);
+			}
+			catch (IllegalArgumentException e) {
+				log.warn("Ignoring bad value for column.aggregate: " + s);
+				return MEAN;
+			}
+		}
+	}
+
+	double[] min;
+	double[] max;
+	double[] sum;
+	int[] count;
+
+	/**
+	 * cells per column
+	 */
+	int rows = 1;
+
+	/**
+	 * range of columns holding data after the last reduce, inclusive
+	 */
+	int first;
+	int last;
+
+	// room for the points of a polyline, two per column
+	final int[] xs;
+	final int[] ys;
+	private final int width;
+
+
+	private PixelColumns(int width) {
+		this.width = width;
+		min = new double[width];
+		max = new double[width];
+		sum = new double[width];
+		count = new int[width];
+		xs = new int[width * 2];
+		ys = new int[width * 2];
+		first = 0;
+		last = -1;
+	}
+
+	/**
+	 * @return this thread's PixelColumns with room for at least width columns
+	 */
+	static PixelColumns get(int width) {
+		PixelColumns columns = local.get();
+		if (columns == null || columns.width < width) {
+			columns = new PixelColumns(Math.max(1, width));
+			local.set(columns);
+		}
+		return columns;
+	}
+
+	/**
+	 * Whether there are enough data points in the window to be worth
+	 * reducing to columns rather than drawing one by one.
+	 */
+	static boolean isDense(int features, ViewParameters params) {
+		return features > params.getDeviceWidth();
+	}
+
+	static boolean isDense(QuantitativeWindow window, ViewParameters params) {
+		return isDense(window.getTo() - window.getFrom(), params);
+	}
+
+	static boolean isDense(MatrixWindow window, ViewParameters params) {
+		return isDense(window.getTo() - window.getFrom(), params);
+	}
+
+	/**
+	 * Clear the cells of the last reduce and make room for the given number of rows.
+	 * @return number of columns in the view
+	 */
+	private int reset(ViewParameters params, int rows) {
+		for (int i=first * this.rows; i<(last + 1) * this.rows; i++)
+			count[i] = 0;
+		if (count.length < width * rows) {
+			min = new double[width * rows];
+			max = new double[width * rows];
+			sum = new double[width * rows];
+			count = new int[width * rows];
+		}
+		this.rows = rows;
+		first = width;
+		last = -1;
+		return Math.min(params.getDeviceWidth(), width);
+	}
+
+	/**
+	 * Reduce the window to columns of a view of the given width.
+	 * NaN values are skipped.
+	 */
+	void reduce(QuantitativeWindow window, ViewParameters params) {
+		int width = reset(params, 1);
+
+		int[] starts = window.getStarts();
+		int[] ends = window.getEnds();
+		double[] values = window.getValues();
+		int to = window.getTo();
+		double start = params.getStart();
+		double scale = params.getScale();
+
+		// data is sorted, so runs of data points fall in the same column;
+		// accumulate a run locally and merge it into the column at its end
+		int cx = -1;
+		double lo = 0.0, hi = 0.0, total = 0.0;
+		int n = 0;
+		for (int i=window.getFrom(); i<to; i++) {
+			double value = values[i];
+			if (value != value) continue;
+			// same as params.toScreenX(MathUtils.average(start, end)), down
+			// to rounding values a hair under a half
+			long px = Math.round((((starts[i] + ends[i]) >>> 1) - start) * scale);
+			if (px < 0 || px >= width) continue;
+			int x = (int)px;
+			if (x == cx) {
+				if (value < lo) lo = value;
+				if (value > hi) hi = value;
+				total += value;
+				n++;
+			}
+			else {
+				if (n > 0) merge(cx, lo, hi, total, n);
+				cx = x;
+				lo = hi = total = value;
+				n = 1;
+			}
+		}
+		if (n > 0) merge(cx, lo, hi, total, n);
+	}
+
+	/**
+	 * Reduce a window of matrix data to a cell for each condition in each
+	 * column. Features are expected to have the same number of conditions
+	 * as the first; extra ones are ignored. NaN values are skipped.
+	 */
+	void reduce(MatrixWindow window, ViewParameters params) {
+		int from = window.getFrom();
+		int to = window.getTo();
+		double[][] values = window.getValues();
+		int rows = Math.max(1, (from < to) ? values[from].length : 1);
+		int width = reset(params, rows);
+
+		int[] starts = window.getStarts();
+		int[] ends = window.getEnds();
+		double start = params.getStart();
+		double scale = params.getScale();
+
+		for (int i=from; i<to; i++) {
+			long px = Math.round((((starts[i] + ends[i]) >>> 1) - start) * scale);
+			if (px < 0 || px >= width) continue;
+			int x = (int)px;
+			double[] row = values[i];
+			int n = Math.min(rows, row.length);
+			int cell = x * rows;
+			for (int r=0; r<n; r++, cell++) {
+				double value = row[r];
+				if (value != value) continue;
+				if (count[cell] == 0) {
+					min[cell] = value;
+					max[cell] = value;
+					sum[cell] = value;
+				}
+				else {
+					if (value < min[cell]) min[cell] = value;
+					if (value > max[cell]) max[cell] = value;
+					sum[cell] += value;
+				}
+				count[cell]++;
+			}
+			if (x < first) first = x;
+			if (x > last) last = x;
+		}
+	}
+
+	private void merge(int x, double lo, double hi, double total, int n) {
+		if (count[x] == 0) {
+			min[x] = lo;
+			max[x] = hi;
+			sum[x] = total;
+			if (x < first) first = x;
+			if (x > last) last = x;
+		}
+		else {
+			if (lo < min[x]) min[x] = lo;
+			if (hi > max[x]) max[x] = hi;
+			sum[x] += total;
+		}
+		count[x] += n;
+	}
+
+	double mean(int cell) {
+		return sum[cell] / count[cell];
+	}
+
+	/**
+	 * @return whichever of min or max is further from zero
+	 */
+	double maxAbs(int cell) {
+		return Math.abs(min[cell]) > Math.abs(max[cell]) ? min[cell] : max[cell];
+	}
+
+	double aggregate(int cell, Aggregate aggregate) {
+		return aggregate == Aggregate.MAX_ABS ? maxAbs(cell) : mean(cell);
+	}
+}
@@ -0,0 +1,147 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+
+/**
+ * An image the size of the view that renderers write pixels into directly,
+ * then draw onto the track's graphics with a single drawImage. Filling
+ * lots of small rectangles or drawing lots of thin translucent lines
+ * through Java2D is slow, while writing ints into an array isn't.
+ *
+ * Pixels are non-premultiplied ARGB, as from Color.getRGB(). Opaque pixels
+ * replace what's under them and translucent ones are blended over it, as
+ * Graphics would with the default SrcOver composite. Only the rectangle
+ * that's been written is drawn, and it's cleared afterwards.
+ *
+ * Each thread has its own strip, which is reused from one draw to the next.
+ */
+class RasterStrip {
+	private static final ThreadLocal<RasterStrip> local = new ThreadLocal<RasterStrip>();
+
+	private final BufferedImage image;
+	private final int[] pixels;
+	private final int stride;
+	private final int height;
+
+	// bounds of the pixels written since the strip was last drawn, inclusive
+	private int left;
+	private int top;
+	private int right = -1;
+	private int bottom = -1;
+
+
+	private RasterStrip(int width, int height) {
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		stride = width;
+		this.height = height;
+		left = width;
+		top = height;
+	}
+
+	/**
+	 * @return this thread's strip, cleared, with room for a view of the given size
+	 */
+	static RasterStrip get(int width, int height) {
+		width = Math.max(1, width);
+		height = Math.max(1, height);
+		RasterStrip strip = local.get();
+		if (strip == null || strip.stride < width || strip.height < height) {
+			strip = new RasterStrip(Math.max(width, strip == null ? 0 : strip.stride),
+			                        Math.max(height, strip == null ? 0 : strip.height));
+			local.set(strip);
+		}
+		strip.clear();
+		return strip;
+	}
+
+	/**
+	 * Write a vertical span of pixels from y1 to y2 inclusive, in either
+	 * order, in column x.
+	 */
+	void span(int x, int y1, int y2, int argb) {
+		fill(x, Math.min(y1, y2), 1, Math.abs(y2 - y1) + 1, argb);
+	}
+
+	/**
+	 * Fill a rectangle, same as Graphics.fillRect.
+	 */
+	void fill(int x, int y, int w, int h, int argb) {
+		int x1 = Math.max(0, x);
+		int y1 = Math.max(0, y);
+		int x2 = Math.min(stride, x + w);
+		int y2 = Math.min(height, y + h);
+		if (x1 >= x2 || y1 >= y2) return;
+		boolean opaque = (argb >>> 24) == 0xff;
+		for (int row=y1; row<y2; row++) {
+			int i = row * stride;
+			if (opaque)
+				Arrays.fill(pixels, i + x1, i + x2, argb);
+			else {
+				for (int col=i + x1; col<i + x2; col++)
+					pixels[col] = blend(argb, pixels[col]);
+			}
+		}
+		touch(x1, y1, x2 - 1, y2 - 1);
+	}
+
+	/**
+	 * Draw the outline of a rectangle, same as Graphics.drawRect, which
+	 * covers w+1 by h+1 pixels.
+	 */
+	void outline(int x, int y, int w, int h, int argb) {
+		fill(x, y, w + 1, 1, argb);
+		if (h > 0) {
+			fill(x, y + h, w + 1, 1, argb);
+			fill(x, y + 1, 1, h - 1, argb);
+			if (w > 0)
+				fill(x + w, y + 1, 1, h - 1, argb);
+		}
+	}
+
+	private void touch(int x1, int y1, int x2, int y2) {
+		if (x1 < left) left = x1;
+		if (y1 < top) top = y1;
+		if (x2 > right) right = x2;
+		if (y2 > bottom) bottom = y2;
+	}
+
+	/**
+	 * SrcOver for non-premultiplied ARGB
+	 */
+	private static int blend(int src, int dst) {
+		int sa = src >>> 24;
+		int da = dst >>> 24;
+		if (sa == 0xff || da == 0) return src;
+		if (sa == 0) return dst;
+		// alpha of the result, scaled by 255
+		int dw = da * (255 - sa) / 255;
+		int a = sa + dw;
+		int r = (((src >> 16) & 0xff) * sa + ((dst >> 16) & 0xff) * dw) / a;
+		int g = (((src >> 8) & 0xff) * sa + ((dst >> 8) & 0xff) * dw) / a;
+		int b = ((src & 0xff) * sa + (dst & 0xff) * dw) / a;
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Draw the pixels written so far and clear them from the strip.
+	 */
+	void draw(Graphics g) {
+		if (right < left || bottom < top) return;
+		g.drawImage(image, left, top, right + 1, bottom + 1, left, top, right + 1, bottom + 1, null);
+		clear();
+	}
+
+	private void clear() {
+		for (int y=top; y<=bottom; y++)
+			Arrays.fill(pixels, y * stride + left, y * stride + right + 1, 0);
+		left = stride;
+		top = height;
+		right = -1;
+		bottom = -1;
+	}
+}
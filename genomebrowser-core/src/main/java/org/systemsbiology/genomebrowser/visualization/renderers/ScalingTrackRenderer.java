@@ -6,16 +6,22 @@ import java.util.Iterator;
 import org.apache.log4j.Logger;
 import org.systemsbiology.genomebrowser.model.ScalingQuantitativeIteratable;
 import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeWindow;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.util.Attributes;
+import org.systemsbiology.genomebrowser.visualization.SummaryRenderer;
 
 /**
  * A track that groups together points into blocks. As we zoom
  * out, the blocks aggregate more individual data points, which
  * makes drawing a lot more efficient and doesn't loose much if
  * the resolution of the points is smaller than a pixel.
+ *
+ * Tracks with summary levels are drawn from those when zoomed
+ * out, with no need to read every data point in view. Blocks that
+ * hand us their arrays are reduced to one bar per pixel column.
  */
-public class ScalingTrackRenderer extends QuantitativeTrackRenderer {
+public class ScalingTrackRenderer extends QuantitativeTrackRenderer implements SummaryRenderer {
 	private static final Logger log = Logger.getLogger(ScalingTrackRenderer.class);
 
 	/**
@@ -149,8 +155,22 @@ public class ScalingTrackRenderer extends QuantitativeTrackRenderer {
 
 		// compress multiple data points into blocks shown by a
 		// vertical bar that represents the range of values in each
-		// block.
-		if (dataPointsPerPixel >= 4.0) {
+		// block. If we have the arrays, the blocks are pixel columns.
+		if (dataPointsPerPixel >= 4.0 && features instanceof QuantitativeWindow) {
+			PixelColumns columns = PixelColumns.get(params.getDeviceWidth());
+			columns.reduce((QuantitativeWindow)features, params);
+			RasterStrip strip = RasterStrip.get(params.getDeviceWidth(), params.getDeviceHeight());
+			int argb = color.getRGB();
+			for (int x=columns.first; x<=columns.last; x++) {
+				if (columns.count[x] > 0) {
+					int min = (int) (y0 - columns.min[x] * yScale);
+					int max = (int) (y0 - columns.max[x] * yScale);
+					strip.span(x, min, max, argb);
+				}
+			}
+			strip.draw(g);
+		}
+		else if (dataPointsPerPixel >= 4.0) {
 			int blockSize = scaleBlockSize(dataPointsPerPixel);
 			for (Feature.ScaledQuantitative feature : new ScalingQuantitativeIteratable(quantitativeFeatures, blockSize)) {
 				int x = params.toScreenX(feature.getCentralPosition());
@@ -187,4 +207,21 @@ public class ScalingTrackRenderer extends QuantitativeTrackRenderer {
 			// System.out.println("scaling track renderer ----  rendered: " + ccc);
 		}
 	}
+
+	/**
+	 * Draw a vertical bar spanning the range of values in each summary bin.
+	 */
+	public void drawSummaries(Graphics g, Iterable<? extends Feature.Summary> summaries, Strand strand) {
+		double top = (strand == Strand.reverse) ? 1.0 - this.top - this.height : this.top;
+		double yScale = params.getDeviceHeight() * height / (range.max - range.min);
+		int y0 = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height + range.min * yScale);
+
+		g.setColor(color);
+		for (Feature.Summary summary : summaries) {
+			int x = params.toScreenX(summary.getCentralPosition());
+			int min = (int) (y0 - summary.getMin() * yScale);
+			int max = (int) (y0 - summary.getMax() * yScale);
+			g.drawLine(x,min,x,max);
+		}
+	}
 }
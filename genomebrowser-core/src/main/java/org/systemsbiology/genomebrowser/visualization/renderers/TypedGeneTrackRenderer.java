@@ -3,9 +3,7 @@ package org.systemsbiology.genomebrowser.visualization.renderers;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -19,6 +17,7 @@ import org.systemsbiology.genomebrowser.model.Sequence;
 import org.systemsbiology.genomebrowser.model.Strand;
 import org.systemsbiology.genomebrowser.model.Track;
 import org.systemsbiology.genomebrowser.visualization.HasTooltips;
+import org.systemsbiology.genomebrowser.visualization.HitIndex;
 import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
 import org.systemsbiology.genomebrowser.util.Attributes;
 import org.systemsbiology.genomebrowser.util.ColorUtils;
@@ -45,6 +44,8 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 	GeneFeatureImpl mouseOverGene;
 	Rectangle mouseOverRectangle = new Rectangle();
 	boolean useCommonNames;
+	GeneLevelOfDetail lod = new GeneLevelOfDetail();
+	HitIndex hits = new HitIndex();
 	
 	// height of box in pixels
 	final int h = 10;
@@ -61,6 +62,7 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 		initColorMap();
 		offset = track.getAttributes().getInt("offset", offset);
 		useCommonNames = track.getAttributes().getBoolean("use.common.names", true);
+		lod.configure(attr);
 	}
 
 	private void initColorMap() {
@@ -85,14 +87,7 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 	private Color getColor(GeneFeatureImpl feature) {
 		Color color = colorMap.get(new Pair<Strand, GeneFeatureType>(feature.getStrand(), feature.getType()));
 		if (color==null) {
-			switch (feature.getStrand()) {
-			case forward:
-				return forwardStrandColor;
-			case reverse:
-				return reverseStrandColor;
-			default:
-				return noStrandColor;
-			}
+			return getStrandColor(feature.getStrand());
 		}
 		return color;
 	}
@@ -110,25 +105,44 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 
 		int yCenter = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height / 2);
 
+		GeneLevelOfDetail.Level level = lod.level(track, params, strand);
+		int session = hits.begin(params, strand);
+		if (level == GeneLevelOfDetail.Level.DENSITY) {
+			for (Strand s : GeneLevelOfDetail.strands(strand))
+				lod.drawDensity(g, track, params, s, laneY(s, yCenter), h, getStrandColor(s), s == Strand.reverse);
+			return;
+		}
+
+		if (level == GeneLevelOfDetail.Level.SPANS) {
+			GeneLevelOfDetail.Spans spans = new GeneLevelOfDetail.Spans(g);
+			for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
+				x = params.toScreenX(feature.getStart());
+				w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
+				y = laneY(feature.getStrand(), yCenter);
+				spans.add(x, y, w, h, getColor(feature));
+				hits.add(session, strand, feature, x, y, w, h);
+				if (feature.selected()) {
+					spans.finish();
+					g.setColor(Color.RED);
+					g.drawRect(x, y, w, h);
+				}
+			}
+			spans.finish();
+			hits.finish(session, strand);
+			return;
+		}
+
+		Font f = g.getFont();
+		Font f9 = f.deriveFont(9.0F);
+		GeneLevelOfDetail.LabelLayout layout = lod.labels(track, params, strand, useCommonNames, g.getFontMetrics(f9));
+		List<GeneFeatureImpl> labeled = new ArrayList<GeneFeatureImpl>();
+
         for (GeneFeatureImpl feature : (Iterable<GeneFeatureImpl>)features) {
     		x = params.toScreenX(feature.getStart());
     		w = Math.max(1, (int) ((feature.getEnd() - feature.getStart()) * params.getScale()) );
-    		
-    		g.setColor(getColor(feature));
-
-    		// forward strand
-    		if (feature.getStrand() == Strand.forward) {
-        		y = yCenter - offset - h;
-    		}
-    		// reverse strand
-    		else if (feature.getStrand() == Strand.reverse) {
-        		y = yCenter + offset;
-    		}
-    		// no strand information
-    		else {
-    			y = yCenter - (int)(h/2);
-    		}
+    		y = laneY(feature.getStrand(), yCenter);
 
+    		g.setColor(getColor(feature));
     		g.fillRect(x, y, w, h);
 
     		if (feature.selected()) {
@@ -136,19 +150,47 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
     			g.drawRect(x, y, w, h);
     		}
 
-    		if (w > 30 && feature.getLabel() != null) {
-    			g.setColor(Color.BLACK);
-				Font f = g.getFont();
-				Font f9 = f.deriveFont(9.0F);
-				g.setFont(f9);
-				
-				String label = useCommonNames ? feature.getLabel() : feature.getName();
-    			Rectangle2D r = f9.getStringBounds(label, ((Graphics2D)g).getFontRenderContext());
-    			if (w > r.getWidth())
-    				g.drawString(label, x, y+h);
-				g.setFont(f);
-    		}
+    		hits.add(session, strand, feature, x, y, w, h);
+
+    		if (layout.isLabeled(feature))
+    			labeled.add(feature);
+        }
+
+        // labels go on top of the boxes, which they may run past
+        g.setColor(Color.BLACK);
+        g.setFont(f9);
+        for (GeneFeatureImpl feature : labeled) {
+        	g.drawString(GeneLevelOfDetail.label(feature, useCommonNames),
+        			params.toScreenX(feature.getStart()), laneY(feature.getStrand(), yCenter) + h);
         }
+        g.setFont(f);
+        hits.finish(session, strand);
+	}
+
+	/**
+	 * @return y of the top of the boxes for genes on the given strand
+	 */
+	private int laneY(Strand strand, int yCenter) {
+		// forward strand
+		if (strand == Strand.forward)
+			return yCenter - offset - h;
+		// reverse strand
+		else if (strand == Strand.reverse)
+			return yCenter + offset;
+		// no strand information
+		else
+			return yCenter - (int)(h/2);
+	}
+
+	private Color getStrandColor(Strand strand) {
+		switch (strand) {
+		case forward:
+			return forwardStrandColor;
+		case reverse:
+			return reverseStrandColor;
+		default:
+			return noStrandColor;
+		}
 	}
 
 	/**
@@ -161,11 +203,15 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 			int yc = (int) (params.getDeviceHeight() * top + params.getDeviceHeight() * height / 2);
 			int yf = yc - h - offset;
 			if (y >= yf && y <= (yf + h)) {
+				if (hits.covers(params, Strand.forward))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.forward, coord);
 			}
 			int yr = yc + offset;
 			if (y >= yr && y <= (yr + h)) {
+				if (hits.covers(params, Strand.reverse))
+					return (GeneFeatureImpl)hits.featureAt(x, y);
 				int coord = (int)(x / params.getScale()) + params.getStart();
 				return geneTrack.getFeatureAt(params.getSequence(), Strand.reverse, coord);
 			}
@@ -190,6 +236,9 @@ public class TypedGeneTrackRenderer extends TrackRenderer implements HasTooltips
 	}
 
 	public List<Feature> getContainedFeatures(Sequence s, Rectangle r) {
+		if (hits.covers(params, Strand.forward) && hits.covers(params, Strand.reverse) && params.getSequence().equals(s))
+			return hits.features(r);
+
 		// y of forward strand
 		int yf = (int) (params.getDeviceHeight() * top) + 5;
 		// y of reverse strand
@@ -32,6 +32,13 @@ trait Feature {
     def getMin: Double
     def getMax: Double
   }
+  /**
+   * Summarizes the features falling in a bin. The value is their mean.
+   */
+  trait Summary extends ScaledQuantitative {
+    def getCount: Int
+    def getSumOfSquares: Double
+  }
   trait Matrix extends Quantitative {
     def getValues: Array[Double]
   }
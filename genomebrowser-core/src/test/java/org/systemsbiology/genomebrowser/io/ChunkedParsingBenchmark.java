@@ -0,0 +1,190 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.util.MathUtils;
+
+/**
+ * Writes a made-up segment file (sequence, start, end, value) of the given
+ * size and reads it into a FeatureProcessor that just counts, once with
+ * LineReader and split(), as TextDatasetConverter used to, and then with
+ * ChunkedFeatureReader on one thread and on several. Reports MB/s and
+ * lines/s; the first round is a warm-up.
+ *
+ * Values have four decimals, like most measurements. Ones with more than
+ * 15 significant digits take FieldScanner's slow path through
+ * Double.parseDouble. JMH isn't part of our build, so this is a plain main;
+ * run it with -server and a fixed heap, and make the file bigger than the
+ * OS's file cache to include the disk.
+ *
+ * usage: ChunkedParsingBenchmark [megabytes] [threads]
+ */
+public class ChunkedParsingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		File file = File.createTempFile("chunked-parsing-benchmark", ".tsv");
+		try {
+			long lines = writeSegments(file, megabytes * 1024L * 1024L);
+			double mb = file.length() / (1024.0 * 1024.0);
+			System.out.format("%,.0f MB, %,d lines%n", mb, lines);
+
+			for (int round=0; round<2; round++) {
+				double split = seconds(new SplitRun(file));
+				double one = seconds(new ChunkedRun(file, 1));
+				double many = seconds(new ChunkedRun(file, threads));
+				if (round > 0) {
+					report("LineReader + split", mb, lines, split);
+					report("chunked, 1 thread", mb, lines, one);
+					report("chunked, " + threads + " threads", mb, lines, many);
+					System.out.format("speedup %.1fx on 1 thread, %.1fx on %d%n", split / one, split / many, threads);
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+		System.exit(0);
+	}
+
+	private static void report(String name, double mb, long lines, double seconds) {
+		System.out.format("%-22s %,8.1f MB/s %,12.0f lines/s%n", name, mb / seconds, lines / seconds);
+	}
+
+	private static double seconds(Run run) throws Exception {
+		CountingProcessor counter = new CountingProcessor();
+		long t0 = System.nanoTime();
+		run.run(counter);
+		double seconds = (System.nanoTime() - t0) / 1e9;
+		if (counter.getCount() == 0)
+			throw new RuntimeException("Nothing was read");
+		return seconds;
+	}
+
+	private static long writeSegments(File file, long bytes) throws Exception {
+		Random random = new Random(42);
+		BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+		long written = 0;
+		long lines = 0;
+		try {
+			String header = "SEQUENCE\tSTART\tEND\tVALUE\n";
+			out.write(header);
+			written += header.length();
+			int start = 1;
+			while (written < bytes) {
+				String line = "chr" + (1 + lines / 10000000) + "\t" + start + "\t" + (start + 99) + "\t" + Math.round(random.nextGaussian() * 10000) / 10000.0 + "\n";
+				out.write(line);
+				written += line.length();
+				start += 100;
+				lines++;
+			}
+		}
+		finally {
+			out.close();
+		}
+		return lines;
+	}
+
+
+	private interface Run {
+		void run(FeatureProcessor processor) throws Exception;
+	}
+
+	/**
+	 * The single threaded way: a String per line and per field.
+	 */
+	private static class SplitRun implements Run {
+		private final File file;
+
+		SplitRun(File file) {
+			this.file = file;
+		}
+
+		public void run(final FeatureProcessor processor) throws Exception {
+			final SplitSegmentFields fields = new SplitSegmentFields();
+			LineReader reader = new LineReader(new LineReader.LineProcessor() {
+				public void process(int lineNumber, String line) throws Exception {
+					if (lineNumber == 0) return;
+					fields.line = line.split("\t");
+					processor.process(fields);
+				}
+			});
+			reader.setThreads(1);
+			reader.loadData(file);
+		}
+	}
+
+	private static class ChunkedRun implements Run {
+		private final File file;
+		private final int threads;
+
+		ChunkedRun(File file, int threads) {
+			this.file = file;
+			this.threads = threads;
+		}
+
+		public void run(FeatureProcessor processor) throws Exception {
+			ChunkedFeatureReader reader = new ChunkedFeatureReader();
+			reader.setHeaderLines(1);
+			reader.getParser().setThreads(threads);
+			reader.processFeatures(file, new ScannedSegmentFields(), processor);
+		}
+	}
+
+	private static class SplitSegmentFields implements FeatureFields {
+		String[] line;
+
+		public String getSequenceName() { return line[0]; }
+		public String getStrand() { return "."; }
+		public int getStart() { return Integer.parseInt(line[1]); }
+		public int getEnd() { return Integer.parseInt(line[2]); }
+		public int getPosition() { return MathUtils.average(getStart(), getEnd()); }
+		public double getValue() { return Double.parseDouble(line[3]); }
+		public String getName() { return null; }
+		public String getCommonName() { return null; }
+		public String getGeneType() { return null; }
+	}
+
+	private static class ScannedSegmentFields extends LineFeatureFields {
+		private String sequenceName;
+
+		public String getSequenceName() {
+			return sequenceName = fields.getString(0, sequenceName);
+		}
+		public String getStrand() { return "."; }
+		public int getStart() { return fields.getInt(1); }
+		public int getEnd() { return fields.getInt(2); }
+		public int getPosition() { return MathUtils.average(getStart(), getEnd()); }
+		public double getValue() { return fields.getDouble(3); }
+		public String getName() { return null; }
+		public String getCommonName() { return null; }
+		public String getGeneType() { return null; }
+	}
+
+	/**
+	 * Reads every field, so both ways do all their parsing.
+	 */
+	private static class CountingProcessor implements FeatureProcessor {
+		private int count;
+		private long checksum;
+
+		public void process(FeatureFields fields) {
+			checksum += fields.getSequenceName().length() + fields.getStart() + fields.getEnd() + (long)fields.getValue();
+			count++;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void cleanup() {
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.systemsbiology.genomebrowser.io;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import org.systemsbiology.genomebrowser.model.Strand;
+
+/**
+ * Reads made-up segment and GFF lines from memory, once the old way with
+ * BufferedReader, split() and Integer/Double.parseX, and once with
+ * CharLineReader and FieldTokenizer, and reports lines per second and
+ * bytes allocated per line. Allocation is measured with HotSpot's
+ * per-thread allocation counter, where there is one. JMH isn't part of
+ * our build, so this is a plain main with warm-up rounds; run it with
+ * -server and a fixed heap for stable numbers.
+ *
+ * usage: FieldTokenizerBenchmark [lines]
+ */
+public class FieldTokenizerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String segments = segments(lines);
+		String gff = gff(lines);
+
+		for (int round=0; round<5; round++) {
+			boolean warmup = round < 2;
+			Result splitSegments = splitSegments(segments);
+			Result tokenizedSegments = tokenizedSegments(segments);
+			Result splitGff = splitGff(gff);
+			Result tokenizedGff = tokenizedGff(gff);
+
+			if (splitSegments.checksum != tokenizedSegments.checksum || splitGff.checksum != tokenizedGff.checksum)
+				throw new RuntimeException("Results differ");
+
+			if (!warmup) {
+				report("segments", "split", splitSegments, lines);
+				report("segments", "tokenizer", tokenizedSegments, lines);
+				report("gff", "split", splitGff, lines);
+				report("gff", "tokenizer", tokenizedGff, lines);
+				System.out.println();
+			}
+		}
+	}
+
+	private static void report(String format, String parser, Result result, int lines) {
+		System.out.format("%-9s %-10s %,12.0f lines/s %,10.1f bytes/line%n",
+				format, parser, lines / (result.nanos / 1e9), result.allocated / (double)lines);
+	}
+
+	private static String segments(int lines) {
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<lines; i++) {
+			int start = i * 100 + 1;
+			sb.append("chr").append(1 + i / (lines / 4 + 1)).append('\t').append('+').append('\t')
+			  .append(start).append('\t').append(start + 99).append('\t')
+			  .append(Math.round(random.nextGaussian() * 10000) / 10000.0).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String gff(int lines) {
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<lines; i++) {
+			int start = i * 100 + 1;
+			sb.append("chr").append(1 + i / (lines / 4 + 1)).append("\tbenchmark\tgene\t")
+			  .append(start).append('\t').append(start + 99).append('\t')
+			  .append(random.nextInt(1000)).append('\t').append(random.nextBoolean() ? '+' : '-').append("\t.\n");
+		}
+		return sb.toString();
+	}
+
+	private static Result splitSegments(String text) throws Exception {
+		Result result = new Result();
+		BufferedReader reader = new BufferedReader(new StringReader(text));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] fields = line.split("\t");
+			result.add(fields[0], fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Double.parseDouble(fields[4]));
+		}
+		return result.stop();
+	}
+
+	private static Result tokenizedSegments(String text) throws Exception {
+		Result result = new Result();
+		CharLineReader reader = new CharLineReader(new StringReader(text));
+		FieldTokenizer fields = new FieldTokenizer();
+		String sequence = null;
+		String strand = null;
+		while (reader.nextLine()) {
+			fields.reset(reader.getLine());
+			sequence = fields.getString(0, sequence);
+			strand = fields.getString(1, strand);
+			result.add(sequence, strand, fields.getInt(2), fields.getInt(3), fields.getDouble(4));
+		}
+		return result.stop();
+	}
+
+	private static Result splitGff(String text) throws Exception {
+		Result result = new Result();
+		BufferedReader reader = new BufferedReader(new StringReader(text));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] fields = line.split("\t");
+			result.add(fields[0], Strand.fromString(fields[6]).toAbbreviatedString(), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Double.parseDouble(fields[5]));
+		}
+		return result.stop();
+	}
+
+	private static Result tokenizedGff(String text) throws Exception {
+		Result result = new Result();
+		CharLineReader reader = new CharLineReader(new StringReader(text));
+		FieldTokenizer fields = new FieldTokenizer();
+		String sequence = null;
+		while (reader.nextLine()) {
+			fields.reset(reader.getLine());
+			sequence = fields.getString(0, sequence);
+			Strand strand = LineFeatureFields.parseStrand(fields, 6);
+			result.add(sequence, strand.toAbbreviatedString(), fields.getInt(3), fields.getInt(4), fields.getDouble(5));
+		}
+		return result.stop();
+	}
+
+
+	/**
+	 * Times a run and counts the bytes the thread allocated during it.
+	 */
+	private static class Result {
+		private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		private final long t0 = System.nanoTime();
+		private final long allocated0 = allocatedBytes();
+		long nanos;
+		long allocated;
+		long checksum;
+
+		void add(String sequence, String strand, int start, int end, double value) {
+			checksum += sequence.length() + strand.charAt(0) + start + end + (long)(value * 10000);
+		}
+
+		Result stop() {
+			nanos = System.nanoTime() - t0;
+			allocated = allocatedBytes() - allocated0;
+			return this;
+		}
+
+		private static long allocatedBytes() {
+			if (threads instanceof com.sun.management.ThreadMXBean)
+				return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+			return 0L;
+		}
+	}
+}
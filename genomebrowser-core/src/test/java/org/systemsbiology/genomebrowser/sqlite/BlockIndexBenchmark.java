@@ -0,0 +1,105 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.util.MultiHashMap;
+import org.systemsbiology.util.Pair;
+
+/**
+ * Compares window queries on BlockIndex with the linear scan it replaced,
+ * using a human-sized chromosome split into many blocks. JMH isn't part of
+ * our build, so this is a plain main with warm-up rounds; run it with
+ * -server and a fixed heap for stable numbers.
+ *
+ * usage: BlockIndexBenchmark [blocksPerStrand] [queries]
+ */
+public class BlockIndexBenchmark {
+
+	/**
+	 * The previous implementation: copy every key for the sequence into a
+	 * list and test each one against the window.
+	 */
+	static class LinearBlockIndex {
+		private MultiHashMap<Pair<String, Strand>, BlockKey> keyMap = new MultiHashMap<Pair<String, Strand>, BlockKey>();
+
+		void add(BlockKey key) {
+			keyMap.add(new Pair<String, Strand>(key.getSeqId(), key.getStrand()), key);
+		}
+
+		List<BlockKey> keys(String seqId, Strand strand, int start, int end) {
+			List<BlockKey> keys = new ArrayList<BlockKey>();
+			if (strand == Strand.any) {
+				keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.forward)));
+				keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.reverse)));
+				keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, Strand.none)));
+			}
+			else {
+				keys.addAll(keyMap.getList(new Pair<String, Strand>(seqId, strand)));
+			}
+			List<BlockKey> results = new ArrayList<BlockKey>();
+			for (BlockKey key : keys) {
+				if (!(key.getEnd()<start || key.getStart()>end))
+					results.add(key);
+			}
+			return results;
+		}
+	}
+
+	public static void main(String[] args) {
+		int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 12000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int blockWidth = 20000;
+		UUID uuid = UUID.randomUUID();
+
+		BlockIndex index = new BlockIndex();
+		LinearBlockIndex linear = new LinearBlockIndex();
+		int row = 0;
+		for (Strand strand : Strand.both) {
+			for (int i=0; i<blocks; i++) {
+				BlockKey key = new BlockKey(uuid, 1, "chr1", strand, i*blockWidth+1, (i+1)*blockWidth, blockWidth, "features", row, row+blockWidth-1);
+				row += blockWidth;
+				index.add(key);
+				linear.add(key);
+			}
+		}
+
+		Random random = new Random(42);
+		int length = blocks * blockWidth;
+		int[] starts = new int[queries];
+		for (int i=0; i<queries; i++)
+			starts[i] = random.nextInt(length);
+		int window = 100000;
+
+		for (int round=0; round<5; round++) {
+			boolean warmup = round < 2;
+
+			long t0 = System.nanoTime();
+			long found = 0;
+			for (int i=0; i<queries; i++)
+				found += linear.keys("chr1", Strand.any, starts[i], starts[i]+window).size();
+			long linearNanos = System.nanoTime() - t0;
+
+			t0 = System.nanoTime();
+			long found2 = 0;
+			BlockIndex.WindowIteratable cursor = new BlockIndex.WindowIteratable();
+			for (int i=0; i<queries; i++) {
+				for (BlockKey key : index.keys("chr1", Strand.any, starts[i], starts[i]+window, cursor)) {
+					if (key != null) found2++;
+				}
+			}
+			long indexNanos = System.nanoTime() - t0;
+
+			if (found != found2)
+				throw new RuntimeException("Results differ: " + found + " != " + found2);
+
+			if (!warmup) {
+				System.out.format("%d blocks x 2 strands, %d queries: linear %.2f us/query, indexed %.3f us/query, speedup %.1fx%n",
+						blocks, queries, linearNanos / 1e3 / queries, indexNanos / 1e3 / queries, ((double)linearNanos) / indexNanos);
+			}
+		}
+	}
+}
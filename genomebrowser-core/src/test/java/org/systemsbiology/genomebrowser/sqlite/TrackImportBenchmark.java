@@ -0,0 +1,120 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.genomebrowser.model.FeatureSource;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.util.ProgressListener;
+
+/**
+ * Imports made-up tracks of each type into a fresh sqlite database, once
+ * inserting a row at a time with sqlite's default settings and once with
+ * batched inserts and the bulk load pragmas, and reports rows per second
+ * for the whole import. The first round of each is a warm-up. Pass a sort
+ * buffer smaller than rows to include spilling to disk.
+ *
+ * usage: TrackImportBenchmark [rows] [batchSize] [sortBufferRows]
+ */
+public class TrackImportBenchmark {
+	private static final String[] TYPES = {"quantitative.segment", "quantitative.positional", "gene", "quantitative.segment.matrix"};
+	private static final int SEQUENCES = 4;
+	private static final int COLUMNS = 8;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : SqliteTrackImporter.DEFAULT_BATCH_SIZE;
+		int sortBufferRows = args.length > 2 ? Integer.parseInt(args[2]) : SqliteTrackImporter.DEFAULT_SORT_BUFFER_ROWS;
+
+		for (String type : TYPES) {
+			for (int round=0; round<2; round++) {
+				double before = rowsPerSecond(type, round==0 ? rows/10 : rows, 1, false, sortBufferRows);
+				double after = rowsPerSecond(type, round==0 ? rows/10 : rows, batchSize, true, sortBufferRows);
+				if (round > 0) {
+					System.out.format("%-28s %,d rows: row at a time %,.0f rows/s, batches of %d %,.0f rows/s, speedup %.1fx%n",
+							type, rows, before, batchSize, after, after / before);
+				}
+			}
+		}
+		System.exit(0);
+	}
+
+	private static double rowsPerSecond(String type, int rows, int batchSize, boolean bulkLoad, int sortBufferRows) throws Exception {
+		File file = File.createTempFile("import-benchmark", ".hbgb");
+		file.delete();
+		try {
+			SqliteDatasetBuilder builder = new SqliteDatasetBuilder(file);
+			UUID datasetUuid = builder.beginNewDataset("benchmark");
+			for (int i=0; i<SEQUENCES; i++)
+				builder.addSequence("chr" + (i+1), rows * 10, Topology.linear);
+
+			SqliteTrackImporter importer = new SqliteTrackImporter(file);
+			importer.setBatchSize(batchSize);
+			importer.setBulkLoad(bulkLoad);
+			importer.setSortBufferRows(sortBufferRows);
+			FeatureSource source = new RandomFeatureSource(rows);
+
+			long t0 = System.nanoTime();
+			if ("quantitative.segment".equals(type))
+				importer.importQuantitativeSegmentTrack(type, datasetUuid, source);
+			else if ("quantitative.positional".equals(type))
+				importer.importQuantitativePositionalTrack(type, datasetUuid, source);
+			else if ("gene".equals(type))
+				importer.importGeneTrack(type, datasetUuid, source);
+			else
+				importer.importQuantitativeSegmentMatrixTrack(type, datasetUuid, source, COLUMNS);
+			long nanos = System.nanoTime() - t0;
+
+			return rows / (nanos / 1e9);
+		}
+		finally {
+			ConnectionManager.close(file);
+			file.delete();
+		}
+	}
+
+	/**
+	 * Features in random order, as they might come out of a tiling array
+	 * experiment, with fields for every track type.
+	 */
+	static class RandomFeatureSource implements FeatureSource, MatrixFeatureFields {
+		private final int rows;
+		private final Random random = new Random(42);
+		private final double[] values = new double[COLUMNS];
+		private String sequenceName;
+		private String strand;
+		private int start;
+		private int n;
+
+		RandomFeatureSource(int rows) {
+			this.rows = rows;
+		}
+
+		public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
+			for (n=0; n<rows; n++) {
+				sequenceName = "chr" + (random.nextInt(SEQUENCES) + 1);
+				strand = random.nextBoolean() ? "+" : "-";
+				start = random.nextInt(rows * 10 - 100) + 1;
+				for (int i=0; i<COLUMNS; i++)
+					values[i] = random.nextGaussian();
+				featureProcessor.process(this);
+			}
+		}
+
+		public String getSequenceName() { return sequenceName; }
+		public String getStrand() { return strand; }
+		public int getStart() { return start; }
+		public int getEnd() { return start + 59; }
+		public int getPosition() { return start + 30; }
+		public double getValue() { return values[0]; }
+		public double[] getValues() { return values; }
+		public String getName() { return "VNG" + n; }
+		public String getCommonName() { return null; }
+		public String getGeneType() { return "cds"; }
+
+		public void addProgressListener(ProgressListener progressListener) {}
+		public void removeProgressListener(ProgressListener progressListener) {}
+	}
+}
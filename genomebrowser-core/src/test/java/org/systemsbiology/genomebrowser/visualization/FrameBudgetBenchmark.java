@@ -0,0 +1,191 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.AsyncFeatureCallback;
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.QuantitativeTrack;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.model.Track;
+import org.systemsbiology.genomebrowser.sqlite.BlockKey;
+import org.systemsbiology.genomebrowser.sqlite.SegmentBlock;
+import org.systemsbiology.genomebrowser.visualization.renderers.ScalingTrackRenderer;
+
+/**
+ * Drags the view across some quick quantitative tracks and one slow one,
+ * scheduling frames at a steady rate without waiting for them to finish,
+ * and reports how long after being scheduled each frame first shows up in
+ * the view, with the frame budget set to the frame deadline, which is how
+ * the scheduler used to behave, and with the default budget. The slow
+ * track stands for something like a big matrix track; fetching its
+ * features just sleeps, so the numbers don't depend on how fast this
+ * machine draws.
+ *
+ * Runs headless (-Djava.awt.headless=true is fine).
+ *
+ * usage: FrameBudgetBenchmark [tracks] [slowMillis] [frames] [frameInterval]
+ */
+public class FrameBudgetBenchmark {
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 800;
+
+	public static void main(String[] args) throws Exception {
+		int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int slowMillis = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int interval = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+
+		int features = 20000;
+		Sequence sequence = new BasicSequence(UUID.randomUUID(), "chr", features * 10, Topology.linear);
+		ViewParameters params = new ViewParameters();
+		params.setDeviceSize(WIDTH, HEIGHT);
+
+		List<TrackRenderer> renderers = new ArrayList<TrackRenderer>();
+		Random random = new Random(42);
+		for (int t=0; t<tracks; t++)
+			renderers.add(createRenderer(t, tracks + 1, sequence, features, params, random));
+		renderers.add(new NullRenderer(new SlowTrack(slowMillis), params));
+		System.out.format("%d quick tracks and one taking %d ms, %d frames %d ms apart%n", tracks, slowMillis, frames, interval);
+
+		for (long budget : new long[] {TrackRendererScheduler.DEFAULT_FRAME_DEADLINE, TrackRendererScheduler.DEFAULT_FRAME_BUDGET}) {
+			TimingView view = new TimingView(frames + 2);
+			TrackRendererScheduler scheduler = new TrackRendererScheduler();
+			scheduler.setView(view);
+			scheduler.setTileCache(null);
+			scheduler.setFrameBudget(budget);
+			scheduler.startTaskRunnerThread();
+
+			params.initViewParams(sequence, 0, 50000);
+			for (int i=0; i<frames; i++) {
+				int start = params.getStart() + 500;
+				params.setStartAndEnd(start, start + params.getWidth() - 1);
+				view.scheduled(scheduler.getCurrentFrame() + 1);
+				scheduler.schedule(renderers, params.getSequence(), params.getStart(), params.getEnd());
+				Thread.sleep(interval);
+			}
+			Thread.sleep(slowMillis * 2);
+			System.out.format("budget %3d ms: %s; %s%n", budget, view, scheduler.getTrackTimings());
+		}
+		System.exit(0);
+	}
+
+	private static TrackRenderer createRenderer(int t, int tracks, Sequence sequence, int features, ViewParameters params, Random random) {
+		int[] starts = new int[features];
+		int[] ends = new int[features];
+		double[] values = new double[features];
+		for (int i=0; i<features; i++) {
+			starts[i] = i * 10;
+			ends[i] = i * 10 + 25;
+			values[i] = Math.sin(i / 200.0 + t) + random.nextGaussian() * 0.1;
+		}
+		QuantitativeTrack track = new QuantitativeTrack("track " + t);
+		BlockKey key = new BlockKey(track.getUuid(), 1, sequence.getSeqId(), Strand.forward, 0, ends[features-1], features, "features", 1, features);
+		track.putFeatures(new FeatureFilter(sequence, Strand.forward, 0, ends[features-1]), new SegmentBlock(key, starts, ends, values));
+		track.getAttributes().put("top", Double.valueOf(0.05 + 0.45 * t / tracks));
+		track.getAttributes().put("height", Double.valueOf(0.4 / tracks));
+
+		ScalingTrackRenderer renderer = new ScalingTrackRenderer();
+		renderer.setTrack(track);
+		renderer.setViewParameters(params);
+		renderer.configure(track.getAttributes());
+		return renderer;
+	}
+
+	/**
+	 * A track that takes its time fetching its features, which it hasn't got.
+	 */
+	static class SlowTrack extends QuantitativeTrack {
+		private final int millis;
+
+		SlowTrack(int millis) {
+			super("slow");
+			this.millis = millis;
+		}
+
+		@Override
+		public void featuresAsync(FeatureFilter filter, AsyncFeatureCallback callback) {
+			try {
+				Thread.sleep(millis);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	static class NullRenderer extends TrackRenderer {
+		NullRenderer(Track<?> track, ViewParameters params) {
+			setTrack(track);
+			setViewParameters(params);
+		}
+
+		@Override
+		public void draw(Graphics g, Iterable<? extends Feature> features, Strand strand) {
+		}
+	}
+
+	/**
+	 * Notes how long after being scheduled each frame is first shown.
+	 */
+	static class TimingView implements View {
+		private final long[] scheduledAt;
+		private final long[] firstShownAt;
+		private volatile int frame;
+
+		TimingView(int frames) {
+			scheduledAt = new long[frames];
+			firstShownAt = new long[frames];
+		}
+
+		void scheduled(int frame) {
+			this.frame = frame;
+			if (frame < scheduledAt.length)
+				scheduledAt[frame] = System.currentTimeMillis();
+		}
+
+		public int getWidth() {
+			return WIDTH;
+		}
+
+		public int getHeight() {
+			return HEIGHT;
+		}
+
+		public synchronized void updateImage(Image image) {
+			int f = frame;
+			if (f < firstShownAt.length && firstShownAt[f] == 0)
+				firstShownAt[f] = System.currentTimeMillis();
+		}
+
+		public Image createImage(int width, int height) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		@Override
+		public synchronized String toString() {
+			int shown = 0;
+			long total = 0;
+			long max = 0;
+			for (int i=1; i<scheduledAt.length; i++) {
+				if (scheduledAt[i] > 0 && firstShownAt[i] > 0) {
+					long latency = firstShownAt[i] - scheduledAt[i];
+					shown++;
+					total += latency;
+					max = Math.max(max, latency);
+				}
+			}
+			return String.format("%d frames shown, first shown after %.1f ms on average, %d ms max",
+					shown, shown == 0 ? 0.0 : ((double)total) / shown, max);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.systemsbiology.genomebrowser.visualization;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.QuantitativeTrack;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.sqlite.BlockKey;
+import org.systemsbiology.genomebrowser.sqlite.SegmentBlock;
+import org.systemsbiology.genomebrowser.visualization.renderers.ScalingTrackRenderer;
+
+/**
+ * Pans across synthetic quantitative tracks a few pixels at a time, as
+ * dragging the view does, with and without the tile cache, and reports
+ * frame times from the scheduler's FrameTimer. Also counts the pixels in
+ * which the first frame drawn from tiles differs from the same frame
+ * drawn directly. Tiles are cut for a whole zoom level, so at most scales
+ * they don't start on a whole pixel and what's drawn in them can be off by
+ * a pixel; differences should be limited to the edges of things.
+ *
+ * Runs headless (-Djava.awt.headless=true is fine).
+ *
+ * usage: TileRenderingBenchmark [tracks] [featuresPerTrack] [frames] [panPixels]
+ */
+public class TileRenderingBenchmark {
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 800;
+
+	public static void main(String[] args) throws Exception {
+		int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int features = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int pan = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+		int length = features * 10;
+		Sequence sequence = new BasicSequence(UUID.randomUUID(), "chr", length, Topology.linear);
+		ViewParameters params = new ViewParameters();
+		params.setDeviceSize(WIDTH, HEIGHT);
+		params.initViewParams(sequence, 0, 200000);
+
+		List<TrackRenderer> renderers = new ArrayList<TrackRenderer>();
+		Random random = new Random(42);
+		for (int t=0; t<tracks; t++)
+			renderers.add(createRenderer(t, tracks, sequence, features, params, random));
+		System.out.format("%d tracks x %,d features, %d frames panning %d pixels%n", tracks, features, frames, pan);
+
+		BufferedImage direct = null;
+		for (boolean tiled : new boolean[] {false, true}) {
+			CapturingView view = new CapturingView();
+			TrackRendererScheduler scheduler = new TrackRendererScheduler();
+			scheduler.setView(view);
+			scheduler.setFrameDeadline(60000L);
+			scheduler.setFrameBudget(60000L);
+			scheduler.setTileCache(tiled ? new TileCache(256L * 1024 * 1024) : null);
+			scheduler.startTaskRunnerThread();
+
+			params.initViewParams(sequence, 0, 200000);
+			int bases = (int)Math.round(pan / params.getScale());
+			for (int i=0; i<frames; i++) {
+				int start = params.getStart() + (i == 0 ? 0 : bases);
+				params.setStartAndEnd(start, start + params.getWidth() - 1);
+				BufferedImage image = view.render(scheduler, renderers, params);
+				if (i == 0) {
+					if (direct == null)
+						direct = image;
+					else
+						System.out.format("pixels differing between direct and tiled rendering: %,d of %,d%n",
+								countDifferences(direct, image), WIDTH * HEIGHT);
+				}
+				// drop the first frames, which warm up the JIT
+				if (i == frames / 10)
+					scheduler.getFrameTimer().reset();
+			}
+			System.out.format("%s: %s%n", tiled ? "tiled " : "direct", scheduler.getFrameTimer());
+		}
+		System.exit(0);
+	}
+
+	private static TrackRenderer createRenderer(int t, int tracks, Sequence sequence, int features, ViewParameters params, Random random) {
+		int[] starts = new int[features];
+		int[] ends = new int[features];
+		double[] values = new double[features];
+		for (int i=0; i<features; i++) {
+			starts[i] = i * 10;
+			ends[i] = i * 10 + 25;
+			values[i] = Math.sin(i / 200.0 + t) + random.nextGaussian() * 0.1;
+		}
+		QuantitativeTrack track = new QuantitativeTrack("track " + t);
+		BlockKey key = new BlockKey(track.getUuid(), 1, sequence.getSeqId(), Strand.forward, 0, ends[features-1], features, "features", 1, features);
+		track.putFeatures(new FeatureFilter(sequence, Strand.forward, 0, ends[features-1]), new SegmentBlock(key, starts, ends, values));
+		track.getAttributes().put("top", Double.valueOf(0.05 + 0.45 * t / tracks));
+		track.getAttributes().put("height", Double.valueOf(0.4 / tracks));
+
+		ScalingTrackRenderer renderer = new ScalingTrackRenderer();
+		renderer.setTrack(track);
+		renderer.setViewParameters(params);
+		renderer.configure(track.getAttributes());
+		return renderer;
+	}
+
+	private static int countDifferences(BufferedImage a, BufferedImage b) {
+		int count = 0;
+		for (int y=0; y<a.getHeight(); y++) {
+			for (int x=0; x<a.getWidth(); x++) {
+				if (a.getRGB(x, y) != b.getRGB(x, y))
+					count++;
+			}
+		}
+		return count;
+	}
+
+	static class CapturingView implements View {
+		private Image image;
+
+		public int getWidth() {
+			return WIDTH;
+		}
+
+		public int getHeight() {
+			return HEIGHT;
+		}
+
+		public synchronized void updateImage(Image image) {
+			this.image = image;
+			notifyAll();
+		}
+
+		public Image createImage(int width, int height) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		synchronized BufferedImage render(TrackRendererScheduler scheduler, List<TrackRenderer> renderers, ViewParameters params) throws InterruptedException {
+			image = null;
+			scheduler.schedule(renderers, params.getSequence(), params.getStart(), params.getEnd());
+			while (image == null)
+				wait();
+			return (BufferedImage)image;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.FeatureBlock;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.GeneFeatureImpl;
+import org.systemsbiology.genomebrowser.model.GeneFeatureType;
+import org.systemsbiology.genomebrowser.model.GeneTrack;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.visualization.ViewParameters;
+
+/**
+ * Times the typed gene track renderer drawing a gene track with and
+ * without level of detail, zoomed out to the whole sequence, to a view
+ * where genes are a pixel or two wide, and to a view where they get
+ * labels. Each zoom level is drawn panned across the sequence, so zoomed
+ * in draws reuse the label layout cached for their zoom.
+ *
+ * Runs headless (-Djava.awt.headless=true is fine).
+ *
+ * usage: GeneRenderingBenchmark [genes per strand] [iterations]
+ */
+public class GeneRenderingBenchmark {
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 100;
+	private static final int GENE_SPACING = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int genes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		int length = genes * GENE_SPACING;
+		Sequence sequence = new BasicSequence(UUID.randomUUID(), "chr", length, Topology.linear);
+		GeneTrack<GeneFeatureImpl> track = createTrack(sequence, genes, new Random(42));
+
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		// whole sequence, about 1.5 pixels per gene, about 40 pixels per gene
+		int[] widths = {length, WIDTH * GENE_SPACING * 2 / 3, WIDTH * GENE_SPACING / 40};
+
+		for (boolean lod : new boolean[] {false, true}) {
+			track.getAttributes().put("lod", Boolean.valueOf(lod));
+			TypedGeneTrackRenderer renderer = new TypedGeneTrackRenderer();
+			ViewParameters params = new ViewParameters();
+			params.setDeviceSize(WIDTH, HEIGHT);
+			params.initViewParams(sequence, 0, length - 1);
+			renderer.setTrack(track);
+			renderer.setViewParameters(params);
+			renderer.configure(track.getAttributes());
+
+			for (int width : widths) {
+				System.out.format("lod=%-5s %,12d bases in view: %8.2f ms%n",
+						lod, width, time(renderer, track, sequence, params, image, width, iterations));
+			}
+		}
+	}
+
+	/**
+	 * Make a track of genes of random length, about GENE_SPACING apart, on both strands.
+	 */
+	private static GeneTrack<GeneFeatureImpl> createTrack(Sequence sequence, int genes, Random random) {
+		GeneTrack<GeneFeatureImpl> track = new GeneTrack<GeneFeatureImpl>(UUID.randomUUID(), "benchmark");
+		for (Strand strand : Strand.both) {
+			List<GeneFeatureImpl> features = new ArrayList<GeneFeatureImpl>(genes);
+			for (int i=0; i<genes; i++) {
+				int start = i * GENE_SPACING + random.nextInt(GENE_SPACING / 2);
+				int end = start + 200 + random.nextInt(GENE_SPACING);
+				features.add(new GeneFeatureImpl(sequence.getSeqId(), strand, start, end,
+						String.format("%s%05d", strand == Strand.forward ? "f" : "r", i), GeneFeatureType.cds));
+			}
+			track.addGeneFeatures(new FeatureFilter(sequence, strand), new FeatureBlock<GeneFeatureImpl>(sequence, strand, features));
+		}
+		track.getAttributes().put("top", Double.valueOf(0.0));
+		track.getAttributes().put("height", Double.valueOf(1.0));
+		return track;
+	}
+
+	/**
+	 * @return average milliseconds to draw both strands, after warming up
+	 */
+	private static double time(TypedGeneTrackRenderer renderer, GeneTrack<GeneFeatureImpl> track, Sequence sequence, ViewParameters params, BufferedImage image, int width, int iterations) {
+		for (int i=0; i<Math.max(1, iterations / 5); i++)
+			draw(renderer, track, sequence, params, image, width, i);
+		long t0 = System.nanoTime();
+		for (int i=0; i<iterations; i++)
+			draw(renderer, track, sequence, params, image, width, i);
+		return (System.nanoTime() - t0) / 1e6 / iterations;
+	}
+
+	private static void draw(TypedGeneTrackRenderer renderer, GeneTrack<GeneFeatureImpl> track, Sequence sequence, ViewParameters params, BufferedImage image, int width, int i) {
+		// pan a tenth of the view each time
+		int start = Math.max(0, Math.min(sequence.getLength() - width, (int)((long)i * width / 10)));
+		params.initViewParams(sequence, start, start + width - 1);
+		Graphics2D g = image.createGraphics();
+		try {
+			for (Strand strand : Strand.both)
+				renderer.draw(g, track.features(new FeatureFilter(sequence, strand, start, start + width)), strand);
+		}
+		finally {
+			g.dispose();
+		}
+	}
+}
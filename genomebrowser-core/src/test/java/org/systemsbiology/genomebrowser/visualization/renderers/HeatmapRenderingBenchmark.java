@@ -0,0 +1,165 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.QuantitativeTrack;
+import org.systemsbiology.genomebrowser.model.Range;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.sqlite.BlockKey;
+import org.systemsbiology.genomebrowser.sqlite.SegmentMatrixBlock;
+import org.systemsbiology.genomebrowser.visualization.ColorScale;
+import org.systemsbiology.genomebrowser.visualization.ColorScaleRegistry;
+import org.systemsbiology.genomebrowser.visualization.ViewParameters;
+import org.systemsbiology.util.IteratableWrapper;
+
+/**
+ * Times the color scales converting values to colors, and the matrix
+ * heatmap renderer drawing a block of features with a value for each of
+ * a number of conditions, with all of the features in view. Then does
+ * the same for a block with many more features than pixels, one feature
+ * at a time through the flyweights and reduced to pixel columns with each
+ * kind of aggregate. The flyweight path is forced by wrapping the block's
+ * iteratable, which hides its arrays from the renderer.
+ *
+ * Runs headless (-Djava.awt.headless=true is fine).
+ *
+ * usage: HeatmapRenderingBenchmark [features] [conditions] [iterations] [denseFeatures]
+ */
+public class HeatmapRenderingBenchmark {
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 400;
+	private static final String[] SCALES = {"red.green", "blue.yellow", "grey"};
+
+	public static void main(String[] args) throws Exception {
+		int features = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int conditions = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int denseFeatures = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+		ColorScaleRegistry colorScaleRegistry = new ColorScaleRegistry();
+		colorScaleRegistry.init();
+		Random random = new Random(42);
+
+		double[] samples = new double[1000000];
+		for (int i=0; i<samples.length; i++)
+			samples[i] = random.nextGaussian();
+		for (String name : SCALES) {
+			ColorScale colorScale = colorScaleRegistry.get(name);
+			colorScale.setGamma(0.8);
+			colorScale.setRange(new Range(-3.0, 3.0));
+			long checksum = 0;
+			for (int k=0; k<3; k++)
+				checksum += colors(colorScale, samples) + argbs(colorScale, samples);
+			long t0 = System.nanoTime();
+			for (int k=0; k<iterations; k++)
+				checksum += colors(colorScale, samples);
+			long t1 = System.nanoTime();
+			for (int k=0; k<iterations; k++)
+				checksum += argbs(colorScale, samples);
+			long t2 = System.nanoTime();
+			double n = (double)iterations * samples.length;
+			System.out.format("%-12s valueToColor: %6.2f ns per value, valueToArgb: %6.2f ns per value (%d)%n",
+					name, (t1 - t0) / n, (t2 - t1) / n, checksum & 0xff);
+		}
+
+		HeatmapMatrixTrackRenderer renderer = new HeatmapMatrixTrackRenderer();
+		renderer.setColorScaleRegistry(colorScaleRegistry);
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		ViewParameters params = new ViewParameters();
+		params.setDeviceSize(WIDTH, HEIGHT);
+
+		SegmentMatrixBlock block = createBlock(renderer, params, features, conditions, random);
+		System.out.format("HeatmapMatrixTrackRenderer: %,d features x %d conditions in %.2f ms%n",
+				features, conditions, time(renderer, block, params, image, false, iterations));
+
+		block = createBlock(renderer, params, denseFeatures, conditions, random);
+		System.out.format("HeatmapMatrixTrackRenderer: %,d features x %d conditions, one at a time in %.2f ms%n",
+				denseFeatures, conditions, time(renderer, block, params, image, true, 1));
+		for (String aggregate : new String[] {"mean", "max.abs"}) {
+			renderer.getTrack().getAttributes().put("column.aggregate", aggregate);
+			renderer.configure(renderer.getTrack().getAttributes());
+			System.out.format("HeatmapMatrixTrackRenderer: %,d features x %d conditions, %s of pixel columns in %.2f ms%n",
+					denseFeatures, conditions, aggregate, time(renderer, block, params, image, false, iterations));
+		}
+	}
+
+	/**
+	 * Make a block of features 100 bases apart and set up the renderer to
+	 * draw a track of it with all of its features in view.
+	 */
+	private static SegmentMatrixBlock createBlock(HeatmapMatrixTrackRenderer renderer, ViewParameters params, int features, int conditions, Random random) {
+		int[] starts = new int[features];
+		int[] ends = new int[features];
+		double[][] values = new double[features][conditions];
+		for (int i=0; i<features; i++) {
+			starts[i] = i * 100;
+			ends[i] = i * 100 + 99;
+			for (int j=0; j<conditions; j++)
+				values[i][j] = Math.sin(i / 50.0 + j / 10.0) * 2.0 + random.nextGaussian() * 0.5;
+		}
+		int length = ends[features-1] + 1;
+		Sequence sequence = new BasicSequence(UUID.randomUUID(), "chr", length, Topology.linear);
+		QuantitativeTrack track = new QuantitativeTrack("benchmark");
+		BlockKey key = new BlockKey(track.getUuid(), 1, sequence.getSeqId(), Strand.forward, 0, length - 1, features, "features", 1, features);
+		track.getAttributes().put("top", Double.valueOf(0.0));
+		track.getAttributes().put("height", Double.valueOf(1.0));
+		track.getAttributes().put("rangeMin", Double.valueOf(-3.0));
+		track.getAttributes().put("rangeMax", Double.valueOf(3.0));
+
+		params.initViewParams(sequence, 0, length - 1);
+
+		renderer.setTrack(track);
+		renderer.setViewParameters(params);
+		renderer.configure(track.getAttributes());
+		return new SegmentMatrixBlock(key, starts, ends, values);
+	}
+
+	/**
+	 * @return average milliseconds per draw, after warming up
+	 */
+	private static double time(HeatmapMatrixTrackRenderer renderer, SegmentMatrixBlock block, ViewParameters params, BufferedImage image, boolean flyweights, int iterations) {
+		for (int i=0; i<Math.max(1, iterations / 5); i++)
+			draw(renderer, block, params, image, flyweights);
+		long t0 = System.nanoTime();
+		for (int i=0; i<iterations; i++)
+			draw(renderer, block, params, image, flyweights);
+		return (System.nanoTime() - t0) / 1e6 / iterations;
+	}
+
+	private static long colors(ColorScale colorScale, double[] samples) {
+		long checksum = 0;
+		for (int i=0; i<samples.length; i++) {
+			Color color = colorScale.valueToColor(samples[i]);
+			checksum += color.getRGB();
+		}
+		return checksum;
+	}
+
+	private static long argbs(ColorScale colorScale, double[] samples) {
+		long checksum = 0;
+		for (int i=0; i<samples.length; i++)
+			checksum += colorScale.valueToArgb(samples[i]);
+		return checksum;
+	}
+
+	private static void draw(HeatmapMatrixTrackRenderer renderer, SegmentMatrixBlock block, ViewParameters params, BufferedImage image, boolean flyweights) {
+		Graphics2D g = image.createGraphics();
+		try {
+			Iterable<Feature.Quantitative> features = block.features(params.getStart(), params.getEnd() + 1);
+			if (flyweights)
+				features = new IteratableWrapper<Feature.Quantitative>(features.iterator());
+			renderer.draw(g, features, Strand.forward);
+		}
+		finally {
+			g.dispose();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.systemsbiology.genomebrowser.visualization.renderers;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.QuantitativeTrack;
+import org.systemsbiology.genomebrowser.model.Sequence;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.sqlite.BlockKey;
+import org.systemsbiology.genomebrowser.sqlite.SegmentBlock;
+import org.systemsbiology.genomebrowser.visualization.ColorScaleRegistry;
+import org.systemsbiology.genomebrowser.visualization.TrackRenderer;
+import org.systemsbiology.genomebrowser.visualization.ViewParameters;
+import org.systemsbiology.util.IteratableWrapper;
+
+/**
+ * Times the quantitative renderers drawing a block with all of its data
+ * points in view, one feature at a time through the flyweights and in
+ * bulk from the block's arrays. The flyweight path is forced by wrapping
+ * the block's iteratable, which hides its arrays from the renderer.
+ *
+ * Runs headless (-Djava.awt.headless=true is fine).
+ *
+ * usage: QuantitativeRenderingBenchmark [points] [iterations]
+ */
+public class QuantitativeRenderingBenchmark {
+	private static final int WIDTH = 1600;
+	private static final int HEIGHT = 200;
+
+	public static void main(String[] args) throws Exception {
+		int points = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		int[] starts = new int[points];
+		int[] ends = new int[points];
+		double[] values = new double[points];
+		Random random = new Random(42);
+		for (int i=0; i<points; i++) {
+			starts[i] = i * 10;
+			ends[i] = i * 10 + 25;
+			values[i] = Math.sin(i / 2000.0) + random.nextGaussian() * 0.1;
+		}
+		int length = ends[points-1] + 1;
+		Sequence sequence = new BasicSequence(UUID.randomUUID(), "chr", length, Topology.linear);
+		QuantitativeTrack track = new QuantitativeTrack("benchmark");
+		BlockKey key = new BlockKey(track.getUuid(), 1, sequence.getSeqId(), Strand.forward, 0, length - 1, points, "features", 1, points);
+		SegmentBlock block = new SegmentBlock(key, starts, ends, values);
+		track.putFeatures(new FeatureFilter(sequence, Strand.forward, 0, length - 1), block);
+		track.getAttributes().put("top", Double.valueOf(0.0));
+		track.getAttributes().put("height", Double.valueOf(1.0));
+		track.getAttributes().put("rangeMin", Double.valueOf(-1.5));
+		track.getAttributes().put("rangeMax", Double.valueOf(1.5));
+
+		ViewParameters params = new ViewParameters();
+		params.setDeviceSize(WIDTH, HEIGHT);
+		params.initViewParams(sequence, 0, length - 1);
+
+		ColorScaleRegistry colorScaleRegistry = new ColorScaleRegistry();
+		colorScaleRegistry.init();
+		HeatmapTrackRenderer heatmap = new HeatmapTrackRenderer();
+		heatmap.setColorScaleRegistry(colorScaleRegistry);
+
+		System.out.format("%,d points in view, %d pixels wide, %d iterations%n", points, WIDTH, iterations);
+		TrackRenderer[] renderers = new TrackRenderer[] {new ScalingTrackRenderer(), new LineGraphTrackRenderer(), heatmap};
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		for (TrackRenderer renderer : renderers) {
+			renderer.setTrack(track);
+			renderer.setViewParameters(params);
+			renderer.configure(track.getAttributes());
+			// drawing features one at a time is slow enough that a few draws will do
+			double flyweight = time(renderer, block, params, image, false, Math.max(1, iterations / 10));
+			double bulk = time(renderer, block, params, image, true, iterations);
+			System.out.format("%-24s flyweights: %8.2f ms   arrays: %6.2f ms%n",
+					renderer.getClass().getSimpleName(), flyweight, bulk);
+		}
+	}
+
+	/**
+	 * @return average milliseconds per draw, after warming up
+	 */
+	private static double time(TrackRenderer renderer, SegmentBlock block, ViewParameters params, BufferedImage image, boolean bulk, int iterations) {
+		for (int i=0; i<Math.max(1, iterations / 5); i++)
+			draw(renderer, block, params, image, bulk);
+		long t0 = System.nanoTime();
+		for (int i=0; i<iterations; i++)
+			draw(renderer, block, params, image, bulk);
+		return (System.nanoTime() - t0) / 1e6 / iterations;
+	}
+
+	private static void draw(TrackRenderer renderer, SegmentBlock block, ViewParameters params, BufferedImage image, boolean bulk) {
+		Graphics2D g = image.createGraphics();
+		try {
+			Iterable<Feature.Quantitative> features = block.features(params.getStart(), params.getEnd() + 1);
+			if (!bulk)
+				features = new IteratableWrapper<Feature.Quantitative>(features.iterator());
+			renderer.draw(g, features, Strand.forward);
+		}
+		finally {
+			g.dispose();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.systemsbiology.genomebrowser.cache
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+class SizedValue(val name: String, size: Long) extends Sized {
+  def getSizeInBytes = size
+}
+
+@RunWith(classOf[JUnitRunner])
+class BlockCacheSpec extends FlatSpec with ShouldMatchers {
+
+  def loader(counter: Array[Int], size: Long) = new BlockCache.Loader[String, SizedValue] {
+    def load(key: String) = {
+      counter(0) += 1
+      new SizedValue(key, size)
+    }
+  }
+
+  "BlockCache" should "load on miss and hit afterwards" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    cache.get("a", loader(loads, 100)).name should be ("a")
+    cache.get("a", loader(loads, 100)).name should be ("a")
+    loads(0) should be (1)
+    val stats = cache.getStats
+    stats.hits should be (1)
+    stats.misses should be (1)
+    stats.loads should be (1)
+    stats.bytes should be (100)
+  }
+
+  it should "stay within its byte budget" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    for (i <- 0 until 50) cache.get("k" + i, loader(loads, 100))
+    cache.getSizeInBytes should be <= (1000L)
+    cache.size should be (10)
+    cache.getStats.evictions should be (40)
+  }
+
+  it should "not retain values bigger than the budget" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    cache.get("big", loader(loads, 5000)).name should be ("big")
+    cache.contains("big") should be (false)
+  }
+
+  it should "protect frequently used entries from a scan" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    // hit twice to promote into the protected segment
+    cache.get("hot", loader(loads, 100))
+    cache.get("hot", loader(loads, 100))
+    for (i <- 0 until 100) cache.get("scan" + i, loader(loads, 100))
+    cache.contains("hot") should be (true)
+  }
+
+  it should "count failed loads and rethrow" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val failing = new BlockCache.Loader[String, SizedValue] {
+      def load(key: String): SizedValue = throw new RuntimeException("boom")
+    }
+    evaluating { cache.get("x", failing) } should produce [RuntimeException]
+    cache.getStats.loadFailures should be (1)
+    cache.contains("x") should be (false)
+  }
+
+  it should "never evict pinned entries" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    cache.setPinned(java.util.Arrays.asList("visible1", "visible2"))
+    cache.get("visible1", loader(loads, 100))
+    cache.get("visible2", loader(loads, 100))
+    for (i <- 0 until 50) cache.get("k" + i, loader(loads, 100))
+    cache.contains("visible1") should be (true)
+    cache.contains("visible2") should be (true)
+    cache.getSizeInBytes should be <= (1000L)
+  }
+
+  it should "prefetch without counting a use" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    cache.prefetch("a", loader(loads, 100)) should be (true)
+    cache.prefetch("a", loader(loads, 100)) should be (false)
+    loads(0) should be (1)
+    cache.contains("a") should be (true)
+    val stats = cache.getStats
+    stats.hits should be (0)
+    stats.misses should be (0)
+    stats.prefetches should be (1)
+    cache.get("a", loader(loads, 100))
+    loads(0) should be (1)
+    cache.getStats.hits should be (1)
+  }
+
+  it should "drop prefetched values that don't fit beside pinned entries" in {
+    val cache = new BlockCache[String, SizedValue](1000)
+    val loads = Array(0)
+    val pinned = (0 until 10).map("visible" + _)
+    cache.setPinned(java.util.Arrays.asList(pinned: _*))
+    for (key <- pinned) cache.get(key, loader(loads, 100))
+    cache.prefetch("next", loader(loads, 100))
+    cache.contains("next") should be (false)
+    pinned.forall(cache.contains(_)) should be (true)
+  }
+}
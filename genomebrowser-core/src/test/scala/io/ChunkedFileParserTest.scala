@@ -0,0 +1,137 @@
+package org.systemsbiology.genomebrowser.io
+
+import java.io.{File, FileWriter, PrintWriter}
+import scala.collection.mutable.ArrayBuffer
+import scala.util.Random
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.systemsbiology.genomebrowser.model.{FeatureFields, FeatureProcessor}
+
+@RunWith(classOf[JUnitRunner])
+class ChunkedFileParserSpec extends FlatSpec with ShouldMatchers {
+
+  def scan(line: String) = {
+    val bytes = line.getBytes
+    new FieldScanner().reset(bytes, 0, bytes.length)
+  }
+
+  def writeFile(lines: Seq[String], terminator: Int => String) = {
+    val file = File.createTempFile("chunks", ".tsv")
+    val out = new PrintWriter(new FileWriter(file))
+    for ((line, i) <- lines.zipWithIndex) out.print(line + terminator(i))
+    out.close()
+    file
+  }
+
+  class SegmentFields extends LineFeatureFields {
+    def getSequenceName = fields.getString(0)
+    def getStrand = "+"
+    def getStart = fields.getInt(1)
+    def getEnd = fields.getInt(2)
+    def getPosition = (getStart + getEnd) / 2
+    def getValue = fields.getDouble(3)
+    def getName = null
+    def getCommonName = null
+    def getGeneType = null
+  }
+
+  "FieldScanner" should "split fields like split does, keeping trailing empty fields" in {
+    val s = scan("chr1\t10\t\t0.5\t")
+    s.getFieldCount should be (5)
+    s.getString(0) should be ("chr1")
+    s.isEmpty(2) should be (true)
+    s.isEmpty(4) should be (true)
+    s.equals(0, "chr1") should be (true)
+    s.equals(0, "chr") should be (false)
+    evaluating { s.getString(5) } should produce [ArrayIndexOutOfBoundsException]
+  }
+
+  it should "parse ints the way Integer.parseInt does" in {
+    for (text <- List("0", "-0", "7", "-42", "999999999", "2147483647", "-2147483648"))
+      scan(text).getInt(0) should be (Integer.parseInt(text))
+    for (text <- List("", "-", "1.5", "2147483648", "12a"))
+      evaluating { scan(text).getInt(0) } should produce [NumberFormatException]
+  }
+
+  it should "parse doubles exactly as Double.parseDouble does" in {
+    val random = new Random(42)
+    val texts = List("0", "-0", "1.", ".5", "-.5", "1e5", "1E-5", "3.14159265358979",
+      "1234567890123456789", "1e22", "1e23", "4.9e-324", "00001.25000", "NaN", "-Infinity", "1.5f") ++
+      (1 to 10000).map(i => (random.nextGaussian * math.pow(10, random.nextInt(20) - 10)).toString) ++
+      (1 to 10000).map(i => String.format("%." + random.nextInt(12) + "f", double2Double(random.nextGaussian)))
+    for (text <- texts)
+      java.lang.Double.doubleToLongBits(scan(text).getDouble(0)) should be (java.lang.Double.doubleToLongBits(java.lang.Double.parseDouble(text)))
+    evaluating { scan("1.2.3").getDouble(0) } should produce [NumberFormatException]
+  }
+
+  it should "see lines starting with non-ASCII bytes as more than whitespace" in {
+    // an e acute in Latin-1, which is negative as a byte
+    val bytes = Array(0xe9.toByte, 'x'.toByte, '\t'.toByte, '1'.toByte)
+    val s = new FieldScanner().reset(bytes, 0, bytes.length)
+    s.firstNonWhitespace should be (0xe9)
+    s.isBlank should be (false)
+    s.getInt(1) should be (1)
+    evaluating { s.getInt(0) } should produce [NumberFormatException]
+    evaluating { s.getDouble(0) } should produce [NumberFormatException]
+
+    val indented = Array(' '.toByte, '\t'.toByte, 0xff.toByte)
+    new FieldScanner().reset(indented, 0, indented.length).firstNonWhitespace should be (0xff)
+    scan(" \t ").firstNonWhitespace should be (-1)
+  }
+
+  "ChunkedFileParser" should "hand every line to the consumer in order" in {
+    val lines = (0 until 20000).map(i => i + "\tline " + i)
+    val file = writeFile(lines, i => if (i % 3 == 0) "\r\n" else "\n")
+    val parser = new ChunkedFileParser[ArrayBuffer[String]]
+    parser.setThreads(4)
+    parser.setChunkBytes(8 * 1024)
+    parser.isWorthSplitting(file) should be (true)
+
+    val result = new ArrayBuffer[String]
+    parser.parse(file,
+      new ChunkedFileParser.ChunkParser[ArrayBuffer[String]] {
+        def parse(chunk: ChunkedFileParser.Chunk) = {
+          val lines = new ArrayBuffer[String]
+          while (chunk.nextLine())
+            lines += new String(chunk.getBytes, chunk.getLineStart, chunk.getLineEnd - chunk.getLineStart)
+          lines
+        }
+      },
+      new ChunkedFileParser.ChunkConsumer[ArrayBuffer[String]] {
+        def consume(lines: ArrayBuffer[String]) = { result ++= lines; true }
+      })
+    file.delete()
+    result.toList should be (lines.toList)
+  }
+
+  "ChunkedFeatureReader" should "read the same features on one thread as on several" in {
+    val lines = "SEQ\tSTART\tEND\tVALUE" +: (0 until 20000).map(i => "chr" + (i / 5000) + "\t" + (i*10) + "\t" + (i*10+9) + "\t" + (i * 0.001))
+    val file = writeFile(lines, i => "\n")
+
+    def read(threads: Int) = {
+      val features = new ArrayBuffer[String]
+      val reader = new ChunkedFeatureReader
+      reader.setHeaderLines(1)
+      reader.getParser.setThreads(threads)
+      reader.getParser.setChunkBytes(8 * 1024)
+      reader.processFeatures(file, new SegmentFields, new FeatureProcessor {
+        def process(f: FeatureFields) { features += f.getSequenceName + ":" + f.getStart + "-" + f.getEnd + "=" + f.getValue }
+        def getCount = features.size
+        def cleanup {}
+      })
+      features.toList
+    }
+
+    val one = read(1)
+    val four = read(4)
+    file.delete()
+    one.size should be (20000)
+    one.head should be ("chr0:0-9=0.0")
+    one.last should startWith ("chr3:199990-199999=")
+    four should be (one)
+  }
+}
@@ -0,0 +1,82 @@
+package org.systemsbiology.genomebrowser.io
+
+import java.io.{BufferedReader, StringReader}
+import scala.collection.mutable.ArrayBuffer
+import scala.util.Random
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class FieldTokenizerSpec extends FlatSpec with ShouldMatchers {
+
+  def readLines(text: String) = {
+    val lines = new ArrayBuffer[String]
+    val reader = new BufferedReader(new StringReader(text))
+    var line = reader.readLine()
+    while (line != null) {
+      lines += line
+      line = reader.readLine()
+    }
+    lines.toList
+  }
+
+  def charLines(text: String, bufferSize: Int) = {
+    val lines = new ArrayBuffer[String]
+    val reader = new CharLineReader(new StringReader(text), bufferSize)
+    while (reader.nextLine())
+      lines += reader.getLine.toString
+    lines.toList
+  }
+
+  "CharLineReader" should "split lines as BufferedReader.readLine does" in {
+    val random = new Random(42)
+    val alphabet = "ab\t\r\n"
+    for (i <- 1 to 1000) {
+      val text = (1 to random.nextInt(100)).map(j => alphabet(random.nextInt(alphabet.length))).mkString
+      // a small buffer puts line ends, and the halves of \r\n, on buffer boundaries
+      charLines(text, 16) should be (readLines(text))
+    }
+  }
+
+  it should "grow its buffer to hold long lines" in {
+    val long = "x" * 100000
+    charLines(long + "\r\nshort\n", 16) should be (List(long, "short"))
+  }
+
+  "FieldTokenizer" should "split fields like split does, keeping trailing empty fields" in {
+    val fields = new FieldTokenizer().reset("chr1\t10\t\t0.5\t")
+    fields.getFieldCount should be (5)
+    fields.getString(0) should be ("chr1")
+    fields.isEmpty(2) should be (true)
+    fields.isEmpty(4) should be (true)
+    fields.equals(0, "chr1") should be (true)
+    evaluating { fields.getString(5) } should produce [ArrayIndexOutOfBoundsException]
+  }
+
+  it should "read fields from a window on a reader's buffer" in {
+    val reader = new CharLineReader(new StringReader("header\nchr2\t-\t123\t-4.25\n"))
+    reader.nextLine()
+    reader.nextLine()
+    val fields = new FieldTokenizer().reset(reader.getLine)
+    fields.getString(0) should be ("chr2")
+    fields.getString(0, "chr2") should be theSameInstanceAs ("chr2")
+    fields.getInt(2) should be (123)
+    fields.getDouble(3) should be (-4.25)
+  }
+
+  it should "parse numbers exactly as Integer.parseInt and Double.parseDouble do" in {
+    val random = new Random(42)
+    val fields = new FieldTokenizer()
+    for (i <- 1 to 10000) {
+      val n = random.nextInt.toString
+      fields.reset(n).getInt(0) should be (Integer.parseInt(n))
+      val d = (random.nextGaussian * math.pow(10, random.nextInt(30) - 15)).toString
+      java.lang.Double.doubleToLongBits(fields.reset(d).getDouble(0)) should be (java.lang.Double.doubleToLongBits(java.lang.Double.parseDouble(d)))
+    }
+    evaluating { fields.reset("12a").getInt(0) } should produce [NumberFormatException]
+    evaluating { fields.reset("").getDouble(0) } should produce [NumberFormatException]
+  }
+}
@@ -0,0 +1,87 @@
+package org.systemsbiology.genomebrowser.metrics
+
+import java.lang.management.ManagementFactory
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class MetricsSpec extends FlatSpec with ShouldMatchers {
+
+  "Histogram" should "bucket durations on a log scale" in {
+    Histogram.bucket(0) should be (0)
+    for (nanos <- List(1L, 2L, 3L, 4L, 5L, 7L, 100L, 1000000L, 123456789L)) {
+      val bucket = Histogram.bucket(nanos)
+      Histogram.upperBound(bucket) should be > (nanos)
+      if (bucket > 0) Histogram.upperBound(bucket - 1) should be <= (nanos)
+    }
+  }
+
+  it should "report percentiles within a bucket of the truth" in {
+    val h = new Histogram("test")
+    h.getPercentileMillis(0.5) should be (0.0)
+    for (i <- 1 to 1000) h.record(i * 1000000L)
+    h.getCount should be (1000)
+    h.getMeanMillis should be (500.5 plusOrMinus 0.01)
+    h.getMaxMillis should be (1000.0)
+    h.getMedianMillis should be (500.0 plusOrMinus 125.0)
+    h.get95thPercentileMillis should be (950.0 plusOrMinus 125.0)
+    h.getPercentileMillis(1.0) should be (1000.0)
+    h.reset()
+    h.getCount should be (0)
+  }
+
+  "Metrics" should "hand out the same metric for a name" in {
+    val metrics = new Metrics
+    metrics.counter("frames") should be theSameInstanceAs (metrics.counter("frames"))
+    metrics.histogram("loads") should be theSameInstanceAs (metrics.histogram("loads"))
+    metrics.counter("frames").increment()
+    metrics.counter("frames").add(2)
+    metrics.counter("frames").getCount should be (3)
+    metrics.getSummary should include ("frames=3")
+    metrics.reset()
+    metrics.counter("frames").getCount should be (0)
+  }
+
+  it should "register MBeans only while enabled" in {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val metrics = new Metrics
+    metrics.counter("test.before")
+    metrics.isEnabled should be (false)
+    server.isRegistered(Metrics.getObjectName("Counter", "test.before")) should be (false)
+
+    metrics.setEnabled(true)
+    try {
+      metrics.counter("test.after").increment()
+      metrics.gauge("test.gauge", new Gauge { def getValue = 42L })
+      server.isRegistered(Metrics.getObjectName("Counter", "test.before")) should be (true)
+      server.getAttribute(Metrics.getObjectName("Counter", "test.after"), "Count") should be (1L)
+      server.getAttribute(Metrics.getObjectName("Gauge", "test.gauge"), "Value") should be (42L)
+    }
+    finally {
+      metrics.setEnabled(false)
+    }
+    server.isRegistered(Metrics.getObjectName("Counter", "test.after")) should be (false)
+  }
+
+  it should "forget a removed histogram" in {
+    val server = ManagementFactory.getPlatformMBeanServer
+    val metrics = new Metrics
+    metrics.setEnabled(true)
+    try {
+      val h = metrics.histogram("test.removed")
+      h.record(1000L)
+      server.isRegistered(Metrics.getObjectName("Histogram", "test.removed")) should be (true)
+      metrics.removeHistogram("test.removed")
+      server.isRegistered(Metrics.getObjectName("Histogram", "test.removed")) should be (false)
+      metrics.getSummary should not include ("test.removed")
+      metrics.histogram("test.removed") should not be theSameInstanceAs (h)
+      metrics.removeHistogram("test.never")
+    }
+    finally {
+      metrics.setEnabled(false)
+    }
+  }
+}
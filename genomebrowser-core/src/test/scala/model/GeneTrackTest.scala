@@ -51,4 +51,50 @@ class GeneTrackSpec extends FlatSpec with ShouldMatchers {
 		feature2_2.getName should be ("x0006")
 		features2.hasNext should be (false)
   }
+
+  it should "count genes in bins as they're added" in {
+		val track = new GeneTrack[GeneFeature](UUID.randomUUID, "Moose Genome")
+		val chromosomeI = new BasicSequence(UUID.randomUUID, "I", 10100, Topology.circular)
+
+		val genes = new ArrayList[GeneFeature]
+		for (i <- 0 until 100) {
+			genes.add(new GeneFeatureImpl("I", Strand.forward, i * 100, i * 100 + 90, "m%04d".format(i),
+                                     GeneFeatureType.cds))
+		}
+		track.addGeneFeatures(new FeatureBlock[GeneFeature](chromosomeI, Strand.forward, genes))
+
+		track.getDensity(chromosomeI, Strand.reverse) should be (null)
+		val density = track.getDensity(chromosomeI, Strand.forward)
+		density.getBinSize should be (100)
+		density.getCount should be (100)
+		density.getMaxCount should be (1)
+		density.count(0, 10100) should be (100.0)
+		density.count(500, 700) should be (2.0)
+		// half of each of two bins
+		density.count(550, 650) should be (1.0)
+		density.count(-1000, 0) should be (0.0)
+		density.maxCount(50) should be (1.0)
+		density.maxCount(250) should be (2.5)
+  }
+
+  it should "find the gene at a coordinate among overlapping genes" in {
+		val track = new GeneTrack[GeneFeature](UUID.randomUUID, "Moose Genome")
+		val chromosomeI = new BasicSequence(UUID.randomUUID, "I", 10100, Topology.circular)
+
+		val genes = new ArrayList[GeneFeature]
+		genes.add(new GeneFeatureImpl("I", Strand.forward, 100, 5000, "long", GeneFeatureType.cds))
+		for (i <- 1 until 10) {
+			genes.add(new GeneFeatureImpl("I", Strand.forward, i * 1000, i * 1000 + 90, "m%04d".format(i),
+                                     GeneFeatureType.cds))
+		}
+		track.addGeneFeatures(new FeatureBlock[GeneFeature](chromosomeI, Strand.forward, genes))
+
+		track.getFeatureAt(chromosomeI, Strand.forward, 99) should be (null)
+		track.getFeatureAt(chromosomeI, Strand.forward, 100).getName should be ("long")
+		// covered by both, the one starting first wins
+		track.getFeatureAt(chromosomeI, Strand.forward, 2050).getName should be ("long")
+		track.getFeatureAt(chromosomeI, Strand.forward, 6090).getName should be ("m0006")
+		track.getFeatureAt(chromosomeI, Strand.forward, 6091) should be (null)
+		track.getFeatureAt(chromosomeI, Strand.reverse, 2050) should be (null)
+  }
 }
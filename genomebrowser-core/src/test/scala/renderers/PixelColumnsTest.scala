@@ -0,0 +1,160 @@
+package org.systemsbiology.genomebrowser.visualization.renderers
+
+import java.util.UUID
+import scala.util.Random
+
+import org.systemsbiology.genomebrowser.model._
+import org.systemsbiology.genomebrowser.sqlite.{BlockKey, SegmentBlock, SegmentMatrixBlock}
+import org.systemsbiology.genomebrowser.visualization.ViewParameters
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+/**
+ * Checks the min, max and mean PixelColumns computes for each column
+ * against those of the features the per-feature drawing code would put
+ * in the column, placing each at params.toScreenX(getCentralPosition).
+ *
+ * Features are fetched from the start of the block, the way tiles are
+ * fetched with a margin. A window, unlike an iterator, takes in features
+ * that end before the start of the fetch if they follow one that doesn't.
+ */
+@RunWith(classOf[JUnitRunner])
+class PixelColumnsSpec extends FlatSpec with ShouldMatchers {
+  val chr = new BasicSequence(UUID.randomUUID, "chr", 100000, Topology.linear)
+
+  case class Column(min: Double, max: Double, mean: Double, count: Int)
+
+  def params(width: Int, start: Int, end: Int) = {
+    val p = new ViewParameters
+    p.setDeviceSize(width, 50)
+    p.initViewParams(chr, start, end)
+    p
+  }
+
+  def key(n: Int) = new BlockKey(UUID.randomUUID, 1, "chr", Strand.forward, 0, 100000, n, "features", 1, n)
+
+  /**
+   * Columns of the features, one value per feature, as drawn one at a time.
+   */
+  def direct(features: Iterable[(Int, Double)], p: ViewParameters): Map[Int, Column] = {
+    val values = for ((position, value) <- features.toList if !value.isNaN; x = p.toScreenX(position)
+                      if x >= 0 && x < p.getDeviceWidth) yield (x, value)
+    values.groupBy(_._1).map { case (x, vs) =>
+      val v = vs.map(_._2)
+      x -> Column(v.min, v.max, v.sum / v.size, v.size)
+    }
+  }
+
+  def reduced(columns: PixelColumns, rows: Int, row: Int, width: Int): Map[Int, Column] = {
+    (for (x <- 0 until width; cell = x * rows + row if columns.count(cell) > 0)
+      yield x -> Column(columns.min(cell), columns.max(cell), columns.mean(cell), columns.count(cell))).toMap
+  }
+
+  def check(actual: Map[Int, Column], expected: Map[Int, Column]) {
+    actual.keySet should be (expected.keySet)
+    for ((x, e) <- expected) {
+      val a = actual(x)
+      a.count should be (e.count)
+      a.min should be (e.min)
+      a.max should be (e.max)
+      a.mean should be (e.mean plusOrMinus 1e-9)
+    }
+  }
+
+  def quantitative(block: SegmentBlock, start: Int, end: Int) = {
+    val features = new scala.collection.mutable.ArrayBuffer[(Int, Double)]
+    val it = block.features(start, end)
+    while (it.hasNext) {
+      val f = it.next
+      features += ((f.getCentralPosition, f.getValue))
+    }
+    features
+  }
+
+  "PixelColumns" should "reduce features to the columns they are drawn in" in {
+    // 10 pixels over 100 bases, so columns are 10 bases wide and centered
+    // on multiples of 10: centers at 4, 5 and 6 fall on either side of the
+    // edge between columns 0 and 1, and 95 falls off the right edge
+    val starts = Array(0, 2, 4, 5, 10, 12, 30, 30, 31, 90, 95)
+    val ends   = Array(8, 8, 8, 7, 30, 13, 34, 80, 32, 99, 95)
+    val values = Array(1.0, -2.0, 3.0, 0.5, 4.0, Double.NaN, -1.0, 2.5, 7.0, 6.0, -6.0)
+    val block = new SegmentBlock(key(starts.length), starts, ends, values)
+    val p = params(10, 0, 99)
+
+    val columns = PixelColumns.get(10)
+    columns.reduce(block.features(0, 100).asInstanceOf[QuantitativeWindow], p)
+    val expected = direct(quantitative(block, 0, 100), p)
+    check(reduced(columns, 1, 0, 10), expected)
+
+    // columns 4, 5, 7 and 8 get nothing
+    for (x <- List(4, 5, 7, 8)) columns.count(x) should be (0)
+    columns.count(1) should be (3)
+    columns.first should be (expected.keys.min)
+    columns.last should be (expected.keys.max)
+  }
+
+  it should "match per-feature drawing on random data, zoomed in and out" in {
+    val random = new Random(42)
+    for (round <- 1 to 50) {
+      val n = 1 + random.nextInt(200)
+      val starts = new Array[Int](n)
+      val ends = new Array[Int](n)
+      var position = 0
+      for (i <- 0 until n) {
+        // gaps leave columns empty, long features cross many columns
+        position += random.nextInt(40)
+        starts(i) = position
+        ends(i) = position + random.nextInt(if (random.nextInt(10) == 0) 500 else 20)
+      }
+      val values = Array.fill(n)(if (random.nextInt(20) == 0) Double.NaN else math.round(random.nextGaussian * 100) / 4.0)
+      val block = new SegmentBlock(key(n), starts, ends, values)
+
+      val width = 1 + random.nextInt(60)
+      val start = random.nextInt(position + 1)
+      val end = start + 1 + random.nextInt(2 * position + 10)
+      val p = params(width, start, end)
+
+      val columns = PixelColumns.get(width)
+      columns.reduce(block.features(0, end).asInstanceOf[QuantitativeWindow], p)
+      check(reduced(columns, 1, 0, width), direct(quantitative(block, 0, end), p))
+    }
+  }
+
+  it should "forget the last reduce" in {
+    val p = params(10, 0, 99)
+    val columns = PixelColumns.get(10)
+    val full = new SegmentBlock(key(10), Array.tabulate(10)(_ * 10), Array.tabulate(10)(_ * 10 + 5), Array.fill(10)(1.0))
+    columns.reduce(full.features(0, 100).asInstanceOf[QuantitativeWindow], p)
+    val one = new SegmentBlock(key(1), Array(50), Array(50), Array(2.0))
+    columns.reduce(one.features(0, 100).asInstanceOf[QuantitativeWindow], p)
+    check(reduced(columns, 1, 0, 10), Map(5 -> Column(2.0, 2.0, 2.0, 1)))
+  }
+
+  it should "reduce each condition of matrix data like its own track" in {
+    val random = new Random(7)
+    val rows = 3
+    val n = 120
+    val starts = Array.tabulate(n)(i => i * 7)
+    val ends = Array.tabulate(n)(i => i * 7 + random.nextInt(30))
+    val values = Array.fill(n, rows)(if (random.nextInt(15) == 0) Double.NaN else math.round(random.nextGaussian * 100) / 4.0)
+    val block = new SegmentMatrixBlock(key(n), starts, ends, values)
+    val p = params(23, 100, 700)
+
+    val columns = PixelColumns.get(23)
+    columns.reduce(block.features(0, 700).asInstanceOf[MatrixWindow], p)
+    columns.rows should be (rows)
+
+    for (row <- 0 until rows) {
+      val features = new scala.collection.mutable.ArrayBuffer[(Int, Double)]
+      val it = block.features(0, 700)
+      while (it.hasNext) {
+        val f = it.next.asInstanceOf[Feature#Matrix]
+        features += ((f.getCentralPosition, f.getValues(row)))
+      }
+      check(reduced(columns, rows, row, 23), direct(features, p))
+    }
+  }
+}
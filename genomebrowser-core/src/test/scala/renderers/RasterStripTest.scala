@@ -0,0 +1,203 @@
+package org.systemsbiology.genomebrowser.visualization.renderers
+
+import java.awt.{Color, Graphics2D}
+import java.awt.image.BufferedImage
+import java.util.{ArrayList, UUID}
+import scala.util.Random
+
+import org.systemsbiology.genomebrowser.model._
+import org.systemsbiology.genomebrowser.visualization.{ColorScale, ColorScaleRegistry, ViewParameters}
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+/**
+ * Checks that writing rectangles into a RasterStrip and drawing it gives
+ * the same picture as drawing them one by one with fillRect and drawRect,
+ * the way renderers did before. Opaque colors should come out exactly the
+ * same. Translucent ones are blended in a different order, within the
+ * strip first, so they may be off by rounding.
+ */
+@RunWith(classOf[JUnitRunner])
+class RasterStripSpec extends FlatSpec with ShouldMatchers {
+  val Width = 60
+  val Height = 40
+
+  // 0 = outline, 1 = fill, 2 = span
+  case class Op(kind: Int, x: Int, y: Int, w: Int, h: Int, argb: Int)
+
+  val backgrounds = List(0x00000000, 0xffffffff, 0x80336699)
+
+  def image(width: Int, height: Int, background: Int) = {
+    val image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+    for (x <- 0 until width; y <- 0 until height) image.setRGB(x, y, background)
+    image
+  }
+
+  def drawGraphics(ops: Seq[Op], background: Int) = {
+    val result = image(Width, Height, background)
+    val g = result.createGraphics()
+    for (op <- ops) {
+      g.setColor(new Color(op.argb, true))
+      op.kind match {
+        case 0 => g.drawRect(op.x, op.y, op.w, op.h)
+        case 1 => g.fillRect(op.x, op.y, op.w, op.h)
+        case 2 => g.drawLine(op.x, op.y, op.x, op.y + op.h)
+      }
+    }
+    g.dispose()
+    result
+  }
+
+  def drawStrip(ops: Seq[Op], background: Int) = {
+    val result = image(Width, Height, background)
+    val strip = RasterStrip.get(Width, Height)
+    for (op <- ops) {
+      op.kind match {
+        case 0 => strip.outline(op.x, op.y, op.w, op.h, op.argb)
+        case 1 => strip.fill(op.x, op.y, op.w, op.h, op.argb)
+        case 2 => strip.span(op.x, op.y, op.y + op.h, op.argb)
+      }
+    }
+    val g = result.createGraphics()
+    strip.draw(g)
+    g.dispose()
+    result
+  }
+
+  /**
+   * @return the largest difference in alpha, and in premultiplied color
+   * components, between pixels of the two images
+   */
+  def difference(a: BufferedImage, b: BufferedImage) = {
+    var alpha = 0
+    var color = 0
+    for (x <- 0 until a.getWidth; y <- 0 until a.getHeight) {
+      val p = a.getRGB(x, y)
+      val q = b.getRGB(x, y)
+      val pa = p >>> 24
+      val qa = q >>> 24
+      alpha = math.max(alpha, math.abs(pa - qa))
+      for (shift <- List(0, 8, 16))
+        color = math.max(color, math.abs(((p >> shift) & 0xff) * pa / 255 - ((q >> shift) & 0xff) * qa / 255))
+    }
+    (alpha, color)
+  }
+
+  def checkSame(ops: Seq[Op], tolerance: Int) {
+    for (background <- backgrounds) {
+      val (alpha, color) = difference(drawGraphics(ops, background), drawStrip(ops, background))
+      withClue("on " + background.toHexString + ": ") {
+        alpha should be <= (tolerance)
+        color should be <= (tolerance)
+      }
+    }
+  }
+
+  // overlapping fills and outlines, some running off the edges
+  val fixture = List(
+    Op(1, 5, 5, 20, 10, 0xffcc0000),
+    Op(0, 5, 5, 20, 10, 0x33666666),
+    Op(1, 15, 8, 20, 10, 0xff00cc00),
+    Op(0, 15, 8, 20, 10, 0x33666666),
+    Op(1, 30, 0, 1, 40, 0xff0000cc),
+    Op(1, -5, 20, 12, 30, 0xff999900),
+    Op(0, 50, 30, 15, 15, 0xff000000),
+    Op(2, 40, 35, 0, -20, 0xff00cccc),
+    Op(0, 20, 20, 0, 5, 0xffcc00cc))
+
+  def translucent(ops: List[Op]) = ops.zipWithIndex.map { case (op, i) =>
+    op.copy(argb = (op.argb & 0xffffff) | ((0x40 + i * 20) << 24))
+  }
+
+  "RasterStrip" should "draw opaque rectangles exactly as Graphics does" in {
+    checkSame(fixture, 0)
+  }
+
+  it should "blend translucent rectangles over each other and the image as Graphics does" in {
+    checkSame(translucent(fixture), 2)
+  }
+
+  it should "match Graphics on random overlapping rectangles" in {
+    val random = new Random(42)
+    for (i <- 1 to 100) {
+      val ops = for (j <- 1 to 1 + random.nextInt(20)) yield {
+        val alpha = if (random.nextInt(3) == 0) 0xff else random.nextInt(256)
+        // zero height outlines are left out: Java2D drops the last pixel
+        // of those when the color is translucent, but not when it's opaque
+        Op(random.nextInt(3), random.nextInt(Width + 20) - 10, random.nextInt(Height + 20) - 10,
+           random.nextInt(30), 1 + random.nextInt(19), (alpha << 24) | random.nextInt(0x1000000))
+      }
+      checkSame(ops, 4)
+    }
+  }
+
+  it should "leave the strip clear for the next drawing" in {
+    drawStrip(fixture, 0)
+    val blank = drawStrip(Nil, 0)
+    difference(blank, image(Width, Height, 0)) should be ((0, 0))
+  }
+
+  "HeatmapTrackRenderer" should "draw features as it did with fillRect and drawRect" in {
+    val chr = new BasicSequence(UUID.randomUUID, "chr", 10000, Topology.linear)
+    val params = new ViewParameters
+    params.setDeviceSize(200, 100)
+    params.initViewParams(chr, 0, 999)
+
+    val track = new QuantitativeTrack("heat")
+    track.getAttributes().put("top", "0.2")
+    track.getAttributes().put("height", "0.5")
+    val registry = new ColorScaleRegistry
+    registry.init()
+    val renderer = new HeatmapTrackRenderer
+    renderer.setTrack(track)
+    renderer.setColorScaleRegistry(registry)
+    renderer.setViewParameters(params)
+    renderer.configure(track.getAttributes())
+
+    // overlapping, narrower than a pixel, out of range and off the edge
+    val data = List((0, 100, 0.5), (50, 150, -0.7), (120, 121, 0.9), (300, 600, -0.2),
+                    (550, 560, 1.5), (590, 700, Double.NaN), (990, 1100, 0.1))
+    val features = new ArrayList[Feature#Quantitative]
+    for ((start, end, value) <- data)
+      features.add(new BasicQuantitativeFeature("chr", Strand.forward, start, end, value))
+
+    // the old per-feature drawing code
+    val colorScale: ColorScale = registry.get("red.green")
+    colorScale.setGamma(0.8)
+    colorScale.setRange(track.getRange)
+    val outline = new Color(0x33666666, true)
+    def drawOld(g: Graphics2D) {
+      val y = (0.2 * 100).toInt
+      val h = (0.5 * 100).toInt
+      for ((start, end, value) <- data) {
+        val x1 = params.toScreenX(start)
+        val x2 = params.toScreenX(end)
+        val w = math.max(1, x2 - x1)
+        g.setColor(colorScale.valueToColor(value))
+        g.fillRect(x1, y, w, h)
+        g.setColor(outline)
+        g.drawRect(x1, y, w, h)
+      }
+    }
+
+    for (background <- backgrounds) {
+      val old = image(200, 100, background)
+      val g = old.createGraphics()
+      drawOld(g)
+      g.dispose()
+
+      val now = image(200, 100, background)
+      val g2 = now.createGraphics()
+      renderer.draw(g2, features, Strand.forward)
+      g2.dispose()
+
+      now.getRGB(10, 40) should not be (background)
+      val (alpha, color) = difference(old, now)
+      alpha should be <= (2)
+      color should be <= (2)
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package org.systemsbiology.genomebrowser.sqlite
+
+import java.util.UUID
+import scala.collection.JavaConversions._
+import scala.util.Random
+
+import org.systemsbiology.genomebrowser.model.Strand
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class BlockIndexSpec extends FlatSpec with ShouldMatchers {
+  val uuid = UUID.randomUUID
+
+  def key(seqId: String, strand: Strand, start: Int, end: Int, row: Int) =
+    new BlockKey(uuid, 1, seqId, strand, start, end, end - start + 1, "features", row, row + 99)
+
+  "BlockIndex" should "find blocks overlapping a window" in {
+    val index = new BlockIndex
+    index.add(key("chr1", Strand.forward, 1, 100, 0))
+    index.add(key("chr1", Strand.forward, 101, 200, 100))
+    index.add(key("chr1", Strand.forward, 201, 300, 200))
+    index.add(key("chr1", Strand.reverse, 1, 300, 300))
+    index.add(key("chr2", Strand.forward, 1, 300, 400))
+
+    index.size should be (5)
+    index.keys("chr1", Strand.forward, 150, 250).iterator.map(_.getStart).toList should be (List(101, 201))
+    index.keys("chr1", Strand.forward, 100, 100).iterator.map(_.getStart).toList should be (List(1))
+    index.keys("chr1", Strand.forward, 301, 400).iterator.toList should be ('empty)
+    index.keys("chr1", Strand.any, 150, 160).iterator.map(_.getStrand).toList should be (List(Strand.forward, Strand.reverse))
+    index.keys("chr1", Strand.any).iterator.size should be (4)
+    index.keys("chr3", Strand.any, 0, 1000).iterator.toList should be ('empty)
+  }
+
+  it should "ignore duplicate keys" in {
+    val index = new BlockIndex
+    index.add(key("chr1", Strand.forward, 1, 100, 0))
+    index.add(key("chr1", Strand.forward, 1, 100, 0))
+    index.size should be (1)
+  }
+
+  it should "agree with a linear scan for overlapping blocks" in {
+    val random = new Random(1234)
+    val index = new BlockIndex
+    val all = for (i <- 0 until 500) yield {
+      val start = random.nextInt(100000)
+      val k = key("chr1", Strand.none, start, start + random.nextInt(5000), i * 100)
+      index.add(k)
+      k
+    }
+    for (q <- 0 until 200) {
+      val start = random.nextInt(100000)
+      val end = start + random.nextInt(10000)
+      val expected = all.filter(k => !(k.getEnd < start || k.getStart > end)).toSet
+      index.keys("chr1", Strand.none, start, end).iterator.toSet should be (expected)
+    }
+  }
+
+  it should "give the same keys through a reused iteratable" in {
+    val index = new BlockIndex
+    index.add(key("chr1", Strand.forward, 1, 100, 0))
+    index.add(key("chr1", Strand.reverse, 50, 300, 100))
+    index.add(key("chr2", Strand.forward, 1, 300, 200))
+
+    val reuse = BlockIndex.takeWindowIteratable()
+    // taken already, so a nested query gets one of its own
+    BlockIndex.takeWindowIteratable() should not be theSameInstanceAs (reuse)
+    for ((seqId, strand, start, end) <- List(("chr1", Strand.any, 60, 70), ("chr3", Strand.any, 0, 1000),
+                                             ("chr1", Strand.reverse, 0, 1000), ("chr2", Strand.any, 0, 10)))
+      index.keys(seqId, strand, start, end, reuse).iterator.toList should be (index.keys(seqId, strand, start, end).iterator.toList)
+    BlockIndex.releaseWindowIteratable(reuse)
+    BlockIndex.takeWindowIteratable() should be theSameInstanceAs (reuse)
+  }
+}
@@ -0,0 +1,36 @@
+package org.systemsbiology.genomebrowser.sqlite
+
+import java.util.UUID
+
+import org.systemsbiology.genomebrowser.cache.BlockCache
+import org.systemsbiology.genomebrowser.model.Strand
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class BlockKeySpec extends FlatSpec with ShouldMatchers {
+  val uuid = UUID.randomUUID
+
+  def key(source: String) =
+    new BlockKey(source, uuid, 1, "chr1", Strand.forward, 1, 100, 100, "features", 3000000000L, 3000000099L)
+
+  "BlockKey" should "tell apart blocks of the same track in different datasets" in {
+    key("jdbc:sqlite:a.hbgb") should be (key("jdbc:sqlite:a.hbgb"))
+    key("jdbc:sqlite:a.hbgb").hashCode should be (key("jdbc:sqlite:a.hbgb").hashCode)
+    key("jdbc:sqlite:a.hbgb") should not be (key("jdbc:sqlite:copy-of-a.hbgb"))
+    key(null) should not be (key("jdbc:sqlite:a.hbgb"))
+    key("jdbc:sqlite:a.hbgb") should not be (key(null))
+    key(null) should be (key(null))
+  }
+
+  it should "keep the blocks of two datasets apart in a shared cache" in {
+    val cache = new BlockCache[BlockKey, String](1024 * 1024)
+    cache.put(key("jdbc:sqlite:a.hbgb"), "a")
+    cache.put(key("jdbc:sqlite:copy-of-a.hbgb"), "copy")
+    cache.size should be (2)
+    cache.get(key("jdbc:sqlite:a.hbgb")) should be ("a")
+    cache.get(key("jdbc:sqlite:copy-of-a.hbgb")) should be ("copy")
+  }
+}
@@ -0,0 +1,80 @@
+package org.systemsbiology.genomebrowser.sqlite
+
+import java.util.UUID
+import scala.collection.JavaConversions._
+
+import org.systemsbiology.genomebrowser.cache.BlockCache
+import org.systemsbiology.genomebrowser.model.{BasicSequence, Block, Feature, QuantitativeTrack, Strand, Topology, Track}
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class BlockPrefetcherSpec extends FlatSpec with ShouldMatchers {
+  val chr1 = new BasicSequence(UUID.randomUUID, "chr1", 1000000, Topology.linear)
+  val chr2 = new BasicSequence(UUID.randomUUID, "chr2", 1000000, Topology.linear)
+
+  def windows(p: BlockPrefetcher, seq: BasicSequence, start: Int, end: Int, millis: Long) =
+    p.predict(seq, start, end, millis).toList.map(w => (w.start, w.end))
+
+  "BlockPrefetcher" should "look both ways when it doesn't know where we're going" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 10000, 10999, 0) should be (List((11000, 11999), (9000, 9999)))
+  }
+
+  it should "look ahead in the direction of scrolling" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 10000, 10999, 0)
+    windows(p, chr1, 10100, 11099, 100) should be (List((11100, 12099)))
+    windows(p, chr1, 10000, 10999, 200).head._2 should be (9999)
+  }
+
+  it should "look further ahead when scrolling fast, up to a limit" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 10000, 10999, 0)
+    windows(p, chr1, 20000, 20999, 10) should be (List((21000, 24999)))
+  }
+
+  it should "widen the view when zooming out" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 10000, 10999, 0)
+    val w = windows(p, chr1, 9500, 11499, 100)
+    w.size should be (2)
+    w(0)._1 should be (11500)
+    w(1)._2 should be (9499)
+  }
+
+  it should "start over on a new sequence or after a pause" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 10000, 10999, 0)
+    windows(p, chr2, 10100, 11099, 100).size should be (2)
+    windows(p, chr2, 10200, 11199, 100000).size should be (2)
+  }
+
+  it should "stay within the sequence" in {
+    val p = new BlockPrefetcher(0)
+    windows(p, chr1, 0, 999, 0) should be (List((1000, 1999)))
+  }
+
+  class TestBlockTrack(name: String) extends QuantitativeTrack(name) with BlockTrack {
+    val index = new BlockIndex
+    val cache = new BlockCache[BlockKey, Block[_ <: Feature]]
+    for (i <- 0 until 100)
+      index.add(new BlockKey(getUuid, 1, "chr1", Strand.forward, i * 1000, i * 1000 + 999, 1000, "features", i * 1000L + 1, i * 1000L + 1000))
+    def getBlockIndex = index
+    def getBlockCache = cache
+    def prefetchBlock(key: BlockKey) = false
+  }
+
+  it should "unpin the blocks of tracks that leave the view" in {
+    val p = new BlockPrefetcher(0)
+    val track = new TestBlockTrack("a")
+    val key = track.index.keys("chr1", Strand.forward, 10500, 10500).next
+    p.viewChanged(List[Track[_]](track), chr1, 10000, 10999, 1)
+    track.cache.isPinned(key) should be (true)
+
+    p.viewChanged(List[Track[_]](new TestBlockTrack("b")), chr1, 10000, 10999, 2)
+    track.cache.isPinned(key) should be (false)
+  }
+}
@@ -0,0 +1,67 @@
+package org.systemsbiology.genomebrowser.sqlite
+
+import java.io.File
+import scala.collection.JavaConversions._
+import scala.util.Random
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class FeatureSorterSpec extends FlatSpec with ShouldMatchers {
+
+  def row(sequencesId: Int, strand: String, start: Int, end: Int, name: String) = {
+    val r = new FeatureRow
+    r.sequencesId = sequencesId
+    r.strand = strand
+    r.start = start
+    r.end = end
+    r.name = name
+    r
+  }
+
+  def randomRows(n: Int) = {
+    val random = new Random(42)
+    for (i <- 0 until n) yield {
+      val start = random.nextInt(100000)
+      row(random.nextInt(3) + 1, if (random.nextBoolean) "+" else "-", start, start + random.nextInt(100), "f" + i)
+    }
+  }
+
+  def tempDir = {
+    val dir = File.createTempFile("sorter", "")
+    dir.delete()
+    dir.mkdir()
+    dir
+  }
+
+  "FeatureSorter" should "sort rows by sequence, strand, start and end" in {
+    val sorter = new FeatureSorter(100, null)
+    sorter.add(row(2, "+", 10, 20, "d"))
+    sorter.add(row(1, "-", 5, 10, "c"))
+    sorter.add(row(1, "+", 5, 12, "b"))
+    sorter.add(row(1, "+", 5, 10, "a"))
+    sorter.iterator.map(_.name).toList should be (List("a", "b", "c", "d"))
+    sorter.getSpillCount should be (0)
+    sorter.cleanup()
+  }
+
+  it should "spill to disk and merge the same order" in {
+    val dir = tempDir
+    val rows = randomRows(10000)
+    val sorter = new FeatureSorter(100, dir)
+    rows.foreach(sorter.add(_))
+    sorter.getSpillCount should be (100)
+
+    val sorted = sorter.iterator.toList
+    sorted.size should be (10000)
+    sorted.zip(sorted.tail).foreach { case (a, b) => a.compareTo(b) should be <= (0) }
+    sorted.map(_.name).toSet should be (rows.map(_.name).toSet)
+
+    sorter.cleanup()
+    dir.list.length should be (0)
+    dir.delete()
+  }
+}
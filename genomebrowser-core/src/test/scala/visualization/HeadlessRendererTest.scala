@@ -0,0 +1,54 @@
+package org.systemsbiology.genomebrowser.visualization
+
+import java.awt.Color
+import java.util.{ArrayList, UUID}
+
+import org.systemsbiology.genomebrowser.model._
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class HeadlessRendererSpec extends FlatSpec with ShouldMatchers {
+
+  "HeadlessRenderer" should "parse regions" in {
+		val region = HeadlessRenderer.parseRegion("chr1:1000-2000")
+		region.seqId should be ("chr1")
+		region.start should be (1000)
+		region.end should be (2000)
+
+		HeadlessRenderer.parseRegion("NC_002607:20000, 10000").start should be (10000)
+		evaluating { HeadlessRenderer.parseRegion("chr1") } should produce [NumberFormatException]
+  }
+
+  it should "draw the genes of a region off screen" in {
+		val chromosome = new BasicSequence(UUID.randomUUID, "I", 10000, Topology.circular)
+		val track = new GeneTrack[GeneFeature](UUID.randomUUID, "Genome")
+		val genes = new ArrayList[GeneFeature]
+		for (i <- 0 until 100) {
+			genes.add(new GeneFeatureImpl("I", Strand.forward, i * 100, i * 100 + 90, "m%04d".format(i),
+                                     GeneFeatureType.cds))
+		}
+		track.addGeneFeatures(new FeatureBlock[GeneFeature](chromosome, Strand.forward, genes))
+
+		val dataset = new BasicDataset(UUID.randomUUID, "Moose")
+		dataset.addSequence(chromosome)
+		dataset.addTrack(track)
+
+		val renderer = new HeadlessRenderer(dataset, TrackRendererRegistry.newInstance)
+		renderer.setImageSize(500, 200)
+		val image = renderer.render(new Segment("I", 1000, 1999))
+		image.getWidth should be (500)
+		image.getHeight should be (200)
+
+		val white = Color.WHITE.getRGB
+		var drawn = 0
+		for (x <- 0 until 500; y <- 0 until 200)
+			if (image.getRGB(x, y) != white) drawn += 1
+		drawn should be > (0)
+
+		evaluating { renderer.render(new Segment("II", 0, 100)) } should produce [IllegalArgumentException]
+  }
+}
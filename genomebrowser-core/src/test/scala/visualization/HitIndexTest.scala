@@ -0,0 +1,115 @@
+package org.systemsbiology.genomebrowser.visualization
+
+import java.awt.Rectangle
+import java.util.UUID
+
+import org.systemsbiology.genomebrowser.model._
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class HitIndexSpec extends FlatSpec with ShouldMatchers {
+
+  def gene(strand: Strand, start: Int, name: String) =
+    new GeneFeatureImpl("I", strand, start, start + 90, name, GeneFeatureType.cds)
+
+  "HitIndex" should "find features by the boxes they were drawn in" in {
+		val sequence = new BasicSequence(UUID.randomUUID, "I", 10000, Topology.circular)
+		val params = new ViewParameters
+		params.setDeviceSize(1000, 100)
+		params.initViewParams(sequence, 0, 9999)
+
+		val hits = new HitIndex
+		hits.covers(params, Strand.forward) should be (false)
+		val session = hits.begin(params, Strand.forward)
+		// added out of order, the wide one overlapping the others
+		hits.add(session, Strand.forward, gene(Strand.forward, 300, "c"), 30, 10, 9, 10)
+		hits.add(session, Strand.forward, gene(Strand.forward, 100, "a"), 10, 10, 9, 10)
+		hits.add(session, Strand.forward, gene(Strand.forward, 0, "wide"), 0, 10, 50, 10)
+		hits.add(session, Strand.forward, gene(Strand.forward, 200, "b"), 20, 10, 9, 10)
+		hits.covers(params, Strand.forward) should be (false)
+		hits.finish(session, Strand.forward)
+		hits.covers(params, Strand.forward) should be (true)
+		hits.covers(params, Strand.reverse) should be (false)
+
+		// the first drawn wins where boxes overlap
+		hits.featureAt(35, 15).getLabel should be ("c")
+		hits.featureAt(45, 20).getLabel should be ("wide")
+		hits.featureAt(45, 21) should be (null)
+		hits.featureAt(51, 15) should be (null)
+
+		val lassoed = hits.features(new Rectangle(15, 0, 20, 12))
+		lassoed.size should be (1)
+		lassoed.get(0).getLabel should be ("b")
+		hits.features(new Rectangle(0, 0, 100, 100)).size should be (4)
+  }
+
+  it should "replace a strand drawn again and forget other views" in {
+		val sequence = new BasicSequence(UUID.randomUUID, "I", 10000, Topology.circular)
+		val params = new ViewParameters
+		params.setDeviceSize(1000, 100)
+		params.initViewParams(sequence, 0, 9999)
+
+		val hits = new HitIndex
+		for (i <- 0 until 2) {
+			val f = hits.begin(params, Strand.forward)
+			hits.add(f, Strand.forward, gene(Strand.forward, 100, "f"), 10, 10, 9, 10)
+			hits.finish(f, Strand.forward)
+			val r = hits.begin(params, Strand.reverse)
+			hits.add(r, Strand.reverse, gene(Strand.reverse, 100, "r"), 10, 50, 9, 10)
+			hits.finish(r, Strand.reverse)
+		}
+		hits.size should be (2)
+		hits.featureAt(12, 55).getLabel should be ("r")
+
+		params.setStartAndEnd(5000, 14999)
+		hits.covers(params, Strand.forward) should be (false)
+		val any = hits.begin(params, Strand.any)
+		hits.size should be (0)
+		hits.finish(any, Strand.any)
+		hits.covers(params, Strand.reverse) should be (true)
+  }
+
+  it should "ignore a drawing of an old view that's still running when the next begins" in {
+		val sequence = new BasicSequence(UUID.randomUUID, "I", 10000, Topology.circular)
+		val viewA = new ViewParameters
+		viewA.setDeviceSize(1000, 100)
+		viewA.initViewParams(sequence, 0, 9999)
+		val viewB = new ViewParameters
+		viewB.setDeviceSize(1000, 100)
+		viewB.initViewParams(sequence, 5000, 14999)
+
+		// frame N starts drawing view A, frame N+1 starts drawing view B,
+		// then frame N carries on and finishes
+		val hits = new HitIndex
+		val a = hits.begin(viewA, Strand.forward)
+		val b = hits.begin(viewB, Strand.forward)
+		hits.add(a, Strand.forward, gene(Strand.forward, 100, "a"), 10, 10, 9, 10)
+		hits.finish(a, Strand.forward)
+		hits.size should be (0)
+		hits.covers(viewA, Strand.forward) should be (false)
+		hits.covers(viewB, Strand.forward) should be (false)
+
+		hits.add(b, Strand.forward, gene(Strand.forward, 5100, "b"), 10, 10, 9, 10)
+		hits.finish(b, Strand.forward)
+		hits.covers(viewB, Strand.forward) should be (true)
+		hits.size should be (1)
+		hits.featureAt(12, 15).getLabel should be ("b")
+
+		// the same view drawn again by two frames at once keeps only the later
+		val c = hits.begin(viewB, Strand.forward)
+		val d = hits.begin(viewB, Strand.forward)
+		hits.add(d, Strand.forward, gene(Strand.forward, 5200, "d"), 20, 10, 9, 10)
+		hits.add(c, Strand.forward, gene(Strand.forward, 5100, "c"), 10, 10, 9, 10)
+		hits.finish(c, Strand.forward)
+		hits.covers(viewB, Strand.forward) should be (false)
+		hits.finish(d, Strand.forward)
+		hits.covers(viewB, Strand.forward) should be (true)
+		hits.size should be (1)
+		hits.featureAt(12, 15) should be (null)
+		hits.featureAt(22, 15).getLabel should be ("d")
+  }
+}
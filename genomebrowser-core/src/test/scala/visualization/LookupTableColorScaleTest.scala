@@ -0,0 +1,106 @@
+package org.systemsbiology.genomebrowser.visualization
+
+import org.systemsbiology.genomebrowser.model.Range
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+/**
+ * Checks the colors LookupTableColorScales look up against the ones
+ * they compute the slow way.
+ */
+@RunWith(classOf[JUnitRunner])
+class LookupTableColorScaleSpec extends FlatSpec with ShouldMatchers {
+
+  // color scales that let us at their computeArgb
+  trait Exact {
+    def exact(value: Double): Int
+  }
+  class ExactRedGreen extends RedGreenColorScale with Exact {
+    def exact(value: Double) = computeArgb(value)
+  }
+  class ExactBlueYellow extends BlueYellowColorScale with Exact {
+    def exact(value: Double) = computeArgb(value)
+  }
+  class ExactGrey extends GreyColorScale with Exact {
+    def exact(value: Double) = computeArgb(value)
+  }
+
+  def scales = List(new ExactRedGreen, new ExactBlueYellow, new ExactGrey)
+
+  val ranges = List(new Range(-1.0, 1.0), new Range(-3.5, 0.25), new Range(0.0, 10.0))
+
+  def components(argb: Int) = List(argb >>> 24, (argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff)
+
+  def clamp(value: Double, range: Range) = math.max(range.min, math.min(range.max, value))
+
+  /**
+   * Each component of the looked up color lies within the values that
+   * component takes one quantization step either side of the value.
+   */
+  def checkWithinOneStep(scale: LookupTableColorScale with Exact, range: Range, value: Double) {
+    val step = (range.max - range.min) / (LookupTableColorScale.LEVELS - 1)
+    val v = clamp(value, range)
+    val neighbours = List(v - step, v, v + step).map(u => components(scale.exact(clamp(u, range))))
+    val looked = components(scale.valueToArgb(value))
+    for (c <- 0 until 4) {
+      val around = neighbours.map(_(c))
+      withClue("value " + value + " in " + range + ", component " + c + ": ") {
+        looked(c) should (be >= (around.min) and be <= (around.max))
+      }
+    }
+  }
+
+  "LookupTableColorScale" should "give colors within a quantization step of the computed ones" in {
+    for (scale <- scales; range <- ranges) {
+      scale.setRange(range)
+      val width = range.max - range.min
+      // from half the range below it to half the range above
+      for (i <- 0 to 4000) {
+        val value = range.min - width / 2 + i * 2 * width / 4000
+        checkWithinOneStep(scale, range, value)
+        scale.valueToColor(value).getRGB should be (scale.valueToArgb(value))
+      }
+      checkWithinOneStep(scale, range, 0.0)
+      checkWithinOneStep(scale, range, range.min)
+      checkWithinOneStep(scale, range, range.max)
+    }
+  }
+
+  it should "give values outside the range the colors of its ends" in {
+    for (scale <- scales; range <- ranges) {
+      scale.setRange(range)
+      scale.valueToArgb(range.max + 1.0) should be (scale.valueToArgb(range.max))
+      scale.valueToArgb(Double.PositiveInfinity) should be (scale.valueToArgb(range.max))
+      scale.valueToArgb(range.min - 1.0) should be (scale.valueToArgb(range.min))
+      scale.valueToArgb(Double.NegativeInfinity) should be (scale.valueToArgb(range.min))
+    }
+  }
+
+  it should "give NaN the computed color of NaN" in {
+    for (scale <- scales; range <- ranges) {
+      scale.setRange(range)
+      scale.valueToArgb(Double.NaN) should be (scale.exact(Double.NaN))
+      scale.valueToColor(Double.NaN).getRGB should be (scale.exact(Double.NaN))
+    }
+  }
+
+  it should "rebuild its table when the range or gamma changes" in {
+    val scale = new ExactRedGreen
+    scale.setRange(new Range(-1.0, 1.0))
+    val before = scale.valueToArgb(0.5)
+    before should be (scale.exact(0.5))
+
+    scale.setRange(new Range(-2.0, 2.0))
+    scale.valueToArgb(0.5) should not be (before)
+    checkWithinOneStep(scale, new Range(-2.0, 2.0), 0.5)
+    scale.valueToArgb(2.0) should be (scale.exact(2.0))
+
+    val dimmer = scale.valueToArgb(0.5)
+    scale.setGamma(2.0)
+    scale.valueToArgb(0.5) should not be (dimmer)
+    checkWithinOneStep(scale, new Range(-2.0, 2.0), 0.5)
+  }
+}
@@ -0,0 +1,80 @@
+package org.systemsbiology.genomebrowser.visualization
+
+import java.awt.image.BufferedImage
+import java.util.UUID
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class TileCacheSpec extends FlatSpec with ShouldMatchers {
+  val track = UUID.randomUUID
+  val other = UUID.randomUUID
+
+  // 10x10 tiles take 4 bytes a pixel plus two object headers: 432 bytes
+  val TileBytes = 432L
+
+  def tile = new TileCache.Tile(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), 0, 1.0)
+
+  def key(cache: TileCache, uuid: UUID, index: Long) =
+    new TileCache.TileKey(uuid, cache.getGeneration(uuid), "Renderer", 0, "chr", TileCache.zoomLevel(1.0), 100, index)
+
+  "TileCache" should "find a tile it was given under an equal key" in {
+    val cache = new TileCache(10000)
+    val t = tile
+    cache.put(key(cache, track, 0), t)
+    cache.get(key(cache, track, 0)) should be theSameInstanceAs (t)
+    cache.getStats.hits should be (1)
+  }
+
+  it should "miss for other tiles, tracks and zoom levels" in {
+    val cache = new TileCache(10000)
+    cache.put(key(cache, track, 0), tile)
+    cache.get(key(cache, track, 1)) should be (null)
+    cache.get(key(cache, other, 0)) should be (null)
+    cache.get(new TileCache.TileKey(track, cache.getGeneration(track), "Renderer", 0, "chr", TileCache.zoomLevel(2.0), 100, 0)) should be (null)
+    cache.getStats.misses should be (3)
+  }
+
+  it should "share tiles between nearly equal scales" in {
+    TileCache.zoomLevel(1.0) should be (TileCache.zoomLevel(1.0 + 1e-9))
+    TileCache.zoomLevel(0.1) should be (TileCache.zoomLevel(0.1 * 1.001))
+    TileCache.zoomLevel(1.0) should be < (TileCache.zoomLevel(1.1))
+    for (scale <- List(0.0001, 0.0137, 0.5, 1.0, 3.3, 12.0)) {
+      val levelScale = TileCache.levelScale(TileCache.zoomLevel(scale))
+      math.abs(math.log(levelScale / scale) / math.log(2.0)) should be <= (0.5 / TileCache.LEVELS_PER_OCTAVE + 1e-12)
+    }
+  }
+
+  it should "evict tiles to stay within its budget" in {
+    val cache = new TileCache(TileBytes * 3)
+    for (i <- 0 until 4) cache.put(key(cache, track, i), tile)
+    cache.getStats.evictions should be (1)
+    cache.getStats.bytes should be <= (TileBytes * 3)
+    cache.get(key(cache, track, 0)) should be (null)
+    cache.get(key(cache, track, 3)) should not be (null)
+  }
+
+  it should "drop the tiles of an invalidated track only" in {
+    val cache = new TileCache(10000)
+    cache.put(key(cache, track, 0), tile)
+    cache.put(key(cache, other, 0), tile)
+    cache.invalidate(track)
+    cache.get(key(cache, track, 0)) should be (null)
+    cache.get(key(cache, other, 0)) should not be (null)
+  }
+
+  it should "drop all tiles when invalidated" in {
+    val cache = new TileCache(10000)
+    val stale = key(cache, track, 0)
+    cache.put(stale, tile)
+    cache.put(key(cache, other, 0), tile)
+    cache.invalidateAll()
+    cache.get(stale) should be (null)
+    cache.get(key(cache, track, 0)) should be (null)
+    cache.get(key(cache, other, 0)) should be (null)
+    cache.getStats.bytes should be (0)
+  }
+}
@@ -0,0 +1,195 @@
+package org.systemsbiology.genomebrowser.visualization
+
+import java.awt.{Color, Graphics, Image}
+import java.awt.image.BufferedImage
+import java.util.{ArrayList, UUID}
+import java.util.concurrent.CountDownLatch
+
+import org.systemsbiology.genomebrowser.metrics.Metrics
+import org.systemsbiology.genomebrowser.model._
+import org.systemsbiology.util.{Iteratable, IteratableWrapper}
+
+import org.scalatest.FlatSpec
+import org.scalatest.matchers.ShouldMatchers
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class TrackRendererSchedulerSpec extends FlatSpec with ShouldMatchers {
+  val Width = 200
+  val Height = 100
+  val chr = new BasicSequence(UUID.randomUUID, "chr", 100000, Topology.linear)
+
+  /**
+   * A track whose fetches wait for the gate to open, and have no features.
+   */
+  class GatedTrack(name: String, gate: CountDownLatch) extends QuantitativeTrack(name) {
+    override def featuresAsync(filter: FeatureFilter, callback: AsyncFeatureCallback) {
+      gate.await()
+    }
+  }
+
+  def empty[T]: Iteratable[T] = new IteratableWrapper[T](new ArrayList[T].iterator)
+
+  /**
+   * A slow track with a coarse summary level for views of more than 100
+   * bases per pixel. Fetching its features waits for the gate to open.
+   */
+  class SlowSummarizedTrack(name: String, gate: CountDownLatch) extends QuantitativeTrack(name) {
+    val coarse = new SummaryLevel {
+      def getBinSize = 1000
+      def features(filter: FeatureFilter) = empty[Feature#Summary]
+      def featuresAsync(filter: FeatureFilter, callback: AsyncFeatureCallback) {
+        callback.consumeFeatures(empty[Feature#Summary], filter)
+      }
+    }
+    override def getSummaryLevel(basesPerBin: Double): SummaryLevel =
+      if (basesPerBin >= 100) coarse else null
+    override def featuresAsync(filter: FeatureFilter, callback: AsyncFeatureCallback) {
+      gate.await()
+      callback.consumeFeatures(empty[Feature#Quantitative], filter)
+    }
+  }
+
+  val White = 0xffffff
+  val Full = 0x0000ff
+  val Preview = 0xff0000
+
+  /**
+   * Paints the whole view blue for features and red for summaries.
+   */
+  class ColorRenderer(track: Track[_ <: Feature]) extends TrackRenderer with SummaryRenderer {
+    setTrack(track)
+    def paint(g: Graphics, rgb: Int) {
+      g.setColor(new Color(rgb))
+      g.fillRect(0, 0, Width, Height)
+    }
+    override def draw(g: Graphics, features: java.lang.Iterable[_ <: Feature], strand: Strand) {
+      paint(g, Full)
+    }
+    def drawSummaries(g: Graphics, summaries: java.lang.Iterable[_ <: Feature#Summary], strand: Strand) {
+      paint(g, Preview)
+    }
+  }
+
+  class NullRenderer(track: Track[_ <: Feature]) extends TrackRenderer {
+    setTrack(track)
+    override def draw(g: Graphics, features: java.lang.Iterable[_ <: Feature], strand: Strand) {}
+  }
+
+  class ImageView extends View {
+    @volatile var updates = 0
+    def getWidth = Width
+    def getHeight = Height
+    def updateImage(image: Image) { updates += 1 }
+    def createImage(width: Int, height: Int): Image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+  }
+
+  /**
+   * Remembers the color in the middle of each image it's given.
+   */
+  class RecordingView extends ImageView {
+    @volatile var shown: List[Int] = Nil
+    override def updateImage(image: Image) {
+      super.updateImage(image)
+      shown = shown :+ (image.asInstanceOf[BufferedImage].getRGB(Width / 2, Height / 2) & 0xffffff)
+    }
+  }
+
+  def newScheduler(view: View) = {
+    val scheduler = new TrackRendererScheduler
+    scheduler.setView(view)
+    scheduler.setTileCache(null)
+    scheduler.setRenderThreads(2)
+    scheduler.startTaskRunnerThread()
+    scheduler
+  }
+
+  def waitFor(condition: => Boolean) {
+    val deadline = System.currentTimeMillis + 5000
+    while (!condition && System.currentTimeMillis < deadline)
+      Thread.sleep(10)
+  }
+
+  def renderers(tracks: Seq[Track[_ <: Feature]]) = {
+    val list = new ArrayList[TrackRenderer]
+    for (track <- tracks) list.add(new NullRenderer(track))
+    list
+  }
+
+  "TrackRendererScheduler" should "hand the layers of a superseded frame back to the pool" in {
+    val gate = new CountDownLatch(1)
+    val scheduler = newScheduler(new ImageView)
+    val pool = scheduler.getLayerPool
+    val tracks = renderers(for (i <- 0 until 5) yield new GatedTrack("track " + i, gate))
+
+    // two tracks start drawing and wait, the other three wait in the queue
+    scheduler.schedule(tracks, chr, 0, 9999)
+    waitFor(pool.getOutstanding == 2)
+    pool.getOutstanding should be (2)
+
+    scheduler.schedule(tracks, chr, 5000, 14999)
+    gate.countDown()
+
+    // only the layers of the finished frame are kept, to stand in for
+    // their tracks in the next one
+    waitFor(pool.getOutstanding == tracks.size)
+    Thread.sleep(100)
+    pool.getOutstanding should be (tracks.size)
+    scheduler.invalidateTiles()
+    pool.getOutstanding should be (0)
+  }
+
+  it should "show a preview of a slow track when the budget runs out, then the track itself" in {
+    val gate = new CountDownLatch(1)
+    val view = new RecordingView
+    val scheduler = newScheduler(view)
+    scheduler.setFrameDeadline(50)
+    scheduler.setFrameBudget(50)
+    val track = new SlowSummarizedTrack("slow", gate)
+    val list = new ArrayList[TrackRenderer]
+    list.add(new ColorRenderer(track))
+
+    // it took a second last time, so it won't make the budget. 50 bases
+    // per pixel draws features, 8 times that gets the coarse level.
+    scheduler.getTrackTimings.trackRendered(track, 1000)
+    scheduler.schedule(list, chr, 0, 9999)
+
+    waitFor(view.shown.contains(Preview))
+    Thread.sleep(100)
+    view.shown.last should be (Preview)
+    view.shown should not contain (Full)
+
+    gate.countDown()
+    waitFor(view.shown.last == Full)
+    view.shown.filterNot(_ == White) should be (List(Preview, Full))
+  }
+
+  it should "time each track in histograms of its own, dropped with the track" in {
+    val metrics = Metrics.getInstance
+    val wasEnabled = metrics.isEnabled
+    metrics.setEnabled(true)
+    try {
+      val view = new ImageView
+      val scheduler = newScheduler(view)
+      // two tracks of the same name
+      val name = "timed " + UUID.randomUUID
+      val track = new QuantitativeTrack(name)
+      val twin = new QuantitativeTrack(name)
+      scheduler.schedule(renderers(List(track, twin)), chr, 0, 9999)
+      waitFor(metrics.getSummary.contains(track.getUuid + ".draw") && metrics.getSummary.contains(twin.getUuid + ".draw"))
+      for (t <- List(track, twin)) {
+        metrics.getSummary should include ("track." + name + "." + t.getUuid + ".fetch")
+        metrics.getSummary should include ("track." + name + "." + t.getUuid + ".draw")
+      }
+
+      scheduler.trackRemoved(track.getUuid)
+      metrics.getSummary should not include (track.getUuid.toString)
+      metrics.getSummary should include ("track." + name + "." + twin.getUuid + ".fetch")
+      scheduler.getTrackTimings.getExpectedMillis(track) should be (0.0)
+    }
+    finally {
+      metrics.setEnabled(wasEnabled)
+    }
+  }
+}
@@ -21,6 +21,7 @@ import org.systemsbiology.genomebrowser.model.TextPositionalCoordinateMap;
 import org.systemsbiology.genomebrowser.io.Downloader;
 import org.systemsbiology.genomebrowser.model.*;
 import org.systemsbiology.genomebrowser.search.SearchEngine;
+import org.systemsbiology.genomebrowser.sqlite.ConnectionManager;
 import org.systemsbiology.genomebrowser.sqlite.TrackSaver;
 import org.systemsbiology.genomebrowser.ucscgb.UcscDatasetBuilder;
 import org.systemsbiology.genomebrowser.ui.ConfirmUseCachedFile;
@@ -238,6 +239,8 @@ public class Application implements EventListener, BrowserApp {
 	public void updateTrack(Track<Feature> track) {
 		TrackSaver ts = io.getTrackSaver();
 		ts.updateTrack(track);
+		if (ui != null)
+			ui.trackChanged(track.getUuid());
 	}
 
 	public void reloadDataset() {
@@ -280,6 +283,7 @@ public class Application implements EventListener, BrowserApp {
 			}
 
 			log.info("downloading " + url + " to " + file);
+			ConnectionManager.close(file);
 			Downloader downloader = new Downloader();
 			progressReporter = new RunnableProgressReporter(downloader.getProgress());
 			progressReporter.start();
@@ -439,10 +443,16 @@ public class Application implements EventListener, BrowserApp {
 	// TODO deleteTrack belongs on Dataset
 	public void deleteTrack(UUID uuid) {
 		io.deleteTrack(uuid);
+		if (ui != null)
+			ui.trackDeleted(uuid);
 		reloadDataset();
 	}
 	public void deleteTracks(List<UUID> uuids) {
-		for (UUID uuid : uuids) io.deleteTrack(uuid);
+		for (UUID uuid : uuids) {
+			io.deleteTrack(uuid);
+			if (ui != null)
+				ui.trackDeleted(uuid);
+		}
 		reloadDataset();
 	}
 }
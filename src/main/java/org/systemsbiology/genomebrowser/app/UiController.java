@@ -1,5 +1,7 @@
 package org.systemsbiology.genomebrowser.app;
 
+import java.util.UUID;
+
 import javax.swing.Action;
 import javax.swing.JFrame;
 import javax.swing.JToolBar;
@@ -18,6 +20,8 @@ public interface UiController {
 	public void bringToFront();
 	public void minimize();
 	public void refresh();
+	public void trackChanged(UUID trackUuid);
+	public void trackDeleted(UUID trackUuid);
 	public JFrame getMainWindow();
 	public Segment getVisibleSegment();
 }
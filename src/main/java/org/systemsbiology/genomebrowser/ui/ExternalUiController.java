@@ -158,6 +158,22 @@ public class ExternalUiController implements UiController, EventListener {
             });
     }
 
+    public void trackChanged(final UUID trackUuid) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    ui.trackChanged(trackUuid);
+                }
+            });
+    }
+
+    public void trackDeleted(final UUID trackUuid) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    ui.trackDeleted(trackUuid);
+                }
+            });
+    }
+
     public void showProgressPopup(final String message, final ProgressReporter progressReporter) {
         // be careful that we can't miss the done event
         SwingUtilities.invokeLater(new Runnable() {
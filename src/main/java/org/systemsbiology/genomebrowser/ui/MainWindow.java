@@ -13,6 +13,7 @@ import java.util.Map;
 
 import javax.swing.*;
 
+import org.systemsbiology.genomebrowser.sqlite.BlockPrefetcher;
 import org.systemsbiology.genomebrowser.visualization.TrackRendererScheduler;
 
 
@@ -135,6 +136,7 @@ public class MainWindow extends JFrame {
 		TrackRendererScheduler scheduler = new TrackRendererScheduler();
 		scheduler.setView(genomeView);
 		scheduler.setTrackManager(ui.app.trackManager);
+		scheduler.setPrefetcher(new BlockPrefetcher());
 		ui.scheduler = scheduler;
 		ui.getViewParameters().addViewParametersListener(scheduler);
 		//genomeView.setTrackRendererScheduler(scheduler);
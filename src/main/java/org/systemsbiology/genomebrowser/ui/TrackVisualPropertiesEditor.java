@@ -116,7 +116,7 @@ public class TrackVisualPropertiesEditor {
 	/**
 	 * @return the track selected in the trackChooser combo-box or null.
 	 */
-	private Track<? extends Feature> getSelectedTrack() {
+	Track<? extends Feature> getSelectedTrack() {
 		TrackWrapper wrapper = (TrackWrapper)trackChooser.getSelectedItem();
 		if (wrapper == null) return null;
 		return wrapper.getTrack();
@@ -210,9 +210,20 @@ public class UI {
 
     void refresh() {
         app.trackManager.refresh();
+        scheduler.invalidateTiles();
         repaint();
     }
 
+    // drop what's been drawn of a track whose features or attributes changed
+    void trackChanged(UUID trackUuid) {
+        scheduler.invalidateTiles(trackUuid);
+    }
+
+    // forget all about a track that's been deleted
+    void trackDeleted(UUID trackUuid) {
+        scheduler.trackRemoved(trackUuid);
+    }
+
     void repaint() {
         scheduler.schedule(app.trackManager, viewParameters.getSequence(),
                            viewParameters.getStart(), viewParameters.getEnd());
@@ -962,16 +973,19 @@ public class UI {
 
     public void showTrackEditor(UUID uuid) {
         log.info("showTrackEditor()");
-        TrackVisualPropertiesEditor trackEditor =
+        final TrackVisualPropertiesEditor trackEditor =
             new TrackVisualPropertiesEditor(app.trackManager, mainWindow, uuid);
         trackEditor.setTrackSaver(app.io.getTrackSaver());
         trackEditor.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent event) {
-                    if ("update".equals(event.getActionCommand()))
+                    if ("update".equals(event.getActionCommand())) {
+                        scheduler.invalidateTiles(trackEditor.getSelectedTrack());
                         repaint();
-                    else if ("ok".equals(event.getActionCommand())) {
+                    } else if ("ok".equals(event.getActionCommand())) {
+                        scheduler.invalidateTiles(trackEditor.getSelectedTrack());
                         repaint();
                     } else if ("cancel".equals(event.getActionCommand())) {
+                        scheduler.invalidateTiles(trackEditor.getSelectedTrack());
                         repaint();
                     } else if ("help".equals(event.getActionCommand()))
                         showTrackEditorHelp();
@@ -0,0 +1,122 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.model.Track;
+
+/**
+ * Writes a synthetic single-base positional track of more than 3 billion
+ * rows, about the size of a human genome, then opens it and times windows
+ * at the far end of chr1. The other chromosomes are written first, so the
+ * rows of chr1 have row ids well past the range of an int.
+ *
+ * The default size takes about 60GB of disk and some hours to write. Pass
+ * a smaller number of rows to try it out.
+ *
+ * Rows are inserted directly rather than through SqliteTrackImporter,
+ * which would sort them all first. LongRowIdStressTest covers importing
+ * rows with ids this large.
+ *
+ * Needs sqlite_create_tables.sql on the classpath (src/main/resources).
+ *
+ * usage: LongRowIdBenchmark [rows] [chromosomeLength] [file]
+ */
+public class LongRowIdBenchmark {
+	private static final int ROWS_PER_TRANSACTION = 1000000;
+	private static final int WINDOWS = 100;
+	private static final int WINDOW_SIZE = 10000;
+
+	public static void main(String[] args) throws Exception {
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 3100000000L;
+		int chromosomeLength = args.length > 1 ? Integer.parseInt(args[1]) : 250000000;
+		File file = args.length > 2 ? new File(args[2]) : File.createTempFile("long-row-id-benchmark", ".hbgb");
+		file.delete();
+
+		int chromosomes = (int)((rows + chromosomeLength - 1) / chromosomeLength);
+		int chr1Length = (int)(rows - (long)(chromosomes - 1) * chromosomeLength);
+		System.out.format("writing %,d rows on %d chromosomes to %s%n", rows, chromosomes, file);
+
+		long t0 = System.currentTimeMillis();
+		UUID datasetUuid = UUID.randomUUID();
+		UUID trackUuid = UUID.randomUUID();
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "stress");
+		for (int c=2; c<=chromosomes; c++)
+			dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr" + c, chromosomeLength, Topology.linear);
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr1", chr1Length, Topology.linear);
+
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getWriteConnection();
+		try {
+			Statement s = conn.createStatement();
+			s.execute("create table features_stress (sequences_id integer, strand text, position integer, value numeric);");
+			PreparedStatement ps = conn.prepareStatement("insert into features_stress values (?, '.', ?, ?);");
+			long written = 0;
+			s.execute("begin transaction;");
+			// sequences ids follow the order the sequences were written in, chr1 last
+			for (int id=1; id<=chromosomes; id++) {
+				int length = id == chromosomes ? chr1Length : chromosomeLength;
+				for (int i=0; i<length; i++) {
+					ps.setInt(1, id);
+					ps.setInt(2, i);
+					ps.setDouble(3, i % 1000);
+					ps.executeUpdate();
+					if (++written % ROWS_PER_TRANSACTION == 0) {
+						s.execute("commit;");
+						s.execute("begin transaction;");
+						if (written % (ROWS_PER_TRANSACTION * 100L) == 0)
+							System.out.format("  %,d rows%n", written);
+					}
+				}
+			}
+			s.execute("insert into tracks values ('" + trackUuid + "', 'stress', 'quantitative.positional', 'features_stress');");
+			s.execute("insert into datasets_tracks values ('" + datasetUuid + "', '" + trackUuid + "');");
+			s.execute("commit;");
+			ps.close();
+			s.close();
+		}
+		finally {
+			conn.close();
+		}
+		System.out.format("wrote %,d rows in %,d ms%n", rows, System.currentTimeMillis() - t0);
+
+		// the first load builds the block index and the track's metadata
+		t0 = System.currentTimeMillis();
+		Track<Feature> track = dataSource.loadTrack(trackUuid);
+		BlockIndex index = ((BlockTrack)(Object)track).getBlockIndex();
+		long maxRowId = 0;
+		for (BlockKey key : index.keys())
+			maxRowId = Math.max(maxRowId, key.getLastRowId());
+		System.out.format("loaded track in %,d ms: %,d blocks, max row id %,d%n", System.currentTimeMillis() - t0, index.size(), maxRowId);
+		if (maxRowId != rows)
+			throw new RuntimeException("expected max row id " + rows + " but found " + maxRowId);
+
+		BasicSequence chr1 = new BasicSequence(UUID.randomUUID(), "chr1", chr1Length, Topology.linear);
+		Random random = new Random(42);
+		int farEnd = Math.min(chr1Length, 10000000);
+		long features = 0;
+		t0 = System.currentTimeMillis();
+		for (int w=0; w<WINDOWS; w++) {
+			int start = chr1Length - random.nextInt(Math.max(1, farEnd - WINDOW_SIZE)) - WINDOW_SIZE;
+			for (Feature feature : track.features(new FeatureFilter(chr1, Strand.any, Math.max(0, start), start + WINDOW_SIZE))) {
+				if (((Feature.Quantitative)feature).getValue() != feature.getStart() % 1000)
+					throw new RuntimeException("wrong value for " + feature);
+				features++;
+			}
+		}
+		long millis = System.currentTimeMillis() - t0;
+		System.out.format("%d windows of %,d bases at the far end of chr1: %,d features in %,d ms (%.2f ms per window)%n",
+				WINDOWS, WINDOW_SIZE, features, millis, ((double)millis) / WINDOWS);
+
+		ConnectionManager.close(file);
+	}
+}
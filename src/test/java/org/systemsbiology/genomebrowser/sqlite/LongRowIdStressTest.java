@@ -0,0 +1,175 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.genomebrowser.model.FeatureSource;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.model.Track;
+import org.systemsbiology.genomebrowser.sqlite.SqliteDataSource.TrackStub;
+import org.systemsbiology.util.ProgressListener;
+import static org.junit.Assert.*;
+
+
+/**
+ * Imports a positional track through SqliteTrackImporter with its rowIds
+ * starting past Integer.MAX_VALUE, as they would for the last chromosomes
+ * of a single-base track of a human genome, and reads it back. The
+ * features arrive shuffled over three chromosomes, and are sent to sqlite
+ * in batches that don't divide them evenly.
+ * @see LongRowIdBenchmark
+ */
+public class LongRowIdStressTest {
+	private static final long FIRST_ROW_ID = Integer.MAX_VALUE + 1000L;
+	private static final String[] CHROMOSOMES = {"chr1", "chr2", "chr3"};
+	private static final int CHROMOSOME_LENGTH = 30000;
+	private static final int FEATURES = CHROMOSOMES.length * CHROMOSOME_LENGTH;
+	private static final int BATCH_SIZE = 997;
+
+	private File file;
+	private UUID datasetUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("long-row-id-stress", ".hbgb");
+		file.delete();
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "test");
+		for (String chromosome : CHROMOSOMES)
+			dataSource.writeSequence(datasetUuid, UUID.randomUUID(), chromosome, CHROMOSOME_LENGTH, Topology.linear);
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testImportPastIntegerMaxValue() throws Exception {
+		SqliteTrackImporter importer = new SqliteTrackImporter(file);
+		importer.setFirstRowId(FIRST_ROW_ID);
+		importer.setBatchSize(BATCH_SIZE);
+		UUID trackUuid = importer.importQuantitativePositionalTrack("far", datasetUuid, new ShuffledFeatureSource());
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		TrackStub stub = dataSource.loadTrackStub(trackUuid);
+		assertEquals(FEATURES, dataSource.countRows(stub.tableName));
+
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getReadConnection();
+		try {
+			Statement s = conn.createStatement();
+			ResultSet rs = s.executeQuery("select min(rowid), max(rowid) from " + stub.tableName + ";");
+			assertTrue(rs.next());
+			assertEquals(FIRST_ROW_ID, rs.getLong(1));
+			assertEquals(FIRST_ROW_ID + FEATURES - 1, rs.getLong(2));
+			rs.close();
+			s.close();
+		}
+		finally {
+			conn.close();
+		}
+
+		// the index stored by the importer covers every row once, and
+		// agrees with one made by scanning the features table
+		List<BlockKey> stored = sortedKeys(dataSource.loadBlockIndex(stub));
+		long expectedFirst = FIRST_ROW_ID;
+		for (BlockKey key : stored) {
+			assertEquals(expectedFirst, key.getFirstRowId());
+			expectedFirst = key.getLastRowId() + 1;
+		}
+		assertEquals(FIRST_ROW_ID + FEATURES, expectedFirst);
+
+		List<BlockKey> scanned = sortedKeys(dataSource.createBlockIndex(stub));
+		assertEquals(scanned.size(), stored.size());
+		for (int i=0; i<stored.size(); i++) {
+			assertEquals(scanned.get(i).getSeqId(), stored.get(i).getSeqId());
+			assertEquals(scanned.get(i).getFirstRowId(), stored.get(i).getFirstRowId());
+			assertEquals(scanned.get(i).getLastRowId(), stored.get(i).getLastRowId());
+			assertEquals(scanned.get(i).getStart(), stored.get(i).getStart());
+			assertEquals(scanned.get(i).getEnd(), stored.get(i).getEnd());
+		}
+
+		TrackMetadata metadata = dataSource.loadTrackMetadata(stub);
+		assertEquals(FEATURES, metadata.featureCount);
+
+		Track<Feature> track = dataSource.loadTrack(trackUuid);
+		for (String chromosome : CHROMOSOMES) {
+			BasicSequence sequence = new BasicSequence(UUID.randomUUID(), chromosome, CHROMOSOME_LENGTH, Topology.linear);
+			int count = 0;
+			for (Feature feature : track.features(new FeatureFilter(sequence, Strand.any, CHROMOSOME_LENGTH - 500, CHROMOSOME_LENGTH))) {
+				assertEquals(feature.getStart() % 1000, ((Feature.Quantitative)feature).getValue(), 0.0);
+				count++;
+			}
+			assertEquals(500, count);
+		}
+	}
+
+	private List<BlockKey> sortedKeys(BlockIndex index) {
+		List<BlockKey> keys = new ArrayList<BlockKey>();
+		for (BlockKey key : index.keys())
+			keys.add(key);
+		Collections.sort(keys, new Comparator<BlockKey>() {
+			public int compare(BlockKey a, BlockKey b) {
+				return a.getFirstRowId() < b.getFirstRowId() ? -1 : (a.getFirstRowId() > b.getFirstRowId() ? 1 : 0);
+			}
+		});
+		return keys;
+	}
+
+
+	/**
+	 * One feature at each position of each chromosome, valued at its
+	 * position mod 1000, in random order.
+	 */
+	class ShuffledFeatureSource implements FeatureSource {
+		public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
+			List<Integer> order = new ArrayList<Integer>(FEATURES);
+			for (int i=0; i<FEATURES; i++)
+				order.add(i);
+			Collections.shuffle(order, new Random(42));
+
+			PositionalFeatureFields fields = new PositionalFeatureFields();
+			for (int i : order) {
+				fields.sequenceName = CHROMOSOMES[i / CHROMOSOME_LENGTH];
+				fields.position = i % CHROMOSOME_LENGTH;
+				featureProcessor.process(fields);
+			}
+		}
+
+		public void addProgressListener(ProgressListener progressListener) {}
+		public void removeProgressListener(ProgressListener progressListener) {}
+	}
+
+	static class PositionalFeatureFields implements FeatureFields {
+		String sequenceName;
+		int position;
+
+		public String getSequenceName() { return sequenceName; }
+		public String getStrand() { return "."; }
+		public int getStart() { return position; }
+		public int getEnd() { return position; }
+		public int getPosition() { return position; }
+		public double getValue() { return position % 1000; }
+		public String getName() { return null; }
+		public String getCommonName() { return null; }
+		public String getGeneType() { return null; }
+	}
+}
@@ -0,0 +1,138 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Topology;
+import static org.junit.Assert.*;
+
+
+public class TestBlockColumns {
+	private static final int FEATURES = 5000;
+
+	private File file;
+	private UUID datasetUuid = UUID.randomUUID();
+	private UUID trackUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-block-columns", ".hbgb");
+		file.delete();
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "test");
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr", FEATURES * 20, Topology.linear);
+
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("begin transaction;");
+		s.execute("create table features_test (sequences_id integer, strand text, start integer, end integer, value numeric);");
+		PreparedStatement ps = conn.prepareStatement("insert into features_test values (1, '+', ?, ?, ?);");
+		for (int i=0; i<FEATURES; i++) {
+			ps.setInt(1, i * 20);
+			ps.setInt(2, i * 20 + 25 + (i % 7));
+			ps.setDouble(3, Math.sin(i / 50.0) * 3.0);
+			ps.executeUpdate();
+		}
+		ps.close();
+		s.execute("insert into tracks values ('" + trackUuid + "', 'test', 'quantitative.segment', 'features_test');");
+		s.execute("insert into datasets_tracks values ('" + datasetUuid + "', '" + trackUuid + "');");
+		s.execute("commit;");
+		s.close();
+		conn.close();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() {
+		BlockColumns columns = new BlockColumns(6,
+				new int[][] { {100, 120, 140, 90, -5, Integer.MAX_VALUE} },
+				new double[][] { {0.5, -2.25, Double.NaN, 1e10, 0.0, -1e-3} });
+
+		BlockColumns decoded = BlockColumns.decode(columns.encode(BlockColumns.Encoding.DOUBLE));
+		assertEquals(6, decoded.length);
+		assertArrayEquals(columns.ints[0], decoded.ints[0]);
+		for (int i=0; i<6; i++)
+			assertEquals(columns.values[0][i], decoded.values[0][i], 0.0);
+
+		decoded = BlockColumns.decode(columns.encode(BlockColumns.Encoding.FLOAT));
+		assertArrayEquals(columns.ints[0], decoded.ints[0]);
+		for (int i=0; i<6; i++)
+			assertEquals((float)columns.values[0][i], decoded.values[0][i], 0.0);
+
+		decoded = BlockColumns.decode(columns.encode(BlockColumns.Encoding.QUANTIZED));
+		assertArrayEquals(columns.ints[0], decoded.ints[0]);
+		assertTrue(Double.isNaN(decoded.values[0][2]));
+		double step = (1e10 + 2.25) / 65534;
+		for (int i=0; i<6; i++) {
+			if (i != 2)
+				assertEquals(columns.values[0][i], decoded.values[0][i], step);
+		}
+	}
+
+	@Test
+	public void testSortedCoordinatesAreSmall() {
+		int n = 20000;
+		BlockColumns columns = new BlockColumns(n, 2, 1);
+		for (int i=0; i<n; i++) {
+			columns.ints[0][i] = 1000000 + i * 20;
+			columns.ints[1][i] = 1000000 + i * 20 + 60;
+		}
+		// two int columns and float values take about 6 bytes per feature
+		assertTrue(columns.encode(BlockColumns.Encoding.FLOAT).length < n * 7);
+	}
+
+	@Test
+	public void testColumnarBlocksMatchRows() throws Exception {
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		BlockTrack track = (BlockTrack)dataSource.loadTrack(trackUuid);
+		BlockIndex index = track.getBlockIndex();
+		assertFalse(dataSource.hasBlockData(dataSource.loadTrackStub(trackUuid)));
+
+		BlockKey key = index.keys().iterator().next();
+		SegmentBlock rows = dataSource._loadSegmentBlock(key);
+		dataSource.writeBlockData(dataSource.loadTrackStub(trackUuid), index, BlockColumns.Encoding.DOUBLE);
+		assertSameFeatures(rows, dataSource._loadSegmentBlock(key));
+
+		// a new data source finds the columnar blocks when it loads the track
+		ConnectionManager.close(file);
+		SqliteDataSource reopened = new SqliteDataSource(file);
+		reopened.loadTrack(trackUuid);
+		assertTrue(reopened.hasBlockData(reopened.loadTrackStub(trackUuid)));
+
+		// deleting the track deletes its blocks
+		assertTrue(reopened.deleteTrack(trackUuid));
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getReadConnection();
+		Statement s = conn.createStatement();
+		assertEquals(0, s.executeQuery("select count(*) from block_data;").getInt(1));
+		s.close();
+		conn.close();
+	}
+
+	private void assertSameFeatures(SegmentBlock expected, SegmentBlock actual) {
+		Iterator<Feature.Quantitative> a = actual.iterator();
+		int count = 0;
+		for (Feature.Quantitative e : expected) {
+			assertTrue(a.hasNext());
+			Feature.Quantitative f = a.next();
+			assertEquals(e.getStart(), f.getStart());
+			assertEquals(e.getEnd(), f.getEnd());
+			assertEquals(e.getValue(), f.getValue(), 0.0);
+			count++;
+		}
+		assertFalse(a.hasNext());
+		assertEquals(FEATURES, count);
+	}
+}
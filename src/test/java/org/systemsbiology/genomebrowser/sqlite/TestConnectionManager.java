@@ -0,0 +1,144 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestConnectionManager {
+	private File file;
+	private ConnectionManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-connection-manager", ".hbgb");
+		file.delete();
+		manager = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath()));
+
+		Connection conn = manager.getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("create table foo (id integer, name text);");
+		s.execute("insert into foo values (1, 'one');");
+		s.execute("insert into foo values (2, 'two');");
+		s.close();
+		conn.close();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testReadConnectionsArePooled() throws Exception {
+		for (int i=0; i<10; i++) {
+			Connection conn = manager.getReadConnection();
+			assertEquals("two", lookup(conn, 2));
+			conn.close();
+		}
+		ConnectionManager.ConnectionStats stats = manager.getStats();
+		// one writer plus a single reader reused 10 times
+		assertEquals(2, stats.connectionsOpened);
+		assertEquals(10, stats.readCheckouts);
+		assertEquals(1, stats.statementMisses);
+		assertEquals(9, stats.statementHits);
+	}
+
+	@Test
+	public void testNestedReads() throws Exception {
+		Connection conn1 = manager.getReadConnection();
+		Connection conn2 = manager.getReadConnection();
+		assertEquals("one", lookup(conn1, 1));
+		assertEquals("two", lookup(conn2, 2));
+		conn2.close();
+		conn1.close();
+		assertEquals(2, manager.getStats().idleReadConnections);
+	}
+
+	@Test
+	public void testReusedStatementSeesWrites() throws Exception {
+		Connection conn = manager.getReadConnection();
+		assertEquals(null, lookup(conn, 3));
+		conn.close();
+
+		Connection writer = manager.getWriteConnection();
+		PreparedStatement ps = writer.prepareStatement("insert into foo values (?,?);");
+		ps.setInt(1, 3);
+		ps.setString(2, "three");
+		ps.executeUpdate();
+		ps.close();
+		writer.close();
+
+		conn = manager.getReadConnection();
+		assertEquals("three", lookup(conn, 3));
+		conn.close();
+	}
+
+	@Test
+	public void testReaderSeesNewTables() throws Exception {
+		Connection conn = manager.getReadConnection();
+		assertEquals("one", lookup(conn, 1));
+		conn.close();
+
+		Connection writer = manager.getWriteConnection();
+		Statement s = writer.createStatement();
+		s.execute("create table bar (id integer);");
+		s.execute("insert into bar values (42);");
+		s.close();
+		writer.close();
+
+		conn = manager.getReadConnection();
+		s = conn.createStatement();
+		ResultSet rs = s.executeQuery("select id from bar;");
+		assertTrue(rs.next());
+		assertEquals(42, rs.getInt(1));
+		rs.close();
+		s.close();
+		conn.close();
+	}
+
+	@Test
+	public void testUncommittedTransactionRolledBackOnRelease() throws Exception {
+		Connection writer = manager.getWriteConnection();
+		Statement s = writer.createStatement();
+		s.execute("begin transaction;");
+		s.execute("insert into foo values (4, 'four');");
+		s.close();
+		writer.close();
+
+		Connection conn = manager.getReadConnection();
+		assertEquals(null, lookup(conn, 4));
+		conn.close();
+	}
+
+	@Test(expected=SQLException.class)
+	public void testClosedHandleCantBeUsed() throws Exception {
+		Connection conn = manager.getReadConnection();
+		conn.close();
+		assertTrue(conn.isClosed());
+		conn.createStatement();
+	}
+
+	private String lookup(Connection conn, int id) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement("select name from foo where id=?;");
+		ResultSet rs = null;
+		try {
+			ps.setInt(1, id);
+			rs = ps.executeQuery();
+			return rs.next() ? rs.getString(1) : null;
+		}
+		finally {
+			if (rs != null) rs.close();
+			ps.close();
+		}
+	}
+}
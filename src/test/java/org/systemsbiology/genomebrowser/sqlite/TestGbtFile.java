@@ -0,0 +1,143 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Segment;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.model.Track;
+import static org.junit.Assert.*;
+
+
+/**
+ * Write a track to a .gbt sidecar file, add it to a dataset, and read it
+ * back through memory mapped blocks.
+ */
+public class TestGbtFile {
+	private static final int FEATURES = 25000;
+	private static final int LENGTH = FEATURES * 10 + 100;
+
+	private File file;
+	private File gbtFile;
+	private UUID datasetUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-gbt-file", ".hbgb");
+		file.delete();
+		gbtFile = new File(file.getParentFile(), file.getName().replace(".hbgb", GbtFile.EXTENSION));
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "test");
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr", LENGTH, Topology.linear);
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+		gbtFile.delete();
+	}
+
+	private void writeSegments() throws Exception {
+		GbtWriter writer = new GbtWriter(gbtFile, false, false, 10000);
+		for (Strand strand : new Strand[] {Strand.forward, Strand.reverse}) {
+			for (int i=0; i<FEATURES; i++) {
+				writer.add(1, "chr", strand, i * 10, i * 10 + 15, strand == Strand.forward ? i % 100 : -(i % 50));
+			}
+		}
+		writer.close();
+	}
+
+	@Test
+	public void testSegmentTrack() throws Exception {
+		writeSegments();
+		SqliteTrackImporter importer = new SqliteTrackImporter(file);
+		UUID trackUuid = importer.importSidecarTrack("sidecar", datasetUuid, gbtFile);
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		assertEquals(gbtFile.getName(), dataSource.loadTrackStub(trackUuid).tableName);
+
+		@SuppressWarnings("unchecked")
+		Track.Quantitative<Feature.Quantitative> track = (Track.Quantitative<Feature.Quantitative>)(Track<?>)dataSource.loadTrack(trackUuid);
+		assertTrue(track instanceof SegmentBlockTrack);
+		assertEquals(-49.0, track.getRange().min, 0.0);
+		assertEquals(99.0, track.getRange().max, 0.0);
+		assertEquals(2, track.strands().length);
+		// 2 strands of 25,000 features in blocks of 10,000
+		assertEquals(6, ((BlockTrack)track).getBlockIndex().size());
+
+		int count = 0;
+		for (Feature.Quantitative feature : track.features()) {
+			assertEquals(feature.getStart() + 15, feature.getEnd());
+			count++;
+		}
+		assertEquals(FEATURES * 2, count);
+
+		// a window spanning a block boundary on the forward strand
+		BasicSequence chr = new BasicSequence(UUID.randomUUID(), "chr", LENGTH, Topology.linear);
+		int expected = 0;
+		count = 0;
+		for (Feature.Quantitative feature : track.features(new FeatureFilter(chr, Strand.forward, 99000, 101000))) {
+			assertEquals(Strand.forward, feature.getStrand());
+			assertEquals((feature.getStart() / 10) % 100, feature.getValue(), 0.0);
+			count++;
+		}
+		for (int i=0; i<FEATURES; i++) {
+			if (i * 10 + 15 >= 99000 && i * 10 < 101000) expected++;
+		}
+		assertEquals(expected, count);
+
+		List<Segment> ranges = dataSource.getTrackCoordinateRange(trackUuid);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).start);
+		assertEquals((FEATURES-1) * 10 + 15, ranges.get(0).end);
+
+		// deleting the track leaves the sidecar in place
+		assertTrue(dataSource.deleteTrack(trackUuid));
+		assertTrue(gbtFile.exists());
+	}
+
+	@Test
+	public void testPositionalTrack() throws Exception {
+		GbtWriter writer = new GbtWriter(gbtFile, true, true, 4096);
+		for (int i=0; i<FEATURES; i++) {
+			writer.add(1, "chr", Strand.none, i * 10, i * 10, i / 7.0);
+		}
+		writer.close();
+
+		SqliteTrackImporter importer = new SqliteTrackImporter(file);
+		UUID trackUuid = importer.importSidecarTrack("positional", datasetUuid, gbtFile);
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		Track<Feature> track = dataSource.loadTrack(trackUuid);
+		assertTrue(((Object)track) instanceof PositionalBlockTrack);
+
+		BasicSequence chr = new BasicSequence(UUID.randomUUID(), "chr", LENGTH, Topology.linear);
+		int count = 0;
+		for (Feature feature : track.features(new FeatureFilter(chr, Strand.any, 200005, 200105))) {
+			assertEquals(feature.getStart() / 10 / 7.0, ((Feature.Quantitative)feature).getValue(), 0.0);
+			count++;
+		}
+		assertEquals(10, count);
+	}
+
+	@Test(expected=java.io.IOException.class)
+	public void testUnsortedFeatures() throws Exception {
+		GbtWriter writer = new GbtWriter(gbtFile, false, false);
+		try {
+			writer.add(1, "chr", Strand.forward, 100, 200, 1.0);
+			writer.add(1, "chr", Strand.forward, 50, 60, 1.0);
+		}
+		finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.FeatureFields;
+import org.systemsbiology.genomebrowser.model.FeatureProcessor;
+import org.systemsbiology.genomebrowser.model.FeatureSource;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.sqlite.SqliteDataSource.TrackStub;
+import org.systemsbiology.util.ProgressListener;
+import static org.junit.Assert.*;
+
+
+/**
+ * Checks that importing a track puts the write connection's pragmas back
+ * the way they were, whether the import succeeds or fails, and that the
+ * last, partly filled batch of features makes it into the database.
+ */
+public class TestImportPragmas {
+	private static final String[] PRAGMAS = {"journal_mode", "synchronous", "cache_size", "temp_store"};
+	private static final int BATCH_SIZE = 100;
+	private static final int FEATURES = 2503;
+
+	private File file;
+	private ConnectionManager manager;
+	private UUID datasetUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-import-pragmas", ".hbgb");
+		file.delete();
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "test");
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr1", FEATURES * 10, Topology.linear);
+		manager = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath()));
+
+		// settings an import wouldn't pick, so restoring the defaults
+		// doesn't pass for restoring these
+		Connection conn = manager.getWriteConnection();
+		try {
+			ImportPragmas.set(conn, "synchronous", "1");
+			ImportPragmas.set(conn, "cache_size", "1234");
+			ImportPragmas.set(conn, "temp_store", "1");
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testApplyAndRestore() throws Exception {
+		String[] before = pragmas();
+		Connection conn = manager.getWriteConnection();
+		try {
+			ImportPragmas pragmas = ImportPragmas.apply(conn, 5000);
+			assertEquals("0", ImportPragmas.get(conn, "synchronous"));
+			assertEquals("5000", ImportPragmas.get(conn, "cache_size"));
+			assertEquals("2", ImportPragmas.get(conn, "temp_store"));
+			pragmas.restore(conn);
+		}
+		finally {
+			conn.close();
+		}
+		assertArrayEquals(before, pragmas());
+	}
+
+	@Test
+	public void testPragmasRestoredAfterImport() throws Exception {
+		String[] before = pragmas();
+		SqliteTrackImporter importer = new SqliteTrackImporter(file);
+		importer.setBatchSize(BATCH_SIZE);
+		UUID trackUuid = importer.importQuantitativeSegmentTrack("segments", datasetUuid, new SegmentFeatureSource(-1));
+		assertArrayEquals(before, pragmas());
+
+		// FEATURES isn't a multiple of BATCH_SIZE, so the last batch is short
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		TrackStub stub = dataSource.loadTrackStub(trackUuid);
+		assertEquals(FEATURES, dataSource.countRows(stub.tableName));
+		assertEquals(FEATURES, dataSource.loadTrackMetadata(stub).featureCount);
+	}
+
+	@Test
+	public void testPragmasRestoredAfterFailedImport() throws Exception {
+		String[] before = pragmas();
+		SqliteTrackImporter importer = new SqliteTrackImporter(file);
+		importer.setBatchSize(BATCH_SIZE);
+		try {
+			importer.importQuantitativeSegmentTrack("broken", datasetUuid, new SegmentFeatureSource(FEATURES / 2));
+			fail("import should have failed");
+		}
+		catch (RuntimeException e) {
+			// expected
+		}
+		assertArrayEquals(before, pragmas());
+
+		// and the track was rolled back
+		assertEquals(0, count("select count(*) from tracks where name='broken';"));
+	}
+
+	private String[] pragmas() throws Exception {
+		String[] values = new String[PRAGMAS.length];
+		Connection conn = manager.getWriteConnection();
+		try {
+			for (int i=0; i<PRAGMAS.length; i++)
+				values[i] = ImportPragmas.get(conn, PRAGMAS[i]);
+		}
+		finally {
+			conn.close();
+		}
+		return values;
+	}
+
+	private int count(String sql) throws Exception {
+		Connection conn = manager.getReadConnection();
+		try {
+			Statement s = conn.createStatement();
+			ResultSet rs = s.executeQuery(sql);
+			assertTrue(rs.next());
+			int count = rs.getInt(1);
+			rs.close();
+			s.close();
+			return count;
+		}
+		finally {
+			conn.close();
+		}
+	}
+
+
+	/**
+	 * FEATURES ten base segments on chr1, in reverse order, throwing
+	 * after the given number of them unless it's negative.
+	 */
+	class SegmentFeatureSource implements FeatureSource {
+		private final int failAfter;
+
+		SegmentFeatureSource(int failAfter) {
+			this.failAfter = failAfter;
+		}
+
+		public void processFeatures(FeatureProcessor featureProcessor) throws Exception {
+			SegmentFeatureFields fields = new SegmentFeatureFields();
+			for (int i=0; i<FEATURES; i++) {
+				if (i == failAfter)
+					throw new Exception("failing on purpose after " + i + " features");
+				fields.start = (FEATURES - 1 - i) * 10;
+				featureProcessor.process(fields);
+			}
+		}
+
+		public void addProgressListener(ProgressListener progressListener) {}
+		public void removeProgressListener(ProgressListener progressListener) {}
+	}
+
+	static class SegmentFeatureFields implements FeatureFields {
+		int start;
+
+		public String getSequenceName() { return "chr1"; }
+		public String getStrand() { return "+"; }
+		public int getStart() { return start; }
+		public int getEnd() { return start + 9; }
+		public int getPosition() { return start + 5; }
+		public double getValue() { return start % 7; }
+		public String getName() { return null; }
+		public String getCommonName() { return null; }
+		public String getGeneType() { return null; }
+	}
+}
@@ -0,0 +1,119 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Topology;
+import org.systemsbiology.genomebrowser.model.Track;
+import static org.junit.Assert.*;
+
+
+/**
+ * A positional track whose row ids start past the range of an int, as
+ * they would at the far end of a single-base track of a human genome,
+ * without having to write billions of rows first.
+ * @see LongRowIdStressTest
+ * @see LongRowIdBenchmark
+ */
+public class TestLongRowIds {
+	private static final long FIRST_ROW_ID = 3000000001L;
+	private static final int FEATURES = 60000;
+
+	private File file;
+	private UUID datasetUuid = UUID.randomUUID();
+	private UUID trackUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-long-row-ids", ".hbgb");
+		file.delete();
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "test");
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr1", FEATURES, Topology.linear);
+
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("begin transaction;");
+		s.execute("create table features_far (sequences_id integer, strand text, position integer, value numeric);");
+		PreparedStatement ps = conn.prepareStatement("insert into features_far (rowid, sequences_id, strand, position, value) values (?, 1, '.', ?, ?);");
+		for (int i=0; i<FEATURES; i++) {
+			ps.setLong(1, FIRST_ROW_ID + i);
+			ps.setInt(2, i);
+			ps.setDouble(3, i % 1000);
+			ps.executeUpdate();
+		}
+		ps.close();
+		s.execute("insert into tracks values ('" + trackUuid + "', 'far', 'quantitative.positional', 'features_far');");
+		s.execute("insert into datasets_tracks values ('" + datasetUuid + "', '" + trackUuid + "');");
+		s.execute("commit;");
+		s.close();
+		conn.close();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testBlockSizing() {
+		// narrow features get bigger blocks than wide ones
+		int positional = BlockSizing.featuresPerBlock(BlockSizing.bytesPerFeature("quantitative.positional", 1));
+		int matrix = BlockSizing.featuresPerBlock(BlockSizing.bytesPerFeature("quantitative.segment.matrix", 40));
+		assertTrue(positional > matrix);
+		assertEquals(20480, BlockSizing.featuresPerBlock(16, BlockSizing.DEFAULT_TARGET_BYTES));
+		assertEquals(BlockSizing.MIN_FEATURES, BlockSizing.featuresPerBlock(1000000, 1024));
+		assertEquals(BlockSizing.MAX_FEATURES, BlockSizing.featuresPerBlock(1, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testFarRowIds() throws Exception {
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		Track<Feature> track = dataSource.loadTrack(trackUuid);
+		BlockIndex index = ((BlockTrack)(Object)track).getBlockIndex();
+
+		int blockSize = dataSource.getBlockSize(dataSource.loadTrackStub(trackUuid));
+		assertEquals((FEATURES + blockSize - 1) / blockSize, index.size());
+		long expectedFirst = FIRST_ROW_ID;
+		for (BlockKey key : index.keys()) {
+			assertEquals(expectedFirst, key.getFirstRowId());
+			assertTrue(key.getLastRowId() > Integer.MAX_VALUE);
+			expectedFirst = key.getLastRowId() + 1;
+		}
+		assertEquals(FIRST_ROW_ID + FEATURES, expectedFirst);
+
+		TrackMetadata metadata = dataSource.loadTrackMetadata(dataSource.loadTrackStub(trackUuid));
+		assertEquals(FEATURES, metadata.featureCount);
+
+		assertWindow(track);
+
+		// the same window read from columnar blocks
+		dataSource.writeBlockData(dataSource.loadTrackStub(trackUuid), index, BlockColumns.Encoding.DOUBLE);
+		ConnectionManager.close(file);
+		SqliteDataSource reopened = new SqliteDataSource(file);
+		Track<Feature> columnar = reopened.loadTrack(trackUuid);
+		assertTrue(reopened.hasBlockData(reopened.loadTrackStub(trackUuid)));
+		assertWindow(columnar);
+	}
+
+	private void assertWindow(Track<Feature> track) {
+		BasicSequence chr1 = new BasicSequence(UUID.randomUUID(), "chr1", FEATURES, Topology.linear);
+		int count = 0;
+		for (Feature feature : track.features(new FeatureFilter(chr1, Strand.any, FEATURES - 500, FEATURES))) {
+			assertEquals(feature.getStart() % 1000, ((Feature.Quantitative)feature).getValue(), 0.0);
+			count++;
+		}
+		assertEquals(500, count);
+	}
+}
@@ -0,0 +1,129 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.Range;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.Track;
+import static org.junit.Assert.*;
+
+
+/**
+ * Open a database with a version 1 schema, as written by older versions
+ * of the browser, and check that it gets migrated and that track metadata
+ * is filled in on first load.
+ */
+public class TestSchemaMigration {
+	private File file;
+	private ConnectionManager manager;
+	private UUID trackUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-schema-migration", ".hbgb");
+		file.delete();
+		manager = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath()));
+
+		Connection conn = manager.getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("create table sequences (id integer primary key, uuid text, name text, length integer, topology text);");
+		s.execute("create table tracks (uuid text primary key not null, name text not null, type text not null, table_name text not null);");
+		s.execute("create table attributes (uuid text not null, key text not null, value);");
+		s.execute("create table block_index (tracks_uuid text not null, sequences_id integer not null, seqId text not null, strand text not null, start integer not null, end integer not null, length integer not null, table_name text not null, first_row_id integer not null, last_row_id integer not null);");
+		s.execute("insert into sequences values (1, '" + UUID.randomUUID() + "', 'chr', 100000, 'linear');");
+		s.execute("insert into sequences values (2, '" + UUID.randomUUID() + "', 'plasmid', 10000, 'circular');");
+		s.execute("insert into tracks values ('" + trackUuid + "', 'test', 'quantitative.segment', 'features_test');");
+		s.execute("create table features_test (sequences_id integer, strand text, start integer, end integer, value numeric);");
+		s.execute("begin transaction;");
+		PreparedStatement ps = conn.prepareStatement("insert into features_test values (?, ?, ?, ?, ?);");
+		for (int seq=1; seq<=2; seq++) {
+			for (String strand : new String[] {"+", "-"}) {
+				for (int i=0; i<500; i++) {
+					ps.setInt(1, seq);
+					ps.setString(2, strand);
+					ps.setInt(3, i * 20);
+					ps.setInt(4, i * 20 + 30);
+					ps.setDouble(5, (i % 10) - 3.0);
+					ps.executeUpdate();
+				}
+			}
+		}
+		s.execute("commit;");
+		ps.close();
+		s.close();
+		conn.close();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testMigrateVersion1() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		SchemaMigration migration = new SchemaMigration();
+		assertEquals(1, migration.getVersion(conn));
+		assertTrue(migration.migrate(conn));
+		assertEquals(SchemaMigration.CURRENT_VERSION, migration.getVersion(conn));
+		assertFalse(migration.migrate(conn));
+		assertTrue(migration.tableExists(conn, "track_metadata"));
+		conn.close();
+	}
+
+	@Test
+	public void testMetadataCreatedOnFirstLoad() throws Exception {
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		Track<Feature> track = dataSource.loadTrack(trackUuid);
+
+		TrackMetadata metadata = dataSource.loadTrackMetadata(dataSource.loadTrackStub(trackUuid));
+		assertNotNull(metadata);
+		assertEquals(2000, metadata.featureCount);
+		assertEquals(-3.0, metadata.range.min, 0.0);
+		assertEquals(6.0, metadata.range.max, 0.0);
+		assertEquals(new HashSet<Strand>(Arrays.asList(Strand.forward, Strand.reverse)), new HashSet<Strand>(Arrays.asList(metadata.strands)));
+		assertEquals(new HashSet<Strand>(Arrays.asList(Strand.forward, Strand.reverse)), new HashSet<Strand>(Arrays.asList(track.strands())));
+
+		// block index covers each sequence and strand
+		int count = 0;
+		for (BlockKey key : ((BlockTrack)track).getBlockIndex().keys()) {
+			count += key.getFeatureCount();
+		}
+		assertEquals(2000, count);
+	}
+
+	@Test
+	public void testStoredMetadataIsUsed() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		new SchemaMigration().migrate(conn);
+		new TrackMetadata(trackUuid, new Range(-10.0, 10.0), 2000, new Strand[] {Strand.forward, Strand.reverse}).save(conn);
+		conn.close();
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		Track.Quantitative<?> track = (Track.Quantitative<?>)dataSource.loadTrack(trackUuid);
+		assertEquals(-10.0, track.getRange().min, 0.0);
+		assertEquals(10.0, track.getRange().max, 0.0);
+	}
+
+	@Test
+	public void testComputeMetadata() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		TrackMetadata metadata = TrackMetadata.compute(conn, trackUuid, "features_test", Arrays.asList("value"));
+		conn.close();
+		assertEquals(2000, metadata.featureCount);
+		assertEquals(-3.0, metadata.range.min, 0.0);
+		assertEquals(6.0, metadata.range.max, 0.0);
+		assertEquals(2, metadata.strands.length);
+	}
+}
@@ -2,6 +2,7 @@ package org.systemsbiology.genomebrowser.sqlite;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -58,7 +59,7 @@ public class TestSqliteTrackImporter {
 	}
 
 	@Test
-	public void testTrackImport() {
+	public void testTrackImport() throws Exception {
 		SqliteTrackImporter imp = new SqliteTrackImporter("jdbc:sqlite:test.hbgb");
 		UUID uuid = imp.importQuantitativeSegmentTrack("bogus", UUID.fromString("21676c27-782f-469d-972b-a0204ee295c9"), new TestFeatureSource());
 
@@ -67,6 +68,26 @@ public class TestSqliteTrackImporter {
 		assertEquals("bogus", stub.name);
 		assertEquals("quantitative.segment", stub.type);
 		assertEquals(100, ds.countRows(stub.tableName));
+
+		// the block index and metadata are stored by the import, and agree
+		// with what we'd get by scanning the features table
+		BlockIndex index = ds.loadBlockIndex(stub);
+		assertTrue(index.size() > 0);
+		long indexed = 0;
+		for (BlockKey key : index.keys())
+			indexed += key.getFeatureCount();
+		assertEquals(100, indexed);
+
+		TrackMetadata metadata = ds.loadTrackMetadata(stub);
+		assertNotNull(metadata);
+		Connection conn = DriverManager.getConnection("jdbc:sqlite:test.hbgb");
+		TrackMetadata computed = TrackMetadata.compute(conn, uuid, stub.tableName, Arrays.asList("value"));
+		conn.close();
+		assertEquals(computed.featureCount, metadata.featureCount);
+		assertEquals(computed.range.min, metadata.range.min, 0.0);
+		assertEquals(computed.range.max, metadata.range.max, 0.0);
+		assertArrayEquals(computed.strands, metadata.strands);
+
 		ds.deleteTrack(stub);
 	}
 
@@ -0,0 +1,133 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.systemsbiology.genomebrowser.model.BasicSequence;
+import org.systemsbiology.genomebrowser.model.Feature;
+import org.systemsbiology.genomebrowser.model.FeatureFilter;
+import org.systemsbiology.genomebrowser.model.Strand;
+import org.systemsbiology.genomebrowser.model.SummaryLevel;
+import org.systemsbiology.genomebrowser.model.Topology;
+import static org.junit.Assert.*;
+
+
+public class TestSummaryBuilder {
+	private static final int FEATURES = 20000;
+	private static final int SPACING = 20;
+	private static final int LENGTH = FEATURES * SPACING;
+
+	private File file;
+	private ConnectionManager manager;
+	private UUID trackUuid = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("test-summary-builder", ".hbgb");
+		file.delete();
+		manager = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath()));
+
+		Connection conn = manager.getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("create table sequences (id integer primary key, uuid text, name text, length integer, topology text);");
+		s.execute("insert into sequences values (1, '" + UUID.randomUUID() + "', 'chr', " + LENGTH + ", 'linear');");
+		s.execute("create table features_test (sequences_id integer, strand text, start integer, end integer, value numeric);");
+		s.execute("begin transaction;");
+		PreparedStatement ps = conn.prepareStatement("insert into features_test values (1, '+', ?, ?, ?);");
+		for (int i=0; i<FEATURES; i++) {
+			ps.setInt(1, i * SPACING);
+			ps.setInt(2, i * SPACING + SPACING/2);
+			ps.setDouble(3, i % 100);
+			ps.executeUpdate();
+		}
+		s.execute("commit;");
+		ps.close();
+		s.close();
+		conn.close();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionManager.close(file);
+		file.delete();
+	}
+
+	@Test
+	public void testLevels() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		int levels = new SummaryBuilder().buildSummaries(conn, trackUuid, "features_test", false);
+		conn.close();
+		assertTrue(levels > 1);
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		List<SummaryLevel> summaryLevels = dataSource.loadSummaryLevels(new SqliteDataSource.TrackStub(trackUuid, "test", "quantitative.segment", "features_test"));
+		assertEquals(levels, summaryLevels.size());
+
+		// about FACTOR features per bin at level 0, and each level FACTOR times coarser
+		assertEquals(SummaryBuilder.FACTOR * SPACING, summaryLevels.get(0).getBinSize(), 1);
+		for (int i=1; i<summaryLevels.size(); i++) {
+			assertEquals(summaryLevels.get(i-1).getBinSize() * SummaryBuilder.FACTOR, summaryLevels.get(i).getBinSize());
+		}
+
+		// every feature is counted exactly once at every level
+		BasicSequence chr = new BasicSequence(UUID.randomUUID(), "chr", LENGTH, Topology.linear);
+		FeatureFilter all = new FeatureFilter(chr, Strand.any, 0, LENGTH);
+		for (SummaryLevel level : summaryLevels) {
+			int count = 0;
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (Feature.Summary summary : level.features(all)) {
+				count += summary.getCount();
+				min = Math.min(min, summary.getMin());
+				max = Math.max(max, summary.getMax());
+			}
+			assertEquals(FEATURES, count);
+			assertEquals(0.0, min, 0.0);
+			assertEquals(99.0, max, 0.0);
+		}
+	}
+
+	@Test
+	public void testSelectLevel() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		new SummaryBuilder().buildSummaries(conn, trackUuid, "features_test", false);
+		conn.close();
+
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		List<SummaryLevel> summaryLevels = dataSource.loadSummaryLevels(new SqliteDataSource.TrackStub(trackUuid, "test", "quantitative.segment", "features_test"));
+
+		// zoomed in past level 0, draw the features themselves
+		assertNull(SqliteSummaryLevel.select(summaryLevels, 10.0));
+		assertSame(summaryLevels.get(0), SqliteSummaryLevel.select(summaryLevels, summaryLevels.get(0).getBinSize()));
+		assertSame(summaryLevels.get(1), SqliteSummaryLevel.select(summaryLevels, summaryLevels.get(1).getBinSize() * 2.0));
+
+		// a window a thousand bases wide reads only a handful of bins
+		BasicSequence chr = new BasicSequence(UUID.randomUUID(), "chr", LENGTH, Topology.linear);
+		SummaryLevel level = summaryLevels.get(0);
+		int bins = 0;
+		for (Feature.Summary summary : level.features(new FeatureFilter(chr, Strand.forward, 10000, 10999))) {
+			assertTrue(summary.getEnd() >= 10000 - level.getBinSize());
+			assertTrue(summary.getStart() <= 10999 + level.getBinSize());
+			bins++;
+		}
+		assertTrue(bins > 0 && bins <= 1000 / level.getBinSize() + 3);
+	}
+
+	@Test
+	public void testSmallTracksAreNotSummarized() throws Exception {
+		Connection conn = manager.getWriteConnection();
+		Statement s = conn.createStatement();
+		s.execute("delete from features_test where rowid > 100;");
+		s.close();
+		int levels = new SummaryBuilder().buildSummaries(conn, trackUuid, "features_test", false);
+		conn.close();
+		assertEquals(0, levels);
+	}
+}
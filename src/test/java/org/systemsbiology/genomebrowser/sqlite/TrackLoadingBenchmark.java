@@ -0,0 +1,134 @@
+package org.systemsbiology.genomebrowser.sqlite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.systemsbiology.genomebrowser.model.Topology;
+
+/**
+ * Times opening a synthetic dataset of many quantitative tracks with
+ * SqliteDataSource.loadTracks on 1, 2, 4... threads up to the number of
+ * processors, and reports the speedup over a single thread. Each thread
+ * count is timed twice: a cold open of a fresh copy of the file, which
+ * builds block indexes, track metadata, and summaries (mostly on the
+ * calling thread, since sqlite allows one writer), and a warm open of the
+ * same file afterwards, which only reads them and is the case that gets
+ * faster with more threads.
+ *
+ * Needs sqlite_create_tables.sql on the classpath (src/main/resources).
+ *
+ * usage: TrackLoadingBenchmark [tracks] [featuresPerTrack] [maxThreads]
+ */
+public class TrackLoadingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int features = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : cores;
+
+		File template = File.createTempFile("track-loading-benchmark", ".hbgb");
+		template.delete();
+		UUID datasetUuid = createDataset(template, tracks, features);
+		System.out.format("%d tracks x %,d features, %d processors%n", tracks, features, cores);
+
+		long coldBase = 0;
+		long warmBase = 0;
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		for (int threads=1; threads<maxThreads; threads*=2)
+			threadCounts.add(threads);
+		threadCounts.add(maxThreads);
+
+		for (int threads : threadCounts) {
+			File file = File.createTempFile("track-loading-benchmark-copy", ".hbgb");
+			copy(template, file);
+
+			long cold = time(file, datasetUuid, threads);
+			long warm = time(file, datasetUuid, threads);
+			if (threads == 1) {
+				coldBase = cold;
+				warmBase = warm;
+			}
+			System.out.format("threads=%2d  cold open %,7d ms (speedup %.2fx)  warm open %,7d ms (speedup %.2fx)%n",
+					threads, cold, ((double)coldBase) / cold, warm, ((double)warmBase) / warm);
+
+			ConnectionManager.close(file);
+			file.delete();
+		}
+		ConnectionManager.close(template);
+		template.delete();
+	}
+
+	private static long time(File file, UUID datasetUuid, int threads) {
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		long t0 = System.currentTimeMillis();
+		int n = dataSource.loadTracks(datasetUuid, threads).size();
+		long millis = System.currentTimeMillis() - t0;
+		if (n == 0)
+			throw new RuntimeException("no tracks loaded");
+		return millis;
+	}
+
+	private static UUID createDataset(File file, int tracks, int features) throws Exception {
+		SqliteDataSource dataSource = new SqliteDataSource(file);
+		UUID datasetUuid = UUID.randomUUID();
+		dataSource.createTablesAndWriteDatasetRecord(datasetUuid, "benchmark");
+		dataSource.writeSequence(datasetUuid, UUID.randomUUID(), "chr", features * 20, Topology.linear);
+
+		Connection conn = ConnectionManager.getInstance(SqliteDataSource.getConnectStringForFile(file.getAbsolutePath())).getWriteConnection();
+		try {
+			Statement s = conn.createStatement();
+			for (int t=0; t<tracks; t++) {
+				String table = "features_benchmark_" + t;
+				UUID trackUuid = UUID.randomUUID();
+				s.execute("begin transaction;");
+				s.execute("create table " + table + " (sequences_id integer, strand text, start integer, end integer, value numeric);");
+				PreparedStatement ps = conn.prepareStatement("insert into " + table + " values (1, ?, ?, ?, ?);");
+				for (String strand : new String[] {"+", "-"}) {
+					for (int i=0; i<features/2; i++) {
+						ps.setString(1, strand);
+						ps.setInt(2, i * 40);
+						ps.setInt(3, i * 40 + 60);
+						ps.setDouble(4, Math.sin(i / 100.0 + t));
+						ps.executeUpdate();
+					}
+				}
+				ps.close();
+				s.execute("insert into tracks values ('" + trackUuid + "', 'track " + t + "', 'quantitative.segment', '" + table + "');");
+				s.execute("insert into datasets_tracks values ('" + datasetUuid + "', '" + trackUuid + "');");
+				s.execute("commit;");
+			}
+			s.close();
+		}
+		finally {
+			conn.close();
+		}
+		ConnectionManager.close(file);
+		return datasetUuid;
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+	}
+}